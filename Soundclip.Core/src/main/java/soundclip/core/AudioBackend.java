@@ -0,0 +1,61 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core;
+
+import soundclip.core.cues.IAudioCue;
+import soundclip.core.cues.impl.FXAudioCue;
+import soundclip.core.cues.impl.SampledAudioCue;
+
+/**
+ * The playback engines available for audio cues
+ */
+public enum AudioBackend
+{
+    /** The JavaFX MediaPlayer ({@link FXAudioCue}) */
+    FX,
+    /** Low-latency playback through javax.sound.sampled ({@link SampledAudioCue}) */
+    SAMPLED;
+
+    /**
+     * Create a new audio cue backed by this engine
+     *
+     * @param number the number of the new cue
+     * @return the new cue
+     */
+    public IAudioCue create(CueNumber number)
+    {
+        switch(this)
+        {
+            case SAMPLED: return new SampledAudioCue(number);
+            default: return new FXAudioCue(number);
+        }
+    }
+
+    /** @return the backend that the specified cue is played with */
+    public static AudioBackend of(IAudioCue cue)
+    {
+        return cue instanceof SampledAudioCue ? SAMPLED : FX;
+    }
+
+    public static AudioBackend fromOrdinal(int ord)
+    {
+        switch(ord)
+        {
+            case 0: return FX;
+            case 1: return SAMPLED;
+            default: throw new IndexOutOfBoundsException();
+        }
+    }
+}
@@ -15,9 +15,14 @@
 package soundclip.core;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.ObservableSet;
 import javafx.collections.transformation.SortedList;
 import javafx.util.Duration;
 import org.apache.logging.log4j.LogManager;
@@ -26,13 +31,20 @@ import soundclip.core.cues.IAudioCue;
 import soundclip.core.cues.ICue;
 import soundclip.core.cues.IFadeableCue;
 import soundclip.core.cues.IProjectPathConsumer;
+import soundclip.core.cues.impl.CueBase;
 import soundclip.core.cues.impl.FXAudioCue;
 import soundclip.core.cues.impl.FadeCue;
 import soundclip.core.cues.impl.NoteCue;
+import soundclip.core.cues.impl.SampledAudioCue;
+import soundclip.core.interop.FXThread;
 import soundclip.core.interop.Signal;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 /**
  * A named, ordered, collection of cues
@@ -45,20 +57,56 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
     private String projectPath = null;
     private final ObservableList<ICue> backingList;
     private final SortedList<ICue> cues;
+
+    // The cues ordered by number, and the number each cue is ordered by. The sorted view is ordered
+    // by the same numbers, so a cue can be found in it with a binary search
+    private final TreeMap<CueNumber, ICue> index = new TreeMap<>();
+    private final IdentityHashMap<ICue, CueNumber> keys = new IdentityHashMap<>();
+
+    // The cues that are running, paused or waiting, kept up to date by the cues themselves. Cues
+    // that can't report their activity are always checked by transport operations
+    private final ObservableSet<ICue> activeCues = FXCollections.synchronizedObservableSet(
+            FXCollections.observableSet(Collections.newSetFromMap(new IdentityHashMap<>()))
+    );
+    private final ObservableSet<ICue> activeCuesView = FXCollections.unmodifiableObservableSet(activeCues);
+    private final ObservableSet<ICue> displayedActiveCues = FXThread.mirror(activeCues);
+    private final Set<ICue> untracked = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final IdentityHashMap<ICue, Long> activitySubscriptions = new IdentityHashMap<>();
+    private final IdentityHashMap<ICue, Long> editSubscriptions = new IdentityHashMap<>();
+    private final IdentityHashMap<ICue, Long> numberSubscriptions = new IdentityHashMap<>();
+
+    // Each tracked cue as it was last recorded for a save, until it's edited again
+    private final IdentityHashMap<ICue, TokenBuffer> records = new IdentityHashMap<>();
+
+    // Changes made during a batch, applied to the sorted view when the outermost batch ends
+    private int batchDepth = 0;
+    private final ArrayList<ICue> pendingAdded = new ArrayList<>();
+    private final ArrayList<ICue> pendingRemoved = new ArrayList<>();
+
     private Project project;
+    private volatile boolean dirty = false;
+    private final PreparationWindow preparation = new PreparationWindow(this);
 
     /** A signal that is triggered when the name of the cue list changes */
     public final Signal<String> onNameChanged = new Signal<>();
-    /** A signal that is triggered when a cue is added to the list */
+    /** A signal that is triggered when a single cue is added to the list. Not triggered for cues added in a batch */
     public final Signal<ICue> onCueAdded = new Signal<>();
-    /** A signal that is triggered when a cue is removed from the list */
+    /** A signal that is triggered when a single cue is removed from the list. Not triggered for cues removed in a batch */
     public final Signal<ICue> onCueRemoved = new Signal<>();
+    /** A signal that is triggered after every cue in the list is renumbered */
+    public final Signal<CueList> onRenumbered = new Signal<>();
+    /** A signal triggered when a cue in the list is edited */
+    public final Signal<ICue> onCueEdited = new Signal<>();
+    /** A signal that is triggered once with every cue added by an add or a batch, in the order they were added */
+    public final Signal<List<ICue>> onCuesAdded = new Signal<>();
+    /** A signal that is triggered once with every cue removed by a remove or a batch, in the order they were removed */
+    public final Signal<List<ICue>> onCuesRemoved = new Signal<>();
 
     public CueList()
     {
         backingList = FXCollections.observableArrayList();
         cues = new SortedList<>(backingList);
-        cues.setComparator(Comparator.comparing(ICue::getNumber));
+        cues.setComparator(Comparator.comparing(this::keyOf));
         name = "Untitled Cue List";
     }
 
@@ -71,6 +119,12 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
     public CueList(Set<ICue> cues)
     {
         this();
+
+        for(ICue c : cues)
+        {
+            index(c);
+            track(c);
+        }
         this.backingList.addAll(cues);
     }
 
@@ -80,23 +134,33 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
         this.name = name;
     }
 
-    /** Panic-stop all cues in the list */
+    /** Panic-stop all cues in the list. Cues that aren't running are left alone */
     public void panic(Duration duration, boolean hard)
     {
-        Log.debug("PANIC! {} (in list {})", hard ? "Hard-stopping all cues" : "Stopping all cues gracefully", name);
-        cues.forEach((cue) ->
+        int count = 0;
+        for(ICue cue : runningCandidates())
         {
+            if(!isActive(cue)) continue;
+
             if(hard || !(cue instanceof IFadeableCue))
             {
-                Log.debug("PANIC! Stopping {}", cue);
                 cue.stop();
             }
             else
             {
-                Log.debug("PANIC! Fading out {}", cue);
                 ((IFadeableCue)cue).fadeOut(duration);
             }
-        });
+
+            count++;
+        }
+
+        Log.debug("PANIC! {} {} cues (in list {})", hard ? "Hard-stopped" : "Stopped", count, name);
+    }
+
+    /** @return {@code true} if the cue is running, paused or waiting */
+    private static boolean isActive(ICue cue)
+    {
+        return cue.isPerformingAction() || cue.isPaused() || cue.isInPreWait() || cue.isInPostWait();
     }
 
     /**
@@ -105,7 +169,7 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
      */
     public void pauseRunningCues()
     {
-        cues.forEach((cue) -> {
+        runningCandidates().forEach((cue) -> {
             if(!cue.isPerformingAction()) return;
             if(CueSupportFlags.Supports(cue, CueSupportFlags.RESUME))
             {
@@ -123,7 +187,7 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
      */
     public void unpauseCues()
     {
-        cues.forEach((cue) -> {
+        runningCandidates().forEach((cue) -> {
             if(cue.isPaused())
             {
                 cue.resume();
@@ -139,16 +203,100 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
      */
     public void add(ICue cue)
     {
-        // Append .5 to the number if the cue number already exists in the list
-        if(cues.stream().filter(c -> c.getNumber().equals(cue.getNumber())).count() != 0)
+        index(cue);
+        track(cue);
+
+        if(batchDepth > 0)
         {
-            Log.warn("Duplicate cue found in list ({}). Appending .5 suffix", cue.getNumber());
-            cue.setNumber(new CueNumber(cue.getNumber(), 5));
+            pendingAdded.add(cue);
+            return;
         }
 
         backingList.add(cue);
+        dirty = true;
+        hook(cue);
 
         onCueAdded.post(cue);
+        onCuesAdded.post(Collections.singletonList(cue));
+    }
+
+    /**
+     * Add every cue to the list, re-sorting and notifying once. Cues with the same number as
+     * another cue in the list are suffixed as in {@link #add(ICue)}.
+     *
+     * @param cues the cues to insert
+     */
+    public void addAll(Collection<? extends ICue> cues)
+    {
+        batch((list) -> cues.forEach(list::add));
+    }
+
+    /**
+     * Remove every cue from the list, re-sorting and notifying once. Cues that aren't
+     * in the list are ignored.
+     *
+     * @param cues the cues to remove
+     */
+    public void removeAll(Collection<? extends ICue> cues)
+    {
+        batch((list) -> cues.forEach(list::remove));
+    }
+
+    /**
+     * Make several changes to the list as one. Cues are numbered and indexed as they are added
+     * or removed, so lookups by number see the changes straight away. The sorted list is updated,
+     * and {@link #onCuesRemoved} and {@link #onCuesAdded} are triggered, once the outermost batch
+     * ends. {@link #onCueAdded} and {@link #onCueRemoved} are not triggered.
+     *
+     * @param edits the changes to make, given this list
+     */
+    public void batch(Consumer<CueList> edits)
+    {
+        batchDepth++;
+        try
+        {
+            edits.accept(this);
+        }
+        finally
+        {
+            if(--batchDepth == 0) commitBatch();
+        }
+    }
+
+    private void commitBatch()
+    {
+        if(pendingAdded.isEmpty() && pendingRemoved.isEmpty()) return;
+
+        List<ICue> added = new ArrayList<>(pendingAdded);
+        List<ICue> removed = new ArrayList<>(pendingRemoved);
+        pendingAdded.clear();
+        pendingRemoved.clear();
+
+        // One change each, so the sorted view is only re-sorted twice
+        if(!removed.isEmpty())
+        {
+            Set<ICue> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+            gone.addAll(removed);
+            backingList.removeIf(gone::contains);
+        }
+        backingList.addAll(added);
+        dirty = true;
+
+        added.forEach(this::hook);
+
+        Log.debug("Applied batch to {} (+{} -{} cues)", name, added.size(), removed.size());
+        if(!removed.isEmpty()) onCuesRemoved.post(Collections.unmodifiableList(removed));
+        if(!added.isEmpty()) onCuesAdded.post(Collections.unmodifiableList(added));
+    }
+
+    /** Run the post-load hook for a cue added after the project has loaded */
+    private void hook(ICue cue)
+    {
+        // Cues loaded with the project are hooked once loading finishes
+        if(project != null && project.isLoaded() && cue instanceof IPostLoadHook)
+        {
+            ((IPostLoadHook)cue).onProjectLoaded(project);
+        }
     }
 
     /**
@@ -158,7 +306,8 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
      */
     public void remove(ICue cue)
     {
-        remove(cue.getNumber());
+        CueNumber key = keys.get(cue);
+        if(key != null) remove(key);
     }
 
     /**
@@ -168,13 +317,117 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
      */
     public void remove(CueNumber cue)
     {
-        Optional<ICue> removed = cues.stream().filter(c -> c.getNumber().equals(cue)).findFirst();
+        ICue removed = index.remove(cue);
+        if(removed == null) return;
+
+        keys.remove(removed);
+        untrack(removed);
+
+        if(batchDepth > 0)
+        {
+            // A cue added and removed in the same batch never reaches the sorted list
+            if(!pendingAdded.remove(removed)) pendingRemoved.add(removed);
+            return;
+        }
+
+        backingList.remove(removed);
+        dirty = true;
+        onCueRemoved.post(removed);
+        onCuesRemoved.post(Collections.singletonList(removed));
+    }
+
+    /**
+     * Renumber every cue in the list in its current order, in one pass. Whole numbers count up
+     * from {@param start} by {@param increment}.
+     *
+     * @param start the number of the first cue
+     * @param increment the difference between consecutive whole numbers
+     * @param preserveDecimals if {@code true}, cues that share a major number keep sharing one and
+     *                         keep the rest of their number, so 3, 3.5 and 4 become 1, 1.5 and 2.
+     *                         Otherwise every cue gets the next whole number
+     */
+    public void renumber(int start, int increment, boolean preserveDecimals)
+    {
+        if(start <= 0) throw new IllegalArgumentException("The first number must be positive");
+        if(increment <= 0) throw new IllegalArgumentException("The increment must be positive");
+        if(batchDepth > 0) throw new IllegalStateException("Cannot renumber a list during a batch");
+
+        // Work out every number before changing any, the list is sorted by the old numbers
+        final int count = cues.size();
+        ICue[] ordered = cues.toArray(new ICue[count]);
+        CueNumber[] numbers = new CueNumber[count];
+
+        long next = start;
+        int previousMajor = 0;
+        for(int i = 0; i < count; i++)
+        {
+            CueNumber old = keys.get(ordered[i]);
+            if(preserveDecimals && i > 0 && old.getMajorNumber() == previousMajor)
+            {
+                numbers[i] = old.withMajorNumber(numbers[i - 1].getMajorNumber());
+                continue;
+            }
+
+            if(next > Integer.MAX_VALUE) throw new IllegalArgumentException("The list has too many cues to renumber from " + start + " by " + increment);
+
+            previousMajor = old.getMajorNumber();
+            numbers[i] = preserveDecimals ? old.withMajorNumber((int) next) : new CueNumber((int) next);
+            next += increment;
+        }
+
+        applyNumbers(ordered, numbers);
+
+        Log.info("Renumbered {} cues in {} from {} by {}", count, name, start, increment);
+        onRenumbered.post(this);
+    }
+
+    /**
+     * Give every cue in the list, in its current order, the number at the same position. Used to
+     * replay a renumbering from the journal.
+     *
+     * @throws IllegalArgumentException if there isn't a number for every cue, or the numbers would change the order
+     */
+    void restoreNumbers(List<CueNumber> numbers)
+    {
+        if(batchDepth > 0) throw new IllegalStateException("Cannot renumber a list during a batch");
+        if(numbers.size() != cues.size()) throw new IllegalArgumentException("Expected " + cues.size() + " numbers but got " + numbers.size());
+
+        CueNumber[] restored = numbers.toArray(new CueNumber[numbers.size()]);
+        for(int i = 1; i < restored.length; i++)
+        {
+            if(restored[i - 1].compareTo(restored[i]) >= 0) throw new IllegalArgumentException("The numbers must be in ascending order");
+        }
+
+        applyNumbers(cues.toArray(new ICue[cues.size()]), restored);
+        onRenumbered.post(this);
+    }
 
-        if(removed.isPresent())
+    private void applyNumbers(ICue[] ordered, CueNumber[] numbers)
+    {
+        // The order doesn't change, so the sorted view stays sorted under the new keys. Keyed
+        // before the cue is told, so the cue's number change isn't mistaken for an edit
+        index.clear();
+        for(int i = 0; i < ordered.length; i++)
         {
-            backingList.remove(removed.get());
-            onCueRemoved.post(removed.get());
+            CueNumber number = numbers[i].intern();
+            index.put(number, ordered[i]);
+            keys.put(ordered[i], number);
+            ordered[i].setNumber(number);
         }
+
+        dirty = true;
+    }
+
+    /** @return the cue with the specified number, or {@code null} if there isn't one in the list */
+    public ICue get(CueNumber number)
+    {
+        return index.get(number);
+    }
+
+    /** @return {@code true} iff the list contains the specified cue */
+    public boolean contains(ICue cue)
+    {
+        return keys.containsKey(cue);
     }
 
     /** @return the name of the Cue List */
@@ -187,6 +440,7 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
     public void setName(String name)
     {
         this.name = name;
+        dirty = true;
 
         onNameChanged.post(name);
     }
@@ -201,7 +455,25 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
     public boolean isEmpty() { return cues.isEmpty(); }
 
     /** @return the index of the specified cue, or -1 if the cue is not in the list */
-    public int indexOf(ICue c) { return cues.indexOf(c); }
+    public int indexOf(ICue c)
+    {
+        CueNumber key = keys.get(c);
+        if(key == null) return -1;
+
+        int low = 0;
+        int high = cues.size() - 1;
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int cmp = keyOf(cues.get(mid)).compareTo(key);
+
+            if(cmp < 0) low = mid + 1;
+            else if(cmp > 0) high = mid - 1;
+            else return mid;
+        }
+
+        return -1;
+    }
 
     /** @return the first {@link ICue} in the list */
     public ICue first()
@@ -215,7 +487,7 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
      */
     public ICue previous(ICue c)
     {
-        int i = cues.indexOf(c);
+        int i = indexOf(c);
         if(i <= 0) return null;
 
         return cues.get(i-1);
@@ -227,7 +499,7 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
      */
     public ICue next(ICue c)
     {
-        int i = cues.indexOf(c);
+        int i = indexOf(c);
         if(i == cues.size() - 1 || i == -1) return null;
 
         return cues.get(i+1);
@@ -241,69 +513,312 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
 
     public SortedList<ICue> getCues() { return cues; }
 
+    /**
+     * @return the cues in the list that are running, paused or waiting, for transport operations.
+     * Changes may be reported on any thread, so controls should use {@link #getDisplayedActiveCues()}.
+     * Cues that don't extend {@link CueBase} can't report their activity and are never included
+     */
+    public ObservableSet<ICue> getActiveCues() { return activeCuesView; }
+
+    /** @return the {@link #getActiveCues() active cues}, changed only on the JavaFX application thread */
+    public ObservableSet<ICue> getDisplayedActiveCues() { return displayedActiveCues; }
+
+    /** Follow the activity of the cue so transport operations can skip it while it's idle, and forward its edits */
+    private void track(ICue cue)
+    {
+        if(!(cue instanceof CueBase))
+        {
+            untracked.add(cue);
+            return;
+        }
+
+        CueBase c = (CueBase) cue;
+        activitySubscriptions.put(cue, c.onActivityChanged.whenTriggered((changed) -> {
+            if(c.isActive()) activeCues.add(c);
+            else activeCues.remove(c);
+        }));
+        editSubscriptions.put(cue, c.onEdited.whenTriggered((edited) -> {
+            forget(edited);
+            dirty = true;
+            onCueEdited.post(edited);
+        }));
+        numberSubscriptions.put(cue, c.onNumberChanged.whenTriggered(this::numberChanged));
+
+        if(c.isActive()) activeCues.add(c);
+    }
+
+    private void untrack(ICue cue)
+    {
+        Long subscription = activitySubscriptions.remove(cue);
+        if(subscription != null) ((CueBase) cue).onActivityChanged.unsubscribe(subscription);
+        subscription = editSubscriptions.remove(cue);
+        if(subscription != null) ((CueBase) cue).onEdited.unsubscribe(subscription);
+        subscription = numberSubscriptions.remove(cue);
+        if(subscription != null) ((CueBase) cue).onNumberChanged.unsubscribe(subscription);
+        forget(cue);
+
+        untracked.remove(cue);
+        activeCues.remove(cue);
+    }
+
+    /** @return a snapshot of the cues that transport operations have to check */
+    private List<ICue> runningCandidates()
+    {
+        ArrayList<ICue> candidates;
+        synchronized (activeCues)
+        {
+            candidates = new ArrayList<>(activeCues);
+        }
+        candidates.addAll(untracked);
+
+        return candidates;
+    }
+
+    /**
+     * Index the cue before it's added to the backing list. If a cue with the same number exists
+     * in the list, the cue is suffixed with ".5"
+     */
+    private void index(ICue cue)
+    {
+        CueNumber number = cue.getNumber();
+        boolean duplicate = index.containsKey(number);
+        if(duplicate)
+        {
+            // Append .5 to the number until it's unique in the list
+            while(index.containsKey(number)) number = new CueNumber(number, 5);
+
+            Log.warn("Duplicate cue found in list ({}). Renumbering to {}", cue.getNumber(), number);
+        }
+
+        // Interned so comparisons between cues in the list usually succeed on identity
+        number = number.intern();
+        index.put(number, cue);
+        keys.put(cue, number);
+
+        if(duplicate) cue.setNumber(number);
+    }
+
+    /**
+     * Re-key a cue whose number was set directly rather than by {@link #renumber(int, int, boolean)},
+     * re-sort it and record the change like any other edit
+     */
+    private void numberChanged(ICue cue)
+    {
+        // Renumbered by the list or not, the recorded number is out of date
+        forget(cue);
+
+        CueNumber key = keys.get(cue);
+        if(key == null || key.equals(cue.getNumber())) return;
+
+        // Found under its old key, before it's re-keyed. Cues still pending in a batch aren't sorted yet
+        int sorted = indexOf(cue);
+
+        index.remove(key);
+        index(cue);
+
+        // Replacing the cue in the backing list moves it to its new place in the sorted view
+        if(sorted >= 0) backingList.set(cues.getSourceIndex(sorted), cue);
+
+        Log.debug("Cue {} in {} renumbered to {}", key, name, keys.get(cue));
+        dirty = true;
+        onCueEdited.post(cue);
+    }
+
+    /** @return the number the cue is ordered by */
+    private CueNumber keyOf(ICue cue)
+    {
+        CueNumber key = keys.get(cue);
+        return key == null ? cue.getNumber() : key;
+    }
+
+    /** @return {@code true} if the list or a cue in it has changed since the list was last saved */
+    public boolean isDirty()
+    {
+        return dirty;
+    }
+
+    /** Mark the list as changed or saved. Set by the project when it loads or records the list for a save */
+    void setDirty(boolean dirty)
+    {
+        this.dirty = dirty;
+    }
+
+    /** @return the window of cues around the current cue whose backends are kept prepared */
+    public PreparationWindow getPreparationWindow() { return preparation; }
+
     @Override
     public Iterator<ICue> iterator()
     {
         return cues.iterator();
     }
 
-    void load(JsonNode cueList)
+    /** Read and insert the cues in the array at the current token of the parser, one at a time */
+    void load(JsonParser p) throws IOException
+    {
+        finishLoad(read(p, Runnable::run));
+    }
+
+    /**
+     * Read the cues in the array at the current token of the parser. Each cue is read into a
+     * tree on its own, then built (and its media resolved) on the executor.
+     *
+     * @param p the parser, positioned at the start of the array of cues
+     * @param executor builds each cue
+     * @return the cues in the order they were read. Insert them with {@link #finishLoad(List)}
+     */
+    List<CompletableFuture<ICue>> read(JsonParser p, Executor executor) throws IOException
     {
         if(projectPath == null) throw new IllegalStateException("The project path has not been propagated to this cue list");
+        if(p.getCurrentToken() != JsonToken.START_ARRAY) throw new JsonParseException("Expected an array of cues", p.getCurrentLocation());
         Log.debug("Loading CueList {}", name);
 
         // name is initialized by the project
-        for(JsonNode cue : cueList.get("cues"))
+        List<CompletableFuture<ICue>> pending = new ArrayList<>();
+        while(p.nextToken() == JsonToken.START_OBJECT)
         {
-            CueNumber number = new CueNumber(cue.get("number").asText());
-            String typeName = cue.get("type").asText();
-            ICue c;
+            JsonNode cue = p.readValueAsTree();
+            pending.add(CompletableFuture.supplyAsync(() -> loadCue(cue), executor));
+        }
 
-            Log.debug("\tLoading Cue {} ({})", number, typeName);
+        return pending;
+    }
 
-            if(typeName.equals(FXAudioCue.class.getCanonicalName()))
-            {
-                c = new FXAudioCue(number);
-                ((IProjectPathConsumer)c).consumeProjectPath(projectPath);
-                c.load(cue);
-            }
-            else if(typeName.equals(NoteCue.class.getCanonicalName()))
-            {
-                c = new NoteCue(number);
-                c.load(cue);
-            }
-            else if(typeName.equals(FadeCue.class.getCanonicalName()))
+    /**
+     * Wait for the cues returned by {@link #read(JsonParser, Executor)} to be built and insert them in
+     * the order they were read, so numbering is the same no matter which cue was built first
+     */
+    void finishLoad(List<CompletableFuture<ICue>> pending)
+    {
+        List<ICue> loaded = new ArrayList<>(pending.size());
+        for(CompletableFuture<ICue> cue : pending)
+        {
+            try
             {
-                c = new FadeCue(number);
-                c.load(cue);
+                ICue c = cue.join();
+                if(c != null) loaded.add(c);
             }
-            else
+            catch (CompletionException e)
             {
-                Log.warn("Unable to load cue of type {} (Unknown cue type)", typeName);
-                continue;
+                // Surface the failure of the cue as if it was built on this thread
+                if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw e;
             }
+        }
+
+        addAll(loaded);
+    }
+
+    /** @return the cue described by the node, or {@code null} if the type of the cue is unknown */
+    ICue loadCue(JsonNode cue)
+    {
+        if(!cue.has("number")) throw new MissingFieldException("number", "A cue in " + name);
+        if(!cue.has("type")) throw new MissingFieldException("type", "Cue " + cue.get("number").asText() + " in " + name);
+
+        CueNumber number = new CueNumber(cue.get("number").asText()).intern();
+        String typeName = cue.get("type").asText();
+        ICue c;
 
-            add(c);
+        Log.debug("\tLoading Cue {} ({})", number, typeName);
+
+        if(typeName.equals(FXAudioCue.class.getCanonicalName()))
+        {
+            c = new FXAudioCue(number);
+            ((IProjectPathConsumer)c).consumeProjectPath(projectPath);
+            c.load(cue);
+        }
+        else if(typeName.equals(SampledAudioCue.class.getCanonicalName()))
+        {
+            c = new SampledAudioCue(number);
+            ((IProjectPathConsumer)c).consumeProjectPath(projectPath);
+            c.load(cue);
         }
+        else if(typeName.equals(NoteCue.class.getCanonicalName()))
+        {
+            c = new NoteCue(number);
+            c.load(cue);
+        }
+        else if(typeName.equals(FadeCue.class.getCanonicalName()))
+        {
+            c = new FadeCue(number);
+            c.load(cue);
+        }
+        else
+        {
+            Log.warn("Unable to load cue of type {} (Unknown cue type)", typeName);
+            return null;
+        }
+
+        return c;
     }
 
-    void serialize(JsonGenerator w) throws IOException
+
+    /**
+     * Record the list as it is now, to be written later on another thread. Cues that haven't
+     * changed since they were last recorded share that record, so only edited cues are serialized.
+     */
+    Recording record() throws IOException
     {
-        Log.debug("Writing cue list '{}'", name);
-        w.writeStartObject();
+        List<TokenBuffer> recorded = new ArrayList<>(cues.size());
+        synchronized (records)
         {
-            w.writeStringField("name", name);
-            w.writeArrayFieldStart("cues");
+            for(ICue c : this)
             {
-                for(ICue c : this)
+                TokenBuffer r = records.get(c);
+                if(r == null)
                 {
-                    Log.debug("\tWriting cue {}", c);
-                    c.serialize(w);
+                    r = new TokenBuffer(null, false);
+                    c.serialize(r);
+                    r.close();
+
+                    // Cues that don't report their edits are recorded every time
+                    if(!untracked.contains(c)) records.put(c, r);
                 }
+                recorded.add(r);
             }
-            w.writeEndArray();
         }
-        w.writeEndObject();
+
+        return new Recording(name, recorded);
+    }
+
+    /** Drop the record of a cue that changed */
+    private void forget(ICue cue)
+    {
+        synchronized (records)
+        {
+            records.remove(cue);
+        }
+    }
+
+    /** A list recorded by {@link #record()}. Nothing in it changes once it's recorded */
+    static final class Recording
+    {
+        private final String name;
+        private final List<TokenBuffer> cues;
+
+        private Recording(String name, List<TokenBuffer> cues)
+        {
+            this.name = name;
+            this.cues = cues;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        /** Write the list with its name and cues */
+        void serialize(JsonGenerator w) throws IOException
+        {
+            Log.debug("Writing cue list '{}'", name);
+            w.writeStartObject();
+            {
+                w.writeStringField("name", name);
+                w.writeArrayFieldStart("cues");
+                for(TokenBuffer c : cues) c.serialize(w);
+                w.writeEndArray();
+            }
+            w.writeEndObject();
+        }
     }
 
     @Override
@@ -318,6 +833,12 @@ public class CueList implements Iterable<ICue>, AutoCloseable, IProjectPathConsu
         }
     }
 
+    /** Set the project that owns this list */
+    void setProject(Project project)
+    {
+        this.project = project;
+    }
+
     @Override
     public void consumeProjectPath(String path)
     {
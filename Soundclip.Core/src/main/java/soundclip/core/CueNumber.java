@@ -14,18 +14,33 @@
 // along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package soundclip.core;
 
-import java.util.ArrayList;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Cue Numbers are comprised of one or more non-negative integers separated by a dot (".").
  *
  * The most significant part is the leftmost part. Therefore, 1.0.1 < 1.0 and so on.
+ *
+ * Numbers are immutable. Numbers with up to {@value #PACKED_PARTS} parts that each fit in
+ * {@value #PACKED_BITS} bits are also packed into a single {@code long} that sorts the same way,
+ * so most comparisons are a single primitive compare.
  */
 public class CueNumber implements Comparable<CueNumber>
 {
-    private final ArrayList<Integer> parts;
+    /** The number of parts that are packed into the sort key */
+    private static final int PACKED_PARTS = 4;
+    /** The number of bits each packed part takes in the sort key */
+    private static final int PACKED_BITS = 15;
+    private static final int PACKED_MAX = (1 << PACKED_BITS) - 1;
+
+    private static final ConcurrentHashMap<CueNumber, CueNumber> interned = new ConcurrentHashMap<>();
+
+    private final int[] parts;
     private final String toString;
+    private final int hashCode;
+    /** The parts packed most significant first, or -1 if they don't fit */
+    private final long sortKey;
 
     /**
      * Construct a Cue Number from the specified integers. The 0th integer
@@ -35,23 +50,25 @@ public class CueNumber implements Comparable<CueNumber>
      */
     public CueNumber(int...fromInts)
     {
-        parts = new ArrayList<>(fromInts.length);
+        int[] parts = concat(null, fromInts);
 
-        for(int i : fromInts)
-        {
-            if(i < 0) throw new IllegalArgumentException("All parts must be positive");
-            parts.add(i);
-        }
+        // Trailing zeros don't change the number
+        int length = parts.length;
+        while(length > 0 && parts[length - 1] == 0) length--;
 
-        for(int i = parts.size() - 1; i >= 0; i--)
-        {
-            if(parts.get(i) != 0) break;
+        if(length == 0) throw new IllegalArgumentException("No number provided");
 
-            parts.remove(i);
-        }
+        this.parts = length == parts.length ? parts : Arrays.copyOf(parts, length);
+        this.hashCode = Arrays.hashCode(this.parts);
+        this.sortKey = pack(this.parts);
 
-        if(parts.size() == 0) throw new IllegalArgumentException("No number provided");
-        toString = parts.stream().map(Object::toString).collect(Collectors.joining("."));
+        StringBuilder b = new StringBuilder(length * 3);
+        for(int i = 0; i < length; i++)
+        {
+            if(i > 0) b.append('.');
+            b.append(this.parts[i]);
+        }
+        this.toString = b.toString();
     }
 
     /**
@@ -62,28 +79,7 @@ public class CueNumber implements Comparable<CueNumber>
      */
     public CueNumber(String fromString)
     {
-        if(fromString.trim().isEmpty()) throw new IllegalArgumentException("No number provided");
-
-        String[] stringParts = fromString.split("\\.");
-        parts = new ArrayList<>(stringParts.length);
-
-        for(String s : stringParts)
-        {
-            int i = Integer.parseInt(s);
-
-            if(i < 0) throw new IllegalArgumentException("All parts must be positive");
-            parts.add(i);
-        }
-
-        for(int i = this.parts.size() - 1; i >= 0; i--)
-        {
-            if(this.parts.get(i) != 0) break;
-
-            this.parts.remove(i);
-        }
-
-        if(parts.size() == 0) throw new IllegalArgumentException("No number provided");
-        toString = parts.stream().map(Object::toString).collect(Collectors.joining("."));
+        this(parse(null, checkNotEmpty(fromString, "No number provided")));
     }
 
     /**
@@ -94,25 +90,7 @@ public class CueNumber implements Comparable<CueNumber>
      */
     public CueNumber(CueNumber prefix, int...suffix)
     {
-        if(suffix.length == 0) throw new IllegalArgumentException("No suffix provided");
-
-        parts = new ArrayList<>(prefix.parts.size() + suffix.length);
-        parts.addAll(prefix.parts);
-
-        for(int i : suffix)
-        {
-            if(i < 0) throw new IllegalArgumentException("All parts must be positive");
-            parts.add(i);
-        }
-
-        for(int i = parts.size() - 1; i >= 0; i--)
-        {
-            if(parts.get(i) != 0) break;
-
-            parts.remove(i);
-        }
-
-        toString = parts.stream().map(Object::toString).collect(Collectors.joining("."));
+        this(concat(prefix.parts, checkNotEmpty(suffix)));
     }
 
     /**
@@ -124,34 +102,38 @@ public class CueNumber implements Comparable<CueNumber>
      */
     public CueNumber(CueNumber prefix, String suffix)
     {
-        if(suffix.length() == 0) throw new IllegalArgumentException("No suffix provided");
-
-        String[] stringParts = suffix.split("\\.");
-        parts = new ArrayList<>(prefix.parts.size() + stringParts.length);
-        parts.addAll(prefix.parts);
-
-        for(String s : stringParts)
-        {
-            int i = Integer.parseInt(s);
-
-            if(i < 0) throw new IllegalArgumentException("All parts must be positive");
-            parts.add(i);
-        }
-
-        for(int i = this.parts.size() - 1; i >= 0; i--)
-        {
-            if(this.parts.get(i) != 0) break;
-
-            this.parts.remove(i);
-        }
+        this(parse(prefix.parts, suffix.length() == 0 ? checkNotEmpty(suffix, "No suffix provided") : suffix));
+    }
 
-        toString = parts.stream().map(Object::toString).collect(Collectors.joining("."));
+    /**
+     * Get the canonical instance of this number. Interned numbers that are equal are the same
+     * instance, so they compare and hash by reference.
+     *
+     * @return the canonical instance of this number
+     */
+    public CueNumber intern()
+    {
+        CueNumber existing = interned.putIfAbsent(this, this);
+        return existing == null ? this : existing;
     }
 
     /** @return The first part of the cue number */
     public int getMajorNumber()
     {
-        return parts.get(0);
+        return parts[0];
+    }
+
+    /**
+     * @param major the new first part of the number
+     * @return this number with the first part replaced. The remaining parts are unchanged
+     */
+    public CueNumber withMajorNumber(int major)
+    {
+        if(major == parts[0]) return this;
+
+        int[] replaced = parts.clone();
+        replaced[0] = major;
+        return new CueNumber(replaced);
     }
 
     @Override
@@ -166,20 +148,135 @@ public class CueNumber implements Comparable<CueNumber>
         if(o == null) throw new NullPointerException("The other cue is null");
         if(o == this) return 0;
 
-        int compare;
-        for(int i=0; i < Math.min(parts.size(), o.parts.size()); i++)
-        {
-            compare = parts.get(i).compareTo(o.parts.get(i));
+        if(sortKey >= 0 && o.sortKey >= 0) return Long.compare(sortKey, o.sortKey);
 
-            if(compare != 0) return compare;
+        int length = Math.min(parts.length, o.parts.length);
+        for(int i = 0; i < length; i++)
+        {
+            if(parts[i] != o.parts[i]) return parts[i] < o.parts[i] ? -1 : 1;
         }
 
-        return parts.size() == o.parts.size() ? 0 : parts.size() > o.parts.size() ? 1 : -1;
+        return Integer.compare(parts.length, o.parts.length);
     }
 
     @Override
     public boolean equals(Object o)
     {
-        return o == this || (o instanceof CueNumber && ((CueNumber)o).parts.equals(this.parts));
+        if(o == this) return true;
+        if(!(o instanceof CueNumber)) return false;
+
+        CueNumber other = (CueNumber) o;
+        return hashCode == other.hashCode && Arrays.equals(parts, other.parts);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    /**
+     * Pack the parts into a key that sorts like the number. Missing parts are packed as zero,
+     * which sorts correctly because the last part of a number is never zero.
+     */
+    private static long pack(int[] parts)
+    {
+        if(parts.length > PACKED_PARTS) return -1;
+
+        long key = 0;
+        for(int i = 0; i < PACKED_PARTS; i++)
+        {
+            int part = i < parts.length ? parts[i] : 0;
+            if(part > PACKED_MAX) return -1;
+
+            key = (key << PACKED_BITS) | part;
+        }
+
+        return key;
+    }
+
+    private static int[] concat(int[] prefix, int[] suffix)
+    {
+        int offset = prefix == null ? 0 : prefix.length;
+        int[] parts = new int[offset + suffix.length];
+        if(prefix != null) System.arraycopy(prefix, 0, parts, 0, offset);
+
+        for(int i = 0; i < suffix.length; i++)
+        {
+            if(suffix[i] < 0) throw new IllegalArgumentException("All parts must be positive");
+            parts[offset + i] = suffix[i];
+        }
+
+        return parts;
+    }
+
+    /** Parse the dot-separated parts of the string after the prefix */
+    private static int[] parse(int[] prefix, String s)
+    {
+        // Trailing separators are ignored, like String.split
+        int length = s.length();
+        while(length > 0 && s.charAt(length - 1) == '.') length--;
+
+        int count = length == 0 ? 0 : 1;
+        for(int i = 0; i < length; i++)
+        {
+            if(s.charAt(i) == '.') count++;
+        }
+
+        int offset = prefix == null ? 0 : prefix.length;
+        int[] parts = new int[offset + count];
+        if(prefix != null) System.arraycopy(prefix, 0, parts, 0, offset);
+
+        int start = 0;
+        for(int p = offset; p < parts.length; p++)
+        {
+            int end = s.indexOf('.', start);
+            if(end < 0 || end > length) end = length;
+
+            parts[p] = parsePart(s, start, end);
+            start = end + 1;
+        }
+
+        return parts;
+    }
+
+    private static int parsePart(String s, int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if(i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+        {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+
+        if(i == end) throw new NumberFormatException("For input string: \"" + s.substring(start, end) + "\"");
+
+        int value = 0;
+        for(; i < end; i++)
+        {
+            int digit = s.charAt(i) - '0';
+            if(digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10)
+            {
+                throw new NumberFormatException("For input string: \"" + s.substring(start, end) + "\"");
+            }
+
+            value = value * 10 + digit;
+        }
+
+        if(negative && value != 0) throw new IllegalArgumentException("All parts must be positive");
+        return value;
+    }
+
+    private static String checkNotEmpty(String s, String message)
+    {
+        if(s.trim().isEmpty()) throw new IllegalArgumentException(message);
+        return s;
+    }
+
+    private static int[] checkNotEmpty(int[] suffix)
+    {
+        if(suffix.length == 0) throw new IllegalArgumentException("No suffix provided");
+        return suffix;
     }
 }
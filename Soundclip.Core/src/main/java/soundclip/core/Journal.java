@@ -0,0 +1,473 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import soundclip.core.cues.ICue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An append-only log of the edits made to a project since it was last saved, stored next to
+ * the project so edits survive a crash without rewriting the whole project.
+ *
+ * Each record is a single line of JSON with a sequence number. Cue edits record the whole cue,
+ * and everything else records only what changed. The project stores the sequence number of the
+ * last record it includes, so records that made it into a save are skipped when the journal is
+ * replayed, even if the save finished but the journal wasn't trimmed. Once the journal grows
+ * past {@link #getCompactionThreshold()} bytes the project is saved in the background, which
+ * folds the journal into the project.
+ *
+ * Records are written straight to the file without being synced, so they survive the
+ * application crashing but not necessarily the machine losing power.
+ */
+public class Journal implements AutoCloseable
+{
+    private static Logger Log = LogManager.getLogger(Journal.class);
+
+    /** The suffix appended to the project path to name the journal */
+    public static final String EXTENSION = ".journal";
+
+    /** The default size, in bytes, the journal can grow to before it's folded into the project */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 1024 * 1024;
+
+    private static final JsonFactory JSON = new ObjectMapper().getFactory();
+
+    @FunctionalInterface
+    private interface Body
+    {
+        void write(JsonGenerator w) throws IOException;
+    }
+
+    private final Project project;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+    private final IdentityHashMap<CueList, long[]> subscriptions = new IdentityHashMap<>();
+
+    private FileChannel channel;
+    private volatile long sequence = 0;
+    private long length = 0;
+    private long discarded = 0;
+    private boolean recording = false;
+    private volatile long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    private volatile boolean compacting = false;
+
+    Journal(Project project)
+    {
+        this.project = project;
+    }
+
+    /** @return the file the journal is stored in */
+    public File getPath()
+    {
+        return new File(project.getPath() + EXTENSION);
+    }
+
+    /** @return the sequence number of the last record written or replayed */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /** @return the size of the journal in bytes */
+    public synchronized long getLength()
+    {
+        return length;
+    }
+
+    /** @return the position of the end of the journal, for {@link #discard(long)} */
+    synchronized long mark()
+    {
+        return discarded + length;
+    }
+
+    /** @return the size, in bytes, the journal can grow to before it's folded into the project */
+    public long getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
+
+    /** Set the size, in bytes, the journal can grow to before it's folded into the project */
+    public void setCompactionThreshold(long compactionThreshold)
+    {
+        if(compactionThreshold <= 0) throw new IllegalArgumentException("The compaction threshold must be positive");
+
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Apply the records newer than the last save to the project. Called while the project loads,
+     * after the project file has been read and before the post-load hooks run. A record that was
+     * only partly written when the application stopped ends the replay, and is removed from the
+     * journal before anything else is appended.
+     *
+     * @param saved the sequence number of the last record included in the project file
+     * @return the number of records applied
+     */
+    synchronized int replay(long saved) throws IOException
+    {
+        sequence = saved;
+
+        File f = getPath();
+        if(!f.isFile()) return 0;
+
+        int applied = 0;
+        try(JsonParser p = JSON.createParser(f))
+        {
+            while(true)
+            {
+                JsonNode r;
+                try
+                {
+                    if(p.nextToken() != JsonToken.START_OBJECT) break;
+                    r = p.readValueAsTree();
+                }
+                catch (JsonProcessingException e)
+                {
+                    Log.warn("Ignoring the incomplete record at the end of the journal", e);
+                    break;
+                }
+
+                length = p.getCurrentLocation().getByteOffset();
+
+                long seq = r.get("seq").asLong();
+                if(seq <= saved) continue;
+                sequence = Math.max(sequence, seq);
+
+                try
+                {
+                    apply(r);
+                    applied++;
+                }
+                catch (RuntimeException e)
+                {
+                    Log.error("Unable to replay journal record {}", seq, e);
+                }
+            }
+        }
+
+        Log.info("Replayed {} edits from the journal", applied);
+        return applied;
+    }
+
+    private void apply(JsonNode r) throws IOException
+    {
+        String op = r.get("op").asText();
+        switch(op)
+        {
+            case "project":
+                try(JsonParser p = r.get("properties").traverse())
+                {
+                    p.nextToken();
+                    while(p.nextToken() == JsonToken.FIELD_NAME)
+                    {
+                        String field = p.getCurrentName();
+                        p.nextToken();
+                        if(!project.readProperty(field, p)) p.skipChildren();
+                    }
+                }
+                return;
+            case "addList":
+                project.appendCueList(r.get("name").asText());
+                return;
+            case "removeList":
+                project.removeCueList(project.getCueList(r.get("list").asInt()));
+                return;
+        }
+
+        CueList list = project.getCueList(r.get("list").asInt());
+        switch(op)
+        {
+            case "renameList":
+                list.setName(r.get("name").asText());
+                break;
+            case "add":
+                list.addAll(rebuild(list, r.get("cues")));
+                break;
+            case "cue":
+                list.addAll(rebuild(list, Collections.singletonList(r.get("cue"))));
+                break;
+            case "remove":
+            {
+                List<ICue> removed = new ArrayList<>();
+                for(JsonNode guid : r.get("cues"))
+                {
+                    ICue c = project.resolveCue(UUID.fromString(guid.asText()));
+                    if(c != null) removed.add(c);
+                }
+                list.removeAll(removed);
+                break;
+            }
+            case "renumber":
+            {
+                List<CueNumber> numbers = new ArrayList<>();
+                for(JsonNode n : r.get("numbers")) numbers.add(new CueNumber(n.asText()));
+                list.restoreNumbers(numbers);
+                break;
+            }
+            default:
+                Log.warn("Skipping journal record of unknown type {}", op);
+                break;
+        }
+    }
+
+    /**
+     * Build the cues described by the nodes, removing the cues they replace from the list. A cue
+     * that already exists is replaced rather than added again, so records can be applied twice.
+     */
+    private List<ICue> rebuild(CueList list, Iterable<JsonNode> cues)
+    {
+        List<ICue> built = new ArrayList<>();
+        for(JsonNode node : cues)
+        {
+            ICue existing = node.has("guid") ? project.resolveCue(UUID.fromString(node.get("guid").asText())) : null;
+            if(existing != null) list.remove(existing);
+
+            ICue c = list.loadCue(node);
+            if(c != null) built.add(c);
+        }
+
+        return built;
+    }
+
+    /** Start recording edits to the project and every list in it. Called once the project has loaded */
+    synchronized void start()
+    {
+        recording = true;
+        for(CueList list : project) attach(list);
+    }
+
+    /** @return {@code true} once edits are being recorded */
+    synchronized boolean isRecording()
+    {
+        return recording;
+    }
+
+    /** Record edits to the list */
+    synchronized void attach(CueList list)
+    {
+        subscriptions.put(list, new long[] {
+            list.onCuesAdded.whenTriggered((cues) -> append("add", list, (w) -> {
+                w.writeArrayFieldStart("cues");
+                for(ICue c : cues) c.serialize(w);
+                w.writeEndArray();
+            })),
+            list.onCuesRemoved.whenTriggered((cues) -> append("remove", list, (w) -> {
+                w.writeArrayFieldStart("cues");
+                for(ICue c : cues) if(c.getGUID() != null) w.writeString(c.getGUID().toString());
+                w.writeEndArray();
+            })),
+            list.onCueEdited.whenTriggered((cue) -> append("cue", list, (w) -> {
+                w.writeFieldName("cue");
+                cue.serialize(w);
+            })),
+            list.onNameChanged.whenTriggered((name) -> append("renameList", list, (w) -> w.writeStringField("name", name))),
+            list.onRenumbered.whenTriggered((l) -> append("renumber", list, (w) -> {
+                w.writeArrayFieldStart("numbers");
+                for(ICue c : l) w.writeString(c.getNumber().toString());
+                w.writeEndArray();
+            }))
+        });
+    }
+
+    /** Record that the list was added to the end of the project */
+    void cueListAdded(CueList list)
+    {
+        append("addList", (w) -> w.writeStringField("name", list.getName()));
+    }
+
+    /** Stop recording edits to the list, and record that it was removed from the specified position */
+    void cueListRemoved(CueList list, int index)
+    {
+        long[] ids;
+        synchronized (this)
+        {
+            ids = subscriptions.remove(list);
+        }
+
+        if(ids != null)
+        {
+            list.onCuesAdded.unsubscribe(ids[0]);
+            list.onCuesRemoved.unsubscribe(ids[1]);
+            list.onCueEdited.unsubscribe(ids[2]);
+            list.onNameChanged.unsubscribe(ids[3]);
+            list.onRenumbered.unsubscribe(ids[4]);
+        }
+
+        append("removeList", (w) -> w.writeNumberField("list", index));
+    }
+
+    /** Record the current properties of the project */
+    void projectChanged()
+    {
+        append("project", (w) -> {
+            w.writeObjectFieldStart("properties");
+            project.writeProperties(w);
+            w.writeEndObject();
+        });
+    }
+
+    private void append(String op, CueList list, Body body)
+    {
+        // The list is removed from the project before the removal is recorded
+        int index = project.indexOf(list);
+        if(index < 0) return;
+
+        append(op, (w) -> {
+            w.writeNumberField("list", index);
+            body.write(w);
+        });
+    }
+
+    private void append(String op, Body body)
+    {
+        synchronized (this)
+        {
+            if(!recording) return;
+
+            long seq = ++sequence;
+            try
+            {
+                record.reset();
+                try(JsonGenerator w = JSON.createGenerator(record, JsonEncoding.UTF8))
+                {
+                    w.writeStartObject();
+                    w.writeNumberField("seq", seq);
+                    w.writeStringField("op", op);
+                    body.write(w);
+                    w.writeEndObject();
+                }
+                record.write('\n');
+
+                if(channel == null) open();
+
+                ByteBuffer b = ByteBuffer.wrap(record.toByteArray());
+                while(b.hasRemaining()) channel.write(b);
+                length += record.size();
+            }
+            catch (IOException e)
+            {
+                // The edit is still in the project, it just won't survive a crash until the next save
+                Log.error("Unable to journal {} ({})", op, seq, e);
+                return;
+            }
+
+            if(length < compactionThreshold || compacting) return;
+            compacting = true;
+        }
+
+        Log.debug("Journal is {} bytes, folding it into the project", length);
+        project.saveAsync().whenComplete((v, e) -> compacting = false);
+    }
+
+    /** Open the journal for appending, dropping anything past the last complete record */
+    private void open() throws IOException
+    {
+        channel = FileChannel.open(getPath().toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.truncate(length);
+        channel.position(length);
+    }
+
+    /**
+     * Remove the records that have been saved into the project. Records appended while the
+     * project was being written are kept.
+     *
+     * @param mark the {@link #mark()} taken with the saved snapshot
+     */
+    synchronized void discard(long mark) throws IOException
+    {
+        long saved = mark - discarded;
+        if(saved <= 0) return;
+
+        if(channel == null && saved >= length)
+        {
+            // Nothing has been appended since the project was loaded
+            Files.deleteIfExists(getPath().toPath());
+            discarded += length;
+            length = 0;
+            return;
+        }
+
+        if(channel == null) open();
+        if(saved >= length)
+        {
+            channel.truncate(0);
+            discarded += length;
+            length = 0;
+            return;
+        }
+
+        // Copy the newer records to a new journal and swap it in, so a crash leaves one or the other
+        ByteBuffer tail = ByteBuffer.allocate((int) (length - saved));
+        while(tail.hasRemaining())
+        {
+            if(channel.read(tail, saved + tail.position()) < 0) throw new IOException("The journal is shorter than expected");
+        }
+        tail.flip();
+
+        Path target = getPath().toPath();
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try(FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE))
+        {
+            while(tail.hasRemaining()) out.write(tail);
+            out.force(true);
+        }
+
+        channel.close();
+        channel = null;
+        try
+        {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        discarded += saved;
+        length -= saved;
+        open();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        recording = false;
+        if(channel != null) channel.close();
+        channel = null;
+    }
+}
@@ -0,0 +1,40 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core;
+
+/**
+ * Thrown while reading a project when a field it requires is missing. Unchecked so it can be
+ * thrown while cues are built on the loader.
+ */
+class MissingFieldException extends IllegalArgumentException
+{
+    private final String field;
+
+    /**
+     * @param field the name of the missing field
+     * @param where what the field is missing from
+     */
+    MissingFieldException(String field, String where)
+    {
+        super(where + " is missing '" + field + "'");
+        this.field = field;
+    }
+
+    /** @return the name of the missing field */
+    public String getField()
+    {
+        return field;
+    }
+}
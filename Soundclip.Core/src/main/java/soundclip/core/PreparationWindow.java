@@ -0,0 +1,156 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import soundclip.core.cues.ICue;
+import soundclip.core.cues.IPreparableCue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the backends of the cues around a position in a {@link CueList} prepared, and
+ * releases the backends of every other cue that is not running.
+ *
+ * Preparation runs in the background. Moving the window again cancels any work left over
+ * from the previous position.
+ */
+public class PreparationWindow
+{
+    private static final Logger Log = LogManager.getLogger(PreparationWindow.class);
+
+    /** The default number of cues on either side of the current cue to keep prepared */
+    public static final int DEFAULT_SIZE = 10;
+
+    private static final Executor DEFAULT_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Cue Preparation");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final CueList list;
+    private final Executor executor;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile int size;
+    private int center = -1;
+
+    public PreparationWindow(CueList list)
+    {
+        this(list, DEFAULT_SIZE, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * @param list the list to prepare cues in
+     * @param size the number of cues on either side of the current cue to keep prepared
+     * @param executor runs preparation work
+     */
+    public PreparationWindow(CueList list, int size, Executor executor)
+    {
+        if(size < 0) throw new IllegalArgumentException("The window size cannot be negative");
+
+        this.list = list;
+        this.size = size;
+        this.executor = executor;
+    }
+
+    /** @return the number of cues on either side of the current cue to keep prepared */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /** Set the number of cues on either side of the current cue to keep prepared */
+    public void setSize(int size)
+    {
+        if(size < 0) throw new IllegalArgumentException("The window size cannot be negative");
+
+        this.size = size;
+        if(center >= 0) moveTo(center);
+    }
+
+    /** @return the index the window is centered on, or -1 if it has not been positioned */
+    public int getCenter()
+    {
+        return center;
+    }
+
+    /**
+     * Center the window on the cue at the specified index. Must be called from the thread that modifies the list.
+     *
+     * @param index the index of the current cue
+     */
+    public void moveTo(int index)
+    {
+        center = Math.max(0, index);
+
+        final long id = generation.incrementAndGet();
+        final List<ICue> cues = new ArrayList<>(list.getCues());
+        final int at = center;
+        final int span = size;
+        final int lo = Math.max(0, at - span);
+        final int hi = Math.min(cues.size() - 1, at + span);
+
+        executor.execute(() -> {
+            // Nearest cues first so the next GO is ready as soon as possible
+            for(int distance = 0; distance <= span; distance++)
+            {
+                if(generation.get() != id) return;
+
+                prepare(cues, at + distance);
+                if(distance > 0) prepare(cues, at - distance);
+            }
+
+            for(int i = 0; i < cues.size(); i++)
+            {
+                if(generation.get() != id) return;
+                if(i >= lo && i <= hi) continue;
+
+                ICue c = cues.get(i);
+                if(!(c instanceof IPreparableCue)) continue;
+
+                IPreparableCue p = (IPreparableCue) c;
+                if(p.isPrepared() && !c.isPerformingAction())
+                {
+                    Log.trace("Releasing {}", c);
+                    p.release();
+                }
+            }
+        });
+    }
+
+    private void prepare(List<ICue> cues, int index)
+    {
+        if(index < 0 || index >= cues.size()) return;
+
+        ICue c = cues.get(index);
+        if(!(c instanceof IPreparableCue) || ((IPreparableCue) c).isPrepared()) return;
+
+        Log.trace("Preparing {}", c);
+        try
+        {
+            ((IPreparableCue) c).prepare();
+        }
+        catch (RuntimeException e)
+        {
+            Log.warn("Unable to prepare {}", c, e);
+        }
+    }
+}
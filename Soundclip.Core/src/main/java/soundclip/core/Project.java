@@ -14,25 +14,43 @@
 // along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package soundclip.core;
 
-import com.fasterxml.jackson.core.JsonEncoding;
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableSet;
+import javafx.collections.SetChangeListener;
 import javafx.util.Duration;
 import javafx.util.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import soundclip.core.cues.IAudioCue;
 import soundclip.core.cues.ICue;
+import soundclip.core.cues.impl.FadeCue;
 import soundclip.core.cues.impl.NoteCue;
+import soundclip.core.interop.FXThread;
 import soundclip.core.interop.Signal;
+import soundclip.core.media.AssetRegistry;
+import soundclip.core.media.MediaMetadataCache;
+import soundclip.core.playback.AudioEngine;
+import soundclip.core.playback.PrerollCache;
+import soundclip.core.playback.ResamplerQuality;
+import soundclip.core.playback.SampleCache;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -40,9 +58,24 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.Temporal;
 import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A project is the basic unit of work. Each project contains a collection of cue lists
@@ -52,20 +85,75 @@ public class Project implements Iterable<CueList>, AutoCloseable
 {
     private static Logger Log = LogManager.getLogger(Project.class);
 
+    /** The number of threads that build cues and probe media while a project loads */
+    private static final int LOAD_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Writes projects saved in the background, one at a time */
+    private static final ExecutorService SAVER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Project Save");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Probes and decodes the media of cues added once a project has loaded, one file at a time */
+    private static final ExecutorService MEDIA = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Media Cache");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final String projectPath;
     private final String parentPath;
     private String name;
     private ZonedDateTime lastModified = ZonedDateTime.ofInstant(Instant.ofEpochMilli(0), ZoneId.of("UTC"));
-    private boolean dirty;
 
     private long panicHardStopBefore = 3 * 1000;
     private long lastPanicAt = 0;
 
+    private AudioBackend defaultAudioBackend = AudioBackend.FX;
+    private int audioBufferSize = AudioEngine.DEFAULT_BUFFER_SIZE;
+    private ResamplerQuality resamplerQuality = AudioEngine.DEFAULT_RESAMPLER_QUALITY;
+    private final SampleCache sampleCache = new SampleCache();
+    private final PrerollCache prerollCache = new PrerollCache();
+    private final MediaMetadataCache mediaMetadata;
+    private final AssetRegistry assets;
+    private boolean loaded = false;
+    private Duration timeToFirstCueList = Duration.UNKNOWN;
+    private int preparationWindowSize = PreparationWindow.DEFAULT_SIZE;
+    private ProjectLayout layout = ProjectLayout.SINGLE_FILE;
+    private ProjectFormat format = ProjectFormat.JSON;
+
     private final ArrayList<CueList> cueLists;
+    private final Object saveLock = new Object();
+    private final Journal journal = new Journal(this);
+    private volatile long savedSequence = 0;
+
+    // The file each split cue list was last written to, files that a save may still refer to but no list uses,
+    // and lists whose last save failed. Guarded by listFiles
+    private final IdentityHashMap<CueList, String> listFiles = new IdentityHashMap<>();
+    private final Set<String> obsoleteListFiles = new HashSet<>();
+    private final Set<CueList> unsavedLists = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // Every cue in the project by GUID, and the fade cues that target each GUID
+    private final ConcurrentHashMap<UUID, ICue> cuesByGUID = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, Set<FadeCue>> fadesByTarget = new ConcurrentHashMap<>();
+
+    // The active cues of every list, and the listener that keeps them in step with each list
+    private final ObservableSet<ICue> activeCues = FXCollections.synchronizedObservableSet(
+            FXCollections.observableSet(Collections.newSetFromMap(new IdentityHashMap<>()))
+    );
+    private final ObservableSet<ICue> activeCuesView = FXCollections.unmodifiableObservableSet(activeCues);
+    private final ObservableSet<ICue> displayedActiveCues = FXThread.mirror(activeCues);
+    private final IdentityHashMap<CueList, SetChangeListener<ICue>> activityListeners = new IdentityHashMap<>();
 
     /** A signal triggered when panic is triggered */
     public final Signal<Pair<Duration, Boolean>> onPanic = new Signal<>();
 
+    /** A signal triggered with the path of the project when a save completes */
+    public final Signal<String> onSaved = new Signal<>();
+    /** A signal triggered with the reason when a save fails */
+    public final Signal<IOException> onSaveFailed = new Signal<>();
+
     /** A signal triggered when the project name is changed */
     public final Signal<String> onRenamed = new Signal<>();
     /** A signal triggered when the project path is set for the first time */
@@ -101,14 +189,21 @@ public class Project implements Iterable<CueList>, AutoCloseable
         if(path == null) throw new IllegalArgumentException("Project path cannot be null");
 
         projectPath = path;
+        mediaMetadata = new MediaMetadataCache(new File(path).getAbsoluteFile().getParentFile());
+        assets = new AssetRegistry(mediaMetadata);
 
         File f = new File(path);
 
         if(!f.exists())
         {
             Log.info("Creating new project at '{}'", path);
+
+            // A journal left behind by a project that was deleted doesn't apply to this one
+            Files.deleteIfExists(journal.getPath().toPath());
             save();
             parentPath = new File(path).getParent();
+            loaded = true;
+            journal.start();
             return;
         }
 
@@ -116,23 +211,33 @@ public class Project implements Iterable<CueList>, AutoCloseable
         if(!f.isFile()) throw new IllegalArgumentException("File does not exist or is not a file '" + path + "'");
         Log.info("Loading project from '{}'", path);
 
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode project = mapper.readTree(f);
+        File sidecar = getMediaMetadataPath();
+        if(sidecar.isFile())
+        {
+            try
+            {
+                mediaMetadata.load(sidecar);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                Log.warn("Ignoring unreadable media metadata cache '{}'", sidecar, e);
+            }
+        }
+
+        long started = System.nanoTime();
+        ExecutorService loader = Executors.newFixedThreadPool(LOAD_THREADS, (r) -> {
+            Thread t = new Thread(r, "Project Loader");
+            t.setDaemon(true);
+            return t;
+        });
 
         try
         {
-            this.name = project.get("name").asText();
-            lastModified = ZonedDateTime.parse(project.get("lastModified").asText());
-            panicHardStopBefore = project.get("panicHardStopBefore").asLong();
+            read(f, started, loader);
+            journal.replay(savedSequence);
+            probeMedia(loader);
 
-            cueLists.clear();
-
-            for(JsonNode cueList : project.get("cueLists"))
-            {
-                CueList c = appendCueList(cueList.get("name").asText());
-                c.consumeProjectPath(parentPath);
-                c.load(cueList);
-            }
+            // Hooks run one at a time in list order, so shared caches fill the same way every load
 
             for(CueList list : this)
             {
@@ -143,12 +248,31 @@ public class Project implements Iterable<CueList>, AutoCloseable
                     ((IPostLoadHook)c).onProjectLoaded(this);
                 }
             }
+
+            Log.info("Sample cache holds {} files ({} bytes)", sampleCache.size(), sampleCache.getUsedBytes());
+            Log.info("Preroll cache holds {} files ({} bytes)", prerollCache.size(), prerollCache.getUsedBytes());
+
+            saveMediaMetadata();
+        }
+        catch (MissingFieldException ex)
+        {
+            Log.fatal("Unable to read project (missing field '{}')", ex.getField(), ex);
+            throw new IllegalArgumentException("The specified project is missing required fields", ex);
         }
         catch (NullPointerException ex)
         {
-            Log.fatal("Unable to read project (missing field)", ex);
+            // Cues read their own fields from the tree they're given
+            Log.fatal("Unable to read project (missing cue field)", ex);
             throw new IllegalArgumentException("The specified project is missing required fields", ex);
         }
+        finally
+        {
+            loader.shutdown();
+        }
+
+        Log.info("Read {} cues in {} lists in {} ms", getCueCount(), getCueListCount(), (System.nanoTime() - started) / 1000000);
+        loaded = true;
+        journal.start();
 
         pauseTransportProperty.addListener((prop, oldValue, newValue) -> {
             cueLists.forEach((list) -> {
@@ -160,12 +284,306 @@ public class Project implements Iterable<CueList>, AutoCloseable
         Log.info("Project loaded successfully");
     }
 
+    /**
+     * Read the project as a stream of tokens, appending each cue list as it arrives. Only one
+     * cue is held as a tree at a time, and fields that aren't recognized are skipped without
+     * being read into memory. Cues are built on the loader while the rest of the file is read,
+     * then inserted into their lists in the order they appear in the file.
+     *
+     * @throws MissingFieldException if a required field is missing
+     */
+    private void read(File f, long started, Executor loader) throws IOException
+    {
+        LinkedHashMap<CueList, CompletableFuture<List<CompletableFuture<ICue>>>> pending = new LinkedHashMap<>();
+        boolean hasName = false;
+        boolean hasPanicHardStopBefore = false;
+        boolean hasCueLists = false;
+
+        try(JsonParser p = ProjectFormat.open(f))
+        {
+            if(p.nextToken() != JsonToken.START_OBJECT) throw new JsonParseException("Expected a project object", p.getCurrentLocation());
+
+            while(p.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = p.getCurrentName();
+                p.nextToken();
+
+                switch(field)
+                {
+                    case "name":
+                        hasName = readProperty(field, p);
+                        break;
+                    case "panicHardStopBefore":
+                        hasPanicHardStopBefore = readProperty(field, p);
+                        break;
+                    case "journalSequence":
+                        savedSequence = p.getValueAsLong();
+                        break;
+                    case "cueLists":
+                        if(p.getCurrentToken() != JsonToken.START_ARRAY) throw new JsonParseException("Expected an array of cue lists", p.getCurrentLocation());
+
+                        cueLists.clear();
+                        while(p.nextToken() == JsonToken.START_OBJECT)
+                        {
+                            readCueList(p, loader, pending);
+
+                            // The first list is finished as soon as its cues are built, so it's usable
+                            // without waiting for the rest of the file to be read
+                            if(timeToFirstCueList.isUnknown() && !pending.isEmpty())
+                            {
+                                Map.Entry<CueList, CompletableFuture<List<CompletableFuture<ICue>>>> first = pending.entrySet().iterator().next();
+                                finishCueList(first.getKey(), first.getValue());
+                                pending.remove(first.getKey());
+
+                                timeToFirstCueList = Duration.millis((System.nanoTime() - started) / 1e6);
+                                Log.info("First cue list ready after {} ms", Math.round(timeToFirstCueList.toMillis()));
+                            }
+                        }
+                        hasCueLists = true;
+                        break;
+                    default:
+                        if(!readProperty(field, p)) p.skipChildren();
+                        break;
+                }
+            }
+        }
+
+        if(!hasName) throw new MissingFieldException("name", "The project");
+        if(lastModified == null) throw new MissingFieldException("lastModified", "The project");
+        if(!hasPanicHardStopBefore) throw new MissingFieldException("panicHardStopBefore", "The project");
+        if(!hasCueLists) throw new MissingFieldException("cueLists", "The project");
+
+        for(Map.Entry<CueList, CompletableFuture<List<CompletableFuture<ICue>>>> list : pending.entrySet())
+        {
+            finishCueList(list.getKey(), list.getValue());
+        }
+
+        // Every list matches what's on disk, until the journal is replayed
+        for(CueList list : this) list.setDirty(false);
+    }
+
+    /** Wait for the cues of a list to be read and built, and insert them */
+    private static void finishCueList(CueList list, CompletableFuture<List<CompletableFuture<ICue>>> pending) throws IOException
+    {
+        List<CompletableFuture<ICue>> cues;
+        try
+        {
+            cues = pending.join();
+        }
+        catch (CompletionException e)
+        {
+            // Surface the failure to read a split list as if it was read on this thread
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+
+        list.finishLoad(cues);
+    }
+
+    /**
+     * Read one of the properties written by {@link #writeProperties(JsonGenerator)}
+     *
+     * @param field the name of the property
+     * @param p the parser, positioned at the value of the property
+     * @return {@code false} if the property isn't known
+     */
+    boolean readProperty(String field, JsonParser p) throws IOException
+    {
+        switch(field)
+        {
+            case "name":
+                name = p.getValueAsString();
+                return true;
+            case "lastModified":
+                lastModified = ZonedDateTime.parse(p.getValueAsString());
+                return true;
+            case "panicHardStopBefore":
+                panicHardStopBefore = p.getValueAsLong();
+                return true;
+            case "defaultAudioBackend":
+                defaultAudioBackend = AudioBackend.valueOf(p.getValueAsString("FX").toUpperCase());
+                return true;
+            case "audioBufferSize":
+                setAudioBufferSize(p.getValueAsInt(AudioEngine.DEFAULT_BUFFER_SIZE));
+                return true;
+            case "resamplerQuality":
+                setResamplerQuality(ResamplerQuality.valueOf(p.getValueAsString("CUBIC").toUpperCase()));
+                return true;
+            case "preparationWindowSize":
+                setPreparationWindowSize(p.getValueAsInt(PreparationWindow.DEFAULT_SIZE));
+                return true;
+            case "sampleCacheBudget":
+                sampleCache.setBudget(p.getValueAsLong(SampleCache.DEFAULT_BUDGET));
+                return true;
+            case "samplePreloadThreshold":
+                sampleCache.setPreloadThreshold(p.getValueAsLong(SampleCache.DEFAULT_PRELOAD_THRESHOLD));
+                return true;
+            case "preroll":
+                prerollCache.setPreroll(p.getValueAsLong(PrerollCache.DEFAULT_PREROLL));
+                return true;
+            case "layout":
+                setLayout(ProjectLayout.valueOf(p.getValueAsString("SINGLE_FILE").toUpperCase()));
+                return true;
+            case "format":
+                setFormat(ProjectFormat.valueOf(p.getValueAsString("JSON").toUpperCase()));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Write the properties of the project, everything but its cue lists, as fields of the current object */
+    void writeProperties(JsonGenerator writer) throws IOException
+    {
+        writer.writeStringField("name", name);
+        writer.writeStringField("lastModified", lastModified.format(DateTimeFormatter.ISO_INSTANT));
+        writer.writeNumberField("panicHardStopBefore", panicHardStopBefore);
+        writer.writeStringField("defaultAudioBackend", defaultAudioBackend.toString());
+        writer.writeNumberField("audioBufferSize", audioBufferSize);
+        writer.writeStringField("resamplerQuality", resamplerQuality.toString());
+        writer.writeNumberField("preparationWindowSize", preparationWindowSize);
+        writer.writeNumberField("sampleCacheBudget", sampleCache.getBudget());
+        writer.writeNumberField("samplePreloadThreshold", sampleCache.getPreloadThreshold());
+        writer.writeNumberField("preroll", prerollCache.getPreroll());
+        writer.writeStringField("layout", layout.toString());
+        writer.writeStringField("format", format.toString());
+    }
+
+    /**
+     * Read the metadata and content hash of every file used by an audio cue, in parallel, so
+     * the post-load hooks find them in the cache instead of reading each file in turn
+     */
+    private void probeMedia(ExecutorService loader)
+    {
+        Set<File> files = new LinkedHashSet<>();
+        for(CueList list : this)
+        {
+            for(ICue c : list)
+            {
+                if(c instanceof IAudioCue && ((IAudioCue) c).getSource() != null)
+                {
+                    files.add(new File(parentPath, ((IAudioCue) c).getSource()));
+                }
+            }
+        }
+
+        CompletableFuture.allOf(files.stream().map((file) -> CompletableFuture.runAsync(() -> {
+            mediaMetadata.getOrProbe(file);
+
+            try
+            {
+                assets.hashOf(file);
+            }
+            catch (IOException e)
+            {
+                // The cue will report the file when it tries to use it
+                Log.debug("Unable to hash {}", file, e);
+            }
+        }, loader)).toArray(CompletableFuture[]::new)).join();
+
+        Log.debug("Probed {} media files", files.size());
+    }
+
+    /**
+     * Read the cue list that starts at the current token, appending it to the project. Its cues are
+     * added to {@param pending}. The cues of a split list are read from its file on the loader.
+     */
+    private void readCueList(JsonParser p, Executor loader, Map<CueList, CompletableFuture<List<CompletableFuture<ICue>>>> pending) throws IOException
+    {
+        CueList list = null;
+        String listName = null;
+        String file = null;
+
+        while(p.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = p.getCurrentName();
+            p.nextToken();
+
+            switch(field)
+            {
+                case "name":
+                    listName = p.getValueAsString();
+                    if(list != null) list.setName(listName);
+                    break;
+                case "cues":
+                    // The name is written first, but the list can be named after its cues are read
+                    if(list == null) list = appendCueList(listName == null ? "Untitled Cue List" : listName);
+                    pending.put(list, CompletableFuture.completedFuture(list.read(p, loader)));
+                    break;
+                case "file":
+                    file = p.getValueAsString();
+                    break;
+                default:
+                    p.skipChildren();
+                    break;
+            }
+        }
+
+        if(listName == null) throw new MissingFieldException("name", "A cue list");
+        if(list == null) list = appendCueList(listName);
+        if(file == null) return;
+
+        final CueList split = list;
+        final File source = new File(getListDirectory(), file);
+        listFiles.put(split, file);
+        pending.put(split, CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return readListFile(split, source);
+            }
+            catch (IOException e)
+            {
+                throw new CompletionException(e);
+            }
+        }, loader));
+    }
+
+    /** Read the cues in the file of a split list. The cues are built on the calling thread */
+    private static List<CompletableFuture<ICue>> readListFile(CueList list, File f) throws IOException
+    {
+        List<CompletableFuture<ICue>> cues = null;
+        try(JsonParser p = ProjectFormat.open(f))
+        {
+            if(p.nextToken() != JsonToken.START_OBJECT) throw new JsonParseException("Expected a cue list object", p.getCurrentLocation());
+
+            while(p.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = p.getCurrentName();
+                p.nextToken();
+
+                // The name in the project file wins
+                if(field.equals("cues")) cues = list.read(p, Runnable::run);
+                else p.skipChildren();
+            }
+        }
+
+        if(cues == null) throw new MissingFieldException("cues", "The cue list in '" + f + "'");
+        return cues;
+    }
+
     public CueList appendCueList(String name)
     {
         CueList c = new CueList(name);
         c.consumeProjectPath(parentPath);
+        c.setProject(this);
+        c.getPreparationWindow().setSize(preparationWindowSize);
+        c.onCuesAdded.whenTriggered((cues) -> cues.forEach(this::indexCue));
+        c.onCuesRemoved.whenTriggered((cues) -> cues.forEach(this::unindexCue));
+
+        SetChangeListener<ICue> activity = (change) -> {
+            if(change.wasAdded()) activeCues.add(change.getElementAdded());
+            if(change.wasRemoved()) activeCues.remove(change.getElementRemoved());
+        };
+        activityListeners.put(c, activity);
+        c.getActiveCues().addListener(activity);
 
         cueLists.add(c);
+        if(journal.isRecording())
+        {
+            journal.attach(c);
+            journal.cueListAdded(c);
+        }
         onCueListAdded.post(c);
 
         return c;
@@ -180,9 +598,40 @@ public class Project implements Iterable<CueList>, AutoCloseable
 
     public void removeCueList(CueList list)
     {
-        boolean removed = cueLists.remove(list);
+        int index = cueLists.indexOf(list);
+        if(index < 0) return;
+        cueLists.remove(index);
+        journal.cueListRemoved(list, index);
 
-        if(removed) onCueListRemoved.post(list);
+        synchronized (listFiles)
+        {
+            String file = listFiles.remove(list);
+            if(file != null) obsoleteListFiles.add(file);
+            unsavedLists.remove(list);
+        }
+
+        SetChangeListener<ICue> activity = activityListeners.remove(list);
+        if(activity != null) list.getActiveCues().removeListener(activity);
+
+        for(ICue c : list)
+        {
+            unindexCue(c);
+            activeCues.remove(c);
+        }
+
+        onCueListRemoved.post(list);
+    }
+
+    /** @return the cue list at the specified position in the project */
+    CueList getCueList(int index)
+    {
+        return cueLists.get(index);
+    }
+
+    /** @return the position of the list in the project, or -1 if it isn't in the project */
+    int indexOf(CueList list)
+    {
+        return cueLists.indexOf(list);
     }
 
     /** @return the path to the project on the filesystem */
@@ -203,6 +652,7 @@ public class Project implements Iterable<CueList>, AutoCloseable
     public void setName(String name)
     {
         this.name = name;
+        journal.projectChanged();
 
         onRenamed.post(this.name);
     }
@@ -223,7 +673,129 @@ public class Project implements Iterable<CueList>, AutoCloseable
     public long getPanicHardStopBefore() { return panicHardStopBefore; }
 
     /** Set the number of milliseconds that must expire before a hard stop will not be performed */
-    public void setPanicHardStopBefore(long panicHardStopBefore) { this.panicHardStopBefore = panicHardStopBefore; }
+    public void setPanicHardStopBefore(long panicHardStopBefore)
+    {
+        this.panicHardStopBefore = panicHardStopBefore;
+        journal.projectChanged();
+    }
+
+    /** @return the backend used for newly created audio cues */
+    public AudioBackend getDefaultAudioBackend() { return defaultAudioBackend; }
+
+    /** Set the backend used for newly created audio cues. Existing cues keep their backend */
+    public void setDefaultAudioBackend(AudioBackend defaultAudioBackend)
+    {
+        this.defaultAudioBackend = defaultAudioBackend;
+        journal.projectChanged();
+    }
+
+    /** @return the number of frames the audio engine renders per block */
+    public int getAudioBufferSize() { return audioBufferSize; }
+
+    /**
+     * Set the number of frames the audio engine renders per block. Smaller buffers reduce
+     * latency but are more likely to underrun. Applied to the engine immediately.
+     */
+    public void setAudioBufferSize(int audioBufferSize)
+    {
+        AudioEngine.getDefault().setBufferSize(audioBufferSize);
+        this.audioBufferSize = audioBufferSize;
+        journal.projectChanged();
+    }
+
+    /** @return the interpolation used when sampled audio cues are resampled or pitched */
+    public ResamplerQuality getResamplerQuality() { return resamplerQuality; }
+
+    /** Set the interpolation used when sampled audio cues are resampled or pitched. Applies to cues prepared after this call */
+    public void setResamplerQuality(ResamplerQuality resamplerQuality)
+    {
+        AudioEngine.getDefault().setResamplerQuality(resamplerQuality);
+        this.resamplerQuality = resamplerQuality;
+        journal.projectChanged();
+    }
+
+    /** @return the number of cues on either side of the current cue whose backends are kept prepared */
+    public int getPreparationWindowSize() { return preparationWindowSize; }
+
+    /** Set the number of cues on either side of the current cue whose backends are kept prepared */
+    public void setPreparationWindowSize(int preparationWindowSize)
+    {
+        if(preparationWindowSize < 0) throw new IllegalArgumentException("The preparation window size cannot be negative");
+
+        this.preparationWindowSize = preparationWindowSize;
+        cueLists.forEach(list -> list.getPreparationWindow().setSize(preparationWindowSize));
+        journal.projectChanged();
+    }
+
+    /** @return how the project is laid out on disk */
+    public ProjectLayout getLayout() { return layout; }
+
+    /** Set how the project is laid out on disk. Takes effect the next time the project is saved */
+    public void setLayout(ProjectLayout layout)
+    {
+        this.layout = layout;
+        journal.projectChanged();
+    }
+
+    /** @return the encoding the project is saved in */
+    public ProjectFormat getFormat() { return format; }
+
+    /** Set the encoding the project is saved in. Every file is rewritten in it the next time the project is saved */
+    public void setFormat(ProjectFormat format)
+    {
+        if(this.format != format)
+        {
+            cueLists.forEach((list) -> list.setDirty(true));
+        }
+
+        this.format = format;
+        journal.projectChanged();
+    }
+
+    /** @return the folder that the cue lists of a split project are stored in */
+    public File getListDirectory() { return new File(projectPath + ProjectLayout.LIST_DIRECTORY_EXTENSION); }
+
+    /** @return the cache of decoded audio shared by the cues in this project */
+    public SampleCache getSampleCache() { return sampleCache; }
+
+    /** @return the decoded heads of streamed files used by the cues in this project */
+    public PrerollCache getPrerollCache() { return prerollCache; }
+
+    /** @return the durations and formats of the media used by the cues in this project */
+    public MediaMetadataCache getMediaMetadata() { return mediaMetadata; }
+
+    /** @return the unique media files used by the cues in this project */
+    public AssetRegistry getAssets() { return assets; }
+
+    /** @return the executor that probes and caches the media of cues added after the project has loaded */
+    public Executor getMediaExecutor() { return MEDIA; }
+
+    /** @return the sidecar file that the media metadata cache is stored in */
+    public File getMediaMetadataPath() { return new File(projectPath + MediaMetadataCache.EXTENSION); }
+
+    /** @return the log of edits made to the project since it was last saved */
+    public Journal getJournal() { return journal; }
+
+    /** Write the media metadata cache next to the project if it has changed */
+    private void saveMediaMetadata()
+    {
+        if(!mediaMetadata.isDirty()) return;
+
+        try
+        {
+            mediaMetadata.save(getMediaMetadataPath());
+        }
+        catch (IOException e)
+        {
+            Log.warn("Unable to save the media metadata cache", e);
+        }
+    }
+
+    /** @return how long loading took to build the first cue list, or {@link Duration#UNKNOWN} if the project wasn't loaded from disk */
+    public Duration getTimeToFirstCueList() { return timeToFirstCueList; }
+
+    /** @return {@code true} once the project has been loaded and post-load hooks have run */
+    public boolean isLoaded() { return loaded; }
 
     /** Panic all cues. */
     public void panic()
@@ -240,8 +812,12 @@ public class Project implements Iterable<CueList>, AutoCloseable
     public void panic(boolean hard)
     {
         boolean isHard = hard | isTransportPaused();
+        Duration fade = Duration.millis(panicHardStopBefore);
         Log.warn("PANIC! {}", isHard ? "Hard-stopping all cues" : "Stopping all cues gracefully");
-        cueLists.forEach((list) -> list.panic(Duration.millis(panicHardStopBefore), isHard));
+
+        // Every voice on the engine is released in the same block, then the cues catch up with the engine
+        AudioEngine.getDefault().panic(fade, isHard);
+        cueLists.forEach((list) -> list.panic(fade, isHard));
 
         if(isHard && isTransportPaused())
         {
@@ -249,60 +825,430 @@ public class Project implements Iterable<CueList>, AutoCloseable
         }
     }
 
+    /**
+     * @return the cues in every list that are running, paused or waiting, for transport operations.
+     * Changes may be reported on any thread, so controls should use {@link #getDisplayedActiveCues()}
+     */
+    public ObservableSet<ICue> getActiveCues() { return activeCuesView; }
+
+    /** @return the {@link #getActiveCues() active cues} of every list, changed only on the JavaFX application thread */
+    public ObservableSet<ICue> getDisplayedActiveCues() { return displayedActiveCues; }
+
+    /** @return the cue in any list with the specified GUID, or {@code null} if there isn't one */
     public ICue resolveCue(UUID id)
     {
-        for(CueList list : this)
+        return id == null ? null : cuesByGUID.get(id);
+    }
+
+    /** @return the fade cues in the project that target the specified cue */
+    public Set<FadeCue> getFadesTargeting(ICue target)
+    {
+        Set<FadeCue> fades = target.getGUID() == null ? null : fadesByTarget.get(target.getGUID());
+        return fades == null ? Collections.emptySet() : Collections.unmodifiableSet(fades);
+    }
+
+    private void indexCue(ICue cue)
+    {
+        if(cue.getGUID() == null) return;
+        cuesByGUID.put(cue.getGUID(), cue);
+
+        if(cue instanceof FadeCue)
         {
-            for(ICue c : list)
-            {
-                if(c.getGUID().equals(id)) return c;
-            }
+            FadeCue fade = (FadeCue) cue;
+            fade.onTargetChanged.whenTriggered((change) -> {
+                // The cue may have been removed since the listener was added
+                if(cuesByGUID.get(fade.getGUID()) != fade) return;
+
+                unindexFade(change.getKey(), fade);
+                indexFade(change.getValue(), fade);
+            });
+            indexFade(fade.getTargetGUID(), fade);
         }
+    }
+
+    private void unindexCue(ICue cue)
+    {
+        if(cue.getGUID() == null) return;
+        cuesByGUID.remove(cue.getGUID(), cue);
 
-        return null;
+        if(cue instanceof FadeCue) unindexFade(((FadeCue) cue).getTargetGUID(), (FadeCue) cue);
+    }
+
+    private void indexFade(UUID target, FadeCue fade)
+    {
+        if(target == null) return;
+
+        fadesByTarget.computeIfAbsent(target, (k) -> ConcurrentHashMap.newKeySet()).add(fade);
+    }
+
+    private void unindexFade(UUID target, FadeCue fade)
+    {
+        if(target == null) return;
+
+        fadesByTarget.computeIfPresent(target, (k, fades) -> {
+            fades.remove(fade);
+            return fades.isEmpty() ? null : fades;
+        });
     }
 
     /**
-     * Saves the project
+     * Saves the project on the calling thread
      *
      * @throws IllegalStateException if a project path has not yet been set
      */
     public void save() throws IOException
+    {
+        write(snapshot());
+    }
+
+    /**
+     * Saves the project in the background. The project is recorded on the calling thread, which
+     * only serializes the cues edited since the last save, and then written, synced and renamed
+     * into place on the save thread. Saves run in
+     * the order they are requested. {@link #onSaved} or {@link #onSaveFailed} is triggered on the
+     * save thread when the save finishes.
+     *
+     * @return completes when the project has been written, or exceptionally if it couldn't be
+     * @throws IllegalStateException if a project path has not yet been set
+     */
+    public CompletableFuture<Void> saveAsync()
+    {
+        final Snapshot snapshot;
+        try
+        {
+            snapshot = snapshot();
+        }
+        catch (IOException e)
+        {
+            onSaveFailed.post(e);
+
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        return CompletableFuture.runAsync(() -> {
+            try
+            {
+                write(snapshot);
+            }
+            catch (IOException e)
+            {
+                throw new CompletionException(e);
+            }
+        }, SAVER);
+    }
+
+    /**
+     * The project as recorded for a save: its properties and lists, which of the lists changed,
+     * and how much of the journal it includes. Nothing in it changes once it's recorded.
+     */
+    private static final class Snapshot
+    {
+        final TokenBuffer properties;
+        final ProjectFormat format;
+        final ProjectLayout layout;
+        final long sequence;
+        final long journalMark;
+        final List<CueList> sources;
+        final List<CueList.Recording> lists;
+        final Set<CueList> changed;
+
+        Snapshot(TokenBuffer properties, ProjectFormat format, ProjectLayout layout, long sequence, long journalMark, List<CueList> sources, List<CueList.Recording> lists, Set<CueList> changed)
+        {
+            this.properties = properties;
+            this.format = format;
+            this.layout = layout;
+            this.sequence = sequence;
+            this.journalMark = journalMark;
+            this.sources = sources;
+            this.lists = lists;
+            this.changed = changed;
+        }
+
+        /** Write the project file. Lists with a file are written as a reference to it */
+        void serialize(JsonGenerator w, List<String> files) throws IOException
+        {
+            w.writeStartObject();
+            {
+                try(JsonParser p = properties.asParser())
+                {
+                    p.nextToken();
+                    while(p.nextToken() == JsonToken.FIELD_NAME) w.copyCurrentStructure(p);
+                }
+                w.writeNumberField("journalSequence", sequence);
+
+                w.writeArrayFieldStart("cueLists");
+                for(int i = 0; i < lists.size(); i++)
+                {
+                    String file = files.get(i);
+                    if(file == null)
+                    {
+                        lists.get(i).serialize(w);
+                        continue;
+                    }
+
+                    w.writeStartObject();
+                    w.writeStringField("name", lists.get(i).getName());
+                    w.writeStringField("file", file);
+                    w.writeEndObject();
+                }
+                w.writeEndArray();
+            }
+            w.writeEndObject();
+        }
+    }
+
+    /** Something written to a file by {@link #writeSynced(File, Content, ProjectFormat)} */
+    private interface Content
+    {
+        void serialize(JsonGenerator w) throws IOException;
+    }
+
+    /**
+     * @return the project as it is right now, recorded so it can be written later on another thread.
+     *         Cues that haven't been edited since the last save share what that save recorded.
+     */
+    private Snapshot snapshot() throws IOException
     {
         if (projectPath == null) throw new IllegalStateException("The project path has not been specified");
 
-        File p = new File(projectPath);
-        new File(p.getParent()).mkdirs();
+        // Nothing is appended to the journal while the project is recorded
+        synchronized (journal)
+        {
+            lastModified = ZonedDateTime.now();
+            long sequence = journal.getSequence();
+            List<CueList> sources = new ArrayList<>(cueLists);
+            List<CueList.Recording> lists = new ArrayList<>(sources.size());
+            Set<CueList> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            TokenBuffer properties = new TokenBuffer(null, false);
+            properties.writeStartObject();
+            writeProperties(properties);
+            properties.writeEndObject();
+            properties.close();
+
+            for(CueList c : sources)
+            {
+                if(c.isDirty()) changed.add(c);
+                c.setDirty(false);
 
-        Log.info("Saving project '{}' to '{}'", name, projectPath);
+                lists.add(c.record());
+            }
 
-        lastModified = ZonedDateTime.now();
-        ObjectMapper m = new ObjectMapper();
-        JsonFactory f = m.getFactory();
+            return new Snapshot(properties, format, layout, sequence, journal.mark(), sources, lists, changed);
+        }
+    }
 
-        try(JsonGenerator writer = f.createGenerator(p, JsonEncoding.UTF8))
+    /**
+     * Write a snapshot to a temporary file next to the project, sync it to disk and rename it
+     * over the project, so a crash part way through a save never leaves a partial project behind.
+     * The lists of a split project are written to new files first, so the rename commits them too.
+     *
+     * The files of split lists are chosen here rather than when the snapshot is taken, so a save
+     * that fails is undone before a save queued behind it decides which lists to write.
+     */
+    private void write(Snapshot snapshot) throws IOException
+    {
+        synchronized (saveLock)
         {
-            writer.useDefaultPrettyPrinter();
+            File p = new File(projectPath).getAbsoluteFile();
+            File dir = p.getParentFile();
+            File listDir = getListDirectory();
+            dir.mkdirs();
+
+            List<String> files = new ArrayList<>(snapshot.lists.size());
+            Map<String, CueList.Recording> newFiles = new LinkedHashMap<>();
+            IdentityHashMap<CueList, String> previousFiles = new IdentityHashMap<>();
+            List<CueList> written = new ArrayList<>();
+            List<String> obsolete;
+
+            synchronized (listFiles)
+            {
+                if(snapshot.layout == ProjectLayout.SINGLE_FILE)
+                {
+                    // Every list is written to a new file if the project is split again
+                    previousFiles.putAll(listFiles);
+                    listFiles.clear();
+                }
+
+                for(int i = 0; i < snapshot.lists.size(); i++)
+                {
+                    CueList c = snapshot.sources.get(i);
+                    if(snapshot.layout == ProjectLayout.SINGLE_FILE)
+                    {
+                        if(snapshot.changed.contains(c)) written.add(c);
+                        files.add(null);
+                        continue;
+                    }
+
+                    // Lists that a failed save couldn't write are written again, even if they haven't changed since
+                    String file = listFiles.get(c);
+                    if(file == null || snapshot.changed.contains(c) || unsavedLists.contains(c))
+                    {
+                        // A new file, so the list the project on disk refers to is left alone until the save commits
+                        previousFiles.put(c, file);
+                        listFiles.put(c, file = UUID.randomUUID() + ProjectLayout.LIST_EXTENSION);
+                        newFiles.put(file, snapshot.lists.get(i));
+                        written.add(c);
+                    }
+                    files.add(file);
+                }
+
+                obsolete = new ArrayList<>(obsoleteListFiles);
+                obsoleteListFiles.clear();
+            }
+
+            Log.info("Saving project '{}' to '{}' ({} cue list files)", name, projectPath, newFiles.size());
 
-            writer.writeStartObject();
+            Path temp = null;
+            try
             {
-                writer.writeStringField("name", name);
-                writer.writeStringField("lastModified", lastModified.format(DateTimeFormatter.ISO_INSTANT));
-                writer.writeNumberField("panicHardStopBefore", panicHardStopBefore);
+                if(!newFiles.isEmpty())
+                {
+                    listDir.mkdirs();
+                    for(Map.Entry<String, CueList.Recording> list : newFiles.entrySet())
+                    {
+                        writeSynced(new File(listDir, list.getKey()), list.getValue()::serialize, snapshot.format);
+                    }
+                    syncDirectory(listDir);
+                }
 
-                writer.writeArrayFieldStart("cueLists");
+                temp = Files.createTempFile(dir.toPath(), p.getName(), ".tmp");
+                writeSynced(temp.toFile(), (w) -> snapshot.serialize(w, files), snapshot.format);
+
+                try
                 {
-                    for(CueList c : this)
+                    Files.move(temp, p.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                catch (AtomicMoveNotSupportedException e)
+                {
+                    Log.warn("Atomic rename is not supported for '{}', replacing the project in place", projectPath);
+                    Files.move(temp, p.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                syncDirectory(dir);
+            }
+            catch (IOException e)
+            {
+                if(temp != null) Files.deleteIfExists(temp);
+                deleteListFiles(newFiles.keySet());
+
+                synchronized (listFiles)
+                {
+                    // Point each list back at the file the project on disk refers to
+                    for(Map.Entry<CueList, String> previous : previousFiles.entrySet())
+                    {
+                        CueList c = previous.getKey();
+                        String file = previous.getValue();
+                        if(file == null || listFiles.containsKey(c) && !newFiles.containsKey(listFiles.get(c))) continue;
+
+                        // A list removed since the save started no longer needs its file
+                        if(indexOf(c) < 0) obsoleteListFiles.add(file);
+                        else listFiles.put(c, file);
+                    }
+                    for(CueList c : written)
                     {
-                        c.serialize(writer);
+                        String file = listFiles.get(c);
+                        if(file != null && newFiles.containsKey(file)) listFiles.remove(c);
                     }
+                    obsoleteListFiles.removeAll(newFiles.keySet());
+                    obsoleteListFiles.addAll(obsolete);
+
+                    // Saves queued behind this one write these lists, and later snapshots see them as changed
+                    unsavedLists.addAll(written);
                 }
-                writer.writeEndArray();
+                written.forEach((list) -> list.setDirty(true));
+
+                Log.error("Unable to save project '{}'", projectPath, e);
+                onSaveFailed.post(e);
+                throw e;
+            }
+
+            synchronized (listFiles)
+            {
+                if(snapshot.layout == ProjectLayout.SINGLE_FILE) unsavedLists.clear();
+                else unsavedLists.removeAll(written);
+
+                for(String file : previousFiles.values()) if(file != null) obsolete.add(file);
+
+                // A list removed while it was written leaves its new file behind for the next save to delete
+                for(CueList c : written)
+                {
+                    if(indexOf(c) >= 0) continue;
+
+                    String file = listFiles.remove(c);
+                    if(file != null) obsoleteListFiles.add(file);
+                }
+
+                // Nothing this save refers to is deleted
+                obsolete.removeAll(files);
             }
-            writer.writeEndObject();
+            deleteListFiles(obsolete);
+
+            savedSequence = Math.max(savedSequence, snapshot.sequence);
+            try
+            {
+                journal.discard(snapshot.journalMark);
+            }
+            catch (IOException e)
+            {
+                // The records are skipped when the journal is replayed, they only take up space
+                Log.warn("Unable to trim the journal", e);
+            }
+
+            saveMediaMetadata();
         }
 
         Log.info("Project saved");
+        onSaved.post(projectPath);
+    }
+
+    /** Write the content to the file in the given format and sync it to disk */
+    private static void writeSynced(File f, Content content, ProjectFormat format) throws IOException
+    {
+        try(FileOutputStream out = new FileOutputStream(f);
+            JsonGenerator writer = format.createGenerator(out))
+        {
+            content.serialize(writer);
+            writer.flush();
+            out.getFD().sync();
+        }
+    }
+
+    /** Delete list files that no save refers to, and the list folder once it's empty */
+    private void deleteListFiles(Collection<String> files)
+    {
+        if(files.isEmpty()) return;
+
+        File listDir = getListDirectory();
+        for(String file : files)
+        {
+            try
+            {
+                Files.deleteIfExists(new File(listDir, file).toPath());
+            }
+            catch (IOException e)
+            {
+                Log.warn("Unable to delete cue list file '{}'", file, e);
+            }
+        }
+
+        String[] remaining = listDir.list();
+        if(remaining != null && remaining.length == 0 && !listDir.delete()) Log.debug("Unable to delete '{}'", listDir);
+    }
+
+    /** Make a rename in the directory durable. Not every platform can open a directory, so this is best effort */
+    private static void syncDirectory(File dir)
+    {
+        try(FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ))
+        {
+            channel.force(true);
+        }
+        catch (IOException e)
+        {
+            Log.trace("Unable to sync directory '{}'", dir, e);
+        }
     }
 
     @Override
@@ -311,9 +1257,10 @@ public class Project implements Iterable<CueList>, AutoCloseable
         return cueLists.iterator();
     }
 
+    /** @return {@code true} if the project has been edited since it was last saved */
     public boolean isDirty()
     {
-        return dirty;
+        return journal.getSequence() > savedSequence;
     }
 
     public boolean toggleTransport()
@@ -344,5 +1291,9 @@ public class Project implements Iterable<CueList>, AutoCloseable
         {
             list.close();
         }
+
+        sampleCache.clear();
+        prerollCache.clear();
+        journal.close();
     }
 }
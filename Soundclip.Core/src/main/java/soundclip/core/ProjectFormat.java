@@ -0,0 +1,107 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The encodings a project can be saved in. Both describe the same tree, so a project can be
+ * converted by changing its format and saving it. The format of a file is detected when it's read.
+ */
+public enum ProjectFormat
+{
+    /** Pretty-printed JSON, readable and easy to merge */
+    JSON,
+    /** Smile, a binary encoding of JSON that is smaller and faster to read and write */
+    SMILE;
+
+    private static final JsonFactory JSON_FACTORY = new ObjectMapper().getFactory();
+    private static final JsonFactory SMILE_FACTORY = new ObjectMapper(
+            // Cue types and file names repeat throughout a project, write each one once
+            new SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+    ).getFactory();
+
+    /** @return a parser for the file, which must be in this format */
+    public JsonParser createParser(File f) throws IOException
+    {
+        return factory().createParser(f);
+    }
+
+    /** @return a generator that writes this format to the stream */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException
+    {
+        JsonGenerator writer = factory().createGenerator(out, JsonEncoding.UTF8);
+        if(this == JSON) writer.useDefaultPrettyPrinter();
+
+        return writer;
+    }
+
+    private JsonFactory factory()
+    {
+        return this == SMILE ? SMILE_FACTORY : JSON_FACTORY;
+    }
+
+    /** @return the format of the file, from the Smile header at its start */
+    public static ProjectFormat of(File f) throws IOException
+    {
+        byte[] header = new byte[3];
+        int read = 0;
+        try(InputStream in = new FileInputStream(f))
+        {
+            while(read < header.length)
+            {
+                int n = in.read(header, read, header.length - read);
+                if(n < 0) break;
+                read += n;
+            }
+        }
+
+        boolean smile = read == header.length &&
+                header[0] == SmileConstants.HEADER_BYTE_1 &&
+                header[1] == SmileConstants.HEADER_BYTE_2 &&
+                header[2] == SmileConstants.HEADER_BYTE_3;
+
+        return smile ? SMILE : JSON;
+    }
+
+    /** @return a parser for the file in whichever format it's in */
+    public static JsonParser open(File f) throws IOException
+    {
+        return of(f).createParser(f);
+    }
+
+    public static ProjectFormat fromOrdinal(int ord)
+    {
+        switch(ord)
+        {
+            case 0: return JSON;
+            case 1: return SMILE;
+            default: throw new IndexOutOfBoundsException();
+        }
+    }
+}
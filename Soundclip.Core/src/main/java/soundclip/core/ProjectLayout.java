@@ -0,0 +1,45 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core;
+
+/**
+ * How a project is laid out on disk
+ */
+public enum ProjectLayout
+{
+    /** Everything in the project file */
+    SINGLE_FILE,
+    /**
+     * The project file is a manifest, and each cue list is stored in its own file in a folder
+     * next to it. Only the lists that changed are written when the project is saved.
+     */
+    SPLIT;
+
+    /** The suffix appended to the project path to name the folder that split cue lists are stored in */
+    public static final String LIST_DIRECTORY_EXTENSION = ".lists";
+
+    /** The extension of the files that split cue lists are stored in */
+    public static final String LIST_EXTENSION = ".sclist";
+
+    public static ProjectLayout fromOrdinal(int ord)
+    {
+        switch(ord)
+        {
+            case 0: return SINGLE_FILE;
+            case 1: return SPLIT;
+            default: throw new IndexOutOfBoundsException();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package soundclip.core.cues;
 
+import javafx.util.Duration;
+
 /**
  * A wrapper interface for Audio Cues
  */
@@ -14,6 +16,27 @@ public interface IAudioCue extends IFadeableCue, ISeekableCue, IPitchableCue, IP
      */
     void setSource(String source);
 
+    /** @return The position in the source that playback starts from */
+    Duration getStartOffset();
+
+    /**
+     * Sets the position in the source that playback starts from. Progress and duration are
+     * measured from this point.
+     *
+     * @param offset the time to skip at the start of the source. Negative offsets are treated as zero
+     */
+    void setStartOffset(Duration offset);
+
+    /** @return How much of the end of the source is not played */
+    Duration getEndOffset();
+
+    /**
+     * Sets how much of the end of the source is not played
+     *
+     * @param offset the time to cut from the end of the source. Negative offsets are treated as zero
+     */
+    void setEndOffset(Duration offset);
+
     /** @return A collection of supported file extensions */
     String[] getSupportedExtensions();
 }
@@ -1,6 +1,7 @@
 package soundclip.core.cues;
 
 import javafx.util.Duration;
+import soundclip.core.playback.FadeCurve;
 
 /**
  * A cue that can fade in or out (or both).
@@ -17,13 +18,31 @@ import javafx.util.Duration;
 public interface IFadeableCue extends ICue
 {
     /** Triggers the cue from the start with a gradual fade-in over the specified duration */
-    void fadeIn(Duration duration);
+    default void fadeIn(Duration duration)
+    {
+        fadeIn(duration, FadeCurve.DEFAULT);
+    }
+
+    /** Triggers the cue from the start with a gradual fade-in over the specified duration, along the specified curve */
+    void fadeIn(Duration duration, FadeCurve curve);
 
     /** Fade the cue to the specified value over the specified duration. This normally alters the volume */
-    void fadeTo(double value, Duration over);
+    default void fadeTo(double value, Duration over)
+    {
+        fadeTo(value, over, FadeCurve.DEFAULT);
+    }
+
+    /** Fade the cue to the specified value over the specified duration, along the specified curve */
+    void fadeTo(double value, Duration over, FadeCurve curve);
 
     /** If the cue is currently playing, fade it out over the specified duration */
-    void fadeOut(Duration duration);
+    default void fadeOut(Duration duration)
+    {
+        fadeOut(duration, FadeCurve.DEFAULT);
+    }
+
+    /** If the cue is currently playing, fade it out over the specified duration, along the specified curve */
+    void fadeOut(Duration duration, FadeCurve curve);
 
     boolean isFading();
 }
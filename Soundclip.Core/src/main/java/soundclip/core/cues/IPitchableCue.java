@@ -7,8 +7,14 @@ package soundclip.core.cues;
  */
 public interface IPitchableCue extends ICue
 {
-    /** Gets the pitch to play this cue back at */
+    /** Gets the pitch to play this cue back at, in semitones from the original pitch */
     double getPitch();
-    /** Sets the pitch to play this cue back at */
+    /** Sets the pitch to play this cue back at, in semitones from the original pitch */
     void setPitch(double pitch);
+
+    /** @return the playback rate that shifts the pitch by the specified number of semitones */
+    static double rateOf(double semitones)
+    {
+        return Math.pow(2.0, semitones / 12.0);
+    }
 }
@@ -0,0 +1,33 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.cues;
+
+/**
+ * A cue whose playback backend is expensive to hold and can be created on demand.
+ *
+ * Implementations must be safe to prepare and release from a background thread, and
+ * must prepare themselves if they are triggered while released.
+ */
+public interface IPreparableCue extends ICue
+{
+    /** Create the playback backend if it does not already exist */
+    void prepare();
+
+    /** Dispose the playback backend. Does nothing while the cue is performing an action */
+    void release();
+
+    /** @return {@code true} iff the playback backend exists */
+    boolean isPrepared();
+}
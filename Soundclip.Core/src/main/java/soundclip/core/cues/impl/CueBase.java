@@ -20,9 +20,11 @@ import javafx.util.Duration;
 import soundclip.core.CueNumber;
 import soundclip.core.ProgressType;
 import soundclip.core.cues.ICue;
+import soundclip.core.interop.Signal;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -37,6 +39,14 @@ public abstract class CueBase implements ICue
     private Duration preWaitDelay;
     private Duration postWaitDelay;
     private ProgressType progressType;
+    private volatile boolean active;
+
+    /** A signal triggered when the cue starts or finishes running, pausing or waiting */
+    public final Signal<ICue> onActivityChanged = new Signal<>();
+    /** A signal triggered when a property of the cue that is saved with the project changes. Not triggered for the number */
+    public final Signal<ICue> onEdited = new Signal<>();
+    /** A signal triggered when the number of the cue changes */
+    public final Signal<ICue> onNumberChanged = new Signal<>();
 
     protected CueBase()
     {
@@ -63,7 +73,10 @@ public abstract class CueBase implements ICue
     @Override
     public void setNumber(CueNumber number)
     {
+        boolean changed = !Objects.equals(number, this.number);
         this.number = number;
+
+        if(changed) onNumberChanged.post(this);
     }
 
     @Override
@@ -76,6 +89,7 @@ public abstract class CueBase implements ICue
     public void setName(String name)
     {
         this.name = name;
+        edited();
     }
 
     @Override
@@ -88,6 +102,7 @@ public abstract class CueBase implements ICue
     public void setNotes(String notes)
     {
         this.notes = notes;
+        edited();
     }
 
     @Override
@@ -100,6 +115,7 @@ public abstract class CueBase implements ICue
     public void setPreWaitDelay(Duration delay)
     {
         preWaitDelay = delay;
+        edited();
     }
 
     @Override
@@ -112,6 +128,7 @@ public abstract class CueBase implements ICue
     public void setPostWaitDelay(Duration delay)
     {
         postWaitDelay = delay;
+        edited();
     }
 
     @Override
@@ -130,6 +147,7 @@ public abstract class CueBase implements ICue
     public void setProgressType(ProgressType type)
     {
         progressType = type;
+        edited();
     }
 
     @Override
@@ -162,6 +180,37 @@ public abstract class CueBase implements ICue
 
     }
 
+    /**
+     * @return {@code true} if the cue was running, paused or waiting the last time it reported
+     * a change in activity. Does not query the backend.
+     */
+    public boolean isActive()
+    {
+        return active;
+    }
+
+    /** @return {@code true} if the cue is running, paused or waiting right now */
+    protected boolean computeActivity()
+    {
+        return isPerformingAction() || isPaused() || isInPreWait() || isInPostWait();
+    }
+
+    /** Re-check the activity of the cue, triggering {@link #onActivityChanged} if it changed */
+    protected void updateActivity()
+    {
+        boolean now = computeActivity();
+        if(now == active) return;
+
+        active = now;
+        onActivityChanged.post(this);
+    }
+
+    /** Trigger {@link #onEdited}. Call after changing a property that is saved with the project */
+    protected void edited()
+    {
+        onEdited.post(this);
+    }
+
     protected void deserializeCommonFields(JsonNode cue)
     {
         setName(cue.get("name").asText());
@@ -17,6 +17,7 @@ package soundclip.core.cues.impl;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import javafx.animation.*;
+import javafx.beans.binding.Bindings;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.scene.media.Media;
@@ -27,20 +28,36 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import soundclip.core.CueNumber;
 import soundclip.core.CueSupportFlags;
+import soundclip.core.IPostLoadHook;
+import soundclip.core.Project;
 import soundclip.core.cues.IAudioCue;
+import soundclip.core.cues.IPitchableCue;
+import soundclip.core.cues.IPreparableCue;
+import soundclip.core.interop.FXThread;
+import soundclip.core.media.AssetRegistry;
+import soundclip.core.media.MediaAsset;
+import soundclip.core.media.MediaMetadata;
+import soundclip.core.media.MediaMetadataCache;
+import soundclip.core.playback.AudioEngine;
+import soundclip.core.playback.FadeCurve;
+import soundclip.core.playback.FadeScheduler;
+import soundclip.core.playback.IFadeTarget;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An audio cue backed by the JavaFX MediaPlayer implementation
  *
  * Supports any audio formats supported by the implementation of
- * {@link javafx.scene.media.MediaPlayer} on your system.
+ * {@link javafx.scene.media.MediaPlayer} on your system. The player is only created
+ * when the cue is prepared (see {@link soundclip.core.PreparationWindow}) or triggered.
  */
-public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
+public class FXAudioCue extends CueBase implements IAudioCue, IPreparableCue, IPostLoadHook, AutoCloseable
 {
     private static final Logger Log = LogManager.getLogger(FXAudioCue.class);
 
@@ -48,15 +65,46 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
     private double pan;
 
     private String source;
-    private Media backendSource;
-    private MediaPlayer backend;
+    private Duration startOffset = Duration.ZERO;
+    private Duration endOffset = Duration.ZERO;
+    private volatile Media backendSource;
+    private volatile MediaPlayer backend;
+    private String backendError;
+    private volatile Duration knownDuration = Duration.ZERO;
+    private MediaMetadataCache metadata;
+    private AssetRegistry assets;
+    private MediaAsset asset;
+    private CompletableFuture<MediaAsset> pendingAsset;
+    // MediaPlayer changes status asynchronously, so remember that playback was requested to keep the player alive
+    private volatile boolean playRequested = false;
     private SimpleObjectProperty<Duration> preWaitProgressWrapper = new SimpleObjectProperty<>(Duration.UNKNOWN);
     private SimpleObjectProperty<Duration> progressPropertyWrapper = new SimpleObjectProperty<>(Duration.UNKNOWN);
     private SimpleObjectProperty<Duration> postWaitProgressWrapper = new SimpleObjectProperty<>(Duration.UNKNOWN);
+    // The player the progress is bound to. Only touched on the FX thread
+    private MediaPlayer progressSource;
 
     private Timeline preWaitTimeline;
     private Timeline postWaitTimeline;
-    private Timeline fadeTimeline;
+    // The fade scheduler publishes the player volume from the render thread, it's applied on the FX thread
+    private volatile double gain = 1.0;
+    private final AtomicBoolean gainPending = new AtomicBoolean(false);
+    private final Runnable applyGain = this::applyGain;
+    private final IFadeTarget volume = new IFadeTarget()
+    {
+        @Override
+        public double getGain()
+        {
+            return gain;
+        }
+
+        @Override
+        public void setGain(double value)
+        {
+            gain = value;
+            if(gainPending.compareAndSet(false, true)) FXThread.runLater(applyGain);
+        }
+    };
+    private final Runnable stopAfterFade = this::stopAfterFade;
     private String projectPath = null;
 
     public FXAudioCue(CueNumber number)
@@ -69,7 +117,18 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
     @Override
     public Duration getDuration()
     {
-        return backendSource == null || backend == null ? Duration.ZERO : backend.getTotalDuration();
+        Duration d = sourceDuration().subtract(startOffset).subtract(endOffset);
+        return d.lessThan(Duration.ZERO) ? Duration.ZERO : d;
+    }
+
+    /** @return the length of the whole source */
+    private Duration sourceDuration()
+    {
+        // The cached duration is counted from the file, use the player's estimate only if there isn't one
+        if(knownDuration.greaterThan(Duration.ZERO)) return knownDuration;
+
+        MediaPlayer player = backend;
+        return player == null || player.getTotalDuration().isUnknown() ? knownDuration : player.getTotalDuration();
     }
 
     @Override
@@ -84,10 +143,12 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
         List<String> errors = new LinkedList<>();
 
         if(source == null || source.isEmpty()) errors.add("No audio file specified");
-        if(backendSource == null || backend == null) errors.add("Unable to initialize audio backend");
-        if(backendSource != null)
+        if(backendError != null) errors.add("Unable to initialize audio backend");
+
+        Media media = backendSource;
+        if(media != null)
         {
-            MediaException ex = backendSource.getError();
+            MediaException ex = media.getError();
             if(ex != null)
             {
                 errors.add(ex.getMessage());
@@ -102,8 +163,18 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
         boolean isInPreWait = preWaitTimeline != null && preWaitTimeline.getStatus() == Animation.Status.PAUSED;
 
         if(isInPreWait) preWaitTimeline.play();
-        if(!isInPreWait && backend != null) backend.play();
-        if(isFading()) fadeTimeline.play();
+        if(!isInPreWait) play();
+        if(isFading()) fades().resume(volume);
+    }
+
+    private synchronized void play()
+    {
+        prepare();
+        if(backend == null) return;
+
+        playRequested = true;
+        backend.play();
+        updateActivity();
     }
 
     @Override
@@ -129,6 +200,7 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
             preWaitTimeline.setOnFinished((e) -> _go());
             preWaitProgressWrapper.bind(preWaitTimeline.currentTimeProperty());
             preWaitTimeline.playFromStart();
+            updateActivity();
         }
         else
         {
@@ -140,7 +212,7 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
     public void pause()
     {
         if(backend != null) backend.pause();
-        if(fadeTimeline != null) fadeTimeline.pause();
+        fades().pause(volume);
     }
 
     @Override
@@ -152,15 +224,13 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
     @Override
     public void stop()
     {
+        playRequested = false;
+        fades().cancel(volume);
         if(backend != null)
         {
             backend.seek(backend.getStartTime());
             backend.stop();
-            backend.setVolume(1.0);
-        }
-        if(fadeTimeline != null)
-        {
-            fadeTimeline.stop();
+            setVolume(1.0);
         }
         if(preWaitTimeline != null)
         {
@@ -172,6 +242,7 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
             postWaitTimeline.stop();
             postWaitTimeline = null;
         }
+        updateActivity();
     }
 
     @Override
@@ -182,6 +253,8 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
 
         pan = cue.get("pan").asDouble();
         pitch = cue.get("pitch").asDouble();
+        if(cue.has("startOffset")) startOffset = Duration.millis(cue.get("startOffset").asDouble());
+        if(cue.has("endOffset")) endOffset = Duration.millis(cue.get("endOffset").asDouble());
 
         setSource(cue.get("source").asText());
     }
@@ -197,6 +270,8 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
 
             w.writeNumberField("pan", pan);
             w.writeNumberField("pitch", pitch);
+            w.writeNumberField("startOffset", startOffset.toMillis());
+            w.writeNumberField("endOffset", endOffset.toMillis());
 
             w.writeStringField("source", source);
         }
@@ -224,7 +299,8 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
     @Override
     public Duration getProgress()
     {
-        return backend == null ? Duration.UNKNOWN : backend.getCurrentTime();
+        MediaPlayer player = backend;
+        return player == null ? Duration.UNKNOWN : player.getCurrentTime();
     }
 
     @Override
@@ -248,7 +324,9 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
     @Override
     public boolean isPerformingAction()
     {
-        return backend != null && (backend.getStatus() == MediaPlayer.Status.PLAYING || backend.getStatus() == MediaPlayer.Status.PAUSED);
+        // The backend may be released from the preparation thread
+        MediaPlayer player = backend;
+        return player != null && (player.getStatus() == MediaPlayer.Status.PLAYING || player.getStatus() == MediaPlayer.Status.PAUSED);
     }
 
     @Override
@@ -260,96 +338,114 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
     @Override
     public boolean isPaused()
     {
-        return backend != null && (backend.getStatus() == MediaPlayer.Status.PAUSED);
+        MediaPlayer player = backend;
+        return player != null && (player.getStatus() == MediaPlayer.Status.PAUSED);
     }
 
     @Override
-    public void fadeIn(Duration duration)
+    protected boolean computeActivity()
     {
-        if(fadeTimeline != null)
-        {
-            fadeTimeline.stop();
-        }
+        // The player reports that it's playing some time after it's asked to
+        return playRequested || super.computeActivity();
+    }
 
-        backend.setVolume(0.0);
+    @Override
+    public void fadeIn(Duration duration, FadeCurve curve)
+    {
+        prepare();
+        if(backend == null) return;
+
+        fades().cancel(volume);
+        setVolume(0.0);
 
         // TODO: Fade to set volume
-        fadeTimeline = new Timeline(
-                new KeyFrame(
-                        duration,
-                        // TODO: Allow interpolator to be set
-                        new KeyValue(backend.volumeProperty(), 1.0, Interpolator.EASE_BOTH)
-                )
-        );
+        play();
+        startFade(1.0, duration, curve, null);
+    }
 
-        backend.play();
-        fadeTimeline.play();
+    @Override
+    public void fadeTo(double value, Duration duration, FadeCurve curve)
+    {
+        prepare();
+        if(backend == null) return;
+
+        if(!isPerformingAction()) play();
+        startFade(value, duration, curve, null);
     }
 
     @Override
-    public void fadeTo(double value, Duration duration)
+    public void fadeOut(Duration duration, FadeCurve curve)
     {
-        if(fadeTimeline != null)
-        {
-            fadeTimeline.stop();
-        }
+        if(backend == null) return;
 
-        // TODO: Fade to set volume
-        fadeTimeline = new Timeline(
-                new KeyFrame(
-                        duration,
-                        // TODO: Allow interpolator to be set
-                        new KeyValue(backend.volumeProperty(), value, Interpolator.EASE_BOTH)
-                )
-        );
+        startFade(0.0, duration, curve, stopAfterFade);
+    }
+
+    private void stopAfterFade()
+    {
+        MediaPlayer player = backend;
+        playRequested = false;
+        updateActivity();
+        if(player == null) return;
 
-        if(!isPerformingAction()) backend.play();
-        fadeTimeline.play();
+        player.stop();
+        player.seek(player.getStartTime());
+
+        // TODO: Restore volume to configured volume
+        setVolume(1.0);
     }
 
-    @Override
-    public void fadeOut(Duration duration)
+    /** Set the player volume outside of a fade. Called on the FX thread */
+    private void setVolume(double value)
     {
-        if(fadeTimeline != null)
-        {
-            fadeTimeline.stop();
-        }
+        gain = value;
 
-        fadeTimeline = new Timeline(
-                new KeyFrame(
-                        duration,
-                        // TODO: Allow interpolator to be set
-                        new KeyValue(backend.volumeProperty(), 0.0, Interpolator.EASE_BOTH)
-                )
-        );
-        fadeTimeline.setOnFinished(e ->
-        {
-            backend.stop();
-            backend.seek(backend.getStartTime());
+        MediaPlayer player = backend;
+        if(player != null) player.setVolume(value);
+    }
 
-            // TODO: Restore volume to configured volume
-            backend.setVolume(1.0);
-        });
+    /** Apply the latest volume published by the fade scheduler, once per FX pulse however many blocks set it */
+    private void applyGain()
+    {
+        gainPending.set(false);
 
-        fadeTimeline.play();
+        // A block may publish a step of a fade that was cancelled when the cue stopped, which must not stick
+        MediaPlayer player = backend;
+        if(player != null && playRequested) player.setVolume(gain);
     }
 
     @Override
     public boolean isFading()
     {
-        return fadeTimeline != null && (fadeTimeline.getStatus() == Animation.Status.RUNNING || fadeTimeline.getStatus() == Animation.Status.PAUSED);
+        return fades().isFading(volume);
+    }
+
+    /** Fade the player volume from the engine's block clock, which has to be running even if nothing is mixed */
+    private void startFade(double value, Duration duration, FadeCurve curve, Runnable onComplete)
+    {
+        AudioEngine.getDefault().start();
+        fades().fade(volume, value, duration, curve, onComplete);
+    }
+
+    private static FadeScheduler fades()
+    {
+        return AudioEngine.getDefault().getFadeScheduler();
     }
 
     @Override
     public void seekRelative(Duration offset)
     {
+        if(backend == null) return;
+
         backend.seek(backend.getCurrentTime().add(offset));
     }
 
     @Override
     public void seekAbsolute(Duration duration)
     {
-        backend.seek(javafx.util.Duration.millis(duration.toMillis()));
+        if(backend == null) return;
+
+        backend.seek(backend.getStartTime().add(duration));
     }
 
     /** @return the path to the audio file this cue will play, null if no file is specified */
@@ -375,6 +471,8 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
         if(!(new File(projectPath, source).exists())) throw new IllegalArgumentException("The file at " + source + " does not exist");
 
         this.source = source;
+        edited();
+        boolean wasPrepared = isPrepared();
 
         try
         {
@@ -385,35 +483,208 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
             Log.warn("Failed to clean up previous backend", e);
         }
 
-        backendSource = new Media(new File(projectPath, source).toURI().toString());
-        backend = new MediaPlayer(backendSource);
+        knownDuration = Duration.ZERO;
+        backendError = null;
+        readCachedDuration();
+        acquireAsset();
 
-        backend.setOnReady(() -> {
-            progressPropertyWrapper.bind(backend.currentTimeProperty());
-        });
-        backend.setOnEndOfMedia(() -> {
-            backend.stop();
-            backend.seek(backend.getStartTime());
-        });
+        if(wasPrepared) prepare();
     }
 
     @Override
-    public String[] getSupportedExtensions()
+    public synchronized void prepare()
     {
-        return new String[]{"wav", "mp3", "aif", "aiff", "mp4", "m4a", "m4v"};
+        if(backend != null || source == null) return;
+
+        try
+        {
+            // Players of the same contents share one Media, so the file is only opened and parsed once
+            Media media = asset != null ? asset.getMedia() : new Media(new File(projectPath, source).toURI().toString());
+            MediaPlayer player = new MediaPlayer(media);
+            player.setBalance(pan);
+            player.setStartTime(startOffset);
+            player.setRate(IPitchableCue.rateOf(pitch));
+            player.setVolume(gain);
+
+            player.setOnReady(() -> {
+                if(!knownDuration.greaterThan(Duration.ZERO)) knownDuration = player.getTotalDuration();
+                applyStopTime(player);
+
+                File file = new File(projectPath, source);
+                MediaMetadata m = metadata == null ? null : metadata.get(file);
+                if(metadata != null && (m == null || m.getDuration().isUnknown()))
+                {
+                    metadata.put(file, m == null ? MediaMetadata.of(file, knownDuration) : m.withDuration(knownDuration));
+                }
+
+                progressPropertyWrapper.bind(Bindings.createObjectBinding(
+                        () -> player.getCurrentTime().subtract(player.getStartTime()),
+                        player.currentTimeProperty(),
+                        player.startTimeProperty()
+                ));
+                progressSource = player;
+            });
+            player.statusProperty().addListener((prop, oldValue, newValue) -> updateActivity());
+            player.setOnEndOfMedia(() -> {
+                playRequested = false;
+                player.stop();
+                player.seek(player.getStartTime());
+            });
+
+            backendSource = media;
+            backend = player;
+            backendError = null;
+        }
+        catch (MediaException | UnsupportedOperationException e)
+        {
+            Log.warn("Unable to create a media player for {}", source, e);
+            backendError = e.getMessage();
+        }
     }
 
     @Override
-    public void close() throws Exception
+    public Duration getStartOffset()
     {
-        if(backend != null)
+        return startOffset;
+    }
+
+    @Override
+    public void setStartOffset(Duration offset)
+    {
+        startOffset = offset == null || offset.lessThan(Duration.ZERO) ? Duration.ZERO : offset;
+
+        MediaPlayer player = backend;
+        if(player != null) player.setStartTime(startOffset);
+        edited();
+    }
+
+    @Override
+    public Duration getEndOffset()
+    {
+        return endOffset;
+    }
+
+    @Override
+    public void setEndOffset(Duration offset)
+    {
+        endOffset = offset == null || offset.lessThan(Duration.ZERO) ? Duration.ZERO : offset;
+
+        MediaPlayer player = backend;
+        if(player != null) applyStopTime(player);
+        edited();
+    }
+
+    /** Stop the player before the end offset, once the length of the source is known */
+    private void applyStopTime(MediaPlayer player)
+    {
+        Duration length = sourceDuration();
+        if(length.isUnknown() || !length.greaterThan(Duration.ZERO)) return;
+
+        player.setStopTime(endOffset.greaterThan(Duration.ZERO) ? length.subtract(endOffset) : length);
+    }
+
+    @Override
+    public void onProjectLoaded(Project p)
+    {
+        metadata = p.getMediaMetadata();
+        assets = p.getAssets();
+        readCachedDuration();
+        acquireAsset();
+    }
+
+    /** Share the media of the source with every other cue playing the same contents */
+    private synchronized void acquireAsset()
+    {
+        if(assets == null || source == null || asset != null || pendingAsset != null) return;
+
+        // New files are hashed in the background, the cue reads its own file until the asset is attached
+        AssetRegistry registry = assets;
+        CompletableFuture<MediaAsset> pending = registry.acquireAsync(new File(projectPath, source));
+        pendingAsset = pending;
+        pending.whenComplete((a, e) -> attachAsset(registry, pending, a, e));
+    }
+
+    private synchronized void attachAsset(AssetRegistry registry, CompletableFuture<MediaAsset> pending, MediaAsset a, Throwable e)
+    {
+        boolean current = pendingAsset == pending;
+        if(current) pendingAsset = null;
+
+        if(e != null)
         {
-            progressPropertyWrapper.unbind();
-            backend.stop();
-            backend.dispose();
+            Log.warn("Unable to hash {}", source, e);
+        }
+        else if(!current)
+        {
+            // The source changed or the cue was closed while the file was hashed
+            registry.release(a);
+        }
+        else
+        {
+            asset = a;
         }
+    }
+
+    /** Use the duration from the project metadata cache until a player has been created */
+    private void readCachedDuration()
+    {
+        if(metadata == null || source == null) return;
+
+        MediaMetadata m = metadata.getOrProbe(new File(projectPath, source));
+        if(m != null && !m.getDuration().isUnknown()) knownDuration = m.getDuration();
+    }
+
+    @Override
+    public synchronized void release()
+    {
+        if(backend == null || playRequested || isPerformingAction() || isInPreWait() || isFading()) return;
+
+        disposeBackend();
+    }
+
+    @Override
+    public boolean isPrepared()
+    {
+        return backend != null;
+    }
+
+    @Override
+    public String[] getSupportedExtensions()
+    {
+        return new String[]{"wav", "mp3", "aif", "aiff", "mp4", "m4a", "m4v"};
+    }
+
+    @Override
+    public synchronized void close() throws Exception
+    {
+        fades().cancel(volume);
+        disposeBackend();
+
+        MediaAsset a = asset;
+        asset = null;
+        pendingAsset = null;
+        if(a != null) assets.release(a);
+    }
+
+    /** Dispose of the player. May be called off the FX thread by the preparation window */
+    private synchronized void disposeBackend()
+    {
+        MediaPlayer player = backend;
         backend = null;
         backendSource = null;
+
+        if(player != null)
+        {
+            // The table observes the progress, so it's only unbound on the FX thread. A player
+            // prepared in the meantime may have bound it already
+            FXThread.run(() -> {
+                if(progressSource != player) return;
+
+                progressPropertyWrapper.unbind();
+                progressSource = null;
+            });
+            player.stop();
+            player.dispose();
+        }
     }
 
     @Override
@@ -426,6 +697,10 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
     public void setPitch(double pitch)
     {
         this.pitch = pitch;
+
+        MediaPlayer player = backend;
+        if(player != null) player.setRate(IPitchableCue.rateOf(pitch));
+        edited();
     }
 
     @Override
@@ -438,6 +713,10 @@ public class FXAudioCue extends CueBase implements IAudioCue, AutoCloseable
     public void setPan(double pan)
     {
         this.pan = pan < -1.0 ? -1.0 : (pan > 1.0 ? 1.0 : pan);
+
+        MediaPlayer player = backend;
+        if(player != null) player.setBalance(this.pan);
+        edited();
     }
 
     @Override
@@ -21,8 +21,8 @@ import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
-import javafx.event.ActionEvent;
 import javafx.util.Duration;
+import javafx.util.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import soundclip.core.CueNumber;
@@ -31,6 +31,11 @@ import soundclip.core.IPostLoadHook;
 import soundclip.core.Project;
 import soundclip.core.cues.ICue;
 import soundclip.core.cues.IFadeableCue;
+import soundclip.core.interop.Signal;
+import soundclip.core.playback.AudioEngine;
+import soundclip.core.playback.FadeCurve;
+import soundclip.core.playback.FadeScheduler;
+import soundclip.core.playback.IFadeTarget;
 
 import java.io.IOException;
 import java.util.UUID;
@@ -42,6 +47,9 @@ public class FadeCue extends CueBase implements IPostLoadHook
 {
     private static final Logger Log = LogManager.getLogger(FadeCue.class);
 
+    /** How often the progress property is refreshed while the fade is running */
+    private static final Duration PROGRESS_INTERVAL = Duration.millis(50);
+
     /** The type of fade to perform */
     public enum FadeType
     {
@@ -65,17 +73,36 @@ public class FadeCue extends CueBase implements IPostLoadHook
     private FadeType fadeType;
     private Duration fadeDuration;
     private double targetValue;
+    private FadeCurve curve = FadeCurve.DEFAULT;
 
     private SimpleObjectProperty<Duration> preWaitProgressWrapper = new SimpleObjectProperty<>(Duration.UNKNOWN);
     private SimpleObjectProperty<Duration> postWaitProgressWrapper = new SimpleObjectProperty<>(Duration.UNKNOWN);
+    private SimpleObjectProperty<Duration> progressWrapper = new SimpleObjectProperty<>(Duration.ZERO);
 
     private Timeline preWaitTimeline;
-    private Timeline fadeTimeline;
+    private Timeline progressTimeline;
     private Timeline postWaitTimeline;
 
+    /** Times the fade on the engine's block clock alongside the target's own fade. It has no gain of its own */
+    private final IFadeTarget timer = new IFadeTarget()
+    {
+        @Override
+        public double getGain()
+        {
+            return 0.0;
+        }
+
+        @Override
+        public void setGain(double gain) { }
+    };
+    private final Runnable onFadeComplete = this::onFadeComplete;
+
     private UUID targetGUID;
     private IFadeableCue target;
 
+    /** A signal triggered with the previous and new GUID of the target when the target is changed */
+    public final Signal<Pair<UUID, UUID>> onTargetChanged = new Signal<>();
+
     public FadeCue(CueNumber number)
     {
         super();
@@ -84,14 +111,17 @@ public class FadeCue extends CueBase implements IPostLoadHook
         target = null;
         targetValue = 0.0d;
         fadeType = FadeType.OUT;
-        fadeTimeline = new Timeline();
-        fadeTimeline.setCycleCount(1);
         setFadeDuration(Duration.seconds(3));
     }
 
-    private void onTimelineComplete(ActionEvent actionEvent)
+    /** Run on the FX thread when the fade finishes */
+    private void onFadeComplete()
     {
-        Log.debug("Fade timeline complete");
+        Log.debug("Fade complete");
+
+        if(progressTimeline != null) progressTimeline.stop();
+        progressWrapper.set(Duration.ZERO);
+        updateActivity();
     }
 
     @Override
@@ -109,13 +139,14 @@ public class FadeCue extends CueBase implements IPostLoadHook
     @Override
     public ReadOnlyObjectProperty<Duration> progressProperty()
     {
-        return fadeTimeline.currentTimeProperty();
+        return progressWrapper;
     }
 
     @Override
     public Duration getProgress()
     {
-        return fadeTimeline.getCurrentTime();
+        Duration elapsed = fades().getElapsed(timer);
+        return elapsed.isUnknown() ? Duration.ZERO : elapsed;
     }
 
     @Override
@@ -139,7 +170,7 @@ public class FadeCue extends CueBase implements IPostLoadHook
     @Override
     public boolean isPerformingAction()
     {
-        return fadeTimeline.getStatus() == Animation.Status.RUNNING;
+        return fades().isFading(timer) && !fades().isPaused(timer);
     }
 
     @Override
@@ -157,8 +188,7 @@ public class FadeCue extends CueBase implements IPostLoadHook
     public void setFadeDuration(Duration d)
     {
         fadeDuration = d;
-        fadeTimeline.getKeyFrames().clear();
-        fadeTimeline.getKeyFrames().add(new KeyFrame(d, this::onTimelineComplete));
+        edited();
     }
 
     @Override
@@ -169,15 +199,20 @@ public class FadeCue extends CueBase implements IPostLoadHook
 
     private void _go()
     {
-        fadeTimeline.playFromStart();
+        AudioEngine.getDefault().start();
+        fades().fade(timer, 1.0, fadeDuration, onFadeComplete);
+        startProgress();
+
         if(fadeType == FadeType.OUT)
         {
-            target.fadeOut(fadeDuration);
+            target.fadeOut(fadeDuration, curve);
         }
         else
         {
-            target.fadeTo(targetValue, fadeDuration);
+            target.fadeTo(targetValue, fadeDuration, curve);
         }
+
+        updateActivity();
     }
 
     @Override
@@ -205,6 +240,7 @@ public class FadeCue extends CueBase implements IPostLoadHook
                 preWaitTimeline.setOnFinished(e -> _go());
                 preWaitProgressWrapper.bind(preWaitTimeline.currentTimeProperty());
                 preWaitTimeline.playFromStart();
+                updateActivity();
             }
             else
             {
@@ -217,24 +253,28 @@ public class FadeCue extends CueBase implements IPostLoadHook
     @Override
     public void pause()
     {
-        fadeTimeline.pause();
+        fades().pause(timer);
+        if(progressTimeline != null) progressTimeline.pause();
     }
 
     @Override
     public boolean isPaused() {
-        return fadeTimeline.getStatus() == Animation.Status.PAUSED;
+        return fades().isPaused(timer);
     }
 
     @Override
     public void resume()
     {
-        fadeTimeline.play();
+        fades().resume(timer);
+        if(progressTimeline != null && fades().isFading(timer)) progressTimeline.play();
     }
 
     @Override
     public void stop()
     {
-        fadeTimeline.stop();
+        fades().cancel(timer);
+        if(progressTimeline != null) progressTimeline.stop();
+        progressWrapper.set(Duration.ZERO);
         if(preWaitTimeline != null)
         {
             preWaitTimeline.stop();
@@ -245,6 +285,7 @@ public class FadeCue extends CueBase implements IPostLoadHook
             postWaitTimeline.stop();
             postWaitTimeline = null;
         }
+        updateActivity();
     }
 
     @Override
@@ -254,6 +295,7 @@ public class FadeCue extends CueBase implements IPostLoadHook
         setFadeType(FadeType.valueOf(cue.get("fadeType").asText().toUpperCase()));
         setFadeDuration(Duration.millis(cue.get("duration").asDouble()));
         setTargetValue(cue.get("value").asDouble());
+        if(cue.has("curve")) setCurve(FadeCurve.valueOf(cue.get("curve").asText().toUpperCase()));
 
         String guid = cue.get("target").asText("");
         targetGUID = guid.isEmpty() ? null : UUID.fromString(guid);
@@ -289,11 +331,30 @@ public class FadeCue extends CueBase implements IPostLoadHook
             w.writeStringField("fadeType", fadeType.toString());
             w.writeNumberField("duration", fadeDuration.toMillis());
             w.writeNumberField("value", targetValue);
+            w.writeStringField("curve", curve.toString());
             w.writeStringField("target", target == null ? "" : target.getGUID().toString());
         }
         w.writeEndObject();
     }
 
+    /** Refresh the progress property from the fade clock while the fade runs */
+    private void startProgress()
+    {
+        if(progressTimeline == null)
+        {
+            progressTimeline = new Timeline(new KeyFrame(PROGRESS_INTERVAL, e -> progressWrapper.set(getProgress())));
+            progressTimeline.setCycleCount(Animation.INDEFINITE);
+        }
+
+        progressWrapper.set(Duration.ZERO);
+        progressTimeline.playFromStart();
+    }
+
+    private static FadeScheduler fades()
+    {
+        return AudioEngine.getDefault().getFadeScheduler();
+    }
+
     public FadeType getFadeType()
     {
         return fadeType;
@@ -302,6 +363,7 @@ public class FadeCue extends CueBase implements IPostLoadHook
     public void setFadeType(FadeType fadeType)
     {
         this.fadeType = fadeType;
+        edited();
     }
 
     public double getTargetValue()
@@ -311,11 +373,30 @@ public class FadeCue extends CueBase implements IPostLoadHook
 
     public void setTargetValue(double targetValue)
     {
-        if(fadeTimeline.getStatus() == Animation.Status.RUNNING)
+        if(isPerformingAction())
         {
             Log.warn("Target Value changed while the timeline was running. The value will not be updated until the timeline is stopped");
         }
         this.targetValue = targetValue;
+        edited();
+    }
+
+    public FadeCurve getCurve()
+    {
+        return curve;
+    }
+
+    /** @param curve the shape of the fade applied to the target */
+    public void setCurve(FadeCurve curve)
+    {
+        this.curve = curve;
+        edited();
+    }
+
+    /** @return the GUID of the cue this cue fades, or {@code null} if it doesn't have a target */
+    public UUID getTargetGUID()
+    {
+        return targetGUID;
     }
 
     public IFadeableCue getTarget()
@@ -325,12 +406,15 @@ public class FadeCue extends CueBase implements IPostLoadHook
 
     public void setTarget(IFadeableCue target)
     {
-        if(fadeTimeline.getStatus() == Animation.Status.RUNNING)
+        if(isPerformingAction())
         {
             throw new IllegalStateException("Can't change the target while the cue is running!");
         }
 
+        UUID previous = targetGUID;
         this.target = target;
         this.targetGUID = target.getGUID();
+        onTargetChanged.post(new Pair<>(previous, targetGUID));
+        edited();
     }
 }
@@ -0,0 +1,778 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.cues.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import javafx.animation.*;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.util.Duration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import soundclip.core.CueNumber;
+import soundclip.core.CueSupportFlags;
+import soundclip.core.IPostLoadHook;
+import soundclip.core.Project;
+import soundclip.core.cues.IAudioCue;
+import soundclip.core.cues.IPitchableCue;
+import soundclip.core.cues.IPreparableCue;
+import soundclip.core.interop.FXThread;
+import soundclip.core.media.AssetRegistry;
+import soundclip.core.media.MediaAsset;
+import soundclip.core.media.MediaMetadata;
+import soundclip.core.media.MediaMetadataCache;
+import soundclip.core.media.Mp3SeekIndex;
+import soundclip.core.playback.AudioEngine;
+import soundclip.core.playback.FadeCurve;
+import soundclip.core.playback.FadeScheduler;
+import soundclip.core.playback.IFadeTarget;
+import soundclip.core.playback.ISampleSource;
+import soundclip.core.playback.PrerollCache;
+import soundclip.core.playback.RangeSampleSource;
+import soundclip.core.playback.SampleCache;
+import soundclip.core.playback.SampleSources;
+import soundclip.core.playback.SourceVoice;
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An audio cue mixed by the shared {@link AudioEngine}
+ *
+ * The source is opened and positioned when the cue is prepared, so triggering the cue only has
+ * to hand its voice to the engine. Short files are played from the project's {@link SampleCache} and
+ * long WAV or AIFF files are streamed from mapped memory (see {@link SampleSources}).
+ * Supports uncompressed PCM formats readable by {@link javax.sound.sampled.AudioSystem}.
+ */
+public class SampledAudioCue extends CueBase implements IAudioCue, IPreparableCue, IPostLoadHook, AutoCloseable
+{
+    private static final Logger Log = LogManager.getLogger(SampledAudioCue.class);
+
+    /** How often the progress properties are refreshed while the cue is playing */
+    private static final Duration PROGRESS_INTERVAL = Duration.millis(50);
+
+    private double pitch;
+    private double pan;
+
+    private volatile String source;
+    private Duration startOffset = Duration.ZERO;
+    private Duration endOffset = Duration.ZERO;
+    private volatile ISampleSource samples;
+    private long frameLength = AudioSystem.NOT_SPECIFIED;
+    private float sampleRate;
+    private volatile SampleCache cache;
+    private volatile PrerollCache preroll;
+    private volatile MediaMetadataCache metadata;
+    private AssetRegistry assets;
+    private MediaAsset asset;
+    private CompletableFuture<MediaAsset> pendingAsset;
+    private volatile SourceVoice voice;
+    private String backendError;
+
+    private volatile double volume = 1.0;
+    private final IFadeTarget gain = new IFadeTarget()
+    {
+        @Override
+        public double getGain()
+        {
+            return volume;
+        }
+
+        @Override
+        public void setGain(double value)
+        {
+            volume = value;
+
+            SourceVoice v = voice;
+            if(v != null) v.setGain(value);
+        }
+    };
+    private final Runnable stopAfterFade = this::stop;
+    private Timeline progressTimeline;
+    private SimpleObjectProperty<Duration> preWaitProgressWrapper = new SimpleObjectProperty<>(Duration.UNKNOWN);
+    private SimpleObjectProperty<Duration> progressPropertyWrapper = new SimpleObjectProperty<>(Duration.UNKNOWN);
+    private SimpleObjectProperty<Duration> postWaitProgressWrapper = new SimpleObjectProperty<>(Duration.UNKNOWN);
+
+    private Timeline preWaitTimeline;
+    private Timeline postWaitTimeline;
+    private String projectPath = null;
+
+    public SampledAudioCue(CueNumber number)
+    {
+        super();
+
+        setNumber(number);
+    }
+
+    @Override
+    public Duration getDuration()
+    {
+        return frameLength == AudioSystem.NOT_SPECIFIED ? Duration.ZERO : framesToDuration(endFrame(frameLength) - startFrame(frameLength));
+    }
+
+    @Override
+    public int getSupportedOperations()
+    {
+        return CueSupportFlags.FADE | CueSupportFlags.RESUME | CueSupportFlags.SEEK | CueSupportFlags.AUDIO_PITCH | CueSupportFlags.AUDIO_PAN;
+    }
+
+    @Override
+    public List<String> getValidationErrors()
+    {
+        List<String> errors = new LinkedList<>();
+
+        if(source == null || source.isEmpty()) errors.add("No audio file specified");
+        if(backendError != null) errors.add("Unable to initialize audio backend: " + backendError);
+
+        return errors;
+    }
+
+    private void _go()
+    {
+        boolean isInPreWait = preWaitTimeline != null && preWaitTimeline.getStatus() == Animation.Status.PAUSED;
+
+        if(isInPreWait) preWaitTimeline.play();
+        if(!isInPreWait) play();
+        if(isFading()) fades().resume(gain);
+    }
+
+    private synchronized void play()
+    {
+        prepare();
+        if(voice == null) return;
+
+        AudioEngine.getDefault().start();
+        voice.play();
+        updateActivity();
+
+        if(progressTimeline == null)
+        {
+            progressTimeline = new Timeline(new KeyFrame(PROGRESS_INTERVAL, e -> updateProgress()));
+            progressTimeline.setCycleCount(Animation.INDEFINITE);
+        }
+        progressTimeline.play();
+    }
+
+    @Override
+    public void go()
+    {
+        if(getPreWaitDelay().greaterThan(Duration.ZERO))
+        {
+            if(preWaitTimeline != null)
+            {
+                boolean wasInPreWait = isInPreWait();
+
+                preWaitTimeline.stop();
+                preWaitTimeline = null;
+
+                if(wasInPreWait)
+                {
+                    _go();
+                    return;
+                }
+            }
+
+            preWaitTimeline = new Timeline(new KeyFrame(getPreWaitDelay()));
+            preWaitTimeline.setOnFinished((e) -> _go());
+            preWaitProgressWrapper.bind(preWaitTimeline.currentTimeProperty());
+            preWaitTimeline.playFromStart();
+            updateActivity();
+        }
+        else
+        {
+            _go();
+        }
+    }
+
+    @Override
+    public void pause()
+    {
+        if(voice != null) voice.pause();
+        if(progressTimeline != null) progressTimeline.stop();
+        fades().pause(gain);
+    }
+
+    @Override
+    public void resume()
+    {
+        _go();
+    }
+
+    @Override
+    public void stop()
+    {
+        fades().cancel(gain);
+        if(voice != null)
+        {
+            // A voice released by a panic is silenced by the engine without a click
+            if(!voice.isReleasing()) voice.stop();
+            gain.setGain(1.0);
+            if(progressTimeline != null) progressTimeline.stop();
+            progressPropertyWrapper.set(getProgress());
+        }
+        if(preWaitTimeline != null)
+        {
+            preWaitTimeline.stop();
+            preWaitTimeline = null;
+        }
+        if(postWaitTimeline != null)
+        {
+            postWaitTimeline.stop();
+            postWaitTimeline = null;
+        }
+        updateActivity();
+    }
+
+    @Override
+    public void load(JsonNode cue)
+    {
+        // Cue Number is set by the cue list deserializer
+        deserializeCommonFields(cue);
+
+        pan = cue.get("pan").asDouble();
+        pitch = cue.get("pitch").asDouble();
+        if(cue.has("startOffset")) startOffset = Duration.millis(cue.get("startOffset").asDouble());
+        if(cue.has("endOffset")) endOffset = Duration.millis(cue.get("endOffset").asDouble());
+
+        setSource(cue.get("source").asText());
+    }
+
+    @Override
+    public void serialize(JsonGenerator w) throws IOException
+    {
+        w.writeStartObject();
+        {
+            // include the type so the cue list deserializer can load the right cue
+            w.writeStringField("type", getClass().getCanonicalName());
+            serializeCommonFields(w);
+
+            w.writeNumberField("pan", pan);
+            w.writeNumberField("pitch", pitch);
+            w.writeNumberField("startOffset", startOffset.toMillis());
+            w.writeNumberField("endOffset", endOffset.toMillis());
+
+            w.writeStringField("source", source);
+        }
+        w.writeEndObject();
+    }
+
+    @Override
+    public ReadOnlyObjectProperty<Duration> preWaitProgressProperty()
+    {
+        return preWaitProgressWrapper;
+    }
+
+    @Override
+    public Duration getPreWaitProgress()
+    {
+        return preWaitTimeline == null || preWaitTimeline.getStatus() != Animation.Status.RUNNING ? Duration.UNKNOWN : preWaitTimeline.getCurrentTime();
+    }
+
+    @Override
+    public ReadOnlyObjectProperty<Duration> progressProperty()
+    {
+        return progressPropertyWrapper;
+    }
+
+    @Override
+    public Duration getProgress()
+    {
+        if(voice == null) return Duration.UNKNOWN;
+
+        return framesToDuration(voice.getPosition());
+    }
+
+    @Override
+    public ReadOnlyObjectProperty<Duration> postWaitProgressProperty()
+    {
+        return postWaitProgressWrapper;
+    }
+
+    @Override
+    public Duration getPostWaitProgress()
+    {
+        return postWaitTimeline == null || postWaitTimeline.getStatus() != Animation.Status.RUNNING ? Duration.UNKNOWN : postWaitTimeline.getCurrentTime();
+    }
+
+    @Override
+    public boolean isInPreWait()
+    {
+        return preWaitTimeline != null && (preWaitTimeline.getStatus() == Animation.Status.RUNNING || preWaitTimeline.getStatus() == Animation.Status.PAUSED);
+    }
+
+    @Override
+    public boolean isPerformingAction()
+    {
+        return voice != null && voice.isActive();
+    }
+
+    @Override
+    public boolean isInPostWait()
+    {
+        return postWaitTimeline != null && (postWaitTimeline.getStatus() == Animation.Status.RUNNING || postWaitTimeline.getStatus() == Animation.Status.PAUSED);
+    }
+
+    @Override
+    public boolean isPaused()
+    {
+        return voice != null && voice.isPaused();
+    }
+
+    @Override
+    public void fadeIn(Duration duration, FadeCurve curve)
+    {
+        fades().cancel(gain);
+        gain.setGain(0.0);
+
+        play();
+        fades().fade(gain, 1.0, duration, curve, null);
+    }
+
+    @Override
+    public void fadeTo(double value, Duration duration, FadeCurve curve)
+    {
+        if(!isPerformingAction()) play();
+        fades().fade(gain, value, duration, curve, null);
+    }
+
+    @Override
+    public void fadeOut(Duration duration, FadeCurve curve)
+    {
+        // The engine is already fading the voice out
+        SourceVoice v = voice;
+        if(v != null && v.isReleasing()) return;
+
+        fades().fade(gain, 0.0, duration, curve, stopAfterFade);
+    }
+
+    @Override
+    public boolean isFading()
+    {
+        return fades().isFading(gain);
+    }
+
+    private static FadeScheduler fades()
+    {
+        return AudioEngine.getDefault().getFadeScheduler();
+    }
+
+    @Override
+    public void seekRelative(Duration offset)
+    {
+        Duration current = getProgress();
+        seekAbsolute((current.isUnknown() ? Duration.ZERO : current).add(offset));
+    }
+
+    @Override
+    public void seekAbsolute(Duration duration)
+    {
+        if(voice == null) return;
+
+        voice.seek((long)(duration.toSeconds() * sampleRate));
+        progressPropertyWrapper.set(getProgress());
+    }
+
+    /** @return the path to the audio file this cue will play, null if no file is specified */
+    @Override
+    public String getSource()
+    {
+        return source;
+    }
+
+    /** Set the audio file path */
+    @Override
+    public void setSource(String source)
+    {
+        if(source == null || source.isEmpty()) throw new IllegalArgumentException("Source cannot be null or empty");
+        if(projectPath == null) throw new IllegalStateException("The project path has not been propagated to this cue");
+
+        if(!(new File(projectPath, source).exists()))
+        {
+            // probably not a relative path already, try to relativize it
+            source = new File(projectPath).toURI().relativize(new File(source).toURI()).getPath();
+        }
+
+        if(!(new File(projectPath, source).exists())) throw new IllegalArgumentException("The file at " + source + " does not exist");
+
+        this.source = source;
+        edited();
+        boolean wasPrepared = isPrepared();
+
+        try
+        {
+            close();
+        }
+        catch (Exception e)
+        {
+            Log.warn("Failed to clean up previous backend", e);
+        }
+
+        backendError = null;
+        frameLength = AudioSystem.NOT_SPECIFIED;
+
+        try
+        {
+            File file = new File(projectPath, source);
+            AudioFileFormat f = AudioSystem.getAudioFileFormat(file);
+            frameLength = f.getFrameLength();
+            sampleRate = f.getFormat().getSampleRate();
+
+            // Decoders don't know how long a VBR MP3 is, the index counted its frames
+            Mp3SeekIndex index = seekIndexOf(file);
+            if(index != null) frameLength = index.getFrameLength();
+        }
+        catch (UnsupportedAudioFileException | IOException e)
+        {
+            Log.warn("Unable to read audio file {}", source, e);
+            backendError = e.getMessage();
+            return;
+        }
+
+        acquireAsset();
+        if(wasPrepared) prepare();
+    }
+
+    @Override
+    public synchronized void prepare()
+    {
+        if(voice != null || source == null) return;
+
+        File file = new File(projectPath, source);
+        backendError = null;
+
+        try
+        {
+            // The decoded head is only useful if playback starts at the top of the file
+            PrerollCache head = startOffset.greaterThan(Duration.ZERO) ? null : preroll;
+            Mp3SeekIndex index = seekIndexOf(file);
+            ISampleSource s = asset != null ? SampleSources.open(asset, cache, head, index) : SampleSources.open(file, cache, head, index);
+
+            long length = s.getFrameLength();
+            samples = startOffset.greaterThan(Duration.ZERO) || endOffset.greaterThan(Duration.ZERO) ?
+                    new RangeSampleSource(s, startFrame(length), endFrame(length)) : s;
+
+            // Streams find the start offset in the background, have it ready before GO
+            samples.awaitSeek();
+        }
+        catch (UnsupportedAudioFileException | IOException e)
+        {
+            Log.warn("Unable to read audio file {}", source, e);
+            backendError = e.getMessage();
+            return;
+        }
+
+        voice = new SourceVoice(AudioEngine.getDefault(), samples);
+        voice.setGain(volume);
+        voice.setPan(pan);
+        voice.setRate(IPitchableCue.rateOf(pitch));
+    }
+
+    /** Run on the FX thread while the cue is playing */
+    private void updateProgress()
+    {
+        if(voice == null) return;
+
+        progressPropertyWrapper.set(getProgress());
+
+        if(voice.hasEnded())
+        {
+            progressTimeline.stop();
+            voice.seek(0);
+
+            // Released by a panic, tidy up the waits and fades too
+            if(voice.wasReleased()) stop();
+            else updateActivity();
+        }
+    }
+
+    /** @return the frame index of the file if it's an MP3 the project has probed, or {@code null} */
+    private Mp3SeekIndex seekIndexOf(File file)
+    {
+        MediaMetadataCache m = metadata;
+        MediaMetadata entry = m == null ? null : m.get(file);
+
+        return entry == null ? null : entry.getSeekIndex();
+    }
+
+    /** @return the first frame of the source that is played */
+    private long startFrame(long length)
+    {
+        long frame = Math.round(startOffset.toSeconds() * sampleRate);
+        return length < 0 ? frame : Math.min(frame, length);
+    }
+
+    /** @return the frame of the source that playback stops before */
+    private long endFrame(long length)
+    {
+        if(length < 0) return Long.MAX_VALUE;
+
+        return Math.max(startFrame(length), length - Math.round(endOffset.toSeconds() * sampleRate));
+    }
+
+    @Override
+    public Duration getStartOffset()
+    {
+        return startOffset;
+    }
+
+    @Override
+    public void setStartOffset(Duration offset)
+    {
+        startOffset = offset == null || offset.lessThan(Duration.ZERO) ? Duration.ZERO : offset;
+        reopen();
+        edited();
+    }
+
+    @Override
+    public Duration getEndOffset()
+    {
+        return endOffset;
+    }
+
+    @Override
+    public void setEndOffset(Duration offset)
+    {
+        endOffset = offset == null || offset.lessThan(Duration.ZERO) ? Duration.ZERO : offset;
+        reopen();
+        edited();
+    }
+
+    /** Re-open a prepared source so it plays the current range, or comes from the cache */
+    private synchronized void reopen()
+    {
+        if(!isPrepared() || isPerformingAction()) return;
+
+        release();
+        prepare();
+    }
+
+    private Duration framesToDuration(long frames)
+    {
+        return Duration.seconds(frames / (double)sampleRate);
+    }
+
+    @Override
+    public String[] getSupportedExtensions()
+    {
+        return new String[]{"wav", "aif", "aiff", "au"};
+    }
+
+    @Override
+    public synchronized void release()
+    {
+        if(voice == null || isPerformingAction() || isInPreWait() || isFading()) return;
+
+        try
+        {
+            disposeBackend();
+        }
+        catch (Exception e)
+        {
+            Log.warn("Failed to release backend", e);
+        }
+    }
+
+    @Override
+    public boolean isPrepared()
+    {
+        return voice != null;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        fades().cancel(gain);
+        if(progressTimeline != null) progressTimeline.stop();
+        progressPropertyWrapper.set(Duration.UNKNOWN);
+
+        disposeBackend();
+        releaseAsset();
+    }
+
+    /** Share the backend resources of the source with every other cue playing the same contents */
+    private synchronized void acquireAsset()
+    {
+        if(assets == null || source == null || asset != null || pendingAsset != null) return;
+
+        // New files are hashed in the background, the cue reads its own file until the asset is attached
+        AssetRegistry registry = assets;
+        CompletableFuture<MediaAsset> pending = registry.acquireAsync(new File(projectPath, source));
+        pendingAsset = pending;
+        pending.whenComplete((a, e) -> attachAsset(registry, pending, a, e));
+    }
+
+    private synchronized void attachAsset(AssetRegistry registry, CompletableFuture<MediaAsset> pending, MediaAsset a, Throwable e)
+    {
+        boolean current = pendingAsset == pending;
+        if(current) pendingAsset = null;
+
+        if(e != null)
+        {
+            Log.warn("Unable to hash {}", source, e);
+        }
+        else if(!current)
+        {
+            // The source changed or the cue was closed while the file was hashed
+            registry.release(a);
+        }
+        else
+        {
+            asset = a;
+        }
+    }
+
+    private synchronized void releaseAsset()
+    {
+        MediaAsset a = asset;
+        asset = null;
+        pendingAsset = null;
+
+        if(a != null) assets.release(a);
+    }
+
+    private synchronized void disposeBackend() throws Exception
+    {
+        SourceVoice v = voice;
+        ISampleSource s = samples;
+        voice = null;
+        samples = null;
+
+        if(v != null)
+        {
+            v.stop();
+            AudioEngine.getDefault().remove(v);
+        }
+
+        if(s != null) s.close();
+    }
+
+    @Override
+    public void onProjectLoaded(Project p)
+    {
+        if(cache == p.getSampleCache()) return;
+        cache = p.getSampleCache();
+        preroll = p.getPrerollCache();
+        metadata = p.getMediaMetadata();
+        assets = p.getAssets();
+
+        if(source == null) return;
+
+        acquireAsset();
+        CompletableFuture<MediaAsset> shared = sharedAsset();
+        SampleCache c = cache;
+        String s = source;
+
+        if(!p.isLoaded())
+        {
+            // Hooks run one at a time while the project loads, after every file was hashed
+            cacheSource(p.getMediaMetadata(), c, s, shared.getNow(null));
+            reopen();
+            return;
+        }
+
+        // A cue dropped into a list hooks on the FX thread, so the file is read once it's hashed
+        shared.handle((a, e) -> a).thenAcceptAsync((a) -> {
+            if(!cacheSource(p.getMediaMetadata(), c, s, a)) return;
+
+            FXThread.runLater(this::reopen);
+        }, p.getMediaExecutor());
+    }
+
+    /** @return the asset of the source once it has been hashed, or {@code null} if it has no asset */
+    private synchronized CompletableFuture<MediaAsset> sharedAsset()
+    {
+        if(asset != null) return CompletableFuture.completedFuture(asset);
+        if(pendingAsset != null) return pendingAsset;
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Probe the source and decode it (or the start of it) so GO never has to wait on the disk
+     *
+     * @return {@code false} if the source or project of the cue changed first
+     */
+    private boolean cacheSource(MediaMetadataCache metadata, SampleCache c, String s, MediaAsset shared)
+    {
+        if(cache != c || !s.equals(source)) return false;
+
+        File file = new File(projectPath, s);
+        metadata.getOrProbe(file);
+
+        // Copies of the same file are cached once, under the file of the shared asset
+        if(shared != null) file = shared.getFile();
+
+        try
+        {
+            if(c.shouldPreload(file))
+            {
+                c.get(file);
+            }
+            else
+            {
+                preroll.load(file);
+            }
+        }
+        catch (UnsupportedAudioFileException | IOException e)
+        {
+            Log.warn("Unable to cache {}", s, e);
+        }
+
+        return true;
+    }
+
+    @Override
+    public double getPitch()
+    {
+        return pitch;
+    }
+
+    @Override
+    public void setPitch(double pitch)
+    {
+        this.pitch = pitch;
+
+        SourceVoice v = voice;
+        if(v != null) v.setRate(IPitchableCue.rateOf(pitch));
+        edited();
+    }
+
+    @Override
+    public double getPan()
+    {
+        return pan;
+    }
+
+    @Override
+    public void setPan(double pan)
+    {
+        this.pan = pan < -1.0 ? -1.0 : (pan > 1.0 ? 1.0 : pan);
+
+        SourceVoice v = voice;
+        if(v != null) v.setPan(this.pan);
+        edited();
+    }
+
+    @Override
+    public void consumeProjectPath(String path)
+    {
+        projectPath = path;
+    }
+}
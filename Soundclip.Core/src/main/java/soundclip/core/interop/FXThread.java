@@ -0,0 +1,95 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.interop;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableSet;
+import javafx.collections.SetChangeListener;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands work to the JavaFX application thread from the loader, preparation and render threads
+ */
+public final class FXThread
+{
+    private FXThread() { }
+
+    /** Run the task on the JavaFX application thread, inline if called from it */
+    public static void run(Runnable r)
+    {
+        if(Platform.isFxApplicationThread())
+        {
+            r.run();
+        }
+        else
+        {
+            runLater(r);
+        }
+    }
+
+    /** Run the task on the JavaFX application thread after any work already queued there */
+    public static void runLater(Runnable r)
+    {
+        try
+        {
+            Platform.runLater(r);
+        }
+        catch (IllegalStateException e)
+        {
+            // The toolkit isn't running (headless tools and tests), there is no thread to hand off to
+            r.run();
+        }
+    }
+
+    /**
+     * Follow a set that changes on any thread with a read-only copy that only changes on the
+     * JavaFX application thread, so controls can bind to it. Changes are applied after the work
+     * already queued on that thread, and bursts of changes are applied together.
+     *
+     * @param source a {@link FXCollections#synchronizedObservableSet(ObservableSet) synchronized} set
+     * @return the copy, compared by identity
+     */
+    public static <T> ObservableSet<T> mirror(ObservableSet<T> source)
+    {
+        ObservableSet<T> copy = FXCollections.observableSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        AtomicBoolean pending = new AtomicBoolean(false);
+
+        // The copy is brought up to date with the whole source, so updates can't be applied out of order
+        Runnable sync = () -> {
+            pending.set(false);
+
+            Set<T> snapshot = Collections.newSetFromMap(new IdentityHashMap<>());
+            synchronized (source)
+            {
+                snapshot.addAll(source);
+            }
+
+            copy.retainAll(snapshot);
+            copy.addAll(snapshot);
+        };
+
+        source.addListener((SetChangeListener<T>) (change) -> {
+            if(pending.compareAndSet(false, true)) runLater(sync);
+        });
+        sync.run();
+
+        return FXCollections.unmodifiableObservableSet(copy);
+    }
+}
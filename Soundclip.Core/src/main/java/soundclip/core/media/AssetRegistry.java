@@ -0,0 +1,243 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.media;
+
+import javafx.util.Duration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Deduplicates the media used by a project by content hash, so files that are used by many
+ * cues (or copied under different names) only hold one set of backend resources.
+ *
+ * Cues {@link #acquireAsync(File)} an asset when they start using a file and {@link #release(MediaAsset)}
+ * it when they stop. Hashes are remembered in the {@link MediaMetadataCache} so each version of a
+ * file is only read once, and new files are hashed in the background so the FX thread never waits
+ * on a long file.
+ */
+public class AssetRegistry
+{
+    private static final Logger Log = LogManager.getLogger(AssetRegistry.class);
+
+    private static final Executor DEFAULT_HASHER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Asset Hashing");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final MediaMetadataCache metadata;
+    private final Executor hasher;
+    private final HashMap<String, MediaAsset> assets = new HashMap<>();
+    // Hashes still being worked out, by canonical path, size and modification time
+    private final HashMap<String, CompletableFuture<String>> hashing = new HashMap<>();
+
+    /** @param metadata where content hashes are cached, or {@code null} to always hash files */
+    public AssetRegistry(MediaMetadataCache metadata)
+    {
+        this(metadata, DEFAULT_HASHER);
+    }
+
+    /**
+     * @param metadata where content hashes are cached, or {@code null} to always hash files
+     * @param hasher where files that haven't been hashed yet are hashed
+     */
+    public AssetRegistry(MediaMetadataCache metadata, Executor hasher)
+    {
+        this.metadata = metadata;
+        this.hasher = hasher;
+    }
+
+    /**
+     * Start using the specified file
+     *
+     * @param file the file to use
+     * @return the asset shared by every file with the same contents
+     * @throws IOException if the file could not be read
+     */
+    public MediaAsset acquire(File file) throws IOException
+    {
+        // Hash outside of the lock, other cues don't need to wait on this file
+        return share(hashOf(file), file.getCanonicalFile());
+    }
+
+    /**
+     * Start using the specified file without waiting for it to be hashed. A file whose hash is
+     * cached is shared straight away. Otherwise the file is hashed in the background, and every
+     * request for the same version of the file waits on the same hash.
+     *
+     * @param file the file to use
+     * @return the asset shared by every file with the same contents, once the file has been hashed.
+     * Completes exceptionally if the file could not be read
+     */
+    public CompletableFuture<MediaAsset> acquireAsync(File file)
+    {
+        File canonical;
+        try
+        {
+            canonical = file.getCanonicalFile();
+
+            MediaMetadata m = metadata == null ? null : metadata.get(file);
+            if(m != null && m.getContentHash() != null) return CompletableFuture.completedFuture(share(m.getContentHash(), canonical));
+        }
+        catch (IOException e)
+        {
+            CompletableFuture<MediaAsset> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        // The hash isn't known yet, so the file is identified by its path and version until it is
+        String key = canonical.getPath() + ":" + canonical.length() + ":" + canonical.lastModified();
+        CompletableFuture<String> hash;
+        synchronized (this)
+        {
+            hash = hashing.get(key);
+            if(hash == null)
+            {
+                CompletableFuture<String> started = CompletableFuture.supplyAsync(() -> {
+                    try
+                    {
+                        return hashOf(file);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new CompletionException(e);
+                    }
+                }, hasher);
+
+                hashing.put(key, started);
+                started.whenComplete((h, e) -> {
+                    synchronized (this)
+                    {
+                        hashing.remove(key, started);
+                    }
+                });
+                hash = started;
+            }
+        }
+
+        return hash.thenApply((h) -> share(h, canonical));
+    }
+
+    /** @return the asset for the contents, retained for another user */
+    private synchronized MediaAsset share(String hash, File canonical)
+    {
+        MediaAsset asset = assets.get(hash);
+        if(asset == null)
+        {
+            asset = new MediaAsset(hash, canonical);
+            assets.put(hash, asset);
+        }
+        else if(!asset.getFile().equals(canonical))
+        {
+            Log.debug("{} has the same contents as {}, sharing", canonical, asset.getFile());
+        }
+
+        asset.retain();
+        return asset;
+    }
+
+    /**
+     * Stop using the specified asset. Its resources are freed once nothing is using it.
+     *
+     * @param asset the asset returned by {@link #acquire(File)} or {@link #acquireAsync(File)}
+     */
+    public synchronized void release(MediaAsset asset)
+    {
+        if(asset.release() > 0) return;
+
+        assets.remove(asset.getHash());
+        asset.dispose();
+    }
+
+    /** @return the number of unique files in use */
+    public synchronized int size()
+    {
+        return assets.size();
+    }
+
+    /**
+     * @return the content hash of the file, from the metadata cache if it is up to date. The hash
+     * is cached for the next call
+     * @throws IOException if the file could not be read
+     */
+    public String hashOf(File file) throws IOException
+    {
+        MediaMetadata m = metadata == null ? null : metadata.get(file);
+        if(m != null && m.getContentHash() != null) return m.getContentHash();
+
+        String hash = hash(file);
+
+        if(metadata != null)
+        {
+            // Keep the rest of the metadata if the file has been described already
+            if(m == null) m = metadata.getOrProbe(file);
+            if(m == null) m = MediaMetadata.of(file, Duration.UNKNOWN);
+
+            metadata.put(file, m.withContentHash(hash));
+        }
+
+        return hash;
+    }
+
+    /**
+     * Hash the contents of a file
+     *
+     * @param file the file to hash
+     * @return the hex encoded SHA-256 hash of the file
+     * @throws IOException if the file could not be read
+     */
+    public static String hash(File file) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+            while(channel.read(buffer) > 0)
+            {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for(byte b : digest.digest()) hex.append(String.format("%02x", b));
+
+        return hex.toString();
+    }
+}
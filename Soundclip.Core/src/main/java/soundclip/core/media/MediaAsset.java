@@ -0,0 +1,117 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.media;
+
+import javafx.scene.media.Media;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A unique media file shared by every cue that plays a file with the same contents.
+ *
+ * Backend resources are created the first time a cue asks for them and are shared
+ * until the last cue releases the asset (see {@link AssetRegistry}).
+ */
+public class MediaAsset
+{
+    private static final Logger Log = LogManager.getLogger(MediaAsset.class);
+
+    private final String hash;
+    private final File file;
+    private int references = 0;
+
+    private Media media;
+    private FileChannel channel;
+
+    MediaAsset(String hash, File file)
+    {
+        this.hash = hash;
+        this.file = file;
+    }
+
+    /** @return the hash of the contents of the asset */
+    public String getHash()
+    {
+        return hash;
+    }
+
+    /** @return the file the asset is read from. Other files with the same contents are not opened */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /** @return the number of cues holding the asset */
+    public synchronized int getReferenceCount()
+    {
+        return references;
+    }
+
+    /** @return the JavaFX media for the asset, shared by every player of the asset */
+    public synchronized Media getMedia()
+    {
+        if(media == null) media = new Media(file.toURI().toString());
+
+        return media;
+    }
+
+    /** @return a read-only channel for the asset, shared by every reader of the asset. Callers must not close it */
+    public synchronized FileChannel getChannel() throws IOException
+    {
+        if(channel == null || !channel.isOpen()) channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        return channel;
+    }
+
+    synchronized int retain()
+    {
+        return ++references;
+    }
+
+    synchronized int release()
+    {
+        return --references;
+    }
+
+    /** Free the shared resources once nothing references the asset */
+    synchronized void dispose()
+    {
+        media = null;
+
+        if(channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                Log.warn("Unable to close {}", file, e);
+            }
+        }
+        channel = null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.getName() + " (" + hash.substring(0, Math.min(12, hash.length())) + ")";
+    }
+}
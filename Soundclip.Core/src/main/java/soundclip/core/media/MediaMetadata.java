@@ -0,0 +1,236 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.media;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import javafx.util.Duration;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * What is known about a media file without opening a player for it. Only valid while the
+ * file has the size and modification time it was described with.
+ */
+public class MediaMetadata
+{
+    private final long size;
+    private final long lastModified;
+    private final Duration duration;
+    private final int channels;
+    private final float sampleRate;
+    private final String codec;
+    private final String contentHash;
+    private final Mp3SeekIndex seekIndex;
+
+    /**
+     * @param size the size of the file in bytes
+     * @param lastModified the modification time of the file
+     * @param duration the duration of the media
+     * @param channels the number of audio channels, or 0 if unknown
+     * @param sampleRate the audio sample rate, or 0 if unknown
+     * @param codec a description of the encoding
+     * @param contentHash the hash of the file contents, or {@code null} if it has not been computed
+     * @param seekIndex the frame index of an MPEG audio file, or {@code null}
+     */
+    public MediaMetadata(long size, long lastModified, Duration duration, int channels, float sampleRate, String codec, String contentHash, Mp3SeekIndex seekIndex)
+    {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.duration = duration;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.codec = codec;
+        this.contentHash = contentHash;
+        this.seekIndex = seekIndex;
+    }
+
+    /**
+     * Describe a file without any decoder specific details
+     *
+     * @param file the file being described
+     * @param duration the duration of the media
+     * @return metadata for the current version of the file
+     */
+    public static MediaMetadata of(File file, Duration duration)
+    {
+        String name = file.getName();
+        String codec = name.contains(".") ? name.substring(name.lastIndexOf('.') + 1).toUpperCase() : "UNKNOWN";
+
+        return new MediaMetadata(file.length(), file.lastModified(), duration, 0, 0f, codec, null, null);
+    }
+
+    /**
+     * Read the metadata of a file supported by {@link AudioSystem}, or index the frames of an MP3 file
+     *
+     * @param file the file to read
+     * @return metadata for the current version of the file
+     * @throws UnsupportedAudioFileException if the file is not supported by {@link AudioSystem} or MPEG audio
+     * @throws IOException if the file could not be read
+     */
+    public static MediaMetadata probe(File file) throws UnsupportedAudioFileException, IOException
+    {
+        AudioFileFormat f;
+        try
+        {
+            f = AudioSystem.getAudioFileFormat(file);
+        }
+        catch (UnsupportedAudioFileException e)
+        {
+            if(!file.getName().toLowerCase().endsWith(".mp3")) throw e;
+
+            Mp3SeekIndex index = Mp3SeekIndex.scan(file);
+            if(index == null) throw e;
+
+            return new MediaMetadata(
+                    file.length(),
+                    file.lastModified(),
+                    index.getDuration(),
+                    index.getChannels(),
+                    index.getSampleRate(),
+                    "MP3",
+                    null,
+                    index
+            );
+        }
+
+        float rate = f.getFormat().getSampleRate();
+        Duration duration = f.getFrameLength() == AudioSystem.NOT_SPECIFIED ? Duration.UNKNOWN : Duration.seconds(f.getFrameLength() / rate);
+
+        return new MediaMetadata(
+                file.length(),
+                file.lastModified(),
+                duration,
+                f.getFormat().getChannels(),
+                rate,
+                f.getType() + " " + f.getFormat().getEncoding() + " " + f.getFormat().getSampleSizeInBits() + "-bit",
+                null,
+                null
+        );
+    }
+
+    /** @return a copy of this metadata with the specified duration */
+    public MediaMetadata withDuration(Duration duration)
+    {
+        return new MediaMetadata(size, lastModified, duration, channels, sampleRate, codec, contentHash, seekIndex);
+    }
+
+    /** @return a copy of this metadata with the specified content hash */
+    public MediaMetadata withContentHash(String contentHash)
+    {
+        return new MediaMetadata(size, lastModified, duration, channels, sampleRate, codec, contentHash, seekIndex);
+    }
+
+    /** @return the frame index of an MPEG audio file, or {@code null} if the file is not MPEG audio */
+    public Mp3SeekIndex getSeekIndex()
+    {
+        return seekIndex;
+    }
+
+    /** @return {@code true} if the file has not changed since it was described */
+    public boolean matches(File file)
+    {
+        return file.length() == size && file.lastModified() == lastModified;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public Duration getDuration()
+    {
+        return duration;
+    }
+
+    /** @return the number of audio channels, or 0 if unknown */
+    public int getChannels()
+    {
+        return channels;
+    }
+
+    /** @return the audio sample rate, or 0 if unknown */
+    public float getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    public String getCodec()
+    {
+        return codec;
+    }
+
+    /** @return the hash of the file contents, or {@code null} if it has not been computed */
+    public String getContentHash()
+    {
+        return contentHash;
+    }
+
+    void serialize(JsonGenerator w, String path) throws IOException
+    {
+        w.writeStartObject();
+        {
+            w.writeStringField("path", path);
+            w.writeNumberField("size", size);
+            w.writeNumberField("lastModified", lastModified);
+            w.writeNumberField("duration", duration.isUnknown() ? -1 : duration.toMillis());
+            w.writeNumberField("channels", channels);
+            w.writeNumberField("sampleRate", sampleRate);
+            w.writeStringField("codec", codec);
+            if(contentHash != null) w.writeStringField("contentHash", contentHash);
+            if(seekIndex != null)
+            {
+                w.writeFieldName("seekIndex");
+                seekIndex.serialize(w);
+            }
+        }
+        w.writeEndObject();
+    }
+
+    /** @return the metadata described by the node, or {@code null} if it is missing a field */
+    static MediaMetadata load(JsonNode node)
+    {
+        for(String field : new String[]{"size", "lastModified", "duration", "channels", "sampleRate", "codec"})
+        {
+            if(!node.has(field)) return null;
+        }
+
+        // An index from an older version is scanned again rather than trusted
+        Mp3SeekIndex seekIndex = node.has("seekIndex") ? Mp3SeekIndex.load(node.get("seekIndex")) : null;
+        if(node.has("seekIndex") && seekIndex == null) return null;
+
+        double duration = node.get("duration").asDouble();
+
+        return new MediaMetadata(
+                node.get("size").asLong(),
+                node.get("lastModified").asLong(),
+                duration < 0 ? Duration.UNKNOWN : Duration.millis(duration),
+                node.get("channels").asInt(),
+                (float) node.get("sampleRate").asDouble(),
+                node.get("codec").asText(),
+                node.has("contentHash") ? node.get("contentHash").asText() : null,
+                seekIndex
+        );
+    }
+}
@@ -0,0 +1,206 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.media;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of {@link MediaMetadata} for the media used by a project, stored in a sidecar file
+ * next to the project so durations are known as soon as the project is loaded.
+ *
+ * Entries are keyed by path relative to the project and are ignored once the size or
+ * modification time of the file changes.
+ */
+public class MediaMetadataCache
+{
+    private static final Logger Log = LogManager.getLogger(MediaMetadataCache.class);
+
+    /** The suffix appended to the project path to name the sidecar file */
+    public static final String EXTENSION = ".meta";
+
+    private final File base;
+    private final ConcurrentHashMap<String, MediaMetadata> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    /** @param base the folder that paths are stored relative to */
+    public MediaMetadataCache(File base)
+    {
+        this.base = base;
+    }
+
+    /** @return the metadata for the specified file, or {@code null} if it is unknown or out of date */
+    public MediaMetadata get(File file)
+    {
+        MediaMetadata m = entries.get(keyOf(file));
+
+        return m != null && m.matches(file) ? m : null;
+    }
+
+    /**
+     * Get the metadata for the specified file, reading it with {@link javax.sound.sampled.AudioSystem} if it is not cached
+     *
+     * @return the metadata for the file, or {@code null} if it is not cached and cannot be read
+     */
+    public MediaMetadata getOrProbe(File file)
+    {
+        MediaMetadata m = get(file);
+        if(m != null) return m;
+
+        try
+        {
+            m = MediaMetadata.probe(file);
+            put(file, m);
+            return m;
+        }
+        catch (UnsupportedAudioFileException | IOException e)
+        {
+            return null;
+        }
+    }
+
+    /** Record the metadata for the specified file */
+    public void put(File file, MediaMetadata metadata)
+    {
+        entries.put(keyOf(file), metadata);
+        dirty = true;
+    }
+
+    /** @return the number of files described by the cache */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /** @return {@code true} if the cache has changed since it was loaded or saved */
+    public boolean isDirty()
+    {
+        return dirty;
+    }
+
+    /**
+     * Replace the contents of the cache with the specified sidecar file
+     *
+     * @param sidecar the file to read
+     * @throws IOException if the file could not be read
+     */
+    public void load(File sidecar) throws IOException
+    {
+        JsonNode root = new ObjectMapper().readTree(sidecar);
+
+        entries.clear();
+        if(root == null || !root.has("media"))
+        {
+            Log.warn("Media metadata file '{}' lists no media", sidecar);
+            dirty = false;
+            return;
+        }
+
+        for(JsonNode node : root.get("media"))
+        {
+            MediaMetadata m = node.has("path") ? MediaMetadata.load(node) : null;
+            if(m == null)
+            {
+                Log.warn("Skipping incomplete media metadata entry {}", node);
+                continue;
+            }
+
+            entries.put(node.get("path").asText(), m);
+        }
+
+        dirty = false;
+        Log.debug("Loaded metadata for {} media files", entries.size());
+    }
+
+    /**
+     * Write the cache to a temporary file next to the sidecar and rename it over the sidecar, so
+     * a failed save leaves the previous sidecar intact
+     *
+     * @param sidecar the file to write
+     * @throws IOException if the file could not be written
+     */
+    public void save(File sidecar) throws IOException
+    {
+        ObjectMapper m = new ObjectMapper();
+        File target = sidecar.getAbsoluteFile();
+
+        Path temp = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".tmp");
+        try
+        {
+            try(FileOutputStream out = new FileOutputStream(temp.toFile());
+                JsonGenerator writer = m.getFactory().createGenerator(out, JsonEncoding.UTF8))
+            {
+                writer.useDefaultPrettyPrinter();
+
+                writer.writeStartObject();
+                writer.writeArrayFieldStart("media");
+                {
+                    // Sorted so the sidecar diffs cleanly
+                    for(Map.Entry<String, MediaMetadata> e : new TreeMap<>(entries).entrySet())
+                    {
+                        e.getValue().serialize(writer, e.getKey());
+                    }
+                }
+                writer.writeEndArray();
+                writer.writeEndObject();
+
+                writer.flush();
+                out.getFD().sync();
+            }
+
+            try
+            {
+                Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Log.warn("Atomic rename is not supported for '{}', replacing the media metadata in place", sidecar);
+                Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        dirty = false;
+    }
+
+    private String keyOf(File file)
+    {
+        File absolute = file.getAbsoluteFile();
+
+        if(base == null) return absolute.getPath();
+
+        return base.getAbsoluteFile().toPath().normalize().relativize(absolute.toPath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,401 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.media;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import javafx.util.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The positions of the frames in an MPEG audio (MP3) file, found by walking the frame headers
+ * without decoding anything.
+ *
+ * VBR files have no fixed relationship between time and byte offset, so their length has to be
+ * counted and seeking without an index means decoding from the top. The index records the byte
+ * offset of every {@link #INTERVAL}th frame so a decoder can start a few frames before any sample
+ * and discard the difference. Encoders pad the first and last frames, so the length is only exact
+ * when the file has a LAME tag saying how many samples of padding were added.
+ */
+public class Mp3SeekIndex
+{
+    /** The number of MPEG frames between entries in the table (about 0.4s at 44.1kHz) */
+    public static final int INTERVAL = 16;
+
+    /** The number of frames decoded ahead of a seek target to refill the bit reservoir */
+    private static final int RESERVOIR_FRAMES = 4;
+
+    /** The offset of the encoder delay and padding from the start of a LAME tag */
+    private static final int LAME_DELAY_OFFSET = 21;
+
+    private static final int[][] BITRATES = {
+            // MPEG-1 layer I, II, III
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            // MPEG-2 and 2.5 layer I, II and III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+    };
+
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+    private final int sampleRate;
+    private final int channels;
+    private final int samplesPerFrame;
+    private final long frameCount;
+    private final int encoderDelay;
+    private final int encoderPadding;
+    private final long[] offsets;
+
+    /**
+     * @param sampleRate the sample rate of the file
+     * @param channels the number of channels in the file
+     * @param samplesPerFrame the number of samples decoded from each MPEG frame
+     * @param frameCount the number of audio frames in the file
+     * @param encoderDelay the number of samples of silence the encoder added to the start of the file
+     * @param encoderPadding the number of samples of silence the encoder added to the end of the file
+     * @param offsets the byte offset of every {@link #INTERVAL}th audio frame
+     */
+    public Mp3SeekIndex(int sampleRate, int channels, int samplesPerFrame, long frameCount, int encoderDelay, int encoderPadding, long[] offsets)
+    {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.samplesPerFrame = samplesPerFrame;
+        this.frameCount = frameCount;
+        this.encoderDelay = encoderDelay;
+        this.encoderPadding = encoderPadding;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Walk the frames of an MPEG audio file
+     *
+     * @param file the file to index
+     * @return the index, or {@code null} if the file does not contain MPEG audio frames
+     * @throws IOException if the file could not be read
+     */
+    public static Mp3SeekIndex scan(File file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if(channel.size() > Integer.MAX_VALUE) return null;
+
+            ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int pos = skipId3(b);
+
+            int sampleRate = 0, channels = 0, samplesPerFrame = 0;
+            int delay = 0, padding = 0;
+            long frames = 0;
+            long[] offsets = new long[64];
+
+            while(pos + 4 <= b.limit())
+            {
+                int header = b.getInt(pos);
+                int length = frameLength(header);
+                if(length <= 0 || pos + length > b.limit()) break;
+
+                if(frames == 0 && sampleRate == 0)
+                {
+                    sampleRate = sampleRate(header);
+                    channels = ((header >>> 6) & 3) == 3 ? 1 : 2;
+                    samplesPerFrame = samplesPerFrame(header);
+
+                    // A Xing, Info or VBRI header frame carries no audio
+                    if(isInfoFrame(b, pos, header))
+                    {
+                        int lame = lameTag(b, pos, header);
+                        if(lame >= 0 && lame + LAME_DELAY_OFFSET + 3 <= pos + length)
+                        {
+                            int p = lame + LAME_DELAY_OFFSET;
+                            delay = (b.get(p) & 0xff) << 4 | (b.get(p + 1) & 0xf0) >>> 4;
+                            padding = (b.get(p + 1) & 0x0f) << 8 | (b.get(p + 2) & 0xff);
+                        }
+
+                        pos += length;
+                        continue;
+                    }
+                }
+
+                if(frames % INTERVAL == 0)
+                {
+                    int entry = (int)(frames / INTERVAL);
+                    if(entry == offsets.length) offsets = Arrays.copyOf(offsets, entry * 2);
+                    offsets[entry] = pos;
+                }
+
+                frames++;
+                pos += length;
+            }
+
+            if(frames == 0) return null;
+
+            // A tag that claims more padding than there is audio is not from this file
+            if(delay + padding >= frames * samplesPerFrame) delay = padding = 0;
+
+            return new Mp3SeekIndex(sampleRate, channels, samplesPerFrame, frames, delay, padding, Arrays.copyOf(offsets, (int)((frames + INTERVAL - 1) / INTERVAL)));
+        }
+    }
+
+    /**
+     * @return the number of sample frames in the file, without the encoder delay and padding. This is
+     *         exact for files with a LAME tag, other files include the padding their encoder added
+     */
+    public long getFrameLength()
+    {
+        return frameCount * samplesPerFrame - encoderDelay - encoderPadding;
+    }
+
+    public Duration getDuration()
+    {
+        return Duration.seconds(getFrameLength() / (double) sampleRate);
+    }
+
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    public int getChannels()
+    {
+        return channels;
+    }
+
+    /** @return the number of MPEG frames in the file */
+    public long getFrameCount()
+    {
+        return frameCount;
+    }
+
+    public int getSamplesPerFrame()
+    {
+        return samplesPerFrame;
+    }
+
+    /** @return the number of samples of silence the encoder added to the start of the file */
+    public int getEncoderDelay()
+    {
+        return encoderDelay;
+    }
+
+    /** @return the number of samples of silence the encoder added to the end of the file */
+    public int getEncoderPadding()
+    {
+        return encoderPadding;
+    }
+
+    /**
+     * Find where to start decoding to reach the specified sample
+     *
+     * @param sample the sample frame to seek to, not counting the encoder delay
+     * @return the byte offset to decode from, and the number of samples to discard once decoding
+     */
+    public SeekPoint seek(long sample)
+    {
+        long target = Math.max(0, sample) + encoderDelay;
+        long frame = Math.max(0, Math.min(frameCount - 1, target / samplesPerFrame - RESERVOIR_FRAMES));
+        int entry = (int)(frame / INTERVAL);
+        long first = (long) entry * INTERVAL * samplesPerFrame;
+
+        return new SeekPoint(offsets[entry], target - first);
+    }
+
+    /** Where a decoder should start reading to reach a sample */
+    public static class SeekPoint
+    {
+        private final long byteOffset;
+        private final long discard;
+
+        SeekPoint(long byteOffset, long discard)
+        {
+            this.byteOffset = byteOffset;
+            this.discard = discard;
+        }
+
+        /** @return the offset of the MPEG frame to start decoding from */
+        public long getByteOffset()
+        {
+            return byteOffset;
+        }
+
+        /** @return the number of decoded samples to discard before the target */
+        public long getDiscard()
+        {
+            return discard;
+        }
+    }
+
+    void serialize(JsonGenerator w) throws IOException
+    {
+        w.writeStartObject();
+        {
+            w.writeNumberField("sampleRate", sampleRate);
+            w.writeNumberField("channels", channels);
+            w.writeNumberField("samplesPerFrame", samplesPerFrame);
+            w.writeNumberField("frameCount", frameCount);
+            w.writeNumberField("encoderDelay", encoderDelay);
+            w.writeNumberField("encoderPadding", encoderPadding);
+            w.writeArrayFieldStart("offsets");
+            for(long offset : offsets) w.writeNumber(offset);
+            w.writeEndArray();
+        }
+        w.writeEndObject();
+    }
+
+    /** @return the index described by the node, or {@code null} if it is missing a field */
+    static Mp3SeekIndex load(JsonNode node)
+    {
+        for(String field : new String[]{"sampleRate", "channels", "samplesPerFrame", "frameCount", "encoderDelay", "encoderPadding", "offsets"})
+        {
+            if(!node.has(field)) return null;
+        }
+
+        JsonNode o = node.get("offsets");
+        long[] offsets = new long[o.size()];
+        for(int i = 0; i < offsets.length; i++) offsets[i] = o.get(i).asLong();
+
+        // A table written with a different interval is scanned again
+        long frameCount = node.get("frameCount").asLong();
+        if(offsets.length != (frameCount + INTERVAL - 1) / INTERVAL) return null;
+
+        return new Mp3SeekIndex(
+                node.get("sampleRate").asInt(),
+                node.get("channels").asInt(),
+                node.get("samplesPerFrame").asInt(),
+                frameCount,
+                node.get("encoderDelay").asInt(),
+                node.get("encoderPadding").asInt(),
+                offsets
+        );
+    }
+
+    private static int skipId3(ByteBuffer b)
+    {
+        if(b.limit() < 10 || b.get(0) != 'I' || b.get(1) != 'D' || b.get(2) != '3') return 0;
+
+        // The tag size is stored 7 bits per byte
+        int size = (b.get(6) & 0x7f) << 21 | (b.get(7) & 0x7f) << 14 | (b.get(8) & 0x7f) << 7 | (b.get(9) & 0x7f);
+        boolean footer = (b.get(5) & 0x10) != 0;
+
+        return 10 + size + (footer ? 10 : 0);
+    }
+
+    /** @return the MPEG version, 0 for MPEG-1, 1 for MPEG-2, 2 for MPEG-2.5, or -1 if reserved */
+    private static int version(int header)
+    {
+        switch((header >>> 19) & 3)
+        {
+            case 3: return 0;
+            case 2: return 1;
+            case 0: return 2;
+            default: return -1;
+        }
+    }
+
+    /** @return the layer, 1 to 3, or -1 if reserved */
+    private static int layer(int header)
+    {
+        int bits = (header >>> 17) & 3;
+        return bits == 0 ? -1 : 4 - bits;
+    }
+
+    private static int sampleRate(int header)
+    {
+        return SAMPLE_RATES[(header >>> 10) & 3] >> version(header);
+    }
+
+    private static int samplesPerFrame(int header)
+    {
+        int layer = layer(header);
+        if(layer == 1) return 384;
+        if(layer == 2 || version(header) == 0) return 1152;
+
+        return 576;
+    }
+
+    /** @return the length of the frame starting with the specified header, or -1 if it is not a valid header */
+    private static int frameLength(int header)
+    {
+        if((header >>> 21) != 0x7ff) return -1;
+
+        int version = version(header);
+        int layer = layer(header);
+        int bitrateIndex = (header >>> 12) & 0xf;
+        int rateIndex = (header >>> 10) & 3;
+        if(version < 0 || layer < 0 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) return -1;
+
+        int table = version == 0 ? layer - 1 : (layer == 1 ? 3 : 4);
+        int bitrate = BITRATES[table][bitrateIndex] * 1000;
+        int rate = sampleRate(header);
+        int padding = (header >>> 9) & 1;
+
+        if(layer == 1) return (12 * bitrate / rate + padding) * 4;
+
+        return samplesPerFrame(header) / 8 * bitrate / rate + padding;
+    }
+
+    /** @return the length of the side information that follows the header, where a Xing or Info tag starts */
+    private static int sideInfoLength(int header)
+    {
+        boolean mono = ((header >>> 6) & 3) == 3;
+        return version(header) == 0 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+    }
+
+    private static boolean isInfoFrame(ByteBuffer b, int pos, int header)
+    {
+        int sideInfo = sideInfoLength(header);
+
+        return tagAt(b, pos + 4 + sideInfo, "Xing") || tagAt(b, pos + 4 + sideInfo, "Info") || tagAt(b, pos + 4 + 32, "VBRI");
+    }
+
+    /** @return the position of the LAME tag in a Xing or Info frame, or -1 if it has none */
+    private static int lameTag(ByteBuffer b, int pos, int header)
+    {
+        int xing = pos + 4 + sideInfoLength(header);
+        if(!tagAt(b, xing, "Xing") && !tagAt(b, xing, "Info")) return -1;
+        if(xing + 8 > b.limit()) return -1;
+
+        // The frame count, byte count, table of contents and quality are each optional
+        int flags = b.getInt(xing + 4);
+        int lame = xing + 8;
+        if((flags & 1) != 0) lame += 4;
+        if((flags & 2) != 0) lame += 4;
+        if((flags & 4) != 0) lame += 100;
+        if((flags & 8) != 0) lame += 4;
+
+        // FFmpeg writes the same tag as LAME with its own name
+        boolean tagged = tagAt(b, lame, "LAME") || tagAt(b, lame, "Lavf") || tagAt(b, lame, "Lavc");
+
+        return tagged ? lame : -1;
+    }
+
+    private static boolean tagAt(ByteBuffer b, int pos, String tag)
+    {
+        if(pos + tag.length() > b.limit()) return false;
+
+        for(int i = 0; i < tag.length(); i++)
+        {
+            if(b.get(pos + i) != tag.charAt(i)) return false;
+        }
+
+        return true;
+    }
+}
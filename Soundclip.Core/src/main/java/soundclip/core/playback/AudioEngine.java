@@ -0,0 +1,434 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import javafx.util.Duration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A software mixer. Every active {@link IVoice} is mixed into a single float accumulation
+ * buffer on a dedicated render thread, which is written to one output line.
+ *
+ * Voices are added and removed through lock-free queues that the render thread drains at the
+ * start of every block, so the render loop itself never blocks on the caller and allocates
+ * nothing once it is running. If no output line is available, the engine keeps rendering in
+ * real time without one.
+ */
+public class AudioEngine implements AutoCloseable
+{
+    private static final Logger Log = LogManager.getLogger(AudioEngine.class);
+
+    /** The sample rate of the engine output */
+    public static final float SAMPLE_RATE = 44100f;
+    /** The number of output channels. The accumulator is interleaved stereo */
+    public static final int CHANNELS = 2;
+    /** The default number of frames rendered per block */
+    public static final int DEFAULT_BUFFER_SIZE = 512;
+    /** The maximum number of voices that can be mixed at once */
+    public static final int MAX_VOICES = 256;
+    /** The default interpolation used by new voices */
+    public static final ResamplerQuality DEFAULT_RESAMPLER_QUALITY = ResamplerQuality.CUBIC;
+
+    private static AudioEngine defaultEngine;
+
+    private final float sampleRate;
+    private final AudioFormat format;
+    private volatile int bufferSize;
+    private volatile ResamplerQuality resamplerQuality = DEFAULT_RESAMPLER_QUALITY;
+    private final FadeScheduler fades;
+
+    private final IVoice[] voices = new IVoice[MAX_VOICES];
+    private int voiceCount = 0;
+    private final ConcurrentLinkedQueue<IVoice> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<IVoice> removed = new ConcurrentLinkedQueue<>();
+
+    private Thread renderThread;
+    private volatile boolean running;
+    private SourceDataLine line;
+    private volatile long renderedFrames;
+
+    // Panics are requested from any thread and picked up by the render thread at the start of a block
+    private volatile int panicRequests = 0;
+    private volatile int panicsApplied = 0;
+    private volatile int panicFrames;
+    private volatile long panicRequestedAt;
+    private long panicMeasuredFrom = -1;
+    private volatile Duration lastPanicLatency = Duration.UNKNOWN;
+    private volatile Duration worstPanicLatency = Duration.UNKNOWN;
+
+    /** @return the engine shared by all cues in the application */
+    public static synchronized AudioEngine getDefault()
+    {
+        if(defaultEngine == null) defaultEngine = new AudioEngine(SAMPLE_RATE, DEFAULT_BUFFER_SIZE);
+
+        return defaultEngine;
+    }
+
+    /**
+     * Create an engine. The engine does not output anything until it is started
+     *
+     * @param sampleRate the output sample rate
+     * @param bufferSize the number of frames rendered per block
+     */
+    public AudioEngine(float sampleRate, int bufferSize)
+    {
+        if(bufferSize <= 0) throw new IllegalArgumentException("The buffer size must be positive");
+
+        this.sampleRate = sampleRate;
+        this.bufferSize = bufferSize;
+        this.format = new AudioFormat(sampleRate, 16, CHANNELS, true, false);
+        this.fades = new FadeScheduler(sampleRate);
+    }
+
+    /** Open the output line and start the render thread if they are not already running */
+    public synchronized void start()
+    {
+        if(running) return;
+
+        try
+        {
+            line = AudioSystem.getSourceDataLine(format);
+            // Leave room for the block being written while the previous one plays
+            line.open(format, bufferSize * format.getFrameSize() * 2);
+            line.start();
+        }
+        catch (LineUnavailableException | IllegalArgumentException e)
+        {
+            Log.warn("Unable to open the output line, rendering without output", e);
+            line = null;
+        }
+
+        // Nothing was audible for a panic requested while the engine was stopped to silence
+        panicsApplied = panicRequests;
+
+        running = true;
+        renderThread = new Thread(this::renderLoop, "Audio Engine");
+        renderThread.setDaemon(true);
+        renderThread.setPriority(Thread.MAX_PRIORITY);
+        renderThread.start();
+
+        Log.info("Audio engine started ({} frames per block at {}Hz)", bufferSize, sampleRate);
+    }
+
+    /** @return {@code true} iff the render thread is running */
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /** @return {@code true} iff the engine is running and writing to an output line */
+    public boolean hasOutput()
+    {
+        return running && line != null;
+    }
+
+    /**
+     * Start mixing the specified voice. The voice is picked up at the start of the next block
+     *
+     * @param voice the voice to mix
+     */
+    public void play(IVoice voice)
+    {
+        added.offer(voice);
+    }
+
+    /**
+     * Stop mixing the specified voice at the start of the next block
+     *
+     * @param voice the voice to remove
+     */
+    public void remove(IVoice voice)
+    {
+        removed.offer(voice);
+    }
+
+    /**
+     * Fade out or stop every voice. All voices are released together at the start of the next
+     * block. Once they are silent, the time from the request to silence is logged and recorded.
+     *
+     * @param fade how long to fade the voices out over
+     * @param hard {@code true} to silence the voices within the next block instead of fading them
+     */
+    public synchronized void panic(Duration fade, boolean hard)
+    {
+        panicFrames = hard ? 0 : (int) Math.round(fade.toSeconds() * sampleRate);
+        panicRequestedAt = System.nanoTime();
+        panicRequests++;
+    }
+
+    /** @return {@code true} if a panic has been requested that the render thread hasn't picked up yet */
+    public boolean isPanicPending()
+    {
+        return panicRequests != panicsApplied;
+    }
+
+    /** @return the time from the last panic to silence, or {@link Duration#UNKNOWN} if nothing has been silenced yet */
+    public Duration getLastPanicLatency()
+    {
+        return lastPanicLatency;
+    }
+
+    /** @return the longest time from a panic to silence since the engine was created */
+    public Duration getWorstPanicLatency()
+    {
+        return worstPanicLatency;
+    }
+
+    /**
+     * Render the next block. Called by the render thread, or directly to render without an output line.
+     *
+     * @param accumulator interleaved stereo samples to render into. Overwritten with the mix
+     * @param frames the number of frames to render
+     */
+    public void render(float[] accumulator, int frames)
+    {
+        IVoice v;
+        while((v = removed.poll()) != null)
+        {
+            for(int i = 0; i < voiceCount; i++)
+            {
+                if(voices[i] == v)
+                {
+                    voices[i] = voices[--voiceCount];
+                    voices[voiceCount] = null;
+                    break;
+                }
+            }
+        }
+
+        while((v = added.poll()) != null)
+        {
+            if(voiceCount == MAX_VOICES)
+            {
+                Log.warn("Voice limit reached, dropping {}", v);
+                continue;
+            }
+
+            voices[voiceCount++] = v;
+        }
+
+        int requested = panicRequests;
+        if(requested != panicsApplied)
+        {
+            releaseVoices(panicFrames);
+            panicMeasuredFrom = panicRequestedAt;
+            panicsApplied = requested;
+        }
+
+        fades.advance(frames);
+
+        int samples = frames * CHANNELS;
+        for(int i = 0; i < samples; i++) accumulator[i] = 0.0f;
+
+        for(int i = 0; i < voiceCount; )
+        {
+            if(voices[i].render(accumulator, frames))
+            {
+                i++;
+            }
+            else
+            {
+                voices[i] = voices[--voiceCount];
+                voices[voiceCount] = null;
+            }
+        }
+
+        renderedFrames += frames;
+
+        if(panicMeasuredFrom >= 0 && !isReleasing()) recordPanicLatency();
+    }
+
+    private void releaseVoices(int frames)
+    {
+        for(int i = 0; i < voiceCount; )
+        {
+            if(voices[i].release(frames))
+            {
+                i++;
+            }
+            else
+            {
+                voices[i] = voices[--voiceCount];
+                voices[voiceCount] = null;
+            }
+        }
+    }
+
+    private boolean isReleasing()
+    {
+        for(int i = 0; i < voiceCount; i++)
+        {
+            if(voices[i].isReleasing()) return true;
+        }
+
+        return false;
+    }
+
+    private void recordPanicLatency()
+    {
+        Duration latency = Duration.millis((System.nanoTime() - panicMeasuredFrom) / 1_000_000.0);
+        panicMeasuredFrom = -1;
+
+        lastPanicLatency = latency;
+        if(worstPanicLatency.isUnknown() || latency.greaterThan(worstPanicLatency)) worstPanicLatency = latency;
+
+        Log.info("Panic to silence in {}ms (worst {}ms)", latency.toMillis(), worstPanicLatency.toMillis());
+    }
+
+    /** @return the scheduler that runs fades from this engine's block clock */
+    public FadeScheduler getFadeScheduler()
+    {
+        return fades;
+    }
+
+    /** @return the number of voices mixed in the last block */
+    public int getVoiceCount()
+    {
+        return voiceCount;
+    }
+
+    /** @return the total number of frames rendered by the engine */
+    public long getRenderedFrames()
+    {
+        return renderedFrames;
+    }
+
+    public float getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    /** @return the number of frames rendered per block */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * Set the number of frames rendered per block. Smaller blocks reduce latency but are more
+     * likely to underrun. Restarts the output line if the engine is running.
+     *
+     * @param bufferSize the number of frames per block
+     */
+    public synchronized void setBufferSize(int bufferSize)
+    {
+        if(bufferSize <= 0) throw new IllegalArgumentException("The buffer size must be positive");
+        if(bufferSize == this.bufferSize) return;
+
+        boolean wasRunning = running;
+        if(wasRunning) shutdown();
+
+        this.bufferSize = bufferSize;
+
+        if(wasRunning) start();
+    }
+
+    /** @return the interpolation used by new voices */
+    public ResamplerQuality getResamplerQuality()
+    {
+        return resamplerQuality;
+    }
+
+    /**
+     * Set the interpolation used by voices created after this call. Voices that already exist
+     * keep the quality they were created with.
+     *
+     * @param resamplerQuality the interpolation for new voices
+     */
+    public void setResamplerQuality(ResamplerQuality resamplerQuality)
+    {
+        if(resamplerQuality == null) throw new IllegalArgumentException("The resampler quality cannot be null");
+
+        this.resamplerQuality = resamplerQuality;
+    }
+
+    private void renderLoop()
+    {
+        final int frames = bufferSize;
+        final float[] accumulator = new float[frames * CHANNELS];
+        final byte[] output = new byte[frames * format.getFrameSize()];
+        final long blockNanos = (long)(frames / (double)sampleRate * 1_000_000_000L);
+        final SourceDataLine out = line;
+
+        long deadline = System.nanoTime();
+        while(running)
+        {
+            render(accumulator, frames);
+
+            if(out != null)
+            {
+                for(int i = 0, j = 0; i < accumulator.length; i++, j += 2)
+                {
+                    float s = accumulator[i];
+                    int pcm = (int)((s > 1.0f ? 1.0f : (s < -1.0f ? -1.0f : s)) * Short.MAX_VALUE);
+
+                    output[j] = (byte)pcm;
+                    output[j + 1] = (byte)(pcm >> 8);
+                }
+
+                out.write(output, 0, output.length);
+            }
+            else
+            {
+                deadline += blockNanos;
+                LockSupport.parkNanos(deadline - System.nanoTime());
+            }
+        }
+    }
+
+    private void shutdown()
+    {
+        running = false;
+
+        if(line != null)
+        {
+            line.stop();
+            line.flush();
+            line.close();
+        }
+
+        if(renderThread != null)
+        {
+            try
+            {
+                renderThread.join(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        line = null;
+        renderThread = null;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if(!running) return;
+
+        shutdown();
+        Log.info("Audio engine stopped");
+    }
+}
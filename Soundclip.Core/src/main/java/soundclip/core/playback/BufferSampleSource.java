@@ -0,0 +1,84 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Reads 16-bit samples held in memory, typically by a {@link SampleCache}
+ */
+public class BufferSampleSource implements ISampleSource
+{
+    private final ShortBuffer samples;
+    private final int channels;
+    private final float sampleRate;
+
+    /**
+     * Create a source over the specified samples. The source reads from its own view of the buffer.
+     *
+     * @param samples interleaved 16-bit samples
+     * @param channels the number of interleaved channels
+     * @param sampleRate the number of frames per second
+     */
+    public BufferSampleSource(ShortBuffer samples, int channels, float sampleRate)
+    {
+        this.samples = samples.duplicate();
+        this.samples.rewind();
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public int getChannels()
+    {
+        return channels;
+    }
+
+    @Override
+    public float getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    @Override
+    public long getFrameLength()
+    {
+        return samples.limit() / channels;
+    }
+
+    @Override
+    public int read(float[] destination, int offset, int frames)
+    {
+        int available = samples.remaining() / channels;
+        if(available == 0) return -1;
+
+        int n = Math.min(frames, available) * channels;
+        for(int i = 0; i < n; i++)
+        {
+            destination[offset + i] = samples.get() / 32768.0f;
+        }
+
+        return n / channels;
+    }
+
+    @Override
+    public void seek(long frame)
+    {
+        samples.position((int) Math.min(frame * channels, samples.limit()));
+    }
+
+    @Override
+    public void close() { }
+}
@@ -0,0 +1,97 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The shape of a gain fade. Each curve is sampled into a table when the class is loaded, so
+ * evaluating a curve costs a table lookup and a linear interpolation.
+ *
+ * Curves are described as a fade in. Fades that lower the gain play the curve backwards, so an
+ * equal-power fade out is the mirror image of an equal-power fade in.
+ */
+public enum FadeCurve
+{
+    /** The gain changes at a constant rate */
+    LINEAR(t -> t),
+    /** Constant total power when crossfaded against the same curve in the opposite direction */
+    EQUAL_POWER(t -> Math.sin(t * Math.PI / 2.0)),
+    /** The level changes at a constant rate in decibels across a 60dB range, which sounds even to the ear */
+    LOGARITHMIC(t -> (Math.pow(10.0, 3.0 * (t - 1.0)) - 1e-3) / (1.0 - 1e-3)),
+    /** Eases in and out. The shape fades had before curves could be chosen */
+    S_CURVE(t -> t * t * (3.0 - 2.0 * t));
+
+    /** The curve used when one isn't specified */
+    public static final FadeCurve DEFAULT = S_CURVE;
+
+    /** The number of segments each curve is sampled into */
+    private static final int RESOLUTION = 1024;
+
+    private final float[] table = new float[RESOLUTION + 1];
+
+    FadeCurve(DoubleUnaryOperator shape)
+    {
+        for(int i = 0; i <= RESOLUTION; i++) table[i] = (float) shape.applyAsDouble(i / (double) RESOLUTION);
+
+        // Land exactly on the ends so completed fades reach their target
+        table[0] = 0.0f;
+        table[RESOLUTION] = 1.0f;
+    }
+
+    /**
+     * Evaluate the curve as a fade in
+     *
+     * @param t how far through the fade, from {@code 0.0} to {@code 1.0}
+     * @return how far from the start gain to the end gain, from {@code 0.0} to {@code 1.0}
+     */
+    public double apply(double t)
+    {
+        if(t <= 0.0) return 0.0;
+        if(t >= 1.0) return 1.0;
+
+        double x = t * RESOLUTION;
+        int i = (int) x;
+        float f = (float)(x - i);
+
+        return table[i] + (table[i + 1] - table[i]) * f;
+    }
+
+    /**
+     * Interpolate between two gains along the curve
+     *
+     * @param from the gain at the start of the fade
+     * @param to the gain at the end of the fade
+     * @param t how far through the fade, from {@code 0.0} to {@code 1.0}
+     * @return the gain at {@code t}
+     */
+    public double interpolate(double from, double to, double t)
+    {
+        double shape = to >= from ? apply(t) : 1.0 - apply(1.0 - t);
+        return from + (to - from) * shape;
+    }
+
+    public static FadeCurve fromOrdinal(int ord)
+    {
+        switch(ord)
+        {
+            case 0: return LINEAR;
+            case 1: return EQUAL_POWER;
+            case 2: return LOGARITHMIC;
+            case 3: return S_CURVE;
+            default: throw new IndexOutOfBoundsException();
+        }
+    }
+}
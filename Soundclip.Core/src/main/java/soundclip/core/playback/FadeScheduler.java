@@ -0,0 +1,440 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import javafx.util.Duration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import soundclip.core.interop.FXThread;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs every gain fade in the application from the audio engine's block clock.
+ *
+ * Fades are started and cancelled by queueing a command that the render thread picks up at the
+ * start of the next block, the same way the {@link AudioEngine} adds and removes voices, so the
+ * render thread never waits on a lock held by the caller. Running fades are held in a fixed set
+ * of slots and advanced once per engine block. Sampled voices ramp across each block on top of
+ * this, so fades are free of zipper noise no matter how many run at once.
+ *
+ * Every fade lives in a slot allocated with the scheduler, and commands are slot numbers passed
+ * through fixed rings, so starting, cancelling and finishing fades allocates nothing.
+ *
+ * Fades may be started, paused and cancelled from any thread. Targets have their gain set on the
+ * render thread. Completion callbacks are run on the JavaFX application thread.
+ */
+public class FadeScheduler
+{
+    private static final Logger Log = LogManager.getLogger(FadeScheduler.class);
+
+    /** The maximum number of fades that can run at once */
+    public static final int MAX_FADES = 1024;
+
+    /** Fades replaced or cancelled while the render thread still holds them need slots too */
+    private static final int SLOTS = 2 * MAX_FADES;
+
+    /** Set on the slot number of a command that cancels the fade in the slot */
+    private static final int CANCEL = 1 << 30;
+
+    /**
+     * A fade, reused once neither the callers nor the render thread refer to it. Set up by the
+     * caller, then only read or advanced by the render thread. Runs its own completion.
+     */
+    private final class Fade implements Runnable
+    {
+        final int slot;
+        IFadeTarget target;
+        double to;
+        long length;
+        FadeCurve curve;
+        Runnable onComplete;
+        double from;
+        volatile long elapsed;
+        volatile boolean paused;
+        volatile boolean finished;
+
+        // Guarded by the scheduler. Whether the fade is the latest on its target, and whether the render thread holds it
+        boolean listed;
+        boolean queued;
+
+        Fade(int slot)
+        {
+            this.slot = slot;
+        }
+
+        void start(IFadeTarget target, double to, long length, FadeCurve curve, Runnable onComplete)
+        {
+            this.target = target;
+            this.to = to;
+            this.length = length;
+            this.curve = curve;
+            this.onComplete = onComplete;
+            this.elapsed = 0;
+            this.paused = false;
+            this.finished = false;
+            this.listed = true;
+            this.queued = true;
+        }
+
+        @Override
+        public void run()
+        {
+            Runnable callback = null;
+            synchronized (FadeScheduler.this)
+            {
+                // Cancelled or replaced while the completion was on its way
+                if(listed)
+                {
+                    fading.remove(target);
+                    listed = false;
+                    callback = onComplete;
+                }
+
+                queued = false;
+                recycle(this);
+            }
+
+            if(callback != null) callback.run();
+        }
+    }
+
+    /** Slot numbers passed from one thread at a time to one thread at a time */
+    private static final class SlotRing
+    {
+        private final int[] slots;
+        private final int mask;
+        private volatile long head = 0;
+        private volatile long tail = 0;
+
+        /** @param capacity a power of two, larger than the number of entries that can be waiting */
+        SlotRing(int capacity)
+        {
+            slots = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        void offer(int slot)
+        {
+            long t = tail;
+            slots[(int)(t & mask)] = slot;
+            tail = t + 1;
+        }
+
+        /** @return the next slot number, or -1 if the ring is empty */
+        int poll()
+        {
+            long h = head;
+            if(h == tail) return -1;
+
+            int slot = slots[(int)(h & mask)];
+            head = h + 1;
+            return slot;
+        }
+    }
+
+    private final float sampleRate;
+    private final Executor completions;
+    private final Fade[] slots = new Fade[SLOTS];
+
+    // Caller state, guarded by the scheduler. The latest fade on each target, removed on cancel or once the completion has run
+    private final IdentityHashMap<IFadeTarget, Fade> fading = new IdentityHashMap<>(MAX_FADES);
+    private final int[] free = new int[SLOTS];
+    private int freeCount = 0;
+
+    // A slot holds a start, a stale cancel from its last use and a cancel at most
+    private final SlotRing commands = new SlotRing(4 * SLOTS);
+    private final SlotRing released = new SlotRing(SLOTS);
+
+    // Render thread state
+    private final Fade[] fades = new Fade[MAX_FADES];
+    private int count = 0;
+
+    /** Create a scheduler that runs completion callbacks on the JavaFX application thread */
+    public FadeScheduler(float sampleRate)
+    {
+        this(sampleRate, FXThread::runLater);
+    }
+
+    /**
+     * @param sampleRate the rate that {@link #advance(int)} is measured at
+     * @param completions where completion callbacks are run
+     */
+    public FadeScheduler(float sampleRate, Executor completions)
+    {
+        this.sampleRate = sampleRate;
+        this.completions = completions;
+
+        for(int i = SLOTS - 1; i >= 0; i--)
+        {
+            slots[i] = new Fade(i);
+            free[freeCount++] = i;
+        }
+    }
+
+    /**
+     * Fade the target from its current gain along the {@link FadeCurve#DEFAULT default curve}.
+     * Replaces any fade already running on the target.
+     *
+     * @param target the gain to fade
+     * @param to the gain to finish at
+     * @param over how long the fade takes
+     * @param onComplete run when the fade finishes, or {@code null}. Not run if the fade is cancelled
+     */
+    public void fade(IFadeTarget target, double to, Duration over, Runnable onComplete)
+    {
+        fade(target, to, over, FadeCurve.DEFAULT, onComplete);
+    }
+
+    /**
+     * Fade the target from its gain at the start of the next block. Replaces any fade already
+     * running on the target.
+     *
+     * @param target the gain to fade
+     * @param to the gain to finish at
+     * @param over how long the fade takes
+     * @param curve the shape of the fade
+     * @param onComplete run when the fade finishes, or {@code null}. Not run if the fade is cancelled
+     */
+    public void fade(IFadeTarget target, double to, Duration over, FadeCurve curve, Runnable onComplete)
+    {
+        long length = Math.max(1, Math.round(over.toSeconds() * sampleRate));
+
+        synchronized (this)
+        {
+            drainReleased();
+
+            Fade previous = fading.get(target);
+            if((previous != null || fading.size() < MAX_FADES) && freeCount > 0)
+            {
+                Fade f = slots[free[--freeCount]];
+                f.start(target, to, length, curve, onComplete);
+
+                if(previous != null) unlist(previous);
+                fading.put(target, f);
+                commands.offer(f.slot);
+                return;
+            }
+
+            if(previous != null) cancel(previous);
+        }
+
+        Log.warn("Fade limit reached, jumping {} to {}", target, to);
+        target.setGain(to);
+        if(onComplete != null) completions.execute(onComplete);
+    }
+
+    /**
+     * Stop fading the target, leaving it at its gain at the start of the next block
+     *
+     * @return {@code true} if the target was fading
+     */
+    public synchronized boolean cancel(IFadeTarget target)
+    {
+        drainReleased();
+
+        Fade f = fading.get(target);
+        if(f == null) return false;
+
+        boolean running = !f.finished;
+        cancel(f);
+        return running;
+    }
+
+    /** Hold the fade on the target at its current gain */
+    public synchronized void pause(IFadeTarget target)
+    {
+        Fade f = fading.get(target);
+        if(f != null) f.paused = true;
+    }
+
+    /** Continue a paused fade on the target */
+    public synchronized void resume(IFadeTarget target)
+    {
+        Fade f = fading.get(target);
+        if(f != null) f.paused = false;
+    }
+
+    /** @return {@code true} if a fade is running or paused on the target */
+    public synchronized boolean isFading(IFadeTarget target)
+    {
+        Fade f = fading.get(target);
+        return f != null && !f.finished;
+    }
+
+    /** @return {@code true} if the fade on the target is paused */
+    public synchronized boolean isPaused(IFadeTarget target)
+    {
+        Fade f = fading.get(target);
+        return f != null && !f.finished && f.paused;
+    }
+
+    /** @return how far through its fade the target is, or {@link Duration#UNKNOWN} if it is not fading */
+    public synchronized Duration getElapsed(IFadeTarget target)
+    {
+        Fade f = fading.get(target);
+        return f == null || f.finished ? Duration.UNKNOWN : Duration.seconds(f.elapsed / (double) sampleRate);
+    }
+
+    /** @return the number of fades running or paused */
+    public synchronized int getActiveCount()
+    {
+        int active = 0;
+        for(Fade f : fading.values())
+        {
+            if(!f.finished) active++;
+        }
+
+        return active;
+    }
+
+    /**
+     * Pick up queued commands and advance every running fade. Called by the {@link AudioEngine}
+     * on the render thread at the start of each block.
+     *
+     * @param frames the number of frames in the block
+     */
+    public void advance(int frames)
+    {
+        int command;
+        while((command = commands.poll()) >= 0)
+        {
+            Fade f = slots[command & ~CANCEL];
+            if((command & CANCEL) != 0)
+            {
+                // The fade may have finished already, its completion frees the slot
+                int i = indexOf(f);
+                if(i >= 0)
+                {
+                    removeAt(i);
+                    released.offer(f.slot);
+                }
+                continue;
+            }
+
+            f.from = f.target.getGain();
+            int i = indexOf(f.target);
+            if(i >= 0)
+            {
+                released.offer(fades[i].slot);
+                fades[i] = f;
+            }
+            else if(count < MAX_FADES)
+            {
+                fades[count++] = f;
+            }
+            else
+            {
+                // Only reached if fades were cancelled and restarted faster than the render thread caught up
+                f.target.setGain(f.to);
+                complete(f);
+            }
+        }
+
+        for(int i = 0; i < count; )
+        {
+            Fade f = fades[i];
+            if(f.paused)
+            {
+                i++;
+                continue;
+            }
+
+            long elapsed = Math.min(f.length, f.elapsed + frames);
+            f.elapsed = elapsed;
+            f.target.setGain(f.curve.interpolate(f.from, f.to, elapsed / (double) f.length));
+
+            if(elapsed < f.length)
+            {
+                i++;
+                continue;
+            }
+
+            removeAt(i);
+            complete(f);
+        }
+    }
+
+    /** Hand the fade to its completion, which frees the slot */
+    private void complete(Fade f)
+    {
+        f.finished = true;
+        completions.execute(f);
+    }
+
+    /** Drop the fade from its target and tell the render thread to stop it */
+    private void cancel(Fade f)
+    {
+        fading.remove(f.target);
+        unlist(f);
+
+        if(f.queued) commands.offer(f.slot | CANCEL);
+    }
+
+    private void unlist(Fade f)
+    {
+        f.listed = false;
+        recycle(f);
+    }
+
+    /** Take back the slots the render thread has let go of */
+    private void drainReleased()
+    {
+        int slot;
+        while((slot = released.poll()) >= 0)
+        {
+            Fade f = slots[slot];
+            f.queued = false;
+            recycle(f);
+        }
+    }
+
+    private void recycle(Fade f)
+    {
+        if(f.listed || f.queued) return;
+
+        f.target = null;
+        f.onComplete = null;
+        free[freeCount++] = f.slot;
+    }
+
+    private int indexOf(IFadeTarget target)
+    {
+        for(int i = 0; i < count; i++)
+        {
+            if(fades[i].target == target) return i;
+        }
+
+        return -1;
+    }
+
+    private int indexOf(Fade f)
+    {
+        for(int i = 0; i < count; i++)
+        {
+            if(fades[i] == f) return i;
+        }
+
+        return -1;
+    }
+
+    /** Free the slot by moving the last running fade into it */
+    private void removeAt(int i)
+    {
+        fades[i] = fades[--count];
+        fades[count] = null;
+    }
+}
@@ -0,0 +1,30 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+/**
+ * Something with a linear gain that a {@link FadeScheduler} can ramp
+ */
+public interface IFadeTarget
+{
+    /** @return the current linear gain. Called from the audio render thread when a fade starts */
+    double getGain();
+
+    /**
+     * Set the linear gain. Called from the audio render thread while a fade is running, so
+     * targets backed by JavaFX must hand the value to the JavaFX application thread
+     */
+    void setGain(double gain);
+}
@@ -0,0 +1,51 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+/**
+ * Decoded PCM samples, read as interleaved floats in the range {@code [-1.0, 1.0]}
+ */
+public interface ISampleSource extends AutoCloseable
+{
+    /** @return the number of interleaved channels */
+    int getChannels();
+
+    /** @return the number of frames per second */
+    float getSampleRate();
+
+    /** @return the length of the source in frames, or {@link javax.sound.sampled.AudioSystem#NOT_SPECIFIED} */
+    long getFrameLength();
+
+    /**
+     * Read the next frames from the source. Must not allocate once the source has been opened.
+     *
+     * @param destination the buffer to write interleaved samples to
+     * @param offset the index in the destination to write the first sample to
+     * @param frames the maximum number of frames to read
+     * @return the number of frames read, or {@code -1} at the end of the source
+     */
+    int read(float[] destination, int offset, int frames);
+
+    /**
+     * Move the read position of the source. Called on the render thread, so sources that have
+     * to reopen or decode to reposition do that in the background.
+     *
+     * @param frame the frame to read next
+     */
+    void seek(long frame);
+
+    /** Wait for a seek that is carried out in the background. Never called on the render thread */
+    default void awaitSeek() { }
+}
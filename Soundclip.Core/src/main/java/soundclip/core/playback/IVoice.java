@@ -0,0 +1,50 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+/**
+ * A source of audio that is mixed by the {@link AudioEngine}.
+ *
+ * Voices are rendered on the engine's render thread. Implementations must not block
+ * or allocate while rendering.
+ */
+public interface IVoice
+{
+    /**
+     * Mix the next block of this voice into the accumulator
+     *
+     * @param accumulator interleaved stereo samples to add the output of this voice to
+     * @param frames the number of frames to render
+     * @return {@code false} if the voice is done and should be removed from the engine
+     */
+    boolean render(float[] accumulator, int frames);
+
+    /**
+     * Fade the voice to silence and then stop it. Called on the render thread when the engine panics.
+     *
+     * @param frames the length of the fade, or {@code 0} to silence the voice within the next block
+     * @return {@code false} if the voice can't fade out and should be removed from the engine immediately
+     */
+    default boolean release(int frames)
+    {
+        return false;
+    }
+
+    /** @return {@code true} while the voice is fading out after {@link #release(int)} */
+    default boolean isReleasing()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,375 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import soundclip.core.media.MediaAsset;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams uncompressed 16 or 24-bit PCM out of a WAV or AIFF file through memory-mapped windows.
+ *
+ * Samples are converted straight out of the mapped region; the file is never copied into the heap.
+ * A new window is mapped whenever the playhead leaves the current one, so files of any length can
+ * be played with a fixed amount of address space.
+ */
+public class MappedWaveReader implements ISampleSource
+{
+    /** The default size of a mapped window, in bytes */
+    public static final int DEFAULT_WINDOW_SIZE = 8 * 1024 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final int windowFrames;
+
+    private int channels;
+    private float sampleRate;
+    private int bytesPerSample;
+    private ByteOrder order;
+    private long dataOffset;
+    private long frameLength;
+
+    private MappedByteBuffer window;
+    private long windowStart = 0;
+    private long windowEnd = 0;
+    private long position = 0;
+
+    /**
+     * Open the specified file with the default window size
+     *
+     * @param file a WAV or AIFF file
+     * @throws UnsupportedAudioFileException if the file is not uncompressed 16 or 24-bit PCM
+     * @throws IOException if the file cannot be read
+     */
+    public MappedWaveReader(File file) throws UnsupportedAudioFileException, IOException
+    {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Open the specified file
+     *
+     * @param file a WAV or AIFF file
+     * @param windowSize the number of bytes to map at a time
+     * @throws UnsupportedAudioFileException if the file is not uncompressed 16 or 24-bit PCM
+     * @throws IOException if the file cannot be read
+     */
+    public MappedWaveReader(File file, int windowSize) throws UnsupportedAudioFileException, IOException
+    {
+        this(file, FileChannel.open(file.toPath(), StandardOpenOption.READ), true, windowSize);
+    }
+
+    /**
+     * Read the specified asset through its shared channel, which is left open when the reader is closed
+     *
+     * @param asset a WAV or AIFF asset
+     * @throws UnsupportedAudioFileException if the file is not uncompressed 16 or 24-bit PCM
+     * @throws IOException if the file cannot be read
+     */
+    public MappedWaveReader(MediaAsset asset) throws UnsupportedAudioFileException, IOException
+    {
+        this(asset.getFile(), asset.getChannel(), false, DEFAULT_WINDOW_SIZE);
+    }
+
+    private MappedWaveReader(File file, FileChannel channel, boolean ownsChannel, int windowSize) throws UnsupportedAudioFileException, IOException
+    {
+        this.file = file;
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+
+        try
+        {
+            ByteBuffer header = readAt(0, 12);
+            String riff = fourCC(header, 0);
+            String type = fourCC(header, 8);
+
+            if(riff.equals("RIFF") && type.equals("WAVE"))
+            {
+                parseWave();
+            }
+            else if(riff.equals("FORM") && (type.equals("AIFF") || type.equals("AIFC")))
+            {
+                parseAiff(type.equals("AIFC"));
+            }
+            else
+            {
+                throw new UnsupportedAudioFileException(file + " is not a WAV or AIFF file");
+            }
+
+            if(bytesPerSample != 2 && bytesPerSample != 3)
+            {
+                throw new UnsupportedAudioFileException("Only 16 and 24-bit PCM can be mapped (" + file + " is " + bytesPerSample * 8 + "-bit)");
+            }
+        }
+        catch (UnsupportedAudioFileException | IOException | RuntimeException e)
+        {
+            if(ownsChannel) channel.close();
+            throw e;
+        }
+
+        windowFrames = Math.max(1, windowSize / getFrameSize());
+    }
+
+    private void parseWave() throws UnsupportedAudioFileException, IOException
+    {
+        boolean hasFormat = false;
+        long offset = 12;
+
+        while(offset + 8 <= channel.size())
+        {
+            ByteBuffer chunk = readAt(offset, 8).order(ByteOrder.LITTLE_ENDIAN);
+            String id = fourCC(chunk, 0);
+            long size = chunk.getInt(4) & 0xffffffffL;
+
+            if(id.equals("fmt "))
+            {
+                ByteBuffer fmt = readAt(offset + 8, (int) Math.min(size, 40)).order(ByteOrder.LITTLE_ENDIAN);
+                int tag = fmt.getShort(0) & 0xffff;
+
+                // WAVE_FORMAT_EXTENSIBLE stores the real format tag at the start of the sub-format GUID
+                if(tag == 0xfffe && size >= 26) tag = fmt.getShort(24) & 0xffff;
+                if(tag != 1) throw new UnsupportedAudioFileException(file + " is not uncompressed PCM");
+
+                channels = fmt.getShort(2);
+                sampleRate = fmt.getInt(4);
+                bytesPerSample = (fmt.getShort(14) + 7) / 8;
+                order = ByteOrder.LITTLE_ENDIAN;
+                hasFormat = true;
+            }
+            else if(id.equals("data"))
+            {
+                if(!hasFormat) throw new UnsupportedAudioFileException(file + " has no format chunk before its data");
+
+                setData(offset + 8, size);
+                return;
+            }
+
+            // Chunks are padded to an even length
+            offset += 8 + size + (size & 1);
+        }
+
+        throw new UnsupportedAudioFileException(file + " has no data chunk");
+    }
+
+    private void parseAiff(boolean compressed) throws UnsupportedAudioFileException, IOException
+    {
+        boolean hasFormat = false;
+        long offset = 12;
+
+        while(offset + 8 <= channel.size())
+        {
+            ByteBuffer chunk = readAt(offset, 8).order(ByteOrder.BIG_ENDIAN);
+            String id = fourCC(chunk, 0);
+            long size = chunk.getInt(4) & 0xffffffffL;
+
+            if(id.equals("COMM"))
+            {
+                ByteBuffer comm = readAt(offset + 8, (int) Math.min(size, 22)).order(ByteOrder.BIG_ENDIAN);
+
+                channels = comm.getShort(0);
+                bytesPerSample = (comm.getShort(6) + 7) / 8;
+                sampleRate = (float) readExtended(comm, 8);
+                order = ByteOrder.BIG_ENDIAN;
+
+                if(compressed)
+                {
+                    String compression = fourCC(comm, 18);
+                    if(compression.equals("sowt"))
+                    {
+                        order = ByteOrder.LITTLE_ENDIAN;
+                    }
+                    else if(!compression.equals("NONE"))
+                    {
+                        throw new UnsupportedAudioFileException(file + " is compressed (" + compression + ")");
+                    }
+                }
+                hasFormat = true;
+            }
+            else if(id.equals("SSND"))
+            {
+                if(!hasFormat) throw new UnsupportedAudioFileException(file + " has no COMM chunk before its sound data");
+
+                long skip = readAt(offset + 8, 4).order(ByteOrder.BIG_ENDIAN).getInt(0) & 0xffffffffL;
+                setData(offset + 16 + skip, size - 8 - skip);
+                return;
+            }
+
+            offset += 8 + size + (size & 1);
+        }
+
+        throw new UnsupportedAudioFileException(file + " has no SSND chunk");
+    }
+
+    private void setData(long offset, long size) throws IOException
+    {
+        dataOffset = offset;
+
+        // Writers that stream to disk may leave the size unset or wrong
+        long available = Math.max(0, channel.size() - offset);
+        frameLength = Math.min(size, available) / getFrameSize();
+    }
+
+    @Override
+    public int getChannels()
+    {
+        return channels;
+    }
+
+    @Override
+    public float getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    @Override
+    public long getFrameLength()
+    {
+        return frameLength;
+    }
+
+    /** @return the number of bytes in a frame of the source file */
+    public int getFrameSize()
+    {
+        return channels * bytesPerSample;
+    }
+
+    @Override
+    public int read(float[] destination, int offset, int frames)
+    {
+        if(position >= frameLength) return -1;
+
+        int total = (int) Math.min(frames, frameLength - position);
+        int done = 0;
+        int out = offset;
+
+        while(done < total)
+        {
+            if(window == null || position < windowStart || position >= windowEnd)
+            {
+                if(!map(position)) return done == 0 ? -1 : done;
+            }
+
+            int n = (int) Math.min(total - done, windowEnd - position);
+            int index = (int) (position - windowStart) * getFrameSize();
+            int samples = n * channels;
+
+            if(bytesPerSample == 2)
+            {
+                for(int i = 0; i < samples; i++, index += 2)
+                {
+                    destination[out++] = window.getShort(index) / 32768.0f;
+                }
+            }
+            else if(order == ByteOrder.LITTLE_ENDIAN)
+            {
+                for(int i = 0; i < samples; i++, index += 3)
+                {
+                    destination[out++] = ((window.get(index) & 0xff) | ((window.get(index + 1) & 0xff) << 8) | (window.get(index + 2) << 16)) / 8388608.0f;
+                }
+            }
+            else
+            {
+                for(int i = 0; i < samples; i++, index += 3)
+                {
+                    destination[out++] = ((window.get(index + 2) & 0xff) | ((window.get(index + 1) & 0xff) << 8) | (window.get(index) << 16)) / 8388608.0f;
+                }
+            }
+
+            position += n;
+            done += n;
+        }
+
+        return done;
+    }
+
+    @Override
+    public void seek(long frame)
+    {
+        position = Math.max(0, Math.min(frame, frameLength));
+    }
+
+    /** @return the first frame of the currently mapped window */
+    public long getWindowStart()
+    {
+        return windowStart;
+    }
+
+    /** Map the window containing the specified frame */
+    private boolean map(long frame)
+    {
+        long frames = Math.min(windowFrames, frameLength - frame);
+
+        try
+        {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + frame * getFrameSize(), frames * getFrameSize());
+            window.order(order);
+        }
+        catch (IOException e)
+        {
+            window = null;
+            return false;
+        }
+
+        windowStart = frame;
+        windowEnd = frame + frames;
+        return true;
+    }
+
+    private ByteBuffer readAt(long offset, int length) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate(length);
+        while(b.hasRemaining())
+        {
+            if(channel.read(b, offset + b.position()) < 0) throw new IOException("Unexpected end of " + file);
+        }
+
+        b.flip();
+        return b;
+    }
+
+    private static String fourCC(ByteBuffer b, int index)
+    {
+        byte[] id = new byte[4];
+        for(int i = 0; i < 4; i++) id[i] = b.get(index + i);
+
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    /** Read an IEEE 754 80-bit extended precision number, as used for the AIFF sample rate */
+    private static double readExtended(ByteBuffer b, int index)
+    {
+        int exponent = b.getShort(index) & 0x7fff;
+        long mantissa = b.getLong(index + 2);
+        double value = (mantissa >>> 11) * Math.pow(2, exponent - 16383 - 52);
+
+        return (b.getShort(index) & 0x8000) != 0 ? -value : value;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        window = null;
+        if(ownsChannel) channel.close();
+    }
+}
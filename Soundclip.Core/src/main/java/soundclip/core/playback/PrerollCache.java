@@ -0,0 +1,122 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the first few hundred milliseconds of streamed files as decoded PCM for as long as the
+ * project is open, so playback can start before the streaming reader is ready
+ * (see {@link PrerollSampleSource}).
+ */
+public class PrerollCache
+{
+    private static final Logger Log = LogManager.getLogger(PrerollCache.class);
+
+    /** The default length of the decoded head of each file, in milliseconds */
+    public static final long DEFAULT_PREROLL = 300;
+
+    private final ConcurrentHashMap<File, SampleCache.Entry> heads = new ConcurrentHashMap<>();
+    private volatile long preroll;
+
+    public PrerollCache()
+    {
+        this(DEFAULT_PREROLL);
+    }
+
+    /** @param preroll the length of the decoded head of each file, in milliseconds */
+    public PrerollCache(long preroll)
+    {
+        setPreroll(preroll);
+    }
+
+    /**
+     * Decode the head of the specified file if it is not already held
+     *
+     * @param file the file to decode
+     * @return the decoded head
+     * @throws UnsupportedAudioFileException if the file cannot be decoded to 16-bit PCM
+     * @throws IOException if the file cannot be read
+     */
+    public SampleCache.Entry load(File file) throws UnsupportedAudioFileException, IOException
+    {
+        File key = file.getCanonicalFile();
+
+        SampleCache.Entry head = heads.get(key);
+        if(head != null) return head;
+
+        AudioFileFormat format = AudioSystem.getAudioFileFormat(key);
+        long frames = (long) Math.ceil(format.getFormat().getSampleRate() * preroll / 1000.0);
+
+        head = SampleCache.decode(key, frames);
+        Log.debug("Decoded {} frames of {} for preroll", head.getFrameLength(), key);
+
+        SampleCache.Entry existing = heads.putIfAbsent(key, head);
+        return existing == null ? head : existing;
+    }
+
+    /** @return the decoded head of the specified file, or {@code null} if it has not been loaded */
+    public SampleCache.Entry get(File file)
+    {
+        try
+        {
+            return heads.get(file.getCanonicalFile());
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /** Remove every decoded head */
+    public void clear()
+    {
+        heads.clear();
+    }
+
+    /** @return the number of files with a decoded head */
+    public int size()
+    {
+        return heads.size();
+    }
+
+    /** @return the number of bytes held by the decoded heads */
+    public long getUsedBytes()
+    {
+        return heads.values().stream().mapToLong(SampleCache.Entry::getSize).sum();
+    }
+
+    /** @return the length of the decoded head of each file, in milliseconds */
+    public long getPreroll()
+    {
+        return preroll;
+    }
+
+    /** Set the length of the decoded head of files loaded from now on, in milliseconds */
+    public void setPreroll(long preroll)
+    {
+        if(preroll < 0) throw new IllegalArgumentException("The preroll cannot be negative");
+
+        this.preroll = preroll;
+    }
+}
@@ -0,0 +1,225 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays the decoded head of a file from memory while the streaming source for the rest of the
+ * file is opened in the background.
+ *
+ * If the playhead reaches the end of the head before the stream is ready, silence is played
+ * in its place so the cue stays in time.
+ */
+public class PrerollSampleSource implements ISampleSource
+{
+    private static final Logger Log = LogManager.getLogger(PrerollSampleSource.class);
+
+    /** The number of frames read from the stream while it is opened, to warm the first read */
+    private static final int WARM_FRAMES = 1024;
+
+    private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Preroll Stream");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final BufferSampleSource head;
+    private final long headFrames;
+    private final long frameLength;
+
+    // Handed over under the lock, so exactly one of the opener and close() closes the stream
+    private volatile ISampleSource tail;
+    private volatile boolean tailFailed = false;
+    private boolean closed = false;
+
+    private long position = 0;
+    private long tailPosition;
+    private long underruns = 0;
+
+    /**
+     * Start playing from the specified head and open the stream with the default executor
+     *
+     * @param head the decoded start of the file
+     * @param stream opens the streaming source for the whole file
+     */
+    public PrerollSampleSource(SampleCache.Entry head, Callable<ISampleSource> stream)
+    {
+        this(head, stream, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * @param head the decoded start of the file
+     * @param stream opens the streaming source for the whole file
+     * @param executor runs {@param stream}
+     */
+    public PrerollSampleSource(SampleCache.Entry head, Callable<ISampleSource> stream, Executor executor)
+    {
+        this.head = head.open();
+        this.headFrames = head.getFrameLength();
+        this.frameLength = head.getSourceFrameLength();
+        this.tailPosition = headFrames;
+
+        executor.execute(() -> openTail(stream));
+    }
+
+    private void openTail(Callable<ISampleSource> stream)
+    {
+        ISampleSource s = null;
+        try
+        {
+            s = stream.call();
+
+            // Touch the first frames after the head so the first real read doesn't wait on the disk
+            s.seek(headFrames);
+            s.awaitSeek();
+            s.read(new float[WARM_FRAMES * s.getChannels()], 0, WARM_FRAMES);
+            s.seek(headFrames);
+            s.awaitSeek();
+
+            synchronized (this)
+            {
+                if(!closed)
+                {
+                    tail = s;
+                    return;
+                }
+            }
+
+            // Closed while the stream was being opened
+            closeQuietly(s);
+        }
+        catch (Exception e)
+        {
+            Log.error("Unable to open the stream after the preroll", e);
+            tailFailed = true;
+            closeQuietly(s);
+        }
+    }
+
+    private static void closeQuietly(ISampleSource s)
+    {
+        if(s == null) return;
+
+        try
+        {
+            s.close();
+        }
+        catch (Exception e)
+        {
+            Log.warn("Unable to close the stream after the preroll", e);
+        }
+    }
+
+    @Override
+    public int getChannels()
+    {
+        return head.getChannels();
+    }
+
+    @Override
+    public float getSampleRate()
+    {
+        return head.getSampleRate();
+    }
+
+    @Override
+    public long getFrameLength()
+    {
+        return frameLength;
+    }
+
+    @Override
+    public int read(float[] destination, int offset, int frames)
+    {
+        if(position < headFrames)
+        {
+            head.seek(position);
+            int n = head.read(destination, offset, (int) Math.min(frames, headFrames - position));
+            if(n > 0) position += n;
+            return n;
+        }
+
+        if(frameLength >= 0 && position >= frameLength) return -1;
+
+        ISampleSource s = tail;
+        if(s == null)
+        {
+            if(tailFailed) return -1;
+
+            // The stream isn't ready yet, keep time with silence
+            int n = frameLength >= 0 ? (int) Math.min(frames, frameLength - position) : frames;
+            int samples = n * getChannels();
+            for(int i = 0; i < samples; i++) destination[offset + i] = 0.0f;
+
+            position += n;
+            underruns++;
+            return n;
+        }
+
+        if(tailPosition != position)
+        {
+            s.seek(position);
+            tailPosition = position;
+        }
+
+        int n = s.read(destination, offset, frames);
+        if(n > 0)
+        {
+            position += n;
+            tailPosition += n;
+        }
+
+        return n;
+    }
+
+    @Override
+    public void seek(long frame)
+    {
+        position = Math.max(0, frameLength >= 0 ? Math.min(frame, frameLength) : frame);
+    }
+
+    /** @return {@code true} once the stream for the rest of the file is open */
+    public boolean isStreamReady()
+    {
+        return tail != null;
+    }
+
+    /** @return the number of reads that had to be filled with silence because the stream was not ready */
+    public long getUnderrunCount()
+    {
+        return underruns;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        ISampleSource s;
+        synchronized (this)
+        {
+            closed = true;
+            s = tail;
+            tail = null;
+        }
+
+        head.close();
+        if(s != null) s.close();
+    }
+}
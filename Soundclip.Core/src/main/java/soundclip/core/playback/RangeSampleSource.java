@@ -0,0 +1,102 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+/**
+ * Plays part of another source. Frame 0 of the range is {@code start} in the wrapped source,
+ * and the range ends at {@code end} regardless of how much of the wrapped source remains.
+ */
+public class RangeSampleSource implements ISampleSource
+{
+    private final ISampleSource source;
+    private final long start;
+    private final long end;
+    private long position = 0;
+
+    /**
+     * @param source the source to play part of. Closed with the range
+     * @param start the first frame of the source to play
+     * @param end the frame of the source to stop before
+     */
+    public RangeSampleSource(ISampleSource source, long start, long end)
+    {
+        if(start < 0 || end < start) throw new IllegalArgumentException("Invalid range " + start + " to " + end);
+
+        this.source = source;
+        this.start = start;
+        this.end = end;
+
+        source.seek(start);
+    }
+
+    @Override
+    public int getChannels()
+    {
+        return source.getChannels();
+    }
+
+    @Override
+    public float getSampleRate()
+    {
+        return source.getSampleRate();
+    }
+
+    @Override
+    public long getFrameLength()
+    {
+        return end - start;
+    }
+
+    @Override
+    public int read(float[] destination, int offset, int frames)
+    {
+        int wanted = (int) Math.min(frames, end - start - position);
+        if(wanted <= 0) return -1;
+
+        int read = source.read(destination, offset, wanted);
+        if(read > 0) position += read;
+
+        return read;
+    }
+
+    @Override
+    public void seek(long frame)
+    {
+        position = Math.max(0, Math.min(frame, end - start));
+        source.seek(start + position);
+    }
+
+    @Override
+    public void awaitSeek()
+    {
+        source.awaitSeek();
+    }
+
+    public long getStart()
+    {
+        return start;
+    }
+
+    public long getEnd()
+    {
+        return end;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        source.close();
+    }
+}
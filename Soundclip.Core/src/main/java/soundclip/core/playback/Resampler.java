@@ -0,0 +1,163 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+/**
+ * Interpolation kernels for {@link ResamplerQuality}.
+ *
+ * Each kernel reads one channel of interleaved frames around {@code index} and returns the
+ * value {@code fraction} of the way to the next frame. Callers keep the frames required by
+ * {@link ResamplerQuality#getHistory()} and {@link ResamplerQuality#getLookahead()} in the buffer.
+ */
+public final class Resampler
+{
+    /** The number of frames read by the sinc kernel */
+    static final int SINC_TAPS = 16;
+
+    /** The number of fractional positions the sinc kernel is tabulated at */
+    private static final int SINC_PHASES = 512;
+
+    /** The cutoff of the sinc kernel at unity and below, relative to the source nyquist frequency */
+    private static final double SINC_CUTOFF = 0.9;
+
+    /**
+     * The largest step through the source each sinc table is built for. Stepping faster than unity
+     * moves the output nyquist frequency below the source's, so each table lowers its cutoff by
+     * the step it covers. Steps past the last table alias.
+     */
+    private static final double[] SINC_STEPS = {1.0, 1.25, 1.5, 2.0, 3.0, 4.0};
+
+    private static final float[][] SINC_TABLES = buildSincTables();
+
+    private Resampler() { }
+
+    /**
+     * Interpolate one channel of a frame
+     *
+     * @param quality the kernel to use
+     * @param in interleaved source frames
+     * @param index the frame at or before the playhead
+     * @param channels the number of channels in {@code in}
+     * @param channel the channel to interpolate
+     * @param fraction how far the playhead is between {@code index} and the next frame, in {@code [0, 1)}
+     * @return the interpolated sample
+     */
+    public static float interpolate(ResamplerQuality quality, float[] in, int index, int channels, int channel, float fraction)
+    {
+        return interpolate(quality, in, index, channels, channel, fraction, SINC_TABLES[0]);
+    }
+
+    /**
+     * Interpolate one channel of a frame, band-limiting the sinc kernel with a table from {@link #sincTable(double)}
+     */
+    static float interpolate(ResamplerQuality quality, float[] in, int index, int channels, int channel, float fraction, float[] sincTable)
+    {
+        switch(quality)
+        {
+            case SINC: return sinc(in, index, channels, channel, fraction, sincTable);
+            case CUBIC: return cubic(in, index, channels, channel, fraction);
+            default: return linear(in, index, channels, channel, fraction);
+        }
+    }
+
+    static float linear(float[] in, int index, int channels, int channel, float fraction)
+    {
+        int a = index * channels + channel;
+        float y0 = in[a];
+
+        return y0 + (in[a + channels] - y0) * fraction;
+    }
+
+    static float cubic(float[] in, int index, int channels, int channel, float fraction)
+    {
+        int a = index * channels + channel;
+        float y0 = in[a - channels];
+        float y1 = in[a];
+        float y2 = in[a + channels];
+        float y3 = in[a + 2 * channels];
+
+        float c1 = 0.5f * (y2 - y0);
+        float c2 = y0 - 2.5f * y1 + 2.0f * y2 - 0.5f * y3;
+        float c3 = 0.5f * (y3 - y0) + 1.5f * (y1 - y2);
+
+        return ((c3 * fraction + c2) * fraction + c1) * fraction + y1;
+    }
+
+    /**
+     * @param step the number of source frames the playhead moves for each output frame
+     * @return the sinc table that band-limits the source to the output nyquist frequency at that step
+     */
+    static float[] sincTable(double step)
+    {
+        for(int i = 0; i < SINC_STEPS.length; i++)
+        {
+            if(step <= SINC_STEPS[i]) return SINC_TABLES[i];
+        }
+
+        return SINC_TABLES[SINC_TABLES.length - 1];
+    }
+
+    static float sinc(float[] in, int index, int channels, int channel, float fraction, float[] table)
+    {
+        // Stay within this frame's phases so no more than the lookahead is read
+        int phase = Math.min(SINC_PHASES - 1, (int)(fraction * SINC_PHASES + 0.5f));
+
+        int k = phase * SINC_TAPS;
+        int a = (index - (SINC_TAPS / 2 - 1)) * channels + channel;
+        float sum = 0.0f;
+
+        for(int t = 0; t < SINC_TAPS; t++, a += channels)
+        {
+            sum += in[a] * table[k + t];
+        }
+
+        return sum;
+    }
+
+    private static float[][] buildSincTables()
+    {
+        float[][] tables = new float[SINC_STEPS.length][];
+        for(int i = 0; i < tables.length; i++) tables[i] = buildSincTable(SINC_CUTOFF / SINC_STEPS[i]);
+
+        return tables;
+    }
+
+    /** Tabulate a Blackman windowed sinc for each phase, normalized so each phase has unity gain */
+    private static float[] buildSincTable(double cutoff)
+    {
+        float[] table = new float[SINC_PHASES * SINC_TAPS];
+        double half = SINC_TAPS / 2.0;
+
+        for(int p = 0; p < SINC_PHASES; p++)
+        {
+            double fraction = p / (double) SINC_PHASES;
+            double sum = 0.0;
+
+            for(int t = 0; t < SINC_TAPS; t++)
+            {
+                double x = t - (SINC_TAPS / 2 - 1) - fraction;
+                double s = x == 0.0 ? 1.0 : Math.sin(Math.PI * cutoff * x) / (Math.PI * cutoff * x);
+                double w = 0.42 + 0.5 * Math.cos(Math.PI * x / half) + 0.08 * Math.cos(2.0 * Math.PI * x / half);
+
+                table[p * SINC_TAPS + t] = (float)(s * w);
+                sum += s * w;
+            }
+
+            for(int t = 0; t < SINC_TAPS; t++) table[p * SINC_TAPS + t] /= sum;
+        }
+
+        return table;
+    }
+}
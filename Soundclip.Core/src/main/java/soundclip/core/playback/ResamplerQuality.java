@@ -0,0 +1,60 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+/**
+ * How source samples are interpolated when a voice is resampled to the engine rate or pitched
+ */
+public enum ResamplerQuality
+{
+    /** Two point linear interpolation. Cheapest, but dulls high frequencies and aliases when pitched */
+    LINEAR(0, 1),
+    /** Four point Catmull-Rom interpolation */
+    CUBIC(1, 2),
+    /** Sixteen point windowed sinc interpolation from a precomputed table. Most expensive */
+    SINC(Resampler.SINC_TAPS / 2 - 1, Resampler.SINC_TAPS / 2);
+
+    private final int history;
+    private final int lookahead;
+
+    ResamplerQuality(int history, int lookahead)
+    {
+        this.history = history;
+        this.lookahead = lookahead;
+    }
+
+    /** @return the number of frames before the playhead that are read */
+    public int getHistory()
+    {
+        return history;
+    }
+
+    /** @return the number of frames after the playhead that are read */
+    public int getLookahead()
+    {
+        return lookahead;
+    }
+
+    public static ResamplerQuality fromOrdinal(int ord)
+    {
+        switch(ord)
+        {
+            case 0: return LINEAR;
+            case 1: return CUBIC;
+            case 2: return SINC;
+            default: throw new IndexOutOfBoundsException();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of fully decoded audio files, held off-heap as 16-bit PCM.
+ *
+ * Entries are keyed by canonical file and evicted in least-recently-used order once the
+ * total size exceeds the budget. Sources opened from an entry stay valid after it is evicted.
+ */
+public class SampleCache
+{
+    private static final Logger Log = LogManager.getLogger(SampleCache.class);
+
+    /** The default cache size, in bytes */
+    public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+    /** The default largest decoded size of a file that is loaded into the cache with the project, in bytes */
+    public static final long DEFAULT_PRELOAD_THRESHOLD = 16L * 1024 * 1024;
+
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long budget;
+    private long preloadThreshold;
+    private long used = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Decoded samples for a single file, or for the start of it */
+    public static final class Entry
+    {
+        private final ShortBuffer samples;
+        private final int channels;
+        private final float sampleRate;
+        private final long size;
+        private final long sourceFrameLength;
+
+        Entry(ShortBuffer samples, int channels, float sampleRate, long size, long sourceFrameLength)
+        {
+            this.samples = samples;
+            this.channels = channels;
+            this.sampleRate = sampleRate;
+            this.size = size;
+            this.sourceFrameLength = sourceFrameLength;
+        }
+
+        /** @return a new source reading from the start of the samples */
+        public BufferSampleSource open()
+        {
+            return new BufferSampleSource(samples, channels, sampleRate);
+        }
+
+        /** @return the size of the decoded samples, in bytes */
+        public long getSize()
+        {
+            return size;
+        }
+
+        /** @return the number of decoded frames */
+        public long getFrameLength()
+        {
+            return samples.limit() / channels;
+        }
+
+        /** @return the number of frames in the whole file */
+        public long getSourceFrameLength()
+        {
+            return sourceFrameLength;
+        }
+    }
+
+    public SampleCache()
+    {
+        this(DEFAULT_BUDGET, DEFAULT_PRELOAD_THRESHOLD);
+    }
+
+    /**
+     * @param budget the maximum number of bytes to hold
+     * @param preloadThreshold the largest decoded size of a file to load with the project, in bytes
+     */
+    public SampleCache(long budget, long preloadThreshold)
+    {
+        setBudget(budget);
+        setPreloadThreshold(preloadThreshold);
+    }
+
+    /**
+     * Get the decoded samples for the specified file, decoding it if it is not cached
+     *
+     * @param file the file to decode
+     * @return the decoded samples
+     * @throws UnsupportedAudioFileException if the file cannot be decoded to 16-bit PCM
+     * @throws IOException if the file cannot be read
+     */
+    public Entry get(File file) throws UnsupportedAudioFileException, IOException
+    {
+        File key = file.getCanonicalFile();
+
+        synchronized (this)
+        {
+            Entry e = entries.get(key);
+            if(e != null)
+            {
+                hits.incrementAndGet();
+                return e;
+            }
+        }
+
+        misses.incrementAndGet();
+
+        // Decode without holding the lock so lookups for other files are not blocked
+        Entry decoded = decode(key, Long.MAX_VALUE);
+
+        synchronized (this)
+        {
+            Entry existing = entries.get(key);
+            if(existing != null) return existing;
+
+            if(decoded.size > budget)
+            {
+                Log.debug("{} ({} bytes) is larger than the cache, not caching", key, decoded.size);
+                return decoded;
+            }
+
+            entries.put(key, decoded);
+            used += decoded.size;
+            evict();
+        }
+
+        return decoded;
+    }
+
+    /** @return {@code true} iff the decoded samples for the specified file are cached */
+    public synchronized boolean contains(File file) throws IOException
+    {
+        return entries.containsKey(file.getCanonicalFile());
+    }
+
+    /**
+     * @return {@code true} if the specified file is small enough to be loaded into the cache with the project
+     */
+    public boolean shouldPreload(File file)
+    {
+        long size = estimateSize(file);
+        return size >= 0 && size <= preloadThreshold && size <= budget;
+    }
+
+    /** Remove every entry from the cache */
+    public synchronized void clear()
+    {
+        entries.clear();
+        used = 0;
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /** @return the number of bytes held by the cache */
+    public synchronized long getUsedBytes()
+    {
+        return used;
+    }
+
+    /** @return the number of cached files */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getBudget()
+    {
+        return budget;
+    }
+
+    /** Set the maximum number of bytes to hold, evicting entries if necessary */
+    public synchronized void setBudget(long budget)
+    {
+        if(budget < 0) throw new IllegalArgumentException("The budget cannot be negative");
+
+        this.budget = budget;
+        evict();
+    }
+
+    public long getPreloadThreshold()
+    {
+        return preloadThreshold;
+    }
+
+    public void setPreloadThreshold(long preloadThreshold)
+    {
+        if(preloadThreshold < 0) throw new IllegalArgumentException("The preload threshold cannot be negative");
+
+        this.preloadThreshold = preloadThreshold;
+    }
+
+    /** Evict least recently used entries until the cache fits in the budget. Must be called with the lock held */
+    private void evict()
+    {
+        Iterator<Map.Entry<File, Entry>> it = entries.entrySet().iterator();
+        while(used > budget && it.hasNext())
+        {
+            Map.Entry<File, Entry> eldest = it.next();
+            Log.debug("Evicting {} from the sample cache", eldest.getKey());
+
+            used -= eldest.getValue().size;
+            it.remove();
+        }
+    }
+
+    /** @return the decoded size of the specified file in bytes, or -1 if it cannot be determined */
+    private static long estimateSize(File file)
+    {
+        try
+        {
+            AudioFileFormat f = AudioSystem.getAudioFileFormat(file);
+            if(f.getFrameLength() == AudioSystem.NOT_SPECIFIED) return -1;
+
+            return (long) f.getFrameLength() * f.getFormat().getChannels() * 2;
+        }
+        catch (UnsupportedAudioFileException | IOException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Decode the start of the specified file to 16-bit PCM
+     *
+     * @param file the file to decode
+     * @param maxFrames the maximum number of frames to decode
+     */
+    static Entry decode(File file, long maxFrames) throws UnsupportedAudioFileException, IOException
+    {
+        try(AudioInputStream probe = AudioSystem.getAudioInputStream(file))
+        {
+            AudioFormat base = probe.getFormat();
+            AudioFormat format = new AudioFormat(
+                    AudioFormat.Encoding.PCM_SIGNED,
+                    base.getSampleRate(),
+                    16,
+                    base.getChannels(),
+                    base.getChannels() * 2,
+                    base.getSampleRate(),
+                    false
+            );
+
+            if(probe.getFrameLength() == AudioSystem.NOT_SPECIFIED)
+            {
+                throw new UnsupportedAudioFileException("The length of " + file + " is unknown");
+            }
+
+            long size = Math.min(probe.getFrameLength(), maxFrames) * format.getFrameSize();
+            if(size > Integer.MAX_VALUE) throw new IOException(file + " is too large to cache");
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+
+            try(AudioInputStream pcm = AudioSystem.getAudioInputStream(format, probe))
+            {
+                byte[] chunk = new byte[64 * 1024];
+                int read;
+                while(buffer.hasRemaining() && (read = pcm.read(chunk, 0, Math.min(chunk.length, buffer.remaining()))) > 0)
+                {
+                    buffer.put(chunk, 0, read);
+                }
+            }
+
+            buffer.flip();
+            Log.debug("Decoded {} ({} bytes)", file, buffer.limit());
+
+            return new Entry(buffer.asShortBuffer().asReadOnlyBuffer(), format.getChannels(), format.getSampleRate(), buffer.capacity(), probe.getFrameLength());
+        }
+    }
+}
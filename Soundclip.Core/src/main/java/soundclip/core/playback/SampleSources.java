@@ -0,0 +1,125 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import soundclip.core.media.MediaAsset;
+import soundclip.core.media.Mp3SeekIndex;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Chooses how the samples of an audio file are read
+ */
+public final class SampleSources
+{
+    private SampleSources() { }
+
+    /**
+     * Open the specified file without a preroll
+     *
+     * @see #open(File, SampleCache, PrerollCache)
+     */
+    public static ISampleSource open(File file, SampleCache cache) throws UnsupportedAudioFileException, IOException
+    {
+        return open(file, cache, null);
+    }
+
+    /**
+     * Open the specified file without a seek index
+     *
+     * @see #open(File, SampleCache, PrerollCache, Mp3SeekIndex)
+     */
+    public static ISampleSource open(File file, SampleCache cache, PrerollCache preroll) throws UnsupportedAudioFileException, IOException
+    {
+        return open(file, cache, preroll, null);
+    }
+
+    /**
+     * Open the specified file. Files small enough to preload are read from the cache. Other
+     * files start from their decoded head if one is held, while the stream for the rest of the
+     * file is opened in the background. Uncompressed WAV and AIFF files are streamed from mapped
+     * memory, and everything else is decoded from a stream.
+     *
+     * @param file the file to open
+     * @param cache the project sample cache, or {@code null} to bypass it
+     * @param preroll the project preroll cache, or {@code null} to bypass it
+     * @param index the frame index of an MP3 file, so the stream can seek without decoding from the top, or {@code null}
+     * @return a source for the file
+     * @throws UnsupportedAudioFileException if the file cannot be decoded to 16-bit PCM
+     * @throws IOException if the file cannot be read
+     */
+    public static ISampleSource open(File file, SampleCache cache, PrerollCache preroll, Mp3SeekIndex index) throws UnsupportedAudioFileException, IOException
+    {
+        if(cache != null && cache.shouldPreload(file)) return cache.get(file).open();
+
+        SampleCache.Entry head = preroll == null ? null : preroll.get(file);
+        if(head != null) return new PrerollSampleSource(head, () -> openStream(file, index));
+
+        return openStream(file, index);
+    }
+
+    /**
+     * Open a shared asset without a seek index
+     *
+     * @see #open(MediaAsset, SampleCache, PrerollCache, Mp3SeekIndex)
+     */
+    public static ISampleSource open(MediaAsset asset, SampleCache cache, PrerollCache preroll) throws UnsupportedAudioFileException, IOException
+    {
+        return open(asset, cache, preroll, null);
+    }
+
+    /**
+     * Open a shared asset. Cached samples are keyed by the asset's file, so every file with the
+     * same contents uses the same decoded buffers, and mapped readers share the asset's channel.
+     *
+     * @see #open(File, SampleCache, PrerollCache, Mp3SeekIndex)
+     */
+    public static ISampleSource open(MediaAsset asset, SampleCache cache, PrerollCache preroll, Mp3SeekIndex index) throws UnsupportedAudioFileException, IOException
+    {
+        File file = asset.getFile();
+        if(cache != null && cache.shouldPreload(file)) return cache.get(file).open();
+
+        SampleCache.Entry head = preroll == null ? null : preroll.get(file);
+        if(head != null) return new PrerollSampleSource(head, () -> openStream(asset, index));
+
+        return openStream(asset, index);
+    }
+
+    private static ISampleSource openStream(File file, Mp3SeekIndex index) throws UnsupportedAudioFileException, IOException
+    {
+        try
+        {
+            return new MappedWaveReader(file);
+        }
+        catch (UnsupportedAudioFileException e)
+        {
+            return new StreamSampleSource(file, index);
+        }
+    }
+
+    private static ISampleSource openStream(MediaAsset asset, Mp3SeekIndex index) throws UnsupportedAudioFileException, IOException
+    {
+        try
+        {
+            return new MappedWaveReader(asset);
+        }
+        catch (UnsupportedAudioFileException e)
+        {
+            return new StreamSampleSource(asset.getFile(), index);
+        }
+    }
+}
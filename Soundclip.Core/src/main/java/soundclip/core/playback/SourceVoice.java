@@ -0,0 +1,420 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A voice that plays an {@link ISampleSource} through an {@link AudioEngine}.
+ *
+ * Transport calls may be made from any thread. Everything that touches the source while
+ * the voice is mixed (seeking, reading, resampling) happens on the render thread. Sources that
+ * can't seek in place reposition in the background (see {@link ISampleSource#seek(long)}). Gain,
+ * pan and rate changes are ramped or applied at the start of the next block.
+ */
+public class SourceVoice implements IVoice, IFadeTarget
+{
+    /** The number of source frames read from the source at a time */
+    private static final int READ_FRAMES = 1024;
+
+    private enum State { STOPPED, PLAYING, PAUSED }
+
+    private final AudioEngine engine;
+    private final ISampleSource source;
+    private final int channels;
+    private final double baseStep;
+    private final ResamplerQuality quality;
+    private final int history;
+    private final int lookahead;
+
+    private final AtomicBoolean attached = new AtomicBoolean(false);
+    private volatile State state = State.STOPPED;
+    private volatile boolean ended = false;
+    private volatile boolean released = false;
+    private volatile boolean releasing = false;
+    private volatile long pendingSeek = -1;
+    private volatile long position = 0;
+    private volatile float targetGain = 1.0f;
+    private float gain = 1.0f;
+    private volatile double pan = 0.0;
+    private float panLeft = 1.0f;
+    private float panRight = 1.0f;
+    private volatile double rate = 1.0;
+
+    // Render thread state
+    private final float[] input;
+    private int inputFrames = 0;
+    private int inputIndex = 0;
+    private int endFrame = Integer.MAX_VALUE;
+    private double fraction = 0.0;
+    private boolean endOfSource = false;
+    private int releaseLength = 0;
+    private int releaseElapsed = 0;
+    private float release = 1.0f;
+
+    /**
+     * Create a voice for the specified source, resampled at the engine's quality.
+     * The voice starts stopped at the beginning of the source.
+     *
+     * @param engine the engine the voice is mixed into
+     * @param source the source to play. The voice does not take ownership of the source
+     */
+    public SourceVoice(AudioEngine engine, ISampleSource source)
+    {
+        this(engine, source, engine.getResamplerQuality());
+    }
+
+    /**
+     * Create a voice for the specified source. The voice starts stopped at the beginning of the source.
+     *
+     * @param engine the engine the voice is mixed into
+     * @param source the source to play. The voice does not take ownership of the source
+     * @param quality how the source is interpolated
+     */
+    public SourceVoice(AudioEngine engine, ISampleSource source, ResamplerQuality quality)
+    {
+        this.engine = engine;
+        this.source = source;
+        this.channels = source.getChannels();
+        this.baseStep = source.getSampleRate() / engine.getSampleRate();
+        this.quality = quality;
+        this.history = quality.getHistory();
+        this.lookahead = quality.getLookahead();
+
+        // Room for a block of reads, the frames kept around the playhead, and silence past the end of the source
+        this.input = new float[(READ_FRAMES + history + 2 * lookahead) * channels];
+        resetInput();
+    }
+
+    /** Start or resume playback */
+    public void play()
+    {
+        ended = false;
+        released = false;
+        state = State.PLAYING;
+
+        if(attached.compareAndSet(false, true)) engine.play(this);
+    }
+
+    /** Pause playback at the current position */
+    public void pause()
+    {
+        if(state == State.PLAYING) state = State.PAUSED;
+    }
+
+    /** Stop playback and rewind to the beginning of the source */
+    public void stop()
+    {
+        state = State.STOPPED;
+        seek(0);
+    }
+
+    /**
+     * Move the playhead. Applied at the start of the next block if the voice is being mixed.
+     *
+     * @param frame the source frame to seek to
+     */
+    public void seek(long frame)
+    {
+        long length = source.getFrameLength();
+        if(length >= 0 && frame > length) frame = length;
+
+        position = Math.max(0, frame);
+        ended = false;
+        pendingSeek = position;
+
+        // Nothing is reading the source if the voice isn't attached, it's safe to reposition here
+        if(!attached.get()) applySeek();
+    }
+
+    /** @param gain the linear gain to ramp to over the next block */
+    @Override
+    public void setGain(double gain)
+    {
+        targetGain = (float) gain;
+    }
+
+    @Override
+    public double getGain()
+    {
+        return targetGain;
+    }
+
+    /**
+     * Set the position of the voice in the stereo field, with a constant-power pan law. The voice
+     * plays at unity gain on both channels when centered and {@code +3dB} on one channel when
+     * panned hard. Stereo sources are balanced rather than folded to one side.
+     *
+     * @param pan the pan, from {@code -1.0} (full left) to {@code 1.0} (full right)
+     */
+    public void setPan(double pan)
+    {
+        this.pan = pan < -1.0 ? -1.0 : (pan > 1.0 ? 1.0 : pan);
+    }
+
+    public double getPan()
+    {
+        return pan;
+    }
+
+    /**
+     * Set the playback rate. The pitch and speed of the voice change together.
+     *
+     * @param rate the ratio to play the source at, {@code 1.0} plays at the original pitch
+     */
+    public void setRate(double rate)
+    {
+        if(rate <= 0.0) throw new IllegalArgumentException("The rate must be positive");
+
+        this.rate = rate;
+    }
+
+    public double getRate()
+    {
+        return rate;
+    }
+
+    public ResamplerQuality getQuality()
+    {
+        return quality;
+    }
+
+    /** @return the current position, in source frames */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /** @return {@code true} iff the voice is playing or paused */
+    public boolean isActive()
+    {
+        return state != State.STOPPED;
+    }
+
+    public boolean isPaused()
+    {
+        return state == State.PAUSED;
+    }
+
+    /** @return {@code true} if playback stopped because the end of the source was reached or the voice was released */
+    public boolean hasEnded()
+    {
+        return ended;
+    }
+
+    /** @return {@code true} if playback last stopped because the engine released the voice */
+    public boolean wasReleased()
+    {
+        return released;
+    }
+
+    /** @return {@code true} if the voice is fading out after a panic, or will be at the start of the next block */
+    @Override
+    public boolean isReleasing()
+    {
+        return releasing || (state == State.PLAYING && attached.get() && engine.isPanicPending());
+    }
+
+    @Override
+    public boolean release(int frames)
+    {
+        if(state != State.PLAYING)
+        {
+            // Paused voices are silent already, stop them where they are
+            released = true;
+            finish();
+            return false;
+        }
+
+        // A voice that is already releasing keeps the shorter fade
+        if(releasing && releaseLength - releaseElapsed <= frames) return true;
+
+        releasing = true;
+        releaseLength = releaseElapsed + frames;
+        return true;
+    }
+
+    public ISampleSource getSource()
+    {
+        return source;
+    }
+
+    @Override
+    public boolean render(float[] accumulator, int frames)
+    {
+        if(state != State.PLAYING)
+        {
+            // Paused or stopped partway through a release, which still has to end in a stop
+            if(releasing)
+            {
+                released = true;
+                finish();
+                return false;
+            }
+
+            attached.set(false);
+
+            // play() may have been called between the check and the release
+            if(state != State.PLAYING || !attached.compareAndSet(false, true)) return false;
+        }
+
+        if(pendingSeek >= 0) applySeek();
+
+        // Fade out by the end of the block once the release runs out
+        final float release0 = release;
+        if(releasing)
+        {
+            releaseElapsed += frames;
+            release = releaseElapsed >= releaseLength ? 0.0f : (float) FadeCurve.DEFAULT.interpolate(1.0, 0.0, releaseElapsed / (double) releaseLength);
+        }
+
+        // Ramp the gain of each channel over the block to avoid zipper noise
+        final double angle = (pan + 1.0) * Math.PI / 4.0;
+        final float targetLeft = (float)(Math.cos(angle) * Math.sqrt(2.0));
+        final float targetRight = (float)(Math.sin(angle) * Math.sqrt(2.0));
+        final float g1 = targetGain;
+        final float l1 = g1 * targetLeft * release;
+        final float r1 = g1 * targetRight * release;
+        final float l0 = gain * panLeft * release0;
+        final float r0 = gain * panRight * release0;
+        final float dl = (l1 - l0) / frames;
+        final float dr = (r1 - r0) / frames;
+        final double step = baseStep * rate;
+        final ResamplerQuality q = quality;
+        final float[] kernel = Resampler.sincTable(step);
+        final int c = channels;
+        float gl = l0;
+        float gr = r0;
+        long pos = position;
+
+        gain = g1;
+        panLeft = targetLeft;
+        panRight = targetRight;
+
+        for(int i = 0; i < frames; i++)
+        {
+            while(!endOfSource && inputIndex + lookahead >= inputFrames) fill();
+
+            if(inputIndex >= endFrame)
+            {
+                // The playhead may have stepped past the last frame
+                long length = source.getFrameLength();
+                position = length >= 0 ? Math.min(pos, length) : pos;
+                finish();
+                return false;
+            }
+
+            float f = (float) fraction;
+            float left = Resampler.interpolate(q, input, inputIndex, c, 0, f, kernel);
+            float right = c > 1 ? Resampler.interpolate(q, input, inputIndex, c, 1, f, kernel) : left;
+
+            accumulator[2 * i] += left * gl;
+            accumulator[2 * i + 1] += right * gr;
+            gl += dl;
+            gr += dr;
+
+            fraction += step;
+            int advance = (int) fraction;
+            fraction -= advance;
+            inputIndex += advance;
+            pos += advance;
+        }
+
+        position = pos;
+
+        if(releasing && release == 0.0f)
+        {
+            released = true;
+            finish();
+            return false;
+        }
+
+        return true;
+    }
+
+    /** Stop at the end of the source or a release and rewind for the next play */
+    private void finish()
+    {
+        releasing = false;
+        releaseLength = 0;
+        releaseElapsed = 0;
+        release = 1.0f;
+
+        ended = true;
+        state = State.STOPPED;
+        pendingSeek = 0;
+        attached.set(false);
+    }
+
+    /** Shift the frames still needed to the front of the input buffer and read more from the source */
+    private void fill()
+    {
+        // Keep the frames the kernel reads behind the playhead
+        int first = inputIndex - history;
+
+        // The playhead may have stepped past the end of the buffer when downsampling
+        int skip = Math.max(0, first - inputFrames);
+        int remaining = Math.max(0, inputFrames - first);
+        System.arraycopy(input, (inputFrames - remaining) * channels, input, 0, remaining * channels);
+        inputFrames = remaining;
+        inputIndex -= first;
+
+        int capacity = input.length / channels - lookahead;
+        while(true)
+        {
+            int read = source.read(input, inputFrames * channels, capacity - inputFrames);
+            if(read <= 0)
+            {
+                // Pad with silence so the kernel can read past the last frame
+                endOfSource = true;
+                endFrame = inputFrames;
+                Arrays.fill(input, inputFrames * channels, (inputFrames + lookahead) * channels, 0.0f);
+                inputFrames += lookahead;
+                return;
+            }
+
+            // Drop the frames that were stepped over
+            int dropped = Math.min(skip, read);
+            System.arraycopy(input, (inputFrames + dropped) * channels, input, inputFrames * channels, (read - dropped) * channels);
+            inputFrames += read - dropped;
+            skip -= dropped;
+
+            if(skip == 0) return;
+        }
+    }
+
+    /** Empty the input buffer, leaving silence behind the playhead for the kernel to read */
+    private void resetInput()
+    {
+        Arrays.fill(input, 0, history * channels, 0.0f);
+        inputFrames = history;
+        inputIndex = history;
+        endFrame = Integer.MAX_VALUE;
+        fraction = 0.0;
+        endOfSource = false;
+    }
+
+    private void applySeek()
+    {
+        long frame = pendingSeek;
+        pendingSeek = -1;
+        if(frame < 0) return;
+
+        source.seek(frame);
+        resetInput();
+        position = frame;
+    }
+}
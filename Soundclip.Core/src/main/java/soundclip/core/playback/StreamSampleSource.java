@@ -0,0 +1,395 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.playback;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import soundclip.core.media.Mp3SeekIndex;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes samples from a file readable by {@link AudioSystem}, converting to 16-bit PCM on the fly.
+ *
+ * Repositioning a decoder means reopening the file, so seeks are carried out in the background.
+ * Until the stream is ready, silence is played in its place so the source stays in time. MP3
+ * files with a {@link Mp3SeekIndex} are opened a few frames before the target, other files are
+ * decoded from the top.
+ */
+public class StreamSampleSource implements ISampleSource
+{
+    private static final Logger Log = LogManager.getLogger(StreamSampleSource.class);
+
+    private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Stream Seek");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File file;
+    private final Mp3SeekIndex index;
+    private final Executor executor;
+    private final AudioFormat format;
+    private final long frameLength;
+
+    // Owned by the thread reading the source
+    private AudioInputStream stream;
+    private long streamPosition = 0;
+    private long position = 0;
+    private int generation = 0;
+    private byte[] buffer;
+
+    // Streams opened in the background, handed over under the lock
+    private AudioInputStream opened;
+    private long openedPosition;
+    private int openedGeneration = -1;
+    private volatile int failedGeneration = -1;
+    private boolean closed = false;
+
+    /**
+     * Open the specified file
+     *
+     * @param file the file to decode
+     * @throws UnsupportedAudioFileException if the file cannot be decoded to 16-bit PCM
+     * @throws IOException if the file cannot be read
+     */
+    public StreamSampleSource(File file) throws UnsupportedAudioFileException, IOException
+    {
+        this(file, null);
+    }
+
+    /**
+     * Open the specified file, seeking in the background with the default executor
+     *
+     * @param file the file to decode
+     * @param index the frame index of an MP3 file, or {@code null} to decode from the top on every seek
+     * @throws UnsupportedAudioFileException if the file cannot be decoded to 16-bit PCM
+     * @throws IOException if the file cannot be read
+     */
+    public StreamSampleSource(File file, Mp3SeekIndex index) throws UnsupportedAudioFileException, IOException
+    {
+        this(file, index, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * @param file the file to decode
+     * @param index the frame index of an MP3 file, or {@code null} to decode from the top on every seek
+     * @param executor reopens the file when the source is sought
+     * @throws UnsupportedAudioFileException if the file cannot be decoded to 16-bit PCM
+     * @throws IOException if the file cannot be read
+     */
+    public StreamSampleSource(File file, Mp3SeekIndex index, Executor executor) throws UnsupportedAudioFileException, IOException
+    {
+        this.file = file;
+        this.index = index;
+        this.executor = executor;
+
+        try(AudioInputStream probe = AudioSystem.getAudioInputStream(file))
+        {
+            AudioFormat base = probe.getFormat();
+            format = new AudioFormat(
+                    AudioFormat.Encoding.PCM_SIGNED,
+                    base.getSampleRate(),
+                    16,
+                    base.getChannels(),
+                    base.getChannels() * 2,
+                    base.getSampleRate(),
+                    false
+            );
+
+            // Decoders don't know the length of a VBR file, or how much of it is encoder padding
+            frameLength = index != null ? index.getFrameLength() : probe.getFrameLength();
+
+            if(!AudioSystem.isConversionSupported(format, base))
+            {
+                throw new UnsupportedAudioFileException("Unable to decode " + base + " to 16-bit PCM");
+            }
+        }
+
+        buffer = new byte[4096 * format.getFrameSize()];
+        stream = open(0);
+    }
+
+    @Override
+    public int getChannels()
+    {
+        return format.getChannels();
+    }
+
+    @Override
+    public float getSampleRate()
+    {
+        return format.getSampleRate();
+    }
+
+    @Override
+    public long getFrameLength()
+    {
+        return frameLength;
+    }
+
+    @Override
+    public int read(float[] destination, int offset, int frames)
+    {
+        if(frameLength >= 0 && position >= frameLength) return -1;
+        if(stream == null) takeOpened();
+
+        int wanted = frameLength >= 0 ? (int) Math.min(frames, frameLength - position) : frames;
+        if(stream == null)
+        {
+            if(failedGeneration == generation) return -1;
+
+            // The stream isn't ready yet, keep time with silence
+            int samples = wanted * format.getChannels();
+            for(int i = 0; i < samples; i++) destination[offset + i] = 0.0f;
+
+            position += wanted;
+            return wanted;
+        }
+
+        int frameSize = format.getFrameSize();
+        if(buffer.length < wanted * frameSize) buffer = new byte[wanted * frameSize];
+
+        int read;
+        try
+        {
+            read = stream.read(buffer, 0, wanted * frameSize);
+        }
+        catch (IOException e)
+        {
+            Log.error("Error reading {}", file, e);
+            return -1;
+        }
+
+        if(read <= 0) return -1;
+
+        int samples = read / 2 - (read / 2) % format.getChannels();
+        for(int i = 0, j = 0; i < samples; i++, j += 2)
+        {
+            destination[offset + i] = (short)((buffer[j] & 0xff) | (buffer[j + 1] << 8)) / 32768.0f;
+        }
+
+        int n = samples / format.getChannels();
+        position += n;
+        streamPosition += n;
+        return n;
+    }
+
+    /** Reopen the file at the frame in the background. Reads play silence until it's ready */
+    @Override
+    public void seek(long frame)
+    {
+        long target = Math.max(0, frameLength >= 0 ? Math.min(frame, frameLength) : frame);
+        if(stream != null && streamPosition == target)
+        {
+            position = target;
+            return;
+        }
+
+        position = target;
+        final int g = ++generation;
+
+        AudioInputStream previous = stream;
+        stream = null;
+
+        executor.execute(() -> {
+            closeQuietly(previous);
+            reopen(target, g);
+        });
+    }
+
+    /** Wait for the stream of the last seek, so the next read doesn't have to play silence */
+    @Override
+    public void awaitSeek()
+    {
+        if(stream != null) return;
+
+        synchronized (this)
+        {
+            try
+            {
+                while(!closed && openedGeneration != generation && failedGeneration != generation) wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        takeOpened();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        AudioInputStream s;
+        synchronized (this)
+        {
+            closed = true;
+            s = opened;
+            opened = null;
+            notifyAll();
+        }
+
+        closeQuietly(s);
+        if(stream != null) stream.close();
+        stream = null;
+    }
+
+    private void reopen(long frame, int g)
+    {
+        AudioInputStream s = null;
+        try
+        {
+            s = open(frame);
+
+            AudioInputStream stale;
+            synchronized (this)
+            {
+                if(closed || g < openedGeneration)
+                {
+                    stale = s;
+                }
+                else
+                {
+                    stale = opened;
+                    opened = s;
+                    openedPosition = frame;
+                    openedGeneration = g;
+                }
+
+                notifyAll();
+            }
+
+            closeQuietly(stale);
+        }
+        catch (UnsupportedAudioFileException | IOException e)
+        {
+            Log.error("Unable to open {}", file, e);
+            closeQuietly(s);
+
+            synchronized (this)
+            {
+                failedGeneration = Math.max(failedGeneration, g);
+                notifyAll();
+            }
+        }
+    }
+
+    /** Take the stream of the last seek if it's ready, and catch it up to the silence played while it opened */
+    private void takeOpened()
+    {
+        AudioInputStream s;
+        long at;
+        synchronized (this)
+        {
+            if(openedGeneration != generation || opened == null) return;
+
+            s = opened;
+            at = openedPosition;
+            opened = null;
+        }
+
+        stream = s;
+        streamPosition = at;
+        if(position > at)
+        {
+            try
+            {
+                skip(s, (position - at) * format.getFrameSize());
+                streamPosition = position;
+            }
+            catch (IOException e)
+            {
+                Log.error("Error reading {}", file, e);
+                stream = null;
+                closeQuietly(s);
+            }
+        }
+    }
+
+    /** @return a decoder for the file that reads the specified frame next */
+    private AudioInputStream open(long frame) throws UnsupportedAudioFileException, IOException
+    {
+        if(index == null)
+        {
+            AudioInputStream s = AudioSystem.getAudioInputStream(format, AudioSystem.getAudioInputStream(file));
+            return skipOrClose(s, frame);
+        }
+
+        // Start from the nearest indexed frame and decode the rest of the way
+        Mp3SeekIndex.SeekPoint point = index.seek(frame);
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try
+        {
+            skip(in, point.getByteOffset());
+            AudioInputStream s = AudioSystem.getAudioInputStream(format, AudioSystem.getAudioInputStream(in));
+            return skipOrClose(s, point.getDiscard());
+        }
+        catch (UnsupportedAudioFileException | IOException e)
+        {
+            in.close();
+            throw e;
+        }
+    }
+
+    private AudioInputStream skipOrClose(AudioInputStream s, long frames) throws IOException
+    {
+        try
+        {
+            skip(s, frames * format.getFrameSize());
+            return s;
+        }
+        catch (IOException e)
+        {
+            s.close();
+            throw e;
+        }
+    }
+
+    private static void skip(InputStream in, long bytes) throws IOException
+    {
+        while(bytes > 0)
+        {
+            long skipped = in.skip(bytes);
+            if(skipped <= 0) break;
+            bytes -= skipped;
+        }
+    }
+
+    private static void closeQuietly(AudioInputStream s)
+    {
+        if(s == null) return;
+
+        try
+        {
+            s.close();
+        }
+        catch (IOException e)
+        {
+            Log.warn("Unable to close a stream", e);
+        }
+    }
+}
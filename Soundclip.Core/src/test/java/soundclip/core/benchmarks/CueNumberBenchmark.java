@@ -0,0 +1,147 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import soundclip.core.CueNumber;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing, sorting and looking up the numbers of a large cue list with {@link CueNumber}
+ * against the {@link LegacyCueNumber} it replaced. The legacy number can't be hashed, so it has
+ * no hash lookup score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CueNumberBenchmark
+{
+    @Param({"5000"})
+    public int cues;
+
+    private String[] strings;
+    private CueNumber[] numbers;
+    private LegacyCueNumber[] legacyNumbers;
+    private TreeMap<CueNumber, Integer> tree;
+    private TreeMap<LegacyCueNumber, Integer> legacyTree;
+    private HashMap<CueNumber, Integer> hash;
+
+    @Setup
+    public void setup()
+    {
+        // A show numbered like a real one: whole numbers with the odd point cue inserted
+        strings = new String[cues];
+        for(int i = 0; i < cues; i++) strings[i] = i % 10 == 0 ? (i / 10 + 1) + ".5" : Integer.toString(i + 1);
+
+        List<String> shuffled = Arrays.asList(strings.clone());
+        Collections.shuffle(shuffled, new Random(42));
+        strings = shuffled.toArray(new String[cues]);
+
+        numbers = new CueNumber[cues];
+        legacyNumbers = new LegacyCueNumber[cues];
+        tree = new TreeMap<>();
+        legacyTree = new TreeMap<>();
+        hash = new HashMap<>();
+        for(int i = 0; i < cues; i++)
+        {
+            numbers[i] = new CueNumber(strings[i]).intern();
+            legacyNumbers[i] = new LegacyCueNumber(strings[i]);
+            tree.put(numbers[i], i);
+            legacyTree.put(legacyNumbers[i], i);
+            hash.put(numbers[i], i);
+        }
+    }
+
+    @Benchmark
+    public CueNumber[] parse()
+    {
+        CueNumber[] out = new CueNumber[cues];
+        for(int i = 0; i < cues; i++) out[i] = new CueNumber(strings[i]);
+
+        return out;
+    }
+
+    @Benchmark
+    public LegacyCueNumber[] parseLegacy()
+    {
+        LegacyCueNumber[] out = new LegacyCueNumber[cues];
+        for(int i = 0; i < cues; i++) out[i] = new LegacyCueNumber(strings[i]);
+
+        return out;
+    }
+
+    @Benchmark
+    public CueNumber[] sort()
+    {
+        CueNumber[] out = numbers.clone();
+        Arrays.sort(out);
+
+        return out;
+    }
+
+    @Benchmark
+    public LegacyCueNumber[] sortLegacy()
+    {
+        LegacyCueNumber[] out = legacyNumbers.clone();
+        Arrays.sort(out);
+
+        return out;
+    }
+
+    @Benchmark
+    public int treeLookup()
+    {
+        int sum = 0;
+        for(CueNumber n : numbers) sum += tree.get(n);
+
+        return sum;
+    }
+
+    @Benchmark
+    public int treeLookupLegacy()
+    {
+        int sum = 0;
+        for(LegacyCueNumber n : legacyNumbers) sum += legacyTree.get(n);
+
+        return sum;
+    }
+
+    @Benchmark
+    public int hashLookup()
+    {
+        int sum = 0;
+        for(CueNumber n : numbers) sum += hash.get(n);
+
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(CueNumberBenchmark.class.getSimpleName()).build()).run();
+    }
+}
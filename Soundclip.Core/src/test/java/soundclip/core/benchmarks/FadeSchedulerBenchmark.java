@@ -0,0 +1,89 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.benchmarks;
+
+import javafx.util.Duration;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import soundclip.core.playback.AudioEngine;
+import soundclip.core.playback.FadeScheduler;
+import soundclip.core.playback.IFadeTarget;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken to start a fade on every target and advance them through one engine block.
+ *
+ * Starting and finishing fades reuses the scheduler's slots, so run with {@code -prof gc} to check
+ * that {@code gc.alloc.rate.norm} stays at zero bytes per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FadeSchedulerBenchmark
+{
+    @Param({"32", "512"})
+    public int targets;
+
+    private FadeScheduler fades;
+    private Gain[] gains;
+    private final Duration length = Duration.millis(5);
+    private final Runnable onComplete = () -> { };
+
+    @Setup
+    public void setup()
+    {
+        fades = new FadeScheduler(AudioEngine.SAMPLE_RATE, Runnable::run);
+        gains = new Gain[targets];
+        for(int i = 0; i < targets; i++) gains[i] = new Gain();
+    }
+
+    /** Every fade is shorter than the block, so each one starts, runs and completes */
+    @Benchmark
+    public int fadeBlock()
+    {
+        for(Gain g : gains) fades.fade(g, g.value > 0.5 ? 0.0 : 1.0, length, onComplete);
+        fades.advance(AudioEngine.DEFAULT_BUFFER_SIZE);
+
+        return fades.getActiveCount();
+    }
+
+    private static class Gain implements IFadeTarget
+    {
+        double value = 1.0;
+
+        @Override
+        public double getGain()
+        {
+            return value;
+        }
+
+        @Override
+        public void setGain(double gain)
+        {
+            value = gain;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(FadeSchedulerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
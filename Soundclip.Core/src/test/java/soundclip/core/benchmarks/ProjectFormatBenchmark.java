@@ -0,0 +1,117 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import soundclip.core.CueList;
+import soundclip.core.CueNumber;
+import soundclip.core.Project;
+import soundclip.core.ProjectFormat;
+import soundclip.core.cues.ICue;
+import soundclip.core.cues.impl.NoteCue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares saving and loading a large show in each {@link ProjectFormat}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectFormatBenchmark
+{
+    @Param({"JSON", "SMILE"})
+    public ProjectFormat format;
+
+    @Param({"10000"})
+    public int cues;
+
+    private File folder;
+    private File path;
+    private Project project;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        folder = Files.createTempDirectory("soundclip-bench").toFile();
+        path = new File(folder, "show.scproj");
+
+        project = new Project(path.getAbsolutePath());
+        project.setFormat(format);
+
+        // A few acts of cues with the names and notes a real show has
+        for(int list = 0; list < 4; list++)
+        {
+            CueList c = list == 0 ? project.iterator().next() : project.appendCueList("Act " + (list + 1));
+            List<ICue> batch = new ArrayList<>();
+            for(int i = 0; i < cues / 4; i++)
+            {
+                NoteCue cue = new NoteCue(new CueNumber(i + 1));
+                cue.setName("Scene " + (i / 20 + 1) + " cue " + (i + 1));
+                cue.setNotes("Go on the light cue, stand by for the next");
+                batch.add(cue);
+            }
+            c.addAll(batch);
+        }
+
+        project.save();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        project.close();
+        try(Stream<Path> files = Files.walk(folder.toPath()))
+        {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public Project save() throws IOException
+    {
+        project.save();
+
+        return project;
+    }
+
+    @Benchmark
+    public Project load() throws Exception
+    {
+        Project loaded = new Project(path.getAbsolutePath());
+        loaded.close();
+
+        return loaded;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(ProjectFormatBenchmark.class.getSimpleName()).build()).run();
+    }
+}
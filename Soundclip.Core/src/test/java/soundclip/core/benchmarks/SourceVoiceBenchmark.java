@@ -0,0 +1,142 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import soundclip.core.cues.IPitchableCue;
+import soundclip.core.playback.AudioEngine;
+import soundclip.core.playback.ISampleSource;
+import soundclip.core.playback.ResamplerQuality;
+import soundclip.core.playback.SourceVoice;
+
+import javax.sound.sampled.AudioSystem;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken to mix one engine block of pitched and panned voices at each resampler quality.
+ *
+ * A block of {@link AudioEngine#DEFAULT_BUFFER_SIZE} frames lasts about 11.6ms, so the score for
+ * 32 voices needs to stay a small fraction of that to leave room for the rest of the show.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SourceVoiceBenchmark
+{
+    @Param({"LINEAR", "CUBIC", "SINC"})
+    public ResamplerQuality quality;
+
+    @Param({"32"})
+    public int voices;
+
+    private AudioEngine engine;
+    private float[] accumulator;
+
+    @Setup
+    public void setup()
+    {
+        engine = new AudioEngine(AudioEngine.SAMPLE_RATE, AudioEngine.DEFAULT_BUFFER_SIZE);
+        accumulator = new float[AudioEngine.DEFAULT_BUFFER_SIZE * AudioEngine.CHANNELS];
+
+        for(int i = 0; i < voices; i++)
+        {
+            // A 48kHz stereo source is resampled even at its original pitch
+            SourceVoice v = new SourceVoice(engine, new LoopingSource(48000f, 2), quality);
+            v.setRate(IPitchableCue.rateOf(i % 7 - 3));
+            v.setPan(i / (double) voices * 2.0 - 1.0);
+            v.setGain(0.5);
+            v.play();
+        }
+    }
+
+    @Benchmark
+    public float[] renderBlock()
+    {
+        Arrays.fill(accumulator, 0.0f);
+        engine.render(accumulator, AudioEngine.DEFAULT_BUFFER_SIZE);
+
+        return accumulator;
+    }
+
+    /** A tone that never ends, read from a table so the source costs next to nothing */
+    private static class LoopingSource implements ISampleSource
+    {
+        private static final int PERIOD = 100;
+
+        private final float sampleRate;
+        private final int channels;
+        private final float[] table = new float[PERIOD];
+        private long frame = 0;
+
+        LoopingSource(float sampleRate, int channels)
+        {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+
+            for(int i = 0; i < PERIOD; i++) table[i] = (float) Math.sin(2.0 * Math.PI * i / PERIOD);
+        }
+
+        @Override
+        public int getChannels()
+        {
+            return channels;
+        }
+
+        @Override
+        public float getSampleRate()
+        {
+            return sampleRate;
+        }
+
+        @Override
+        public long getFrameLength()
+        {
+            return AudioSystem.NOT_SPECIFIED;
+        }
+
+        @Override
+        public int read(float[] destination, int offset, int frames)
+        {
+            for(int i = 0; i < frames; i++, frame++)
+            {
+                float s = table[(int)(frame % PERIOD)];
+                for(int c = 0; c < channels; c++) destination[offset + i * channels + c] = s;
+            }
+
+            return frames;
+        }
+
+        @Override
+        public void seek(long frame)
+        {
+            this.frame = frame;
+        }
+
+        @Override
+        public void close() { }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(SourceVoiceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
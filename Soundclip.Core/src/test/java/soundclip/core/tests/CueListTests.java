@@ -22,10 +22,13 @@ import soundclip.core.CueList;
 import soundclip.core.CueNumber;
 import soundclip.core.cues.ICue;
 import soundclip.core.cues.IFadeableCue;
+import soundclip.core.cues.impl.NoteCue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -227,6 +230,9 @@ public class CueListTests
         when(a.getNumber()).thenReturn(new CueNumber(1));
         when(b.getNumber()).thenReturn(new CueNumber(2));
         when(c.getNumber()).thenReturn(new CueNumber(3));
+        when(a.isPerformingAction()).thenReturn(true);
+        when(b.isPerformingAction()).thenReturn(true);
+        when(c.isPerformingAction()).thenReturn(true);
 
         CueList list = new CueList("MyCueList", new HashSet<>(Arrays.asList(a, b, c)));
 
@@ -250,6 +256,9 @@ public class CueListTests
         when(a.getNumber()).thenReturn(new CueNumber(1));
         when(b.getNumber()).thenReturn(new CueNumber(2));
         when(c.getNumber()).thenReturn(new CueNumber(3));
+        when(a.isPerformingAction()).thenReturn(true);
+        when(b.isPerformingAction()).thenReturn(true);
+        when(c.isPerformingAction()).thenReturn(true);
 
         CueList list = new CueList("MyCueList", new HashSet<>(Arrays.asList(a, b, c)));
 
@@ -264,6 +273,29 @@ public class CueListTests
         assertThat(d.getValue(), is(equalTo(Duration.millis(1))));
     }
 
+    @Test
+    public void panicSkipsIdleCues()
+    {
+        ICue running = mock(ICue.class);
+        ICue waiting = mock(ICue.class);
+        IFadeableCue idle = mock(IFadeableCue.class);
+
+        when(running.getNumber()).thenReturn(new CueNumber(1));
+        when(waiting.getNumber()).thenReturn(new CueNumber(2));
+        when(idle.getNumber()).thenReturn(new CueNumber(3));
+        when(running.isPerformingAction()).thenReturn(true);
+        when(waiting.isInPreWait()).thenReturn(true);
+
+        CueList list = new CueList("MyCueList", new HashSet<>(Arrays.asList(running, waiting, idle)));
+
+        list.panic(Duration.millis(1), false);
+
+        verify(running, times(1)).stop();
+        verify(waiting, times(1)).stop();
+        verify(idle, times(0)).stop();
+        verify(idle, times(0)).fadeOut(Matchers.any(Duration.class));
+    }
+
     @Test
     public void canGetFirstAndLastCue()
     {
@@ -296,4 +328,369 @@ public class CueListTests
 
         assertThat(list.getCues().size(), is(equalTo(3)));
     }
+
+    @Test
+    public void navigatesLargeListsInOrder()
+    {
+        CueList list = new CueList();
+        for(int i = 5000; i >= 1; i--) list.add(new NoteCue(new CueNumber(i)));
+
+        ICue first = list.first();
+        ICue middle = list.get(new CueNumber(2500));
+
+        assertThat(list.indexOf(first), is(equalTo(0)));
+        assertThat(list.indexOf(middle), is(equalTo(2499)));
+        assertThat(list.next(middle).getNumber(), is(equalTo(new CueNumber(2501))));
+        assertThat(list.previous(middle).getNumber(), is(equalTo(new CueNumber(2499))));
+        assertThat(list.previous(first), is(nullValue()));
+        assertThat(list.next(list.last()), is(nullValue()));
+        assertThat(list.indexOf(new NoteCue(new CueNumber(2500))), is(equalTo(-1)));
+    }
+
+    @Test
+    public void suffixesUntilTheNumberIsUnique()
+    {
+        CueList list = new CueList();
+        NoteCue a = new NoteCue(new CueNumber(1));
+        NoteCue b = new NoteCue(new CueNumber(1));
+        NoteCue c = new NoteCue(new CueNumber(1));
+
+        list.add(a);
+        list.add(b);
+        list.add(c);
+
+        assertThat(b.getNumber(), is(equalTo(new CueNumber(1, 5))));
+        assertThat(c.getNumber(), is(equalTo(new CueNumber(1, 5, 5))));
+        assertThat(list.size(), is(equalTo(3)));
+        assertThat(list.get(new CueNumber(1, 5, 5)), is(sameInstance(c)));
+    }
+
+    @Test
+    public void removesByTheNumberTheCueWasAddedWith()
+    {
+        CueList list = new CueList();
+        NoteCue a = new NoteCue(new CueNumber(1));
+        NoteCue b = new NoteCue(new CueNumber(2));
+        list.add(a);
+        list.add(b);
+
+        // Numbers changed outside of the list don't move the cue
+        a.setNumber(new CueNumber(3));
+        list.remove(a);
+
+        assertThat(list.size(), is(equalTo(1)));
+        assertThat(list.contains(a), is(false));
+        assertThat(list.get(new CueNumber(1)), is(nullValue()));
+        assertThat(list.first(), is(sameInstance(b)));
+    }
+
+    @Test
+    public void tracksActiveCues()
+    {
+        CueList list = new CueList();
+        RunningCue a = new RunningCue(new CueNumber(1));
+        RunningCue b = new RunningCue(new CueNumber(2));
+        list.add(a);
+        list.add(b);
+
+        assertThat(list.getActiveCues(), is(empty()));
+
+        a.go();
+        assertThat(list.getActiveCues(), contains((ICue) a));
+
+        a.pause();
+        assertThat(list.getActiveCues(), contains((ICue) a));
+
+        a.stop();
+        assertThat(list.getActiveCues(), is(empty()));
+
+        b.go();
+        list.remove(b);
+        assertThat(list.getActiveCues(), is(empty()));
+
+        // Cues that are already running are tracked when they are added
+        list.add(b);
+        assertThat(list.getActiveCues(), contains((ICue) b));
+    }
+
+    @Test
+    public void mirrorsActiveCuesForDisplay() throws Exception
+    {
+        CueList list = new CueList();
+        RunningCue a = new RunningCue(new CueNumber(1));
+        list.add(a);
+
+        Thread transport = new Thread(a::go);
+        transport.start();
+        transport.join();
+
+        // Without a toolkit the change is applied on the thread that made it
+        assertThat(list.getDisplayedActiveCues(), contains((ICue) a));
+
+        a.stop();
+        assertThat(list.getDisplayedActiveCues(), is(empty()));
+    }
+
+    @Test
+    public void transportOnlyTouchesActiveCues()
+    {
+        CueList list = new CueList();
+        RunningCue running = new RunningCue(new CueNumber(1));
+        RunningCue idle = spy(new RunningCue(new CueNumber(2)));
+        list.add(running);
+        list.add(idle);
+
+        running.go();
+        list.pauseRunningCues();
+
+        assertThat(running.isPaused(), is(true));
+        assertThat(list.getActiveCues(), contains((ICue) running));
+
+        list.unpauseCues();
+        assertThat(running.isPerformingAction(), is(true));
+
+        list.panic(Duration.millis(1), true);
+        assertThat(running.isPerformingAction(), is(false));
+        assertThat(list.getActiveCues(), is(empty()));
+
+        verify(idle, never()).isPerformingAction();
+        verify(idle, never()).isPaused();
+        verify(idle, never()).stop();
+    }
+
+    @Test
+    public void addsManyCuesWithOneNotification()
+    {
+        CueList list = new CueList();
+        List<ICue> cues = new ArrayList<>();
+        for(int i = 200; i >= 1; i--) cues.add(new NoteCue(new CueNumber(i)));
+
+        List<List<ICue>> batches = new ArrayList<>();
+        int[] singles = new int[]{0};
+        list.onCuesAdded.whenTriggered(batches::add);
+        list.onCueAdded.whenTriggered((c) -> singles[0]++);
+
+        list.addAll(cues);
+
+        assertThat(batches, hasSize(1));
+        assertThat(batches.get(0), is(equalTo(cues)));
+        assertThat(singles[0], is(equalTo(0)));
+        assertThat(list.size(), is(equalTo(200)));
+        assertThat(list.first().getNumber(), is(equalTo(new CueNumber(1))));
+        assertThat(list.last().getNumber(), is(equalTo(new CueNumber(200))));
+    }
+
+    @Test
+    public void removesManyCuesWithOneNotification()
+    {
+        CueList list = new CueList();
+        NoteCue a = new NoteCue(new CueNumber(1));
+        NoteCue b = new NoteCue(new CueNumber(2));
+        NoteCue c = new NoteCue(new CueNumber(3));
+        list.addAll(Arrays.asList(a, b, c));
+
+        List<List<ICue>> batches = new ArrayList<>();
+        list.onCuesRemoved.whenTriggered(batches::add);
+
+        list.removeAll(Arrays.asList(c, a, new NoteCue(new CueNumber(4))));
+
+        assertThat(batches, hasSize(1));
+        assertThat(batches.get(0), contains((ICue) c, a));
+        assertThat(list.getCues(), contains((ICue) b));
+        assertThat(list.contains(a), is(false));
+    }
+
+    @Test
+    public void appliesBatchedChangesWhenTheBatchEnds()
+    {
+        CueList list = new CueList();
+        NoteCue a = new NoteCue(new CueNumber(1));
+        NoteCue b = new NoteCue(new CueNumber(2));
+        NoteCue c = new NoteCue(new CueNumber(1));
+        NoteCue discarded = new NoteCue(new CueNumber(5));
+        list.add(a);
+
+        List<List<ICue>> added = new ArrayList<>();
+        List<List<ICue>> removed = new ArrayList<>();
+        list.onCuesAdded.whenTriggered(added::add);
+        list.onCuesRemoved.whenTriggered(removed::add);
+
+        list.batch((l) -> {
+            l.add(b);
+            l.add(c);
+            l.add(discarded);
+            l.remove(discarded);
+            l.remove(a);
+
+            // Numbers are indexed straight away, the sorted list waits for the batch
+            assertThat(c.getNumber(), is(equalTo(new CueNumber(1, 5))));
+            assertThat(l.get(new CueNumber(2)), is(sameInstance(b)));
+            assertThat(l.getCues(), contains((ICue) a));
+        });
+
+        assertThat(list.getCues(), contains((ICue) c, b));
+        assertThat(added, hasSize(1));
+        assertThat(added.get(0), contains((ICue) b, c));
+        assertThat(removed, hasSize(1));
+        assertThat(removed.get(0), contains((ICue) a));
+    }
+
+    @Test
+    public void renumbersEveryCueInOrder()
+    {
+        CueList list = new CueList();
+        NoteCue a = new NoteCue(new CueNumber(3));
+        NoteCue b = new NoteCue(new CueNumber(3, 5));
+        NoteCue c = new NoteCue(new CueNumber(7));
+        NoteCue d = new NoteCue(new CueNumber(8, 2));
+        list.addAll(Arrays.asList(a, b, c, d));
+
+        final boolean[] callbackCalledProxy = new boolean[]{false};
+        list.onRenumbered.whenTriggered((l) -> callbackCalledProxy[0] = true);
+
+        list.renumber(10, 10, false);
+
+        assertThat(list.getCues(), contains((ICue) a, b, c, d));
+        assertThat(a.getNumber(), is(equalTo(new CueNumber(10))));
+        assertThat(b.getNumber(), is(equalTo(new CueNumber(20))));
+        assertThat(c.getNumber(), is(equalTo(new CueNumber(30))));
+        assertThat(d.getNumber(), is(equalTo(new CueNumber(40))));
+        assertThat(list.get(new CueNumber(20)), is(sameInstance(b)));
+        assertThat(list.get(new CueNumber(3, 5)), is(nullValue()));
+        assertThat(callbackCalledProxy[0], is(true));
+    }
+
+    @Test
+    public void renumberingCanPreserveDecimals()
+    {
+        CueList list = new CueList();
+        NoteCue a = new NoteCue(new CueNumber(3));
+        NoteCue b = new NoteCue(new CueNumber(3, 5));
+        NoteCue c = new NoteCue(new CueNumber(7));
+        NoteCue d = new NoteCue(new CueNumber(8, 2));
+        list.addAll(Arrays.asList(a, b, c, d));
+
+        list.renumber(1, 1, true);
+
+        assertThat(a.getNumber(), is(equalTo(new CueNumber(1))));
+        assertThat(b.getNumber(), is(equalTo(new CueNumber(1, 5))));
+        assertThat(c.getNumber(), is(equalTo(new CueNumber(2))));
+        assertThat(d.getNumber(), is(equalTo(new CueNumber(3, 2))));
+        assertThat(list.indexOf(d), is(equalTo(3)));
+
+        // The list stays sorted as cues are added after renumbering
+        NoteCue e = new NoteCue(new CueNumber(2, 5));
+        list.add(e);
+        assertThat(list.getCues(), contains((ICue) a, b, c, e, d));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void renumberingRejectsNonPositiveIncrements()
+    {
+        CueList list = new CueList();
+        list.add(new NoteCue(new CueNumber(1)));
+
+        list.renumber(1, 0, false);
+    }
+
+    @Test
+    public void tracksChangesToTheListAndItsCues()
+    {
+        NoteCue cue = new NoteCue(new CueNumber(1));
+        CueList list = new CueList(new HashSet<>(Arrays.asList(cue)));
+        assertThat(list.isDirty(), is(false));
+
+        cue.setNotes("Changed");
+        assertThat(list.isDirty(), is(true));
+
+        CueList renamed = new CueList();
+        renamed.setName("Renamed");
+        assertThat(renamed.isDirty(), is(true));
+
+        CueList added = new CueList();
+        added.add(new NoteCue(new CueNumber(1)));
+        assertThat(added.isDirty(), is(true));
+    }
+
+    @Test
+    public void reKeysACueRenumberedInsideABatch()
+    {
+        NoteCue first = new NoteCue(new CueNumber(1));
+        NoteCue second = new NoteCue(new CueNumber(2));
+        NoteCue added = new NoteCue(new CueNumber(4));
+        CueList list = new CueList(new HashSet<>(Arrays.asList(first, second)));
+
+        list.batch((l) ->
+        {
+            l.add(added);
+            added.setNumber(new CueNumber(1, 5));
+            second.setNumber(new CueNumber(5));
+        });
+
+        assertThat(list.get(new CueNumber(1, 5)), is(sameInstance(added)));
+        assertThat(list.get(new CueNumber(5)), is(sameInstance(second)));
+        assertThat(list.getCues(), contains(first, added, second));
+    }
+
+    @Test
+    public void reKeysACueWhoseNumberIsChanged()
+    {
+        NoteCue first = new NoteCue(new CueNumber(1));
+        NoteCue second = new NoteCue(new CueNumber(2));
+        CueList list = new CueList(new HashSet<>(Arrays.asList(first, second)));
+        assertThat(list.isDirty(), is(false));
+
+        List<ICue> edited = new ArrayList<>();
+        list.onCueEdited.whenTriggered(edited::add);
+
+        first.setNumber(new CueNumber(3));
+
+        assertThat(list.get(new CueNumber(1)), is(nullValue()));
+        assertThat(list.get(new CueNumber(3)), is(sameInstance(first)));
+        assertThat(list.getCues(), contains(second, first));
+        assertThat(list.isDirty(), is(true));
+        assertThat(edited, contains(first));
+
+        // The old number is free again, and the new one is taken
+        NoteCue reused = new NoteCue(new CueNumber(1));
+        list.add(reused);
+        assertThat(reused.getNumber(), is(equalTo(new CueNumber(1))));
+
+        NoteCue duplicate = new NoteCue(new CueNumber(3));
+        list.add(duplicate);
+        assertThat(duplicate.getNumber(), is(equalTo(new CueNumber(3, 5))));
+    }
+
+    @Test
+    public void suffixesACueChangedToANumberAlreadyInUse()
+    {
+        CueList list = new CueList();
+        NoteCue first = new NoteCue(new CueNumber(1));
+        NoteCue second = new NoteCue(new CueNumber(2));
+        list.addAll(Arrays.asList(first, second));
+
+        second.setNumber(new CueNumber(1));
+
+        assertThat(second.getNumber(), is(equalTo(new CueNumber(1, 5))));
+        assertThat(list.get(new CueNumber(1)), is(sameInstance(first)));
+        assertThat(list.get(new CueNumber(1, 5)), is(sameInstance(second)));
+        assertThat(list.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void renumbersLargeListsQuickly()
+    {
+        CueList list = new CueList();
+        List<ICue> cues = new ArrayList<>();
+        for(int i = 1; i <= 50000; i++) cues.add(new NoteCue(new CueNumber(i, i % 3)));
+        list.addAll(cues);
+
+        long start = System.nanoTime();
+        list.renumber(1, 1, false);
+        long elapsed = System.nanoTime() - start;
+
+        assertThat(list.last().getNumber(), is(equalTo(new CueNumber(50000))));
+        assertThat(list.indexOf(cues.get(25000)), is(equalTo(25000)));
+        assertThat(elapsed, is(lessThan(2000L * 1000 * 1000)));
+    }
 }
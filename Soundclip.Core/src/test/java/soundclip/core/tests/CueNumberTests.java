@@ -17,6 +17,8 @@ package soundclip.core.tests;
 import org.junit.Test;
 import soundclip.core.CueNumber;
 
+import java.util.HashSet;
+
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -447,4 +449,70 @@ public class CueNumberTests
         assertThat(a.compareTo(c), is(lessThan(0)));
         assertThat(c.compareTo(a), is(greaterThan(0)));
     }
+
+    @Test
+    public void compareBeyondThePackedRange()
+    {
+        CueNumber small = new CueNumber(1, 2);
+        CueNumber large = new CueNumber(1, 100000);
+        CueNumber deep = new CueNumber(1, 2, 3, 4, 5);
+        CueNumber deeper = new CueNumber(1, 2, 3, 4, 5, 6);
+
+        assertThat(small.compareTo(large), is(lessThan(0)));
+        assertThat(large.compareTo(small), is(greaterThan(0)));
+        assertThat(small.compareTo(deep), is(lessThan(0)));
+        assertThat(deep.compareTo(deeper), is(lessThan(0)));
+        assertThat(deeper.compareTo(large), is(lessThan(0)));
+        assertThat(deep.compareTo(new CueNumber("1.2.3.4.5")), is(equalTo(0)));
+    }
+
+    @Test
+    public void equalNumbersHaveEqualHashCodes()
+    {
+        HashSet<CueNumber> numbers = new HashSet<>();
+        numbers.add(new CueNumber(1, 5));
+
+        assertThat(new CueNumber("1.5").hashCode(), is(equalTo(new CueNumber(1, 5).hashCode())));
+        assertThat(new CueNumber(new CueNumber(1), 5, 0).hashCode(), is(equalTo(new CueNumber(1, 5).hashCode())));
+        assertThat(numbers.contains(new CueNumber("1.5")), is(true));
+        assertThat(numbers.contains(new CueNumber("1.5.1")), is(false));
+    }
+
+    @Test
+    public void internReturnsTheSameInstance()
+    {
+        CueNumber a = new CueNumber("42.7").intern();
+        CueNumber b = new CueNumber(42, 7).intern();
+
+        assertThat(a, is(sameInstance(b)));
+    }
+
+    @Test
+    public void ignoresTrailingSeparators()
+    {
+        assertThat(new CueNumber("3."), is(equalTo(new CueNumber(3))));
+        assertThat(new CueNumber(new CueNumber(3), "2."), is(equalTo(new CueNumber(3, 2))));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void invalidForEmptyPart()
+    {
+        new CueNumber("1..2");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void invalidForOverflowingPart()
+    {
+        new CueNumber("1.99999999999");
+    }
+
+    @Test
+    public void canReplaceTheMajorNumber()
+    {
+        CueNumber n = new CueNumber(3, 5, 2);
+
+        assertThat(n.withMajorNumber(7), is(equalTo(new CueNumber(7, 5, 2))));
+        assertThat(n.withMajorNumber(3), is(sameInstance(n)));
+        assertThat(n, is(equalTo(new CueNumber(3, 5, 2))));
+    }
 }
@@ -0,0 +1,203 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests;
+
+import org.junit.Before;
+import org.junit.Test;
+import soundclip.core.AudioBackend;
+import soundclip.core.CueList;
+import soundclip.core.CueNumber;
+import soundclip.core.Project;
+import soundclip.core.cues.ICue;
+import soundclip.core.cues.impl.NoteCue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.Journal}
+ */
+public class JournalTests
+{
+    private File path;
+    private Project p;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        path = TestUtils.createTemporaryFile(TestUtils.createTemporaryFolder(), "scproj");
+        p = new Project(path.getAbsolutePath());
+    }
+
+    /** Open the project again without saving it, as if the application had crashed */
+    private Project reopen() throws IOException
+    {
+        return new Project(path.getAbsolutePath());
+    }
+
+    @Test
+    public void newProjectsAreNotDirty()
+    {
+        assertThat(p.isDirty(), is(false));
+        assertThat(p.getJournal().getLength(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void editsMakeTheProjectDirtyUntilSaved() throws IOException
+    {
+        p.setName("Edited");
+        assertThat(p.isDirty(), is(true));
+
+        p.save();
+        assertThat(p.isDirty(), is(false));
+        assertThat(p.getJournal().getLength(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void replaysEditsAfterACrash() throws IOException
+    {
+        CueList first = p.iterator().next();
+        NoteCue kept = new NoteCue(new CueNumber(1));
+        NoteCue removed = new NoteCue(new CueNumber(2));
+        first.addAll(Arrays.asList(kept, removed));
+        kept.setName("Door Slam");
+        kept.setNotes("On the cue light");
+        first.remove(removed);
+        first.setName("Act 1");
+
+        CueList second = p.appendCueList("Act 2");
+        second.add(new NoteCue(new CueNumber(5)));
+
+        p.setName("Recovered");
+        p.setDefaultAudioBackend(AudioBackend.SAMPLED);
+
+        Project recovered = reopen();
+        assertThat(recovered.isDirty(), is(true));
+        assertThat(recovered.getName(), is(equalTo("Recovered")));
+        assertThat(recovered.getDefaultAudioBackend(), is(equalTo(AudioBackend.SAMPLED)));
+        assertThat(recovered.getCueListCount(), is(equalTo(2)));
+
+        Iterator<CueList> lists = recovered.iterator();
+        CueList act1 = lists.next();
+        assertThat(act1.getName(), is(equalTo("Act 1")));
+        assertThat(act1.size(), is(equalTo(1)));
+
+        ICue cue = act1.first();
+        assertThat(cue.getGUID(), is(equalTo(kept.getGUID())));
+        assertThat(cue.getName(), is(equalTo("Door Slam")));
+        assertThat(cue.getNotes(), is(equalTo("On the cue light")));
+        assertThat(recovered.resolveCue(removed.getGUID()), is(nullValue()));
+
+        CueList act2 = lists.next();
+        assertThat(act2.getName(), is(equalTo("Act 2")));
+        assertThat(act2.first().getNumber(), is(equalTo(new CueNumber(5))));
+    }
+
+    @Test
+    public void replaysRenumberingAndRemovedLists() throws IOException
+    {
+        CueList first = p.iterator().next();
+        first.addAll(Arrays.asList(new NoteCue(new CueNumber(3)), new NoteCue(new CueNumber(3, 5)), new NoteCue(new CueNumber(7))));
+        first.renumber(10, 10, true);
+
+        p.removeCueList(p.appendCueList("Scratch"));
+
+        Project recovered = reopen();
+        assertThat(recovered.getCueListCount(), is(equalTo(1)));
+
+        Iterator<ICue> cues = recovered.iterator().next().iterator();
+        assertThat(cues.next().getNumber(), is(equalTo(new CueNumber(10))));
+        assertThat(cues.next().getNumber(), is(equalTo(new CueNumber(10, 5))));
+        assertThat(cues.next().getNumber(), is(equalTo(new CueNumber(20))));
+    }
+
+    @Test
+    public void replaysCuesThatWereGivenANewNumber() throws IOException
+    {
+        CueList first = p.iterator().next();
+        NoteCue cue = new NoteCue(new CueNumber(1));
+        first.addAll(Arrays.asList(cue, new NoteCue(new CueNumber(2))));
+        cue.setNumber(new CueNumber(4));
+
+        CueList recovered = reopen().iterator().next();
+        assertThat(recovered.get(new CueNumber(1)), is(nullValue()));
+        assertThat(recovered.last().getGUID(), is(equalTo(cue.getGUID())));
+        assertThat(recovered.last().getNumber(), is(equalTo(new CueNumber(4))));
+    }
+
+    @Test
+    public void savingFoldsTheJournalIntoTheProject() throws IOException
+    {
+        p.iterator().next().add(new NoteCue(new CueNumber(1)));
+        p.save();
+
+        assertThat(p.getJournal().getPath().length(), is(equalTo(0L)));
+
+        Project reloaded = reopen();
+        assertThat(reloaded.isDirty(), is(false));
+        assertThat(reloaded.getCueCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void skipsRecordsThatWereAlreadySaved() throws IOException
+    {
+        p.appendCueList("Act 2");
+        byte[] journal = Files.readAllBytes(p.getJournal().getPath().toPath());
+        p.save();
+
+        // The save finished but the journal wasn't trimmed
+        Files.write(p.getJournal().getPath().toPath(), journal);
+
+        assertThat(reopen().getCueListCount(), is(equalTo(2)));
+    }
+
+    @Test
+    public void dropsARecordThatWasOnlyPartlyWritten() throws IOException
+    {
+        p.setName("Before the crash");
+        Files.write(p.getJournal().getPath().toPath(), "{\"seq\":99,\"op\":\"proj".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        Project recovered = reopen();
+        assertThat(recovered.getName(), is(equalTo("Before the crash")));
+
+        // Edits after recovery aren't lost behind the partial record
+        recovered.setName("After the crash");
+        assertThat(reopen().getName(), is(equalTo("After the crash")));
+    }
+
+    @Test
+    public void savesInTheBackgroundOnceTheJournalIsLarge() throws Exception
+    {
+        CountDownLatch saved = new CountDownLatch(1);
+        p.onSaved.whenTriggered((path) -> saved.countDown());
+        p.getJournal().setCompactionThreshold(1);
+
+        p.setName("Compacted");
+
+        assertThat(saved.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(p.isDirty(), is(false));
+        assertThat(p.getJournal().getLength(), is(equalTo(0L)));
+    }
+}
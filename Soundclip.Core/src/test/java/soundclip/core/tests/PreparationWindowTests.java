@@ -0,0 +1,144 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests;
+
+import org.junit.Test;
+import soundclip.core.CueList;
+import soundclip.core.CueNumber;
+import soundclip.core.PreparationWindow;
+import soundclip.core.cues.ICue;
+import soundclip.core.cues.IPreparableCue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link soundclip.core.PreparationWindow}
+ */
+public class PreparationWindowTests
+{
+    private static List<IPreparableCue> fill(CueList list, int count, boolean prepared)
+    {
+        List<IPreparableCue> cues = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            IPreparableCue c = mock(IPreparableCue.class);
+            when(c.getNumber()).thenReturn(new CueNumber(i + 1));
+            when(c.isPrepared()).thenReturn(prepared);
+
+            list.add(c);
+            cues.add(c);
+        }
+
+        return cues;
+    }
+
+    @Test
+    public void preparesCuesInsideTheWindow()
+    {
+        CueList list = new CueList();
+        List<IPreparableCue> cues = fill(list, 10, false);
+        PreparationWindow window = new PreparationWindow(list, 2, Runnable::run);
+
+        window.moveTo(5);
+
+        for(int i = 0; i < 10; i++)
+        {
+            verify(cues.get(i), i >= 3 && i <= 7 ? times(1) : never()).prepare();
+        }
+    }
+
+    @Test
+    public void releasesCuesOutsideTheWindow()
+    {
+        CueList list = new CueList();
+        List<IPreparableCue> cues = fill(list, 10, true);
+        PreparationWindow window = new PreparationWindow(list, 1, Runnable::run);
+
+        window.moveTo(0);
+
+        verify(cues.get(0), never()).release();
+        verify(cues.get(1), never()).release();
+        for(int i = 2; i < 10; i++) verify(cues.get(i)).release();
+    }
+
+    @Test
+    public void doesNotReleaseRunningCues()
+    {
+        CueList list = new CueList();
+        List<IPreparableCue> cues = fill(list, 5, true);
+        when(cues.get(4).isPerformingAction()).thenReturn(true);
+        PreparationWindow window = new PreparationWindow(list, 0, Runnable::run);
+
+        window.moveTo(0);
+
+        verify(cues.get(3)).release();
+        verify(cues.get(4), never()).release();
+    }
+
+    @Test
+    public void ignoresCuesThatCannotBePrepared()
+    {
+        CueList list = new CueList();
+        ICue note = mock(ICue.class);
+        when(note.getNumber()).thenReturn(new CueNumber(1));
+        list.add(note);
+        PreparationWindow window = new PreparationWindow(list, 5, Runnable::run);
+
+        window.moveTo(0);
+
+        assertThat(window.getCenter(), is(equalTo(0)));
+    }
+
+    @Test
+    public void abandonsWorkWhenMovedAgain()
+    {
+        CueList list = new CueList();
+        List<IPreparableCue> cues = fill(list, 10, false);
+        List<Runnable> queued = new ArrayList<>();
+        PreparationWindow window = new PreparationWindow(list, 0, queued::add);
+
+        window.moveTo(2);
+        window.moveTo(8);
+        queued.forEach(Runnable::run);
+
+        verify(cues.get(2), never()).prepare();
+        verify(cues.get(8)).prepare();
+    }
+
+    @Test
+    public void resizingMovesTheWindow()
+    {
+        CueList list = new CueList();
+        List<IPreparableCue> cues = fill(list, 10, false);
+        PreparationWindow window = new PreparationWindow(list, 0, Runnable::run);
+
+        window.moveTo(5);
+        window.setSize(1);
+
+        verify(cues.get(4)).prepare();
+        verify(cues.get(6)).prepare();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSize()
+    {
+        new PreparationWindow(new CueList(), -1, Runnable::run);
+    }
+}
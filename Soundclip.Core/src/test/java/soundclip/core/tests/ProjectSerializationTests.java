@@ -14,19 +14,41 @@
 // along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package soundclip.core.tests;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import javafx.util.Duration;
 import org.junit.Test;
+import soundclip.core.AudioBackend;
 import soundclip.core.CueList;
 import soundclip.core.CueNumber;
+import soundclip.core.PreparationWindow;
 import soundclip.core.Project;
+import soundclip.core.ProjectFormat;
+import soundclip.core.ProjectLayout;
 import soundclip.core.cues.ICue;
+import soundclip.core.cues.impl.FXAudioCue;
 import soundclip.core.cues.impl.NoteCue;
+import soundclip.core.playback.AudioEngine;
+import soundclip.core.playback.ResamplerQuality;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.hamcrest.Matchers.*;
 import static org.hamcrest.Matchers.equalTo;
@@ -103,6 +125,93 @@ public class ProjectSerializationTests
         {
             assertThat(ex, is(instanceOf(IllegalArgumentException.class)));
             assertThat(ex.getMessage(), is(equalTo("The specified project is missing required fields")));
+            assertThat(ex.getCause().getMessage(), containsString("'name'"));
+        }
+    }
+
+    @Test
+    public void skipsUnknownFieldsInAnyOrder() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        String json = "{" +
+                "\"extension\": {\"nested\": [1, {\"name\": \"not the project\"}]}," +
+                "\"cueLists\": [{" +
+                    "\"cues\": [{\"type\": \"soundclip.core.cues.impl.NoteCue\", \"number\": \"2\", \"name\": \"Late\", \"notes\": \"\", \"extra\": [true]}," +
+                               "{\"type\": \"soundclip.core.cues.impl.NoteCue\", \"number\": \"1\", \"name\": \"Early\", \"notes\": \"\"}]," +
+                    "\"color\": \"red\"," +
+                    "\"name\": \"Named After Cues\"" +
+                "}]," +
+                "\"panicHardStopBefore\": 1500," +
+                "\"lastModified\": \"2016-12-03T23:25:27-05:00\"," +
+                "\"name\": \"Reordered\"" +
+                "}";
+        Files.write(tempProject.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+        Project p = new Project(tempProject.getAbsolutePath());
+
+        assertThat(p.getName(), is(equalTo("Reordered")));
+        assertThat(p.getPanicHardStopBefore(), is(equalTo(1500L)));
+        assertThat(p.getCueListCount(), is(equalTo(1)));
+
+        CueList list = p.iterator().next();
+        assertThat(list.getName(), is(equalTo("Named After Cues")));
+        assertThat(list.first().getName(), is(equalTo("Early")));
+        assertThat(list.last().getName(), is(equalTo("Late")));
+        assertThat(p.getTimeToFirstCueList().isUnknown(), is(false));
+    }
+
+    @Test
+    public void insertsCuesInFileOrderWhenBuiltInParallel() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        StringBuilder cues = new StringBuilder();
+        for(int i = 0; i < 500; i++)
+        {
+            if(i > 0) cues.append(',');
+            cues.append("{\"type\": \"soundclip.core.cues.impl.NoteCue\", \"number\": \"1\", \"name\": \"").append(i).append("\", \"notes\": \"\"}");
+        }
+
+        String json = "{\"name\": \"Parallel\", \"lastModified\": \"2016-12-03T23:25:27-05:00\", \"panicHardStopBefore\": 3000, \"cueLists\": [" +
+                "{\"name\": \"a\", \"cues\": [" + cues + "]}," +
+                "{\"name\": \"b\", \"cues\": [" + cues + "]}" +
+                "]}";
+        Files.write(tempProject.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+        Project p = new Project(tempProject.getAbsolutePath());
+
+        assertThat(p.getCueCount(), is(equalTo(1000)));
+        for(CueList list : p)
+        {
+            // Duplicates are suffixed in the order they appear in the file
+            int i = 0;
+            for(ICue c : list) assertThat(c.getName(), is(equalTo(Integer.toString(i++))));
+        }
+    }
+
+    @Test
+    public void throwsWhenACueIsMissingFields() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        String json = "{\"name\": \"Broken\", \"lastModified\": \"2016-12-03T23:25:27-05:00\", \"panicHardStopBefore\": 3000, \"cueLists\": [" +
+                "{\"name\": \"a\", \"cues\": [{\"number\": \"1\", \"name\": \"No Type\"}]}" +
+                "]}";
+        Files.write(tempProject.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+        try
+        {
+            new Project(tempProject.getAbsolutePath());
+            fail("Should not be able to load a malformed cue");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            assertThat(ex.getMessage(), is(equalTo("The specified project is missing required fields")));
+            assertThat(ex.getCause().getMessage(), containsString("'type'"));
         }
     }
 
@@ -118,4 +227,417 @@ public class ProjectSerializationTests
 
         // TODO: Verify the project saved correctly when we actually implement serialization / deserialization
     }
+
+    @Test
+    public void savesASnapshotInTheBackground() throws Exception
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        p.setName("Before");
+
+        AtomicReference<String> saved = new AtomicReference<>();
+        p.onSaved.whenTriggered(saved::set);
+
+        CompletableFuture<Void> save = p.saveAsync();
+
+        // Edits made after the snapshot is taken are not part of the save
+        p.setName("After");
+        save.get(5, TimeUnit.SECONDS);
+
+        assertThat(saved.get(), is(equalTo(tempProject.getAbsolutePath())));
+        assertThat(new ObjectMapper().readTree(tempProject).get("name").asText(), is(equalTo("Before")));
+        assertThat(tempProjectPath.list((dir, n) -> n.endsWith(".tmp")), is(emptyArray()));
+    }
+
+    @Test
+    public void savesCuesAsTheyWereWhenTheSaveWasRequested() throws Exception
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        NoteCue cue = new NoteCue(new CueNumber(1));
+        cue.setName("Before");
+        p.iterator().next().add(cue);
+
+        CompletableFuture<Void> save = p.saveAsync();
+        cue.setName("After");
+        save.get(5, TimeUnit.SECONDS);
+
+        // The later edit is only in the journal
+        JsonNode saved = new ObjectMapper().readTree(tempProject).get("cueLists").get(0).get("cues").get(0);
+        assertThat(saved.get("name").asText(), is(equalTo("Before")));
+    }
+
+    @Test
+    public void onlyRecordsCuesEditedSinceTheLastSave() throws Exception
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        CountingCue edited = new CountingCue(new CueNumber(1));
+        CountingCue untouched = new CountingCue(new CueNumber(2));
+        p.iterator().next().addAll(Arrays.asList(edited, untouched));
+
+        p.save();
+        edited.serialized = untouched.serialized = 0;
+
+        // Once for the journal, once for the next save
+        edited.setName("Edited");
+        p.save();
+        p.save();
+
+        assertThat(edited.serialized, is(equalTo(2)));
+        assertThat(untouched.serialized, is(equalTo(0)));
+
+        JsonNode cues = new ObjectMapper().readTree(tempProject).get("cueLists").get(0).get("cues");
+        assertThat(cues.size(), is(equalTo(2)));
+        assertThat(cues.get(0).get("name").asText(), is(equalTo("Edited")));
+    }
+
+    /** A note cue that counts how many times it has been serialized */
+    private static class CountingCue extends NoteCue
+    {
+        int serialized;
+
+        CountingCue(CueNumber number)
+        {
+            super(number);
+        }
+
+        @Override
+        public void serialize(JsonGenerator w) throws IOException
+        {
+            serialized++;
+            super.serialize(w);
+        }
+    }
+
+    @Test
+    public void reportsFailedSaves() throws Exception
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+
+        // Replace the project's directory with a file so nothing can be written there
+        assertThat(tempProject.delete() && tempProjectPath.delete() && tempProjectPath.createNewFile(), is(true));
+
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        p.onSaveFailed.whenTriggered(failure::set);
+
+        try
+        {
+            p.saveAsync().get(5, TimeUnit.SECONDS);
+            fail("The save should not have completed");
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        }
+
+        assertThat(failure.get(), is(not(nullValue())));
+    }
+
+    @Test
+    public void splitProjectsStoreEachListInItsOwnFile() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        p.setLayout(ProjectLayout.SPLIT);
+        p.iterator().next().add(new NoteCue(new CueNumber(1)));
+        p.appendCueList("Second").add(new NoteCue(new CueNumber(2)));
+        p.save();
+
+        assertThat(p.getListDirectory().list(), is(arrayWithSize(2)));
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.getLayout(), is(equalTo(ProjectLayout.SPLIT)));
+        assertThat(loaded.getCueListCount(), is(equalTo(2)));
+
+        Iterator<CueList> lists = loaded.iterator();
+        assertThat(lists.next().first().getNumber(), is(equalTo(new CueNumber(1))));
+        CueList second = lists.next();
+        assertThat(second.getName(), is(equalTo("Second")));
+        assertThat(second.first().getNumber(), is(equalTo(new CueNumber(2))));
+        assertThat(second.isDirty(), is(false));
+    }
+
+    @Test
+    public void splitProjectsOnlyRewriteListsThatChanged() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        p.setLayout(ProjectLayout.SPLIT);
+        CueList first = p.iterator().next();
+        p.appendCueList("Second");
+        p.save();
+
+        Set<String> before = new HashSet<>(Arrays.asList(p.getListDirectory().list()));
+
+        first.add(new NoteCue(new CueNumber(1)));
+        p.save();
+
+        Set<String> after = new HashSet<>(Arrays.asList(p.getListDirectory().list()));
+        assertThat(after, hasSize(2));
+
+        // One list kept its file, the edited list was written to a new one and its old file removed
+        Set<String> kept = new HashSet<>(before);
+        kept.retainAll(after);
+        assertThat(kept, hasSize(1));
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.iterator().next().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void aFailedSaveDoesNotBreakTheSaveQueuedBehindIt() throws Exception
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        p.setLayout(ProjectLayout.SPLIT);
+        CueList list = p.iterator().next();
+        list.add(new NoteCue(new CueNumber(1)));
+        p.save();
+
+        // Hold the save thread so the next two saves are queued behind it
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean held = new AtomicBoolean();
+        p.onSaved.whenTriggered((path) -> {
+            if(held.compareAndSet(false, true)) awaitQuietly(release);
+        });
+
+        File listDir = p.getListDirectory();
+        File aside = new File(tempProjectPath, "lists-aside");
+        p.onSaveFailed.whenTriggered((e) -> assertThat(listDir.delete() && aside.renameTo(listDir), is(true)));
+
+        CompletableFuture<Void> held0 = p.saveAsync();
+        list.add(new NoteCue(new CueNumber(2)));
+        CompletableFuture<Void> failing = p.saveAsync();
+        CompletableFuture<Void> following = p.saveAsync();
+
+        // The first queued save can't write the edited list, the directory is put back when it fails
+        assertThat(listDir.renameTo(aside) && listDir.createNewFile(), is(true));
+        release.countDown();
+
+        held0.get(5, TimeUnit.SECONDS);
+        try
+        {
+            failing.get(5, TimeUnit.SECONDS);
+            fail("The save should not have completed");
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        }
+        following.get(5, TimeUnit.SECONDS);
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.iterator().next().size(), is(equalTo(2)));
+        assertThat(p.getListDirectory().list(), is(arrayWithSize(1)));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void splitProjectsCanBeJoinedAgain() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        p.setLayout(ProjectLayout.SPLIT);
+        p.iterator().next().add(new NoteCue(new CueNumber(1)));
+        p.save();
+
+        p.setLayout(ProjectLayout.SINGLE_FILE);
+        p.save();
+
+        assertThat(p.getListDirectory().exists(), is(false));
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.getLayout(), is(equalTo(ProjectLayout.SINGLE_FILE)));
+        assertThat(loaded.getCueCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void canSaveProjectsInABinaryFormat() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        p.setName("Binary");
+        p.setFormat(ProjectFormat.SMILE);
+        p.iterator().next().add(new NoteCue(new CueNumber(1)));
+        p.save();
+
+        assertThat(ProjectFormat.of(tempProject), is(equalTo(ProjectFormat.SMILE)));
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.getFormat(), is(equalTo(ProjectFormat.SMILE)));
+        assertThat(loaded.getName(), is(equalTo("Binary")));
+        assertThat(loaded.getCueCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void binaryProjectsCanBeConvertedBackToJson() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        p.setFormat(ProjectFormat.SMILE);
+        p.save();
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        loaded.setFormat(ProjectFormat.JSON);
+        loaded.save();
+
+        assertThat(ProjectFormat.of(tempProject), is(equalTo(ProjectFormat.JSON)));
+        assertThat(new ObjectMapper().readTree(tempProject).get("format").asText(), is(equalTo("JSON")));
+    }
+
+    @Test
+    public void changingTheFormatRewritesEveryListFile() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        p.setLayout(ProjectLayout.SPLIT);
+        p.iterator().next().add(new NoteCue(new CueNumber(1)));
+        p.appendCueList("Second").add(new NoteCue(new CueNumber(2)));
+        p.save();
+
+        p.setFormat(ProjectFormat.SMILE);
+        p.save();
+
+        File[] lists = p.getListDirectory().listFiles();
+        assertThat(lists, is(arrayWithSize(2)));
+        for(File list : lists)
+        {
+            assertThat(ProjectFormat.of(list), is(equalTo(ProjectFormat.SMILE)));
+        }
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.getCueCount(), is(equalTo(2)));
+    }
+
+    @Test
+    public void persistsDefaultAudioBackend() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        assertThat(p.getDefaultAudioBackend(), is(equalTo(AudioBackend.FX)));
+
+        p.setDefaultAudioBackend(AudioBackend.SAMPLED);
+        p.save();
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.getDefaultAudioBackend(), is(equalTo(AudioBackend.SAMPLED)));
+    }
+
+    @Test
+    public void persistsAudioBufferSize() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        assertThat(p.getAudioBufferSize(), is(equalTo(AudioEngine.DEFAULT_BUFFER_SIZE)));
+
+        p.setAudioBufferSize(256);
+        p.save();
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.getAudioBufferSize(), is(equalTo(256)));
+
+        loaded.setAudioBufferSize(AudioEngine.DEFAULT_BUFFER_SIZE);
+    }
+
+    @Test
+    public void persistsResamplerQuality() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        assertThat(p.getResamplerQuality(), is(equalTo(AudioEngine.DEFAULT_RESAMPLER_QUALITY)));
+
+        p.setResamplerQuality(ResamplerQuality.SINC);
+        p.save();
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.getResamplerQuality(), is(equalTo(ResamplerQuality.SINC)));
+        assertThat(AudioEngine.getDefault().getResamplerQuality(), is(equalTo(ResamplerQuality.SINC)));
+
+        loaded.setResamplerQuality(AudioEngine.DEFAULT_RESAMPLER_QUALITY);
+    }
+
+    @Test
+    public void persistsPreparationWindowSize() throws IOException
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        assertThat(p.getPreparationWindowSize(), is(equalTo(PreparationWindow.DEFAULT_SIZE)));
+
+        p.setPreparationWindowSize(3);
+        p.save();
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        assertThat(loaded.getPreparationWindowSize(), is(equalTo(3)));
+        for(CueList list : loaded)
+        {
+            assertThat(list.getPreparationWindow().getSize(), is(equalTo(3)));
+        }
+    }
+
+    @Test
+    public void audioDurationsAreKnownAfterLoad() throws Exception
+    {
+        File tempProjectPath = TestUtils.createTemporaryFolder();
+        File tempProject = TestUtils.createTemporaryFile(tempProjectPath, "scproj");
+        File wav = TestUtils.writeSilentWave(tempProjectPath, 44100, 2, 44100);
+
+        Project p = new Project(tempProject.getAbsolutePath());
+        FXAudioCue cue = new FXAudioCue(new CueNumber(1));
+        cue.consumeProjectPath(tempProjectPath.getAbsolutePath());
+        cue.setSource(wav.getAbsolutePath());
+        p.iterator().next().add(cue);
+        p.save();
+
+        assertThat(p.getMediaMetadataPath().isFile(), is(true));
+
+        Project loaded = new Project(tempProject.getAbsolutePath());
+        FXAudioCue loadedCue = (FXAudioCue) loaded.iterator().next().first();
+
+        assertThat(loadedCue.isPrepared(), is(false));
+        assertThat(loadedCue.getDuration(), is(equalTo(Duration.seconds(1))));
+        assertThat(loaded.getMediaMetadata().get(wav), is(notNullValue()));
+    }
 }
@@ -19,11 +19,15 @@ import org.junit.Test;
 import soundclip.core.CueList;
 import soundclip.core.CueNumber;
 import soundclip.core.cues.ICue;
+import soundclip.core.cues.IFadeableCue;
+import soundclip.core.cues.impl.FadeCue;
+import soundclip.core.cues.impl.NoteCue;
 import soundclip.core.Project;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.UUID;
 
@@ -155,4 +159,95 @@ public class ProjectTests
         assertThat(iter.next().getName(), is(equalTo("b")));
         assertThat(iter.hasNext(), is(false));
     }
+
+    @Test
+    public void resolvesCuesInAnyList()
+    {
+        CueList a = p.appendCueList("a");
+        CueList b = p.appendCueList("b");
+        NoteCue first = new NoteCue(new CueNumber(1));
+        NoteCue second = new NoteCue(new CueNumber(1));
+
+        a.add(first);
+        b.add(second);
+
+        assertThat(p.resolveCue(first.getGUID()), is(sameInstance(first)));
+        assertThat(p.resolveCue(second.getGUID()), is(sameInstance(second)));
+        assertThat(p.resolveCue(UUID.randomUUID()), is(nullValue()));
+
+        b.remove(second);
+        assertThat(p.resolveCue(second.getGUID()), is(nullValue()));
+
+        p.removeCueList(a);
+        assertThat(p.resolveCue(first.getGUID()), is(nullValue()));
+    }
+
+    @Test
+    public void resolvesCuesAddedInABatch()
+    {
+        CueList list = p.appendCueList("a");
+        NoteCue first = new NoteCue(new CueNumber(1));
+        NoteCue second = new NoteCue(new CueNumber(2));
+
+        list.addAll(Arrays.asList(first, second));
+        assertThat(p.resolveCue(first.getGUID()), is(sameInstance(first)));
+        assertThat(p.resolveCue(second.getGUID()), is(sameInstance(second)));
+
+        list.removeAll(Arrays.asList(first, second));
+        assertThat(p.resolveCue(first.getGUID()), is(nullValue()));
+        assertThat(p.resolveCue(second.getGUID()), is(nullValue()));
+    }
+
+    @Test
+    public void tracksTheFadesTargetingACue()
+    {
+        CueList list = p.appendCueList("a");
+        IFadeableCue target = mock(IFadeableCue.class);
+        IFadeableCue other = mock(IFadeableCue.class);
+        when(target.getGUID()).thenReturn(UUID.randomUUID());
+        when(other.getGUID()).thenReturn(UUID.randomUUID());
+        when(target.getNumber()).thenReturn(new CueNumber(1));
+        when(other.getNumber()).thenReturn(new CueNumber(3));
+        list.add(target);
+        list.add(other);
+
+        FadeCue fade = new FadeCue(new CueNumber(2));
+        fade.setTarget(target);
+        list.add(fade);
+
+        assertThat(p.getFadesTargeting(target), contains(fade));
+
+        fade.setTarget(other);
+        assertThat(p.getFadesTargeting(target), is(empty()));
+        assertThat(p.getFadesTargeting(other), contains(fade));
+
+        list.remove(fade);
+        assertThat(p.getFadesTargeting(other), is(empty()));
+    }
+
+    @Test
+    public void tracksTheActiveCuesOfEveryList()
+    {
+        CueList a = p.appendCueList("a");
+        CueList b = p.appendCueList("b");
+        RunningCue cueA = new RunningCue(new CueNumber(1));
+        RunningCue cueB = new RunningCue(new CueNumber(1));
+        a.add(cueA);
+        b.add(cueB);
+
+        cueA.go();
+        cueB.go();
+        assertThat(p.getActiveCues(), containsInAnyOrder((ICue) cueA, cueB));
+
+        cueA.stop();
+        assertThat(p.getActiveCues(), contains((ICue) cueB));
+
+        p.removeCueList(b);
+        assertThat(p.getActiveCues(), is(empty()));
+
+        // Cues in removed lists are no longer followed
+        cueB.stop();
+        cueB.go();
+        assertThat(p.getActiveCues(), is(empty()));
+    }
 }
@@ -0,0 +1,81 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests;
+
+import soundclip.core.CueNumber;
+import soundclip.core.CueSupportFlags;
+import soundclip.core.cues.impl.NoteCue;
+
+/**
+ * A cue for tests that runs from {@link #go()} until it is paused or stopped
+ */
+public class RunningCue extends NoteCue
+{
+    private boolean running = false;
+    private boolean paused = false;
+
+    public RunningCue(CueNumber number)
+    {
+        super(number);
+    }
+
+    @Override
+    public int getSupportedOperations()
+    {
+        return CueSupportFlags.RESUME;
+    }
+
+    @Override
+    public void go()
+    {
+        running = true;
+        paused = false;
+        updateActivity();
+    }
+
+    @Override
+    public void pause()
+    {
+        running = false;
+        paused = true;
+        updateActivity();
+    }
+
+    @Override
+    public void resume()
+    {
+        go();
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+        paused = false;
+        updateActivity();
+    }
+
+    @Override
+    public boolean isPerformingAction()
+    {
+        return running;
+    }
+
+    @Override
+    public boolean isPaused()
+    {
+        return paused;
+    }
+}
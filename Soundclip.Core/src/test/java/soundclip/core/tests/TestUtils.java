@@ -17,7 +17,13 @@ package soundclip.core.tests;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.LinkedList;
@@ -51,7 +57,7 @@ public class TestUtils
         }, "Temp File Cleanup"));
     }
 
-    static File createTemporaryFolder()
+    public static File createTemporaryFolder()
     {
         File dir = Paths.get(System.getProperty("java.io.tmpdir"), "soundclip-"+ UUID.randomUUID().toString()).toFile();
 
@@ -61,7 +67,7 @@ public class TestUtils
         return dir;
     }
 
-    static File createTemporaryFile(File basePath, String extension)
+    public static File createTemporaryFile(File basePath, String extension)
     {
         Path p = basePath == null ?
                 Paths.get(System.getProperty("java.io.tmpdir"), "soundclip-"+ UUID.randomUUID().toString() + extension)
@@ -73,8 +79,46 @@ public class TestUtils
         return f;
     }
 
-    static File createTemporaryFile(String extension)
+    public static File createTemporaryFile(String extension)
     {
         return createTemporaryFile(null, extension);
     }
+
+    /**
+     * Write a silent 16-bit PCM wave file
+     *
+     * @param basePath the folder to create the file in
+     * @param sampleRate the sample rate of the file
+     * @param channels the number of channels in the file
+     * @param frames the length of the file, in frames
+     * @return the created file
+     */
+    public static File writeSilentWave(File basePath, float sampleRate, int channels, long frames) throws IOException
+    {
+        AudioFormat format = new AudioFormat(sampleRate, 16, channels, true, false);
+
+        return writeAudio(basePath, AudioFileFormat.Type.WAVE, format, new byte[(int)(frames * format.getFrameSize())]);
+    }
+
+    /**
+     * Write raw samples to an audio file
+     *
+     * @param basePath the folder to create the file in
+     * @param type the type of file to write
+     * @param format the format of {@param data}
+     * @param data the samples to write
+     * @return the created file
+     */
+    public static File writeAudio(File basePath, AudioFileFormat.Type type, AudioFormat format, byte[] data) throws IOException
+    {
+        File f = createTemporaryFile(basePath, "." + type.getExtension());
+        long frames = data.length / format.getFrameSize();
+
+        try(AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(data), format, frames))
+        {
+            AudioSystem.write(stream, type, f);
+        }
+
+        return f;
+    }
 }
@@ -0,0 +1,307 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.cues;
+
+import org.junit.Test;
+import soundclip.core.CueNumber;
+import soundclip.core.CueSupportFlags;
+import soundclip.core.Project;
+import soundclip.core.cues.ICue;
+import soundclip.core.cues.IFadeableCue;
+import soundclip.core.cues.IPannableCue;
+import soundclip.core.cues.IPitchableCue;
+import soundclip.core.cues.impl.SampledAudioCue;
+import soundclip.core.tests.TestUtils;
+
+import javafx.util.Duration;
+
+import java.io.File;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.cues.impl.SampledAudioCue}
+ */
+public class SampledAudioCueTests
+{
+    @Test
+    public void remembersSetCueNumber()
+    {
+        ICue cue = new SampledAudioCue(new CueNumber(1));
+        assertThat(cue.getNumber(), is(equalTo(new CueNumber(1))));
+
+        cue.setNumber(new CueNumber(2));
+        assertThat(cue.getNumber(), is(equalTo(new CueNumber(2))));
+    }
+
+    @Test
+    public void remembersSetName()
+    {
+        ICue cue = new SampledAudioCue(new CueNumber(1));
+
+        cue.setName("My Cue");
+
+        assertThat(cue.getName(), is(equalTo("My Cue")));
+    }
+
+    @Test
+    public void remembersSetNote()
+    {
+        ICue cue = new SampledAudioCue(new CueNumber(1));
+
+        cue.setNotes("The quick brown fox jumps over the lazy dog");
+
+        assertThat(cue.getNotes(), is(equalTo("The quick brown fox jumps over the lazy dog")));
+    }
+
+    @Test
+    public void setsCorrectSupportFlags()
+    {
+        ICue cue = new SampledAudioCue(new CueNumber(1));
+
+        assertThat(CueSupportFlags.Supports(cue, CueSupportFlags.FADE), is(true));
+        assertThat(CueSupportFlags.Supports(cue, CueSupportFlags.RESUME), is(true));
+        assertThat(CueSupportFlags.Supports(cue, CueSupportFlags.SEEK), is(true));
+        assertThat(CueSupportFlags.Supports(cue, CueSupportFlags.AUDIO_PITCH), is(true));
+        assertThat(CueSupportFlags.Supports(cue, CueSupportFlags.AUDIO_PAN), is(true));
+    }
+
+    @Test
+    public void remembersPitch()
+    {
+        IPitchableCue cue = new SampledAudioCue(new CueNumber(1));
+
+        cue.setPitch(1.234);
+
+        assertThat(cue.getPitch(), is(equalTo(1.234)));
+    }
+
+    @Test
+    public void remembersPan()
+    {
+        IPannableCue cue = new SampledAudioCue(new CueNumber(1));
+
+        cue.setPan(0.234);
+
+        assertThat(cue.getPan(), is(equalTo(0.234)));
+    }
+
+    @Test
+    public void clampsPanLow()
+    {
+        IPannableCue cue = new SampledAudioCue(new CueNumber(1));
+
+        cue.setPan(-1.5);
+
+        assertThat(cue.getPan(), is(equalTo(-1.0)));
+    }
+
+    @Test
+    public void clampsPanHigh()
+    {
+        IPannableCue cue = new SampledAudioCue(new CueNumber(1));
+
+        cue.setPan(1.5);
+
+        assertThat(cue.getPan(), is(equalTo(1.0)));
+    }
+
+    @Test
+    public void durationIsZeroIfNoFileSet()
+    {
+        ICue cue = new SampledAudioCue(new CueNumber(1));
+
+        assertThat(cue.getDuration(), is(equalTo(Duration.ZERO)));
+    }
+
+    @Test
+    public void readsDurationFromSource() throws Exception
+    {
+        File projectPath = TestUtils.createTemporaryFolder();
+        File wav = TestUtils.writeSilentWave(projectPath, 44100, 2, 44100);
+
+        SampledAudioCue cue = new SampledAudioCue(new CueNumber(1));
+        cue.consumeProjectPath(projectPath.getAbsolutePath());
+        cue.setSource(wav.getAbsolutePath());
+
+        try
+        {
+            assertThat(cue.getSource(), is(equalTo(wav.getName())));
+            assertThat(cue.getDuration(), is(equalTo(Duration.seconds(1))));
+        }
+        finally
+        {
+            cue.close();
+        }
+    }
+
+    @Test
+    public void shortSourcesAreCachedWhenTheProjectLoads() throws Exception
+    {
+        File projectPath = TestUtils.createTemporaryFolder();
+        File projectFile = TestUtils.createTemporaryFile(projectPath, "scproj");
+        File wav = TestUtils.writeSilentWave(projectPath, 44100, 2, 4410);
+
+        Project p = new Project(projectFile.getAbsolutePath());
+        SampledAudioCue cue = new SampledAudioCue(new CueNumber(1));
+        cue.consumeProjectPath(projectPath.getAbsolutePath());
+        cue.setSource(wav.getAbsolutePath());
+        p.iterator().next().add(cue);
+        p.save();
+        p.close();
+
+        Project loaded = new Project(projectFile.getAbsolutePath());
+        try
+        {
+            assertThat(loaded.getSampleCache().contains(wav), is(true));
+            assertThat(loaded.getSampleCache().getMissCount(), is(equalTo(1L)));
+        }
+        finally
+        {
+            loaded.close();
+        }
+    }
+
+    @Test
+    public void cuesAddedAfterLoadingAreCachedInTheBackground() throws Exception
+    {
+        File projectPath = TestUtils.createTemporaryFolder();
+        File projectFile = TestUtils.createTemporaryFile(projectPath, "scproj");
+        File wav = TestUtils.writeSilentWave(projectPath, 44100, 2, 4410);
+
+        Project p = new Project(projectFile.getAbsolutePath());
+        try
+        {
+            SampledAudioCue cue = new SampledAudioCue(new CueNumber(1));
+            cue.consumeProjectPath(projectPath.getAbsolutePath());
+            cue.setSource(wav.getAbsolutePath());
+            p.iterator().next().add(cue);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while(!p.getSampleCache().contains(wav) && System.currentTimeMillis() < deadline) Thread.sleep(5);
+
+            assertThat(p.getSampleCache().contains(wav), is(true));
+            assertThat(p.getMediaMetadata().get(wav).getDuration().toMillis(), is(closeTo(100.0, 1e-3)));
+        }
+        finally
+        {
+            p.close();
+        }
+    }
+
+    @Test
+    public void copiesOfTheSameSourceShareOneCacheEntry() throws Exception
+    {
+        File projectPath = TestUtils.createTemporaryFolder();
+        File projectFile = TestUtils.createTemporaryFile(projectPath, "scproj");
+        File wav = TestUtils.writeSilentWave(projectPath, 44100, 2, 4410);
+        File copy = TestUtils.writeSilentWave(projectPath, 44100, 2, 4410);
+
+        Project p = new Project(projectFile.getAbsolutePath());
+        for(File f : new File[]{wav, wav, copy})
+        {
+            SampledAudioCue cue = new SampledAudioCue(new CueNumber(1));
+            cue.consumeProjectPath(projectPath.getAbsolutePath());
+            cue.setSource(f.getAbsolutePath());
+            p.iterator().next().add(cue);
+        }
+        p.save();
+        p.close();
+
+        Project loaded = new Project(projectFile.getAbsolutePath());
+        try
+        {
+            assertThat(loaded.getAssets().size(), is(equalTo(1)));
+            assertThat(loaded.getSampleCache().size(), is(equalTo(1)));
+            assertThat(loaded.getSampleCache().getMissCount(), is(equalTo(1L)));
+        }
+        finally
+        {
+            loaded.close();
+        }
+
+        assertThat(loaded.getAssets().size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void offsetsTrimThePlayedRange() throws Exception
+    {
+        File projectPath = TestUtils.createTemporaryFolder();
+        File projectFile = TestUtils.createTemporaryFile(projectPath, "scproj");
+        File wav = TestUtils.writeSilentWave(projectPath, 44100, 2, 44100);
+
+        Project p = new Project(projectFile.getAbsolutePath());
+        SampledAudioCue cue = new SampledAudioCue(new CueNumber(1));
+        cue.consumeProjectPath(projectPath.getAbsolutePath());
+        cue.setSource(wav.getAbsolutePath());
+        cue.setStartOffset(Duration.millis(250));
+        cue.setEndOffset(Duration.millis(100));
+        p.iterator().next().add(cue);
+
+        assertThat(cue.getDuration(), is(equalTo(Duration.millis(650))));
+
+        p.save();
+        p.close();
+
+        Project loaded = new Project(projectFile.getAbsolutePath());
+        try
+        {
+            SampledAudioCue loadedCue = (SampledAudioCue) loaded.iterator().next().first();
+            assertThat(loadedCue.getStartOffset(), is(equalTo(Duration.millis(250))));
+            assertThat(loadedCue.getEndOffset(), is(equalTo(Duration.millis(100))));
+
+            loadedCue.prepare();
+            loadedCue.seekAbsolute(Duration.millis(600));
+            assertThat(loadedCue.getProgress(), is(equalTo(Duration.millis(600))));
+
+            loadedCue.seekAbsolute(Duration.seconds(5));
+            assertThat(loadedCue.getProgress(), is(equalTo(Duration.millis(650))));
+        }
+        finally
+        {
+            loaded.close();
+        }
+    }
+
+    @Test
+    public void opensBackendOnlyWhenPrepared() throws Exception
+    {
+        File projectPath = TestUtils.createTemporaryFolder();
+        File wav = TestUtils.writeSilentWave(projectPath, 44100, 2, 4410);
+
+        SampledAudioCue cue = new SampledAudioCue(new CueNumber(1));
+        cue.consumeProjectPath(projectPath.getAbsolutePath());
+        cue.setSource(wav.getAbsolutePath());
+
+        try
+        {
+            assertThat(cue.isPrepared(), is(false));
+
+            cue.prepare();
+            assertThat(cue.isPrepared(), is(true));
+
+            cue.release();
+            assertThat(cue.isPrepared(), is(false));
+            assertThat(cue.getDuration(), is(equalTo(Duration.millis(100))));
+        }
+        finally
+        {
+            cue.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.media;
+
+import org.junit.Test;
+import soundclip.core.media.AssetRegistry;
+import soundclip.core.media.MediaAsset;
+import soundclip.core.media.MediaMetadataCache;
+import soundclip.core.tests.TestUtils;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.media.AssetRegistry}
+ */
+public class AssetRegistryTests
+{
+    @Test
+    public void sharesFilesWithTheSameContents() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File a = TestUtils.writeSilentWave(dir, 44100, 2, 4410);
+        File b = TestUtils.writeSilentWave(dir, 44100, 2, 4410);
+        AssetRegistry registry = new AssetRegistry(null);
+
+        MediaAsset first = registry.acquire(a);
+        MediaAsset second = registry.acquire(b);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(first.getFile(), is(equalTo(a.getCanonicalFile())));
+        assertThat(first.getReferenceCount(), is(equalTo(2)));
+        assertThat(registry.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void separatesFilesWithDifferentContents() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File a = TestUtils.writeSilentWave(dir, 44100, 2, 4410);
+        File b = TestUtils.writeSilentWave(dir, 44100, 2, 8820);
+        AssetRegistry registry = new AssetRegistry(null);
+
+        assertThat(registry.acquire(a), is(not(sameInstance(registry.acquire(b)))));
+        assertThat(registry.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void freesAssetsWhenTheLastReferenceIsReleased() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File a = TestUtils.writeSilentWave(dir, 44100, 2, 4410);
+        AssetRegistry registry = new AssetRegistry(null);
+
+        MediaAsset asset = registry.acquire(a);
+        registry.acquire(a);
+        FileChannel channel = asset.getChannel();
+
+        registry.release(asset);
+        assertThat(registry.size(), is(equalTo(1)));
+        assertThat(channel.isOpen(), is(true));
+
+        registry.release(asset);
+        assertThat(registry.size(), is(equalTo(0)));
+        assertThat(channel.isOpen(), is(false));
+        assertThat(registry.acquire(a), is(not(sameInstance(asset))));
+    }
+
+    @Test
+    public void remembersHashesInTheMetadataCache() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File a = TestUtils.writeSilentWave(dir, 48000, 1, 4800);
+        MediaMetadataCache metadata = new MediaMetadataCache(dir);
+
+        MediaAsset asset = new AssetRegistry(metadata).acquire(a);
+
+        assertThat(metadata.get(a).getContentHash(), is(equalTo(asset.getHash())));
+        assertThat(metadata.get(a).getContentHash(), is(equalTo(AssetRegistry.hash(a))));
+        assertThat(metadata.get(a).getChannels(), is(equalTo(1)));
+    }
+
+    @Test
+    public void hashesNewFilesInTheBackground() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File a = TestUtils.writeSilentWave(dir, 44100, 2, 4410);
+        List<Runnable> hashes = new ArrayList<>();
+        AssetRegistry registry = new AssetRegistry(null, hashes::add);
+
+        CompletableFuture<MediaAsset> first = registry.acquireAsync(a);
+        CompletableFuture<MediaAsset> second = registry.acquireAsync(a);
+
+        // Both wait on the one hash of the file
+        assertThat(first.isDone(), is(false));
+        assertThat(hashes, hasSize(1));
+
+        hashes.get(0).run();
+
+        assertThat(first.get(), is(sameInstance(second.get())));
+        assertThat(first.get().getHash(), is(equalTo(AssetRegistry.hash(a))));
+        assertThat(first.get().getReferenceCount(), is(equalTo(2)));
+    }
+
+    @Test
+    public void sharesCachedHashesStraightAway() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File a = TestUtils.writeSilentWave(dir, 44100, 2, 4410);
+        MediaMetadataCache metadata = new MediaMetadataCache(dir);
+        MediaAsset hashed = new AssetRegistry(metadata).acquire(a);
+
+        CompletableFuture<MediaAsset> cached = new AssetRegistry(metadata, (r) -> { throw new AssertionError("Hashed again"); }).acquireAsync(a);
+
+        assertThat(cached.isDone(), is(true));
+        assertThat(cached.get().getHash(), is(equalTo(hashed.getHash())));
+    }
+}
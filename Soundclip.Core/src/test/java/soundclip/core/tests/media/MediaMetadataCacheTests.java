@@ -0,0 +1,155 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.media;
+
+import javafx.util.Duration;
+import org.junit.Test;
+import soundclip.core.media.MediaMetadata;
+import soundclip.core.media.MediaMetadataCache;
+import soundclip.core.tests.TestUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.media.MediaMetadataCache}
+ */
+public class MediaMetadataCacheTests
+{
+    @Test
+    public void probesAudioSystemFiles() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File wav = TestUtils.writeSilentWave(dir, 48000, 2, 24000);
+        MediaMetadataCache cache = new MediaMetadataCache(dir);
+
+        MediaMetadata m = cache.getOrProbe(wav);
+
+        assertThat(m.getDuration(), is(equalTo(Duration.millis(500))));
+        assertThat(m.getChannels(), is(equalTo(2)));
+        assertThat(m.getSampleRate(), is(equalTo(48000f)));
+        assertThat(cache.isDirty(), is(true));
+        assertThat(cache.get(wav), is(sameInstance(m)));
+    }
+
+    @Test
+    public void returnsNullForUnreadableFiles() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File f = TestUtils.createTemporaryFile(dir, ".mp3");
+
+        assertThat(new MediaMetadataCache(dir).getOrProbe(f), is(nullValue()));
+    }
+
+    @Test
+    public void roundTripsThroughTheSidecar() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File wav = TestUtils.writeSilentWave(dir, 44100, 1, 44100);
+        File other = TestUtils.createTemporaryFile(dir, ".mp3");
+        File sidecar = new File(dir, "project.scproj" + MediaMetadataCache.EXTENSION);
+
+        MediaMetadataCache cache = new MediaMetadataCache(dir);
+        cache.getOrProbe(wav);
+        cache.put(other, MediaMetadata.of(other, Duration.seconds(90)));
+        cache.save(sidecar);
+        assertThat(cache.isDirty(), is(false));
+
+        MediaMetadataCache loaded = new MediaMetadataCache(dir);
+        loaded.load(sidecar);
+
+        assertThat(loaded.size(), is(equalTo(2)));
+        assertThat(loaded.get(wav).getDuration(), is(equalTo(Duration.seconds(1))));
+        assertThat(loaded.get(wav).getChannels(), is(equalTo(1)));
+        assertThat(loaded.get(other).getDuration(), is(equalTo(Duration.seconds(90))));
+        assertThat(loaded.get(other).getCodec(), is(equalTo("MP3")));
+    }
+
+    @Test
+    public void ignoresChangedFiles() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File f = TestUtils.createTemporaryFile(dir, ".mp3");
+        MediaMetadataCache cache = new MediaMetadataCache(dir);
+        cache.put(f, MediaMetadata.of(f, Duration.seconds(1)));
+
+        try(FileOutputStream out = new FileOutputStream(f, true))
+        {
+            out.write(new byte[16]);
+        }
+
+        assertThat(cache.get(f), is(nullValue()));
+    }
+
+    @Test
+    public void skipsIncompleteEntries() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File f = TestUtils.createTemporaryFile(dir, ".mp3");
+        File sidecar = new File(dir, "project.scproj" + MediaMetadataCache.EXTENSION);
+
+        MediaMetadataCache cache = new MediaMetadataCache(dir);
+        cache.put(f, MediaMetadata.of(f, Duration.seconds(1)));
+        cache.save(sidecar);
+
+        String json = new String(Files.readAllBytes(sidecar.toPath()), StandardCharsets.UTF_8);
+        json = json.replace("\"media\" : [", "\"media\" : [ { \"path\" : \"missing.mp3\", \"size\" : 1 }, { \"size\" : 1 },");
+        Files.write(sidecar.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+        MediaMetadataCache loaded = new MediaMetadataCache(dir);
+        loaded.load(sidecar);
+
+        assertThat(loaded.size(), is(equalTo(1)));
+        assertThat(loaded.get(f).getDuration(), is(equalTo(Duration.seconds(1))));
+    }
+
+    @Test
+    public void loadsASidecarWithoutMedia() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File sidecar = new File(dir, "project.scproj" + MediaMetadataCache.EXTENSION);
+        Files.write(sidecar.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+
+        MediaMetadataCache loaded = new MediaMetadataCache(dir);
+        loaded.load(sidecar);
+
+        assertThat(loaded.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void replacesTheSidecarWithoutLeavingTemporaryFiles() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File f = TestUtils.createTemporaryFile(dir, ".mp3");
+        File sidecar = new File(dir, "project.scproj" + MediaMetadataCache.EXTENSION);
+
+        MediaMetadataCache cache = new MediaMetadataCache(dir);
+        cache.put(f, MediaMetadata.of(f, Duration.seconds(1)));
+        cache.save(sidecar);
+        cache.put(f, MediaMetadata.of(f, Duration.seconds(2)));
+        cache.save(sidecar);
+
+        MediaMetadataCache loaded = new MediaMetadataCache(dir);
+        loaded.load(sidecar);
+
+        assertThat(loaded.get(f).getDuration(), is(equalTo(Duration.seconds(2))));
+        assertThat(dir.list((d, name) -> name.endsWith(".tmp")), is(emptyArray()));
+    }
+}
@@ -0,0 +1,165 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.media;
+
+import org.junit.Test;
+import soundclip.core.media.MediaMetadata;
+import soundclip.core.media.MediaMetadataCache;
+import soundclip.core.media.Mp3SeekIndex;
+import soundclip.core.tests.TestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.media.Mp3SeekIndex}
+ */
+public class Mp3SeekIndexTests
+{
+    /** MPEG-1 layer III, 44.1kHz, joint stereo, 128kbps (417 bytes) */
+    private static final int[] FRAME_128 = {0xff, 0xfb, 0x90, 0x40};
+    /** MPEG-1 layer III, 44.1kHz, joint stereo, 320kbps (1044 bytes) */
+    private static final int[] FRAME_320 = {0xff, 0xfb, 0xe0, 0x40};
+
+    private static void frame(ByteArrayOutputStream out, int[] header, int length, String tag)
+    {
+        byte[] frame = new byte[length];
+        for(int i = 0; i < 4; i++) frame[i] = (byte) header[i];
+        if(tag != null) System.arraycopy(tag.getBytes(), 0, frame, 4 + 32, 4);
+
+        out.write(frame, 0, frame.length);
+    }
+
+    /** Write an Info header with a frame count and a LAME tag carrying the encoder delay and padding */
+    private static void lameFrame(ByteArrayOutputStream out, int delay, int padding)
+    {
+        byte[] frame = new byte[417];
+        for(int i = 0; i < 4; i++) frame[i] = (byte) FRAME_128[i];
+        System.arraycopy("Info".getBytes(), 0, frame, 36, 4);
+        frame[43] = 1;
+        System.arraycopy("LAME3.100".getBytes(), 0, frame, 48, 9);
+        frame[48 + 21] = (byte)(delay >>> 4);
+        frame[48 + 22] = (byte)((delay & 0xf) << 4 | padding >>> 8);
+        frame[48 + 23] = (byte) padding;
+
+        out.write(frame, 0, frame.length);
+    }
+
+    /** Write an ID3 tag, a Xing header, then alternating 128 and 320kbps frames */
+    private static File writeVbr(File dir, int frames) throws Exception
+    {
+        return writeVbr(dir, frames, -1, -1);
+    }
+
+    /** As {@link #writeVbr(File, int)}, with a LAME tag if the delay is not negative */
+    private static File writeVbr(File dir, int frames, int delay, int padding) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'I', 'D', '3', 3, 0, 0, 0, 0, 0, 20}, 0, 10);
+        out.write(new byte[20], 0, 20);
+        if(delay < 0) frame(out, FRAME_128, 417, "Xing");
+        else lameFrame(out, delay, padding);
+
+        for(int i = 0; i < frames; i++)
+        {
+            if(i % 2 == 0) frame(out, FRAME_128, 417, null);
+            else frame(out, FRAME_320, 1044, null);
+        }
+
+        File f = TestUtils.createTemporaryFile(dir, ".mp3");
+        try(FileOutputStream s = new FileOutputStream(f))
+        {
+            out.writeTo(s);
+        }
+
+        return f;
+    }
+
+    @Test
+    public void countsVariableBitrateFrames() throws Exception
+    {
+        Mp3SeekIndex index = Mp3SeekIndex.scan(writeVbr(TestUtils.createTemporaryFolder(), 100));
+
+        assertThat(index.getFrameCount(), is(equalTo(100L)));
+        assertThat(index.getSampleRate(), is(equalTo(44100)));
+        assertThat(index.getChannels(), is(equalTo(2)));
+        assertThat(index.getSamplesPerFrame(), is(equalTo(1152)));
+        assertThat(index.getFrameLength(), is(equalTo(100L * 1152)));
+    }
+
+    @Test
+    public void removesTheEncoderDelayAndPadding() throws Exception
+    {
+        Mp3SeekIndex index = Mp3SeekIndex.scan(writeVbr(TestUtils.createTemporaryFolder(), 100, 576, 1500));
+
+        assertThat(index.getFrameCount(), is(equalTo(100L)));
+        assertThat(index.getEncoderDelay(), is(equalTo(576)));
+        assertThat(index.getEncoderPadding(), is(equalTo(1500)));
+        assertThat(index.getFrameLength(), is(equalTo(100L * 1152 - 576 - 1500)));
+    }
+
+    @Test
+    public void seeksFromTheNearestIndexedFrame() throws Exception
+    {
+        Mp3SeekIndex index = Mp3SeekIndex.scan(writeVbr(TestUtils.createTemporaryFolder(), 100, 576, 1500));
+
+        // The first audio frame follows the ID3 tag and the Info frame
+        Mp3SeekIndex.SeekPoint start = index.seek(0);
+        assertThat(start.getByteOffset(), is(equalTo(30L + 417)));
+        assertThat(start.getDiscard(), is(equalTo(576L)));
+
+        // Frame 40 is decoded from frame 32, the last indexed frame at least a few frames before it
+        Mp3SeekIndex.SeekPoint middle = index.seek(40 * 1152);
+        assertThat(middle.getByteOffset(), is(equalTo(30L + 417 + 16 * (417 + 1044))));
+        assertThat(middle.getDiscard(), is(equalTo(8L * 1152 + 576)));
+    }
+
+    @Test
+    public void ignoresFilesWithoutFrames() throws Exception
+    {
+        File f = TestUtils.createTemporaryFile(TestUtils.createTemporaryFolder(), ".mp3");
+        try(FileOutputStream s = new FileOutputStream(f))
+        {
+            s.write("not an mp3 file".getBytes());
+        }
+
+        assertThat(Mp3SeekIndex.scan(f), is(nullValue()));
+    }
+
+    @Test
+    public void isCachedWithTheMetadata() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File mp3 = writeVbr(dir, 100, 576, 1500);
+        File sidecar = new File(dir, "project.scproj" + MediaMetadataCache.EXTENSION);
+
+        MediaMetadataCache cache = new MediaMetadataCache(dir);
+        MediaMetadata m = cache.getOrProbe(mp3);
+        assertThat(m.getDuration().toMillis(), is(closeTo((100 * 1152 - 576 - 1500) / 44.1, 1e-6)));
+        cache.save(sidecar);
+
+        MediaMetadataCache loaded = new MediaMetadataCache(dir);
+        loaded.load(sidecar);
+        Mp3SeekIndex index = loaded.get(mp3).getSeekIndex();
+
+        assertThat(index.getFrameCount(), is(equalTo(100L)));
+        assertThat(index.getFrameLength(), is(equalTo(m.getSeekIndex().getFrameLength())));
+        assertThat(index.seek(90 * 1152).getByteOffset(), is(equalTo(m.getSeekIndex().seek(90 * 1152).getByteOffset())));
+    }
+}
@@ -0,0 +1,85 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import soundclip.core.playback.ISampleSource;
+
+import java.util.Arrays;
+
+/**
+ * An in-memory {@link ISampleSource} for tests
+ */
+public class ArraySampleSource implements ISampleSource
+{
+    private final float[] samples;
+    private final int channels;
+    private final float sampleRate;
+    private int position = 0;
+
+    public ArraySampleSource(float[] samples, int channels, float sampleRate)
+    {
+        this.samples = samples;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+    }
+
+    /** @return a mono source of the specified length where every sample is {@param value} */
+    public static ArraySampleSource constant(float value, int frames, float sampleRate)
+    {
+        float[] samples = new float[frames];
+        Arrays.fill(samples, value);
+        return new ArraySampleSource(samples, 1, sampleRate);
+    }
+
+    @Override
+    public int getChannels()
+    {
+        return channels;
+    }
+
+    @Override
+    public float getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    @Override
+    public long getFrameLength()
+    {
+        return samples.length / channels;
+    }
+
+    @Override
+    public int read(float[] destination, int offset, int frames)
+    {
+        int available = samples.length / channels - position;
+        if(available <= 0) return -1;
+
+        int n = Math.min(frames, available);
+        System.arraycopy(samples, position * channels, destination, offset, n * channels);
+        position += n;
+
+        return n;
+    }
+
+    @Override
+    public void seek(long frame)
+    {
+        position = (int) Math.min(frame, samples.length / channels);
+    }
+
+    @Override
+    public void close() { }
+}
@@ -0,0 +1,241 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import com.sun.management.ThreadMXBean;
+import javafx.util.Duration;
+import org.junit.Test;
+import soundclip.core.playback.AudioEngine;
+import soundclip.core.playback.IVoice;
+import soundclip.core.playback.SourceVoice;
+
+import java.lang.management.ManagementFactory;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for {@link soundclip.core.playback.AudioEngine}
+ */
+public class AudioEngineTests
+{
+    private static final int FRAMES = 256;
+
+    @Test
+    public void rendersSilenceWithNoVoices()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] out = new float[FRAMES * AudioEngine.CHANNELS];
+        out[0] = 1.0f;
+
+        engine.render(out, FRAMES);
+
+        for(float s : out) assertThat(s, is(equalTo(0.0f)));
+    }
+
+    @Test
+    public void mixesAllVoices()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] out = new float[FRAMES * AudioEngine.CHANNELS];
+
+        new SourceVoice(engine, ArraySampleSource.constant(0.25f, 4096, AudioEngine.SAMPLE_RATE)).play();
+        new SourceVoice(engine, ArraySampleSource.constant(0.5f, 4096, AudioEngine.SAMPLE_RATE)).play();
+
+        engine.render(out, FRAMES);
+
+        assertThat(engine.getVoiceCount(), is(equalTo(2)));
+        for(float s : out) assertThat((double) s, is(closeTo(0.75, 1e-6)));
+    }
+
+    @Test
+    public void dropsVoicesThatFinish()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] out = new float[FRAMES * AudioEngine.CHANNELS];
+
+        engine.play(new IVoice()
+        {
+            private int blocks = 2;
+
+            @Override
+            public boolean render(float[] accumulator, int frames)
+            {
+                return --blocks > 0;
+            }
+        });
+
+        engine.render(out, FRAMES);
+        assertThat(engine.getVoiceCount(), is(equalTo(1)));
+
+        engine.render(out, FRAMES);
+        assertThat(engine.getVoiceCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void removesVoicesOnRequest()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] out = new float[FRAMES * AudioEngine.CHANNELS];
+        IVoice voice = (accumulator, frames) -> true;
+
+        engine.play(voice);
+        engine.render(out, FRAMES);
+        assertThat(engine.getVoiceCount(), is(equalTo(1)));
+
+        engine.remove(voice);
+        engine.render(out, FRAMES);
+        assertThat(engine.getVoiceCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void renderDoesNotAllocate()
+    {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] out = new float[FRAMES * AudioEngine.CHANNELS];
+
+        for(int i = 0; i < 32; i++)
+        {
+            new SourceVoice(engine, ArraySampleSource.constant(0.01f, 1 << 18, 48000f)).play();
+        }
+
+        // Warm up so the voices are attached and the render path is compiled
+        for(int i = 0; i < 500; i++) engine.render(out, FRAMES);
+
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for(int i = 0; i < 100; i++) engine.render(out, FRAMES);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        assertThat(engine.getVoiceCount(), is(equalTo(32)));
+        assertThat(allocated, is(lessThan(1024L)));
+    }
+
+    @Test
+    public void hardPanicSilencesEveryVoiceWithinOneBlock()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] out = new float[FRAMES * AudioEngine.CHANNELS];
+        SourceVoice[] voices = new SourceVoice[32];
+
+        for(int i = 0; i < voices.length; i++)
+        {
+            voices[i] = new SourceVoice(engine, ArraySampleSource.constant(0.01f, 1 << 16, AudioEngine.SAMPLE_RATE));
+            voices[i].play();
+        }
+        engine.render(out, FRAMES);
+
+        engine.panic(Duration.seconds(3), true);
+        assertThat(voices[0].isReleasing(), is(true));
+
+        engine.render(out, FRAMES);
+
+        assertThat(engine.getVoiceCount(), is(equalTo(0)));
+        // Ramped down to the last step across the block, from a mix of 0.32
+        assertThat((double) out[out.length - 2], is(lessThan(0.32 / FRAMES + 1e-6)));
+        assertThat(engine.getLastPanicLatency().isUnknown(), is(false));
+        for(SourceVoice v : voices)
+        {
+            assertThat(v.isActive(), is(false));
+            assertThat(v.wasReleased(), is(true));
+        }
+
+        engine.render(out, FRAMES);
+        for(float s : out) assertThat(s, is(equalTo(0.0f)));
+    }
+
+    @Test
+    public void softPanicFadesEveryVoiceTogether()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] out = new float[FRAMES * AudioEngine.CHANNELS];
+
+        new SourceVoice(engine, ArraySampleSource.constant(0.25f, 1 << 16, AudioEngine.SAMPLE_RATE)).play();
+        new SourceVoice(engine, ArraySampleSource.constant(0.25f, 1 << 16, AudioEngine.SAMPLE_RATE)).play();
+        engine.render(out, FRAMES);
+
+        engine.panic(Duration.seconds(4 * FRAMES / AudioEngine.SAMPLE_RATE), false);
+        engine.render(out, FRAMES);
+        engine.render(out, FRAMES);
+
+        assertThat(engine.getVoiceCount(), is(equalTo(2)));
+        assertThat((double) out[out.length - 2], is(both(greaterThan(0.0)).and(lessThan(0.5))));
+
+        engine.render(out, FRAMES);
+        engine.render(out, FRAMES);
+
+        assertThat(engine.getVoiceCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void panicRemovesVoicesThatCannotFade()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] out = new float[FRAMES * AudioEngine.CHANNELS];
+
+        engine.play((accumulator, frames) -> true);
+        engine.render(out, FRAMES);
+
+        engine.panic(Duration.seconds(1), false);
+        engine.render(out, FRAMES);
+
+        assertThat(engine.getVoiceCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void panicToSilenceStaysWithinBound() throws Exception
+    {
+        // The bound can be tightened or relaxed for the machine the tests are run on
+        long bound = Long.getLong("soundclip.panicBoundMillis", 50L);
+
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, AudioEngine.DEFAULT_BUFFER_SIZE);
+        try
+        {
+            for(int i = 0; i < 64; i++)
+            {
+                new SourceVoice(engine, ArraySampleSource.constant(0.001f, 1 << 20, AudioEngine.SAMPLE_RATE)).play();
+            }
+
+            engine.start();
+            while(engine.getVoiceCount() < 64) Thread.sleep(5);
+
+            for(int attempt = 0; attempt < 5; attempt++)
+            {
+                engine.panic(Duration.seconds(3), true);
+
+                long deadline = System.currentTimeMillis() + 2000;
+                while(engine.getVoiceCount() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+
+                for(int i = 0; i < 64; i++)
+                {
+                    new SourceVoice(engine, ArraySampleSource.constant(0.001f, 1 << 20, AudioEngine.SAMPLE_RATE)).play();
+                }
+                while(engine.getVoiceCount() < 64) Thread.sleep(5);
+            }
+
+            assertThat(engine.getWorstPanicLatency().isUnknown(), is(false));
+            assertThat(engine.getWorstPanicLatency().toMillis(), is(lessThan((double) bound)));
+        }
+        finally
+        {
+            engine.close();
+        }
+    }
+}
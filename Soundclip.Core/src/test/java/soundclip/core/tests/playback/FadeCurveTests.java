@@ -0,0 +1,87 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import org.junit.Test;
+import soundclip.core.playback.FadeCurve;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.playback.FadeCurve}
+ */
+public class FadeCurveTests
+{
+    @Test
+    public void everyCurveStartsAndEndsOnTheTarget()
+    {
+        for(FadeCurve c : FadeCurve.values())
+        {
+            assertThat(c.interpolate(1.0, 0.0, 0.0), is(equalTo(1.0)));
+            assertThat(c.interpolate(1.0, 0.0, 1.0), is(equalTo(0.0)));
+            assertThat(c.interpolate(0.25, 0.75, 0.0), is(equalTo(0.25)));
+            assertThat(c.interpolate(0.25, 0.75, 1.0), is(equalTo(0.75)));
+        }
+    }
+
+    @Test
+    public void everyCurveIsMonotonic()
+    {
+        for(FadeCurve c : FadeCurve.values())
+        {
+            double last = 0.0;
+            for(int i = 0; i <= 10000; i++)
+            {
+                double v = c.apply(i / 10000.0);
+                assertThat(c + " at " + i, v, is(greaterThanOrEqualTo(last)));
+                last = v;
+            }
+        }
+    }
+
+    @Test
+    public void tablesMatchTheCurves()
+    {
+        for(int i = 0; i <= 1000; i++)
+        {
+            double t = i / 1000.0;
+            assertThat(FadeCurve.LINEAR.apply(t), is(closeTo(t, 1e-6)));
+            assertThat(FadeCurve.EQUAL_POWER.apply(t), is(closeTo(Math.sin(t * Math.PI / 2.0), 1e-5)));
+            assertThat(FadeCurve.S_CURVE.apply(t), is(closeTo(t * t * (3.0 - 2.0 * t), 1e-5)));
+        }
+    }
+
+    @Test
+    public void equalPowerFadesKeepConstantPower()
+    {
+        for(int i = 0; i <= 100; i++)
+        {
+            double t = i / 100.0;
+            double in = FadeCurve.EQUAL_POWER.interpolate(0.0, 1.0, t);
+            double out = FadeCurve.EQUAL_POWER.interpolate(1.0, 0.0, t);
+
+            assertThat(in * in + out * out, is(closeTo(1.0, 1e-4)));
+        }
+    }
+
+    @Test
+    public void logarithmicFadesAreLinearInDecibels()
+    {
+        // Halfway through a 60dB fade out should be about 30dB down. The curve is shifted slightly to end on silence
+        double half = FadeCurve.LOGARITHMIC.interpolate(1.0, 0.0, 0.5);
+        assertThat(20.0 * Math.log10(half), is(closeTo(-30.0, 0.5)));
+    }
+}
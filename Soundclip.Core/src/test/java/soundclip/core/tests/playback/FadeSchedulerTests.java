@@ -0,0 +1,295 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import com.sun.management.ThreadMXBean;
+import javafx.util.Duration;
+import org.junit.Test;
+import soundclip.core.playback.FadeCurve;
+import soundclip.core.playback.FadeScheduler;
+import soundclip.core.playback.IFadeTarget;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for {@link soundclip.core.playback.FadeScheduler}
+ */
+public class FadeSchedulerTests
+{
+    private static final float RATE = 1000f;
+
+    private static class Gain implements IFadeTarget
+    {
+        double value;
+
+        Gain(double value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public double getGain()
+        {
+            return value;
+        }
+
+        @Override
+        public void setGain(double gain)
+        {
+            value = gain;
+        }
+    }
+
+    private static FadeScheduler scheduler()
+    {
+        return new FadeScheduler(RATE, Runnable::run);
+    }
+
+    @Test
+    public void reachesTheTargetAfterTheFullLength()
+    {
+        FadeScheduler fades = scheduler();
+        Gain g = new Gain(1.0);
+
+        fades.fade(g, 0.0, Duration.seconds(1), null);
+        fades.advance(500);
+
+        assertThat(g.value, is(closeTo(0.5, 1e-9)));
+        assertThat(fades.getElapsed(g), is(equalTo(Duration.millis(500))));
+
+        fades.advance(500);
+
+        assertThat(g.value, is(equalTo(0.0)));
+        assertThat(fades.isFading(g), is(false));
+        assertThat(fades.getElapsed(g), is(equalTo(Duration.UNKNOWN)));
+    }
+
+    @Test
+    public void followsTheRequestedCurve()
+    {
+        FadeScheduler fades = scheduler();
+        Gain g = new Gain(0.0);
+
+        fades.fade(g, 1.0, Duration.seconds(1), FadeCurve.EQUAL_POWER, null);
+        fades.advance(500);
+
+        assertThat(g.value, is(closeTo(Math.sqrt(0.5), 1e-5)));
+    }
+
+    @Test
+    public void runsTheCompletionCallbackOnlyWhenFinished()
+    {
+        FadeScheduler fades = scheduler();
+        Gain g = new Gain(0.0);
+        int[] completed = new int[1];
+
+        fades.fade(g, 1.0, Duration.millis(100), () -> completed[0]++);
+        fades.advance(50);
+        assertThat(completed[0], is(equalTo(0)));
+
+        fades.advance(100);
+        assertThat(completed[0], is(equalTo(1)));
+        assertThat(g.value, is(equalTo(1.0)));
+    }
+
+    @Test
+    public void pauseHoldsTheGain()
+    {
+        FadeScheduler fades = scheduler();
+        Gain g = new Gain(1.0);
+
+        fades.fade(g, 0.0, Duration.seconds(1), null);
+        fades.advance(250);
+        double held = g.value;
+
+        fades.pause(g);
+        fades.advance(500);
+
+        assertThat(g.value, is(equalTo(held)));
+        assertThat(fades.isPaused(g), is(true));
+
+        fades.resume(g);
+        fades.advance(750);
+
+        assertThat(g.value, is(equalTo(0.0)));
+    }
+
+    @Test
+    public void cancelLeavesTheGainWithoutCompleting()
+    {
+        FadeScheduler fades = scheduler();
+        Gain g = new Gain(1.0);
+        int[] completed = new int[1];
+
+        fades.fade(g, 0.0, Duration.seconds(1), () -> completed[0]++);
+        fades.advance(500);
+
+        assertThat(fades.cancel(g), is(true));
+        fades.advance(1000);
+
+        assertThat(g.value, is(closeTo(0.5, 1e-9)));
+        assertThat(completed[0], is(equalTo(0)));
+        assertThat(fades.cancel(g), is(false));
+    }
+
+    @Test
+    public void refadingATargetReplacesItsFade()
+    {
+        FadeScheduler fades = scheduler();
+        Gain g = new Gain(1.0);
+
+        fades.fade(g, 0.0, Duration.seconds(1), null);
+        fades.advance(500);
+        fades.fade(g, 1.0, Duration.seconds(1), null);
+
+        assertThat(fades.getActiveCount(), is(equalTo(1)));
+
+        fades.advance(1000);
+        assertThat(g.value, is(equalTo(1.0)));
+    }
+
+    @Test
+    public void runsManyFadesAtOnce()
+    {
+        FadeScheduler fades = scheduler();
+        Gain[] gains = new Gain[FadeScheduler.MAX_FADES];
+
+        for(int i = 0; i < gains.length; i++)
+        {
+            gains[i] = new Gain(1.0);
+            fades.fade(gains[i], 0.0, Duration.millis(i + 1), null);
+        }
+
+        assertThat(fades.getActiveCount(), is(equalTo(FadeScheduler.MAX_FADES)));
+
+        fades.advance(FadeScheduler.MAX_FADES);
+
+        assertThat(fades.getActiveCount(), is(equalTo(0)));
+        for(Gain g : gains) assertThat(g.value, is(equalTo(0.0)));
+    }
+
+    @Test
+    public void startsFadesOnTheNextBlock()
+    {
+        FadeScheduler fades = scheduler();
+        Gain g = new Gain(1.0);
+
+        fades.fade(g, 0.0, Duration.seconds(1), null);
+
+        // Nothing touches the target until the render thread picks the fade up
+        assertThat(g.value, is(equalTo(1.0)));
+        assertThat(fades.isFading(g), is(true));
+
+        g.value = 0.5;
+        fades.advance(500);
+
+        assertThat(g.value, is(closeTo(0.25, 1e-9)));
+    }
+
+    @Test
+    public void dropsTheCompletionOfAFadeCancelledBeforeItRuns()
+    {
+        List<Runnable> queued = new ArrayList<>();
+        FadeScheduler fades = new FadeScheduler(RATE, queued::add);
+        Gain g = new Gain(1.0);
+        int[] completed = new int[1];
+
+        fades.fade(g, 0.0, Duration.millis(100), () -> completed[0]++);
+        fades.advance(100);
+
+        assertThat(fades.isFading(g), is(false));
+        assertThat(fades.cancel(g), is(false));
+
+        queued.forEach(Runnable::run);
+        assertThat(completed[0], is(equalTo(0)));
+    }
+
+    @Test
+    public void jumpsToTheTargetPastTheLimit()
+    {
+        FadeScheduler fades = scheduler();
+        for(int i = 0; i < FadeScheduler.MAX_FADES; i++) fades.fade(new Gain(1.0), 0.0, Duration.seconds(1), null);
+
+        Gain extra = new Gain(1.0);
+        fades.fade(extra, 0.0, Duration.seconds(1), null);
+
+        assertThat(extra.value, is(equalTo(0.0)));
+        assertThat(fades.isFading(extra), is(false));
+    }
+
+    @Test
+    public void reusesTheSlotsOfCancelledAndReplacedFades()
+    {
+        FadeScheduler fades = scheduler();
+        Gain g = new Gain(1.0);
+
+        // More fades than there are slots, each replaced or cancelled before the next block
+        for(int i = 0; i < FadeScheduler.MAX_FADES * 4; i++)
+        {
+            fades.fade(g, 0.0, Duration.seconds(1), null);
+            fades.fade(g, 0.5, Duration.seconds(1), null);
+            if(i % 2 == 0) fades.cancel(g);
+            fades.advance(1);
+        }
+
+        fades.fade(g, 1.0, Duration.millis(10), null);
+        fades.advance(10);
+
+        assertThat(g.value, is(equalTo(1.0)));
+        assertThat(fades.getActiveCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void fadingDoesNotAllocate()
+    {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        FadeScheduler fades = scheduler();
+        Gain[] gains = new Gain[32];
+        for(int i = 0; i < gains.length; i++) gains[i] = new Gain(1.0);
+
+        Duration length = Duration.millis(20);
+        int[] completed = new int[1];
+        Runnable onComplete = () -> completed[0]++;
+
+        // Start, replace, cancel and finish fades, warming up so the paths are compiled
+        Runnable cycle = () -> {
+            for(int i = 0; i < gains.length; i++)
+            {
+                fades.fade(gains[i], 0.0, length, onComplete);
+                if(i % 4 == 0) fades.fade(gains[i], 1.0, length, onComplete);
+                if(i % 8 == 0) fades.cancel(gains[i]);
+            }
+            for(int i = 0; i < 4; i++) fades.advance(10);
+        };
+        for(int i = 0; i < 2000; i++) cycle.run();
+
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for(int i = 0; i < 100; i++) cycle.run();
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        assertThat(completed[0], is(greaterThan(0)));
+        assertThat(allocated, is(lessThan(1024L)));
+    }
+}
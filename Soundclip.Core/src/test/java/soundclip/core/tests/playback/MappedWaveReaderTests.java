@@ -0,0 +1,152 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import org.junit.Test;
+import soundclip.core.playback.ISampleSource;
+import soundclip.core.playback.MappedWaveReader;
+import soundclip.core.playback.SampleCache;
+import soundclip.core.playback.SampleSources;
+import soundclip.core.playback.StreamSampleSource;
+import soundclip.core.tests.TestUtils;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.playback.MappedWaveReader}
+ */
+public class MappedWaveReaderTests
+{
+    /** Write a mono 16-bit file where every sample is its frame index */
+    private static File writeRamp(AudioFileFormat.Type type, boolean bigEndian, int frames) throws Exception
+    {
+        AudioFormat format = new AudioFormat(44100, 16, 1, true, bigEndian);
+        byte[] data = new byte[frames * 2];
+        for(int i = 0; i < frames; i++)
+        {
+            byte lo = (byte) i;
+            byte hi = (byte) (i >> 8);
+            data[2 * i] = bigEndian ? hi : lo;
+            data[2 * i + 1] = bigEndian ? lo : hi;
+        }
+
+        return TestUtils.writeAudio(TestUtils.createTemporaryFolder(), type, format, data);
+    }
+
+    @Test
+    public void readsWaveHeader() throws Exception
+    {
+        File wav = TestUtils.writeSilentWave(TestUtils.createTemporaryFolder(), 48000, 2, 1234);
+
+        try(MappedWaveReader reader = new MappedWaveReader(wav))
+        {
+            assertThat(reader.getChannels(), is(equalTo(2)));
+            assertThat(reader.getSampleRate(), is(equalTo(48000f)));
+            assertThat(reader.getFrameLength(), is(equalTo(1234L)));
+        }
+    }
+
+    @Test
+    public void readsWaveSamples() throws Exception
+    {
+        try(MappedWaveReader reader = new MappedWaveReader(writeRamp(AudioFileFormat.Type.WAVE, false, 1000)))
+        {
+            float[] buffer = new float[1000];
+
+            assertThat(reader.read(buffer, 0, 1000), is(equalTo(1000)));
+            for(int i = 0; i < 1000; i++) assertThat(buffer[i], is(equalTo(i / 32768.0f)));
+            assertThat(reader.read(buffer, 0, 1000), is(equalTo(-1)));
+        }
+    }
+
+    @Test
+    public void readsAiffSamples() throws Exception
+    {
+        try(MappedWaveReader reader = new MappedWaveReader(writeRamp(AudioFileFormat.Type.AIFF, true, 1000)))
+        {
+            float[] buffer = new float[1000];
+
+            assertThat(reader.getSampleRate(), is(equalTo(44100f)));
+            assertThat(reader.read(buffer, 0, 1000), is(equalTo(1000)));
+            for(int i = 0; i < 1000; i++) assertThat(buffer[i], is(equalTo(i / 32768.0f)));
+        }
+    }
+
+    @Test
+    public void remapsAsThePlayheadAdvances() throws Exception
+    {
+        // 100 frames per window
+        try(MappedWaveReader reader = new MappedWaveReader(writeRamp(AudioFileFormat.Type.WAVE, false, 1000), 200))
+        {
+            float[] buffer = new float[250];
+
+            assertThat(reader.read(buffer, 0, 250), is(equalTo(250)));
+            assertThat(reader.getWindowStart(), is(equalTo(200L)));
+            for(int i = 0; i < 250; i++) assertThat(buffer[i], is(equalTo(i / 32768.0f)));
+        }
+    }
+
+    @Test
+    public void seeksAcrossWindows() throws Exception
+    {
+        try(MappedWaveReader reader = new MappedWaveReader(writeRamp(AudioFileFormat.Type.WAVE, false, 1000), 200))
+        {
+            float[] buffer = new float[10];
+
+            reader.seek(750);
+            assertThat(reader.read(buffer, 0, 10), is(equalTo(10)));
+            assertThat(buffer[0], is(equalTo(750 / 32768.0f)));
+            assertThat(reader.getWindowStart(), is(equalTo(750L)));
+
+            reader.seek(5);
+            reader.read(buffer, 0, 10);
+            assertThat(buffer[0], is(equalTo(5 / 32768.0f)));
+        }
+    }
+
+    @Test(expected = UnsupportedAudioFileException.class)
+    public void rejectsOtherFiles() throws Exception
+    {
+        File f = TestUtils.createTemporaryFile(TestUtils.createTemporaryFolder(), ".wav");
+        try(FileOutputStream out = new FileOutputStream(f))
+        {
+            out.write(new byte[64]);
+        }
+
+        new MappedWaveReader(f);
+    }
+
+    @Test
+    public void factoryPrefersCacheThenMappedThenStream() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File small = TestUtils.writeSilentWave(dir, 44100, 2, 100);
+        File large = TestUtils.writeSilentWave(dir, 44100, 2, 44100);
+        AudioFormat format = new AudioFormat(8000, 16, 1, true, true);
+        File au = TestUtils.writeAudio(dir, AudioFileFormat.Type.AU, format, new byte[1600]);
+        SampleCache cache = new SampleCache(SampleCache.DEFAULT_BUDGET, 1024);
+
+        try(ISampleSource s = SampleSources.open(small, cache)) { assertThat(cache.contains(small), is(true)); }
+        try(ISampleSource s = SampleSources.open(large, cache)) { assertThat(s, is(instanceOf(MappedWaveReader.class))); }
+        try(ISampleSource s = SampleSources.open(au, cache)) { assertThat(s, is(instanceOf(StreamSampleSource.class))); }
+    }
+}
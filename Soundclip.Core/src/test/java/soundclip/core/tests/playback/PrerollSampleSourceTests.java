@@ -0,0 +1,165 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import org.junit.Test;
+import soundclip.core.playback.ISampleSource;
+import soundclip.core.playback.MappedWaveReader;
+import soundclip.core.playback.PrerollCache;
+import soundclip.core.playback.PrerollSampleSource;
+import soundclip.core.playback.SampleCache;
+import soundclip.core.playback.SampleSources;
+import soundclip.core.tests.TestUtils;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link soundclip.core.playback.PrerollSampleSource} and {@link soundclip.core.playback.PrerollCache}
+ */
+public class PrerollSampleSourceTests
+{
+    private static final int FRAMES = 4410;
+
+    /** Write a mono 16-bit file at 44.1kHz where every sample is its frame index */
+    private static File writeRamp(File dir) throws Exception
+    {
+        AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
+        byte[] data = new byte[FRAMES * 2];
+        for(int i = 0; i < FRAMES; i++)
+        {
+            data[2 * i] = (byte) i;
+            data[2 * i + 1] = (byte) (i >> 8);
+        }
+
+        return TestUtils.writeAudio(dir, AudioFileFormat.Type.WAVE, format, data);
+    }
+
+    @Test
+    public void decodesOnlyTheHead() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+        PrerollCache cache = new PrerollCache(10);
+
+        SampleCache.Entry head = cache.load(wav);
+
+        assertThat(head.getFrameLength(), is(equalTo(441L)));
+        assertThat(head.getSourceFrameLength(), is(equalTo((long) FRAMES)));
+        assertThat(cache.get(wav), is(sameInstance(head)));
+    }
+
+    @Test
+    public void playsTheHeadThenTheStream() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+        SampleCache.Entry head = new PrerollCache(10).load(wav);
+        List<Runnable> pending = new ArrayList<>();
+
+        try(PrerollSampleSource source = new PrerollSampleSource(head, () -> new MappedWaveReader(wav), pending::add))
+        {
+            float[] buffer = new float[FRAMES];
+
+            assertThat(source.read(buffer, 0, 1000), is(equalTo(441)));
+            assertThat(buffer[440], is(equalTo(440 / 32768.0f)));
+
+            pending.forEach(Runnable::run);
+            assertThat(source.isStreamReady(), is(true));
+
+            assertThat(source.read(buffer, 0, 100), is(equalTo(100)));
+            assertThat(buffer[0], is(equalTo(441 / 32768.0f)));
+            assertThat(source.getUnderrunCount(), is(equalTo(0L)));
+        }
+    }
+
+    @Test
+    public void playsSilenceUntilTheStreamIsReady() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+        SampleCache.Entry head = new PrerollCache(10).load(wav);
+        List<Runnable> pending = new ArrayList<>();
+
+        try(PrerollSampleSource source = new PrerollSampleSource(head, () -> new MappedWaveReader(wav), pending::add))
+        {
+            float[] buffer = new float[FRAMES];
+
+            source.read(buffer, 0, 441);
+            buffer[0] = 1.0f;
+            assertThat(source.read(buffer, 0, 100), is(equalTo(100)));
+            assertThat(buffer[0], is(equalTo(0.0f)));
+            assertThat(source.getUnderrunCount(), is(equalTo(1L)));
+
+            // The stream picks up where the silence left off
+            pending.forEach(Runnable::run);
+            source.read(buffer, 0, 10);
+            assertThat(buffer[0], is(equalTo(541 / 32768.0f)));
+        }
+    }
+
+    @Test
+    public void seeksIntoTheStream() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+        SampleCache.Entry head = new PrerollCache(10).load(wav);
+
+        try(PrerollSampleSource source = new PrerollSampleSource(head, () -> new MappedWaveReader(wav), Runnable::run))
+        {
+            float[] buffer = new float[10];
+
+            source.seek(3000);
+            source.read(buffer, 0, 10);
+            assertThat(buffer[0], is(equalTo(3000 / 32768.0f)));
+
+            source.seek(10);
+            source.read(buffer, 0, 10);
+            assertThat(buffer[0], is(equalTo(10 / 32768.0f)));
+        }
+    }
+
+    @Test
+    public void closesAStreamThatOpensAfterTheSourceIsClosed() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+        SampleCache.Entry head = new PrerollCache(10).load(wav);
+        ISampleSource stream = spy(ArraySampleSource.constant(0.5f, FRAMES, 44100f));
+        List<Runnable> pending = new ArrayList<>();
+
+        PrerollSampleSource source = new PrerollSampleSource(head, () -> stream, pending::add);
+        source.close();
+        pending.forEach(Runnable::run);
+
+        assertThat(source.isStreamReady(), is(false));
+        verify(stream, times(1)).close();
+    }
+
+    @Test
+    public void factoryUsesTheHeadWhenLoaded() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+        SampleCache cache = new SampleCache(SampleCache.DEFAULT_BUDGET, 0);
+        PrerollCache preroll = new PrerollCache();
+
+        try(ISampleSource s = SampleSources.open(wav, cache, preroll)) { assertThat(s, is(instanceOf(MappedWaveReader.class))); }
+
+        preroll.load(wav);
+        try(ISampleSource s = SampleSources.open(wav, cache, preroll)) { assertThat(s, is(instanceOf(PrerollSampleSource.class))); }
+    }
+}
@@ -0,0 +1,68 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import org.junit.Test;
+import soundclip.core.playback.RangeSampleSource;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.playback.RangeSampleSource}
+ */
+public class RangeSampleSourceTests
+{
+    private static ArraySampleSource ramp(int frames)
+    {
+        float[] samples = new float[frames];
+        for(int i = 0; i < frames; i++) samples[i] = i;
+
+        return new ArraySampleSource(samples, 1, 44100f);
+    }
+
+    @Test
+    public void readsOnlyTheRange() throws Exception
+    {
+        RangeSampleSource range = new RangeSampleSource(ramp(1000), 100, 150);
+        float[] out = new float[100];
+
+        assertThat(range.getFrameLength(), is(equalTo(50L)));
+        assertThat(range.read(out, 0, 100), is(equalTo(50)));
+        assertThat(out[0], is(equalTo(100f)));
+        assertThat(out[49], is(equalTo(149f)));
+        assertThat(range.read(out, 0, 100), is(equalTo(-1)));
+    }
+
+    @Test
+    public void seeksWithinTheRange() throws Exception
+    {
+        RangeSampleSource range = new RangeSampleSource(ramp(1000), 100, 150);
+        float[] out = new float[100];
+
+        range.seek(40);
+        assertThat(range.read(out, 0, 100), is(equalTo(10)));
+        assertThat(out[0], is(equalTo(140f)));
+
+        range.seek(500);
+        assertThat(range.read(out, 0, 100), is(equalTo(-1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedRanges()
+    {
+        new RangeSampleSource(ramp(1000), 150, 100);
+    }
+}
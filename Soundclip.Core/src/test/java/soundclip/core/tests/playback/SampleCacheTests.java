@@ -0,0 +1,123 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import org.junit.Test;
+import soundclip.core.playback.BufferSampleSource;
+import soundclip.core.playback.SampleCache;
+import soundclip.core.tests.TestUtils;
+
+import java.io.File;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.playback.SampleCache}
+ */
+public class SampleCacheTests
+{
+    /** The decoded size of a one second 16-bit stereo file at 44.1kHz */
+    private static final long ONE_SECOND = 44100 * 2 * 2;
+
+    @Test
+    public void countsHitsAndMisses() throws Exception
+    {
+        File wav = TestUtils.writeSilentWave(TestUtils.createTemporaryFolder(), 44100, 2, 44100);
+        SampleCache cache = new SampleCache();
+
+        cache.get(wav);
+        cache.get(wav);
+        cache.get(wav);
+
+        assertThat(cache.getMissCount(), is(equalTo(1L)));
+        assertThat(cache.getHitCount(), is(equalTo(2L)));
+        assertThat(cache.getUsedBytes(), is(equalTo(ONE_SECOND)));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File a = TestUtils.writeSilentWave(dir, 44100, 2, 44100);
+        File b = TestUtils.writeSilentWave(dir, 44100, 2, 44100);
+        File c = TestUtils.writeSilentWave(dir, 44100, 2, 44100);
+        SampleCache cache = new SampleCache(2 * ONE_SECOND, ONE_SECOND);
+
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+
+        assertThat(cache.contains(a), is(true));
+        assertThat(cache.contains(b), is(false));
+        assertThat(cache.contains(c), is(true));
+        assertThat(cache.getUsedBytes(), is(equalTo(2 * ONE_SECOND)));
+    }
+
+    @Test
+    public void doesNotCacheFilesLargerThanTheBudget() throws Exception
+    {
+        File wav = TestUtils.writeSilentWave(TestUtils.createTemporaryFolder(), 44100, 2, 44100);
+        SampleCache cache = new SampleCache(ONE_SECOND / 2, ONE_SECOND / 2);
+
+        SampleCache.Entry e = cache.get(wav);
+
+        assertThat(e.getSize(), is(equalTo(ONE_SECOND)));
+        assertThat(cache.contains(wav), is(false));
+        assertThat(cache.getUsedBytes(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void shrinkingTheBudgetEvicts() throws Exception
+    {
+        File wav = TestUtils.writeSilentWave(TestUtils.createTemporaryFolder(), 44100, 2, 44100);
+        SampleCache cache = new SampleCache();
+
+        cache.get(wav);
+        cache.setBudget(0);
+
+        assertThat(cache.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void preloadsOnlyFilesUnderTheThreshold() throws Exception
+    {
+        File dir = TestUtils.createTemporaryFolder();
+        File small = TestUtils.writeSilentWave(dir, 44100, 2, 4410);
+        File large = TestUtils.writeSilentWave(dir, 44100, 2, 44100);
+        SampleCache cache = new SampleCache(SampleCache.DEFAULT_BUDGET, ONE_SECOND / 2);
+
+        assertThat(cache.shouldPreload(small), is(true));
+        assertThat(cache.shouldPreload(large), is(false));
+    }
+
+    @Test
+    public void sourcesReadIndependently() throws Exception
+    {
+        File wav = TestUtils.writeSilentWave(TestUtils.createTemporaryFolder(), 44100, 2, 1000);
+        SampleCache.Entry e = new SampleCache().get(wav);
+        float[] buffer = new float[2 * 1000];
+
+        BufferSampleSource first = e.open();
+        BufferSampleSource second = e.open();
+
+        assertThat(first.getFrameLength(), is(equalTo(1000L)));
+        assertThat(first.read(buffer, 0, 600), is(equalTo(600)));
+        assertThat(first.read(buffer, 0, 600), is(equalTo(400)));
+        assertThat(first.read(buffer, 0, 600), is(equalTo(-1)));
+        assertThat(second.read(buffer, 0, 600), is(equalTo(600)));
+    }
+}
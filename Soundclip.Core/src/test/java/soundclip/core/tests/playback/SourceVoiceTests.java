@@ -0,0 +1,297 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import org.junit.Test;
+import soundclip.core.cues.IPitchableCue;
+import soundclip.core.playback.AudioEngine;
+import soundclip.core.playback.ResamplerQuality;
+import soundclip.core.playback.SourceVoice;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.playback.SourceVoice}
+ */
+public class SourceVoiceTests
+{
+    private static final int FRAMES = 64;
+
+    @Test
+    public void isNotMixedUntilPlayed()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, 1024, AudioEngine.SAMPLE_RATE));
+
+        engine.render(new float[FRAMES * 2], FRAMES);
+
+        assertThat(engine.getVoiceCount(), is(equalTo(0)));
+        assertThat(voice.isActive(), is(false));
+    }
+
+    @Test
+    public void mapsMonoToBothChannels()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] out = new float[FRAMES * 2];
+
+        new SourceVoice(engine, ArraySampleSource.constant(0.5f, 1024, AudioEngine.SAMPLE_RATE)).play();
+        engine.render(out, FRAMES);
+
+        for(float s : out) assertThat(s, is(equalTo(0.5f)));
+    }
+
+    @Test
+    public void keepsStereoChannelsSeparate()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        float[] samples = new float[1024 * 2];
+        for(int i = 0; i < samples.length; i += 2)
+        {
+            samples[i] = 0.25f;
+            samples[i + 1] = -0.25f;
+        }
+        float[] out = new float[FRAMES * 2];
+
+        new SourceVoice(engine, new ArraySampleSource(samples, 2, AudioEngine.SAMPLE_RATE)).play();
+        engine.render(out, FRAMES);
+
+        for(int i = 0; i < out.length; i += 2)
+        {
+            assertThat(out[i], is(equalTo(0.25f)));
+            assertThat(out[i + 1], is(equalTo(-0.25f)));
+        }
+    }
+
+    @Test
+    public void tracksPosition()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, 1024, AudioEngine.SAMPLE_RATE));
+
+        voice.play();
+        engine.render(new float[FRAMES * 2], FRAMES);
+        engine.render(new float[FRAMES * 2], FRAMES);
+
+        assertThat(voice.getPosition(), is(equalTo(2L * FRAMES)));
+    }
+
+    @Test
+    public void convertsSampleRate()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, 1024, AudioEngine.SAMPLE_RATE * 2));
+
+        voice.play();
+        engine.render(new float[FRAMES * 2], FRAMES);
+
+        assertThat(voice.getPosition(), is(equalTo(2L * FRAMES)));
+    }
+
+    @Test
+    public void rampsToNewGain()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(1.0f, 1024, AudioEngine.SAMPLE_RATE));
+        float[] out = new float[FRAMES * 2];
+
+        voice.play();
+        voice.setGain(0.0);
+        engine.render(out, FRAMES);
+
+        assertThat(out[0], is(equalTo(1.0f)));
+        assertThat((double) out[out.length - 1], is(closeTo(1.0 / FRAMES, 1e-6)));
+
+        engine.render(out, FRAMES);
+        for(float s : out) assertThat(s, is(equalTo(0.0f)));
+    }
+
+    @Test
+    public void pauseDetachesAndPlayResumes()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, 1024, AudioEngine.SAMPLE_RATE));
+
+        voice.play();
+        engine.render(new float[FRAMES * 2], FRAMES);
+        voice.pause();
+        engine.render(new float[FRAMES * 2], FRAMES);
+
+        assertThat(engine.getVoiceCount(), is(equalTo(0)));
+        assertThat(voice.isPaused(), is(true));
+        assertThat(voice.getPosition(), is(equalTo((long) FRAMES)));
+
+        voice.play();
+        engine.render(new float[FRAMES * 2], FRAMES);
+
+        assertThat(engine.getVoiceCount(), is(equalTo(1)));
+        assertThat(voice.getPosition(), is(equalTo(2L * FRAMES)));
+    }
+
+    @Test
+    public void stopsAtEndOfSource()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, FRAMES / 2, AudioEngine.SAMPLE_RATE));
+        float[] out = new float[FRAMES * 2];
+
+        voice.play();
+        engine.render(out, FRAMES);
+
+        assertThat(voice.hasEnded(), is(true));
+        assertThat(voice.isActive(), is(false));
+        assertThat(engine.getVoiceCount(), is(equalTo(0)));
+        assertThat(out[FRAMES - 2], is(equalTo(0.5f)));
+        assertThat(out[FRAMES + 2], is(equalTo(0.0f)));
+    }
+
+    @Test
+    public void seeksWhileStopped()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, 1024, AudioEngine.SAMPLE_RATE));
+
+        voice.seek(512);
+        voice.play();
+        engine.render(new float[FRAMES * 2], FRAMES);
+
+        assertThat(voice.getPosition(), is(equalTo(512L + FRAMES)));
+    }
+
+    @Test
+    public void pansWithConstantPower()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, 1024, AudioEngine.SAMPLE_RATE));
+        float[] out = new float[FRAMES * 2];
+
+        voice.setPan(-1.0);
+        voice.play();
+        engine.render(new float[FRAMES * 2], FRAMES);
+        engine.render(out, FRAMES);
+
+        assertThat((double) out[out.length - 2], is(closeTo(0.5 * Math.sqrt(2.0), 1e-3)));
+        assertThat((double) out[out.length - 1], is(closeTo(0.0, 1e-3)));
+
+        voice.setPan(0.5);
+        engine.render(out = new float[FRAMES * 2], FRAMES);
+        engine.render(out = new float[FRAMES * 2], FRAMES);
+
+        double left = out[0] / 0.5, right = out[1] / 0.5;
+        assertThat(left * left + right * right, is(closeTo(2.0, 1e-3)));
+        assertThat(right, is(greaterThan(left)));
+    }
+
+    @Test
+    public void rateChangesHowFastTheSourceIsRead()
+    {
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, 4096, AudioEngine.SAMPLE_RATE));
+
+        voice.setRate(2.0);
+        voice.play();
+        engine.render(new float[FRAMES * 2], FRAMES);
+
+        assertThat(voice.getPosition(), is(equalTo(FRAMES * 2L)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveRates()
+    {
+        new SourceVoice(new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES), ArraySampleSource.constant(0.5f, 1024, AudioEngine.SAMPLE_RATE)).setRate(0.0);
+    }
+
+    @Test
+    public void everyQualityPreservesAConstantSignal()
+    {
+        for(ResamplerQuality quality : ResamplerQuality.values())
+        {
+            AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+            SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, 4096, 32000f), quality);
+            float[] out = new float[FRAMES * 2];
+
+            voice.setRate(IPitchableCue.rateOf(3.0));
+            voice.play();
+            engine.render(new float[FRAMES * 2], FRAMES);
+            engine.render(out, FRAMES);
+
+            for(float s : out) assertThat(quality.toString(), (double) s, is(closeTo(0.5, 1e-3)));
+        }
+    }
+
+    @Test
+    public void cubicAndSincFollowAHalfRateSine()
+    {
+        float rate = AudioEngine.SAMPLE_RATE / 2;
+        float[] samples = new float[4096];
+        for(int i = 0; i < samples.length; i++) samples[i] = (float) Math.sin(2.0 * Math.PI * 1000.0 * i / rate);
+
+        for(ResamplerQuality quality : new ResamplerQuality[]{ResamplerQuality.CUBIC, ResamplerQuality.SINC})
+        {
+            AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+            float[] out = new float[FRAMES * 2];
+
+            new SourceVoice(engine, new ArraySampleSource(samples, 1, rate), quality).play();
+            engine.render(new float[FRAMES * 2], FRAMES);
+            engine.render(out, FRAMES);
+
+            for(int i = 0; i < FRAMES; i++)
+            {
+                double expected = Math.sin(2.0 * Math.PI * 1000.0 * (FRAMES + i) / AudioEngine.SAMPLE_RATE);
+                assertThat(quality.toString(), (double) out[2 * i], is(closeTo(expected, 0.01)));
+            }
+        }
+    }
+
+    @Test
+    public void sincFiltersWhatWouldAliasWhenPlayedFaster()
+    {
+        // Above the output nyquist frequency once the source is played at twice the rate
+        float[] samples = new float[8192];
+        for(int i = 0; i < samples.length; i++) samples[i] = (float) Math.sin(2.0 * Math.PI * 0.45 * i);
+
+        AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+        SourceVoice voice = new SourceVoice(engine, new ArraySampleSource(samples, 1, AudioEngine.SAMPLE_RATE), ResamplerQuality.SINC);
+        float[] out = new float[FRAMES * 2];
+
+        voice.setRate(2.0);
+        voice.play();
+        engine.render(new float[FRAMES * 2], FRAMES);
+        engine.render(out, FRAMES);
+
+        double power = 0.0;
+        for(int i = 0; i < FRAMES; i++) power += out[2 * i] * out[2 * i];
+
+        assertThat(Math.sqrt(power / FRAMES), is(lessThan(0.05)));
+    }
+
+    @Test
+    public void reachesTheEndOfTheSourceWithEveryQuality()
+    {
+        for(ResamplerQuality quality : ResamplerQuality.values())
+        {
+            AudioEngine engine = new AudioEngine(AudioEngine.SAMPLE_RATE, FRAMES);
+            SourceVoice voice = new SourceVoice(engine, ArraySampleSource.constant(0.5f, FRAMES * 3 + 7, AudioEngine.SAMPLE_RATE), quality);
+
+            voice.setRate(1.7);
+            voice.play();
+            for(int i = 0; i < 4; i++) engine.render(new float[FRAMES * 2], FRAMES);
+
+            assertThat(quality.toString(), voice.hasEnded(), is(true));
+            assertThat(quality.toString(), voice.getPosition(), is(equalTo(FRAMES * 3L + 7)));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.core.tests.playback;
+
+import org.junit.Test;
+import soundclip.core.playback.StreamSampleSource;
+import soundclip.core.tests.TestUtils;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link soundclip.core.playback.StreamSampleSource}
+ */
+public class StreamSampleSourceTests
+{
+    private static final int FRAMES = 4410;
+
+    /** Write a mono 16-bit file at 44.1kHz where every sample is its frame index */
+    private static File writeRamp(File dir) throws Exception
+    {
+        AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
+        byte[] data = new byte[FRAMES * 2];
+        for(int i = 0; i < FRAMES; i++)
+        {
+            data[2 * i] = (byte) i;
+            data[2 * i + 1] = (byte) (i >> 8);
+        }
+
+        return TestUtils.writeAudio(dir, AudioFileFormat.Type.WAVE, format, data);
+    }
+
+    @Test
+    public void readsFromTheStart() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+
+        try(StreamSampleSource source = new StreamSampleSource(wav))
+        {
+            float[] buffer = new float[10];
+
+            assertThat(source.getFrameLength(), is(equalTo((long) FRAMES)));
+            assertThat(source.read(buffer, 0, 10), is(equalTo(10)));
+            assertThat(buffer[9], is(equalTo(9 / 32768.0f)));
+        }
+    }
+
+    @Test
+    public void seeksInTheBackground() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+        List<Runnable> pending = new ArrayList<>();
+
+        try(StreamSampleSource source = new StreamSampleSource(wav, null, pending::add))
+        {
+            float[] buffer = new float[100];
+
+            source.seek(3000);
+            assertThat(pending, hasSize(1));
+
+            // The stream isn't ready yet, keep time with silence
+            buffer[0] = 1.0f;
+            assertThat(source.read(buffer, 0, 100), is(equalTo(100)));
+            assertThat(buffer[0], is(equalTo(0.0f)));
+
+            // The stream picks up where the silence left off
+            pending.forEach(Runnable::run);
+            source.read(buffer, 0, 10);
+            assertThat(buffer[0], is(equalTo(3100 / 32768.0f)));
+        }
+    }
+
+    @Test
+    public void playsTheLastSeekWhenSeveralAreOpening() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+        List<Runnable> pending = new ArrayList<>();
+
+        try(StreamSampleSource source = new StreamSampleSource(wav, null, pending::add))
+        {
+            float[] buffer = new float[10];
+
+            source.seek(1000);
+            source.seek(2000);
+
+            // Opened out of order, the first seek must not replace the second
+            pending.get(1).run();
+            pending.get(0).run();
+
+            source.read(buffer, 0, 10);
+            assertThat(buffer[0], is(equalTo(2000 / 32768.0f)));
+        }
+    }
+
+    @Test
+    public void seekingToTheCurrentPositionKeepsTheStream() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+        List<Runnable> pending = new ArrayList<>();
+
+        try(StreamSampleSource source = new StreamSampleSource(wav, null, pending::add))
+        {
+            float[] buffer = new float[10];
+
+            source.seek(0);
+            source.read(buffer, 0, 10);
+            source.seek(10);
+
+            assertThat(pending, is(empty()));
+        }
+    }
+
+    @Test
+    public void waitsForASeekOffTheRenderThread() throws Exception
+    {
+        File wav = writeRamp(TestUtils.createTemporaryFolder());
+
+        try(StreamSampleSource source = new StreamSampleSource(wav))
+        {
+            float[] buffer = new float[1000];
+
+            source.seek(4000);
+            source.awaitSeek();
+            source.read(buffer, 0, 10);
+            assertThat(buffer[0], is(equalTo(4000 / 32768.0f)));
+
+            // Reading past the end of the file
+            assertThat(source.read(buffer, 0, 10), is(equalTo(10)));
+            assertThat(source.read(buffer, 0, 1000), is(equalTo(FRAMES - 4020)));
+            assertThat(source.read(buffer, 0, 10), is(equalTo(-1)));
+        }
+    }
+}
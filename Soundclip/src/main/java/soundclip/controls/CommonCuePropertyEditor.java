@@ -59,10 +59,16 @@ public class CommonCuePropertyEditor extends GridPane
 
     public void apply()
     {
-        model.setName(nameEditor.getText());
-        model.setNotes(notesEditor.getText());
-        model.setPreWaitDelay(preWaitDelay.getTime());
-        model.setPostWaitDelay(postWaitDelay.getTime());
-        model.setProgressType(ProgressType.fromOrdinal(progressType.getSelectionModel().getSelectedIndex()));
+        apply(model);
+    }
+
+    /** Apply the edited properties to the specified cue instead of the model */
+    public void apply(ICue target)
+    {
+        target.setName(nameEditor.getText());
+        target.setNotes(notesEditor.getText());
+        target.setPreWaitDelay(preWaitDelay.getTime());
+        target.setPostWaitDelay(postWaitDelay.getTime());
+        target.setProgressType(ProgressType.fromOrdinal(progressType.getSelectionModel().getSelectedIndex()));
     }
 }
@@ -15,6 +15,7 @@
 package soundclip.controls;
 
 import com.google.common.io.Files;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
@@ -30,6 +31,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import soundclip.Soundclip;
 import soundclip.Utils;
+import soundclip.core.AudioBackend;
 import soundclip.core.CueList;
 import soundclip.core.CueNumber;
 import soundclip.core.ProgressType;
@@ -37,7 +39,6 @@ import soundclip.core.cues.IAudioCue;
 import soundclip.core.cues.ICue;
 import soundclip.core.cues.IFadeableCue;
 import soundclip.core.cues.IProgressProvider;
-import soundclip.core.cues.impl.FXAudioCue;
 import soundclip.core.cues.impl.FadeCue;
 import soundclip.core.cues.impl.NoteCue;
 import soundclip.dialogs.editors.AudioCueEditorDialog;
@@ -45,7 +46,9 @@ import soundclip.dialogs.editors.FadeCueEditorDialog;
 import soundclip.dialogs.editors.NoteCueEditorDialog;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * A view for {@link soundclip.core.CueList}
@@ -111,8 +114,18 @@ public class CueListView extends Tab
             NotesPane notes = Soundclip.Instance().getController().getNotesPane();
 
             notes.updateNotes(model.previous(newValue), newValue, model.next(newValue));
+
+            // Keep the backends of the cues around the playhead ready to go
+            if(newValue != null) model.getPreparationWindow().moveTo(model.indexOf(newValue));
         });
 
+        model.getPreparationWindow().moveTo(0);
+
+        // Indices shift when cues are added or removed, so follow the selected cue once per change
+        model.onCuesAdded.whenTriggered((cues) -> Platform.runLater(this::syncSelection));
+        model.onCuesRemoved.whenTriggered((cues) -> Platform.runLater(this::syncSelection));
+        model.onRenumbered.whenTriggered((list) -> Platform.runLater(tableView::refresh));
+
         tableView.setOnDragOver((e) -> {
             if(e.getDragboard().hasFiles() && !Soundclip.Instance().isWorkspaceLocked())
             {
@@ -130,26 +143,35 @@ public class CueListView extends Tab
             if(e.getDragboard().hasFiles() && !Soundclip.Instance().isWorkspaceLocked())
             {
                 success = true;
-                String[] extensions = new FXAudioCue(new CueNumber(1)).getSupportedExtensions();
+                AudioBackend backend = Soundclip.Instance().getCurrentProject().getDefaultAudioBackend();
+                String[] extensions = backend.create(new CueNumber(1)).getSupportedExtensions();
+                List<ICue> dropped = new ArrayList<>();
+
+                // Numbered on from the end of the list, or after the selected cue where the list suffixes each duplicate
+                CueNumber next = getNextCueNumber();
+                boolean append = next.equals(new CueNumber(next.getMajorNumber()));
 
                 for(File f : e.getDragboard().getFiles())
                 {
                     String fileExtension = Files.getFileExtension(f.getAbsolutePath());
                     if(Arrays.stream(extensions).anyMatch(fileExtension::equals))
                     {
-                        IAudioCue cue = new FXAudioCue(getNextCueNumber());
+                        IAudioCue cue = backend.create(next);
                         cue.consumeProjectPath(Soundclip.Instance().getCurrentProject().getProjectLocation());
                         cue.setSource(f.getAbsolutePath());
                         cue.setName(f.getName());
 
                         Log.info("Adding dropped cue {}", cue);
-                        model.add(cue);
+                        dropped.add(cue);
+                        if(append) next = new CueNumber(next.getMajorNumber() + 1);
                     }
                     else
                     {
                         Log.warn("Could not import '{}' (No audio backends support this file)", f.getAbsolutePath());
                     }
                 }
+
+                model.addAll(dropped);
             }
 
             e.setDropCompleted(success);
@@ -239,6 +261,16 @@ public class CueListView extends Tab
         return new CueNumber(selectedCue.getNumber(), 5);
     }
 
+    /** Refresh the notes and prepared cues around the selected cue after the list changes */
+    private void syncSelection()
+    {
+        ICue c = getSelectedCue();
+        if(c == null) return;
+
+        Soundclip.Instance().getController().getNotesPane().updateNotes(model.previous(c), c, model.next(c));
+        model.getPreparationWindow().moveTo(model.indexOf(c));
+    }
+
     public void focusList()
     {
         tableView.requestFocus();
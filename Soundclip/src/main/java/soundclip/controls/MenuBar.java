@@ -86,6 +86,13 @@ public class MenuBar extends FXHeaderBar
         p.onPathSet.whenTriggered(this::setSubtitle);
 
         p.onPanic.whenTriggered(e -> indicatePanic(e.getKey(), e.getValue()));
+        p.onSaveFailed.whenTriggered(e -> Platform.runLater(() -> {
+            ExceptionDialog d = new ExceptionDialog(e);
+            d.setTitle("Exception");
+            d.setHeaderText("Unable to save project");
+            d.setContentText("SoundClip was unable to save the project because an exception was thrown.");
+            d.show();
+        }));
 
         p.pauseTransportPropertyProperty().addListener((prop, oldValue, newValue) -> {
             if(pauseIndicator != null)
@@ -204,19 +211,8 @@ public class MenuBar extends FXHeaderBar
     @FXML
     protected void doSaveProject(ActionEvent event)
     {
-        Project p = Soundclip.Instance().getCurrentProject();
-        try
-        {
-            p.save();
-        }
-        catch (IOException e)
-        {
-            Log.error("Unable to save project: {}", e);
-            ExceptionDialog d = new ExceptionDialog(e);
-            d.setTitle("Exception");
-            d.setHeaderText("Unable to save project");
-            d.setContentText("SoundClip was unable to save the project because an exception was thrown.");
-        }
+        // Failures are reported through Project.onSaveFailed
+        Soundclip.Instance().getCurrentProject().saveAsync();
     }
 
     @FXML
@@ -314,7 +310,7 @@ public class MenuBar extends FXHeaderBar
     @FXML
     protected void onRenumberCueList(ActionEvent event)
     {
-        Log.debug("TODO: Renumber cue list-");
+        Soundclip.Instance().getActiveCueList().ifPresent(list -> new RenumberCueListDialog(list).present());
     }
 
     @FXML
@@ -24,7 +24,11 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import soundclip.Utils;
 import soundclip.controls.LongSpinnerValueFactory;
+import soundclip.core.AudioBackend;
 import soundclip.core.Project;
+import soundclip.core.ProjectFormat;
+import soundclip.core.ProjectLayout;
+import soundclip.core.playback.ResamplerQuality;
 
 /**
  * The dialog for editing project properties
@@ -37,6 +41,12 @@ public class ProjectPropertiesDialog extends BorderPane
     @FXML private Label projectPathField;
     @FXML private TextField nameField;
     @FXML private Spinner<Long> panicHardStopSpinner;
+    @FXML private ComboBox<String> defaultAudioBackend;
+    @FXML private Spinner<Integer> audioBufferSizeSpinner;
+    @FXML private ComboBox<String> resamplerQuality;
+    @FXML private Spinner<Integer> preparationWindowSpinner;
+    @FXML private ComboBox<String> layout;
+    @FXML private ComboBox<String> format;
 
     public ProjectPropertiesDialog(Project p)
     {
@@ -54,6 +64,25 @@ public class ProjectPropertiesDialog extends BorderPane
         TextFormatter<Long> formatter = new TextFormatter<>(factory.getConverter(), factory.getValue());
         panicHardStopSpinner.getEditor().setTextFormatter(formatter);
         factory.valueProperty().bindBidirectional(formatter.valueProperty());
+
+        defaultAudioBackend.getSelectionModel().select(model.getDefaultAudioBackend().ordinal());
+
+        SpinnerValueFactory<Integer> bufferFactory = new SpinnerValueFactory.IntegerSpinnerValueFactory(32, 8192, model.getAudioBufferSize(), 32);
+        audioBufferSizeSpinner.setValueFactory(bufferFactory);
+        TextFormatter<Integer> bufferFormatter = new TextFormatter<>(bufferFactory.getConverter(), bufferFactory.getValue());
+        audioBufferSizeSpinner.getEditor().setTextFormatter(bufferFormatter);
+        bufferFactory.valueProperty().bindBidirectional(bufferFormatter.valueProperty());
+
+        resamplerQuality.getSelectionModel().select(model.getResamplerQuality().ordinal());
+
+        SpinnerValueFactory<Integer> windowFactory = new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 1000, model.getPreparationWindowSize(), 1);
+        preparationWindowSpinner.setValueFactory(windowFactory);
+        TextFormatter<Integer> windowFormatter = new TextFormatter<>(windowFactory.getConverter(), windowFactory.getValue());
+        preparationWindowSpinner.getEditor().setTextFormatter(windowFormatter);
+        windowFactory.valueProperty().bindBidirectional(windowFormatter.valueProperty());
+
+        layout.getSelectionModel().select(model.getLayout().ordinal());
+        format.getSelectionModel().select(model.getFormat().ordinal());
     }
 
     public void present()
@@ -61,7 +90,7 @@ public class ProjectPropertiesDialog extends BorderPane
         Stage dialog = new Stage();
         dialog.setResizable(false);
         dialog.setTitle("Project Properties");
-        dialog.setScene(new Scene(this, 800, 150));
+        dialog.setScene(new Scene(this, 800, 330));
         dialog.initModality(Modality.APPLICATION_MODAL);
         dialog.showAndWait();
     }
@@ -77,6 +106,8 @@ public class ProjectPropertiesDialog extends BorderPane
     {
         nameField.getStyleClass().remove("has-error");
         panicHardStopSpinner.getStyleClass().remove("has-error");
+        audioBufferSizeSpinner.getStyleClass().remove("has-error");
+        preparationWindowSpinner.getStyleClass().remove("has-error");
 
         boolean validationErrors = false;
         if(nameField.getText().isEmpty())
@@ -90,10 +121,28 @@ public class ProjectPropertiesDialog extends BorderPane
             panicHardStopSpinner.getStyleClass().add("has-error");
             validationErrors = true;
         }
+
+        if(audioBufferSizeSpinner.getValue() == null || audioBufferSizeSpinner.getValue() <= 0)
+        {
+            audioBufferSizeSpinner.getStyleClass().add("has-error");
+            validationErrors = true;
+        }
+
+        if(preparationWindowSpinner.getValue() == null || preparationWindowSpinner.getValue() < 0)
+        {
+            preparationWindowSpinner.getStyleClass().add("has-error");
+            validationErrors = true;
+        }
         if(validationErrors) return;
 
         model.setName(nameField.getText());
         model.setPanicHardStopBefore(panicHardStopSpinner.getValue());
+        model.setDefaultAudioBackend(AudioBackend.fromOrdinal(defaultAudioBackend.getSelectionModel().getSelectedIndex()));
+        model.setAudioBufferSize(audioBufferSizeSpinner.getValue());
+        model.setResamplerQuality(ResamplerQuality.fromOrdinal(resamplerQuality.getSelectionModel().getSelectedIndex()));
+        model.setPreparationWindowSize(preparationWindowSpinner.getValue());
+        model.setLayout(ProjectLayout.fromOrdinal(layout.getSelectionModel().getSelectedIndex()));
+        model.setFormat(ProjectFormat.fromOrdinal(format.getSelectionModel().getSelectedIndex()));
         ((Stage)getScene().getWindow()).close();
     }
 }
@@ -0,0 +1,107 @@
+// Copyright (C) 2016  Nathan Lowe
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package soundclip.dialogs;
+
+import javafx.event.ActionEvent;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import soundclip.Utils;
+import soundclip.core.CueList;
+
+/**
+ * The dialog for renumbering every cue in a cue list
+ */
+public class RenumberCueListDialog extends BorderPane
+{
+    private CueList model;
+
+    @FXML private Spinner<Integer> startSpinner;
+    @FXML private Spinner<Integer> incrementSpinner;
+    @FXML private CheckBox preserveDecimals;
+
+    public RenumberCueListDialog(CueList list)
+    {
+        model = list;
+        FXMLLoader loader = Utils.load(this, "ui/dialogs/RenumberCueListDialog.fxml");
+
+        bind(startSpinner, new SpinnerValueFactory.IntegerSpinnerValueFactory(1, Integer.MAX_VALUE, 1, 1));
+        bind(incrementSpinner, new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 1000, 1, 1));
+    }
+
+    /** Set the value factory and force the editor to commit a value if focus is lost */
+    private static void bind(Spinner<Integer> spinner, SpinnerValueFactory<Integer> factory)
+    {
+        spinner.setValueFactory(factory);
+        TextFormatter<Integer> formatter = new TextFormatter<>(factory.getConverter(), factory.getValue());
+        spinner.getEditor().setTextFormatter(formatter);
+        factory.valueProperty().bindBidirectional(formatter.valueProperty());
+    }
+
+    public void present()
+    {
+        Stage dialog = new Stage();
+        dialog.setResizable(false);
+        dialog.setTitle("Renumber " + model.getName());
+        dialog.setScene(new Scene(this, 400, 130));
+        dialog.initModality(Modality.APPLICATION_MODAL);
+        dialog.showAndWait();
+    }
+
+    @FXML
+    protected void doCancel(ActionEvent e)
+    {
+        ((Stage)getScene().getWindow()).close();
+    }
+
+    @FXML
+    protected void doRenumber(ActionEvent e)
+    {
+        startSpinner.getStyleClass().remove("has-error");
+        incrementSpinner.getStyleClass().remove("has-error");
+
+        boolean validationErrors = false;
+        if(startSpinner.getValue() == null || startSpinner.getValue() <= 0)
+        {
+            startSpinner.getStyleClass().add("has-error");
+            validationErrors = true;
+        }
+
+        if(incrementSpinner.getValue() == null || incrementSpinner.getValue() <= 0)
+        {
+            incrementSpinner.getStyleClass().add("has-error");
+            validationErrors = true;
+        }
+        if(validationErrors) return;
+
+        try
+        {
+            model.renumber(startSpinner.getValue(), incrementSpinner.getValue(), preserveDecimals.isSelected());
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // The last number wouldn't fit
+            startSpinner.getStyleClass().add("has-error");
+            incrementSpinner.getStyleClass().add("has-error");
+            return;
+        }
+
+        ((Stage)getScene().getWindow()).close();
+    }
+}
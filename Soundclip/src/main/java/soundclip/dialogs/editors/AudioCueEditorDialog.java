@@ -18,6 +18,7 @@ import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
@@ -30,9 +31,9 @@ import soundclip.Soundclip;
 import soundclip.Utils;
 import soundclip.controls.CommonCuePropertyEditor;
 import soundclip.controls.TimePicker;
+import soundclip.core.AudioBackend;
 import soundclip.core.CueNumber;
 import soundclip.core.cues.IAudioCue;
-import soundclip.core.cues.impl.FXAudioCue;
 
 import java.io.File;
 
@@ -44,7 +45,7 @@ public class AudioCueEditorDialog extends BorderPane
 {
     private static final Logger Log = LogManager.getLogger(AudioCueEditorDialog.class);
 
-    private final IAudioCue model;
+    private IAudioCue model;
     private boolean isNewCue = false;
     private boolean isSuccess = false;
 
@@ -52,15 +53,19 @@ public class AudioCueEditorDialog extends BorderPane
 
     @FXML private CommonCuePropertyEditor commonEditor;
 
+    @FXML private ComboBox<String> backend;
     @FXML private TextField audioFilePath;
     @FXML private Slider panSlider, pitchSlider;
     @FXML private TimePicker startOffset, endOffset;
 
     public AudioCueEditorDialog(CueNumber nextNumber)
     {
-        this(new FXAudioCue(nextNumber));
+        this(Soundclip.Instance().getCurrentProject().getDefaultAudioBackend().create(nextNumber));
         model.consumeProjectPath(Soundclip.Instance().getCurrentProject().getProjectLocation());
         isNewCue = true;
+
+        // The backend can only be chosen when the cue is created
+        backend.setDisable(false);
     }
 
     public AudioCueEditorDialog(IAudioCue cue)
@@ -70,10 +75,14 @@ public class AudioCueEditorDialog extends BorderPane
         model = cue;
         commonEditor.setModel(model);
 
+        backend.getSelectionModel().select(AudioBackend.of(model).ordinal());
+        backend.setDisable(true);
         audioFilePath.setText(model.getSource());
 
         panSlider.setValue(model.getPan());
         pitchSlider.setValue(model.getPitch());
+        startOffset.setTime(model.getStartOffset());
+        endOffset.setTime(model.getEndOffset());
     }
 
     public void present()
@@ -129,12 +138,20 @@ public class AudioCueEditorDialog extends BorderPane
 
         isSuccess = true;
 
-        commonEditor.apply();
+        AudioBackend selectedBackend = AudioBackend.fromOrdinal(backend.getSelectionModel().getSelectedIndex());
+        if(isNewCue && selectedBackend != AudioBackend.of(model))
+        {
+            IAudioCue replacement = selectedBackend.create(model.getNumber());
+            replacement.consumeProjectPath(Soundclip.Instance().getCurrentProject().getProjectLocation());
+            model = replacement;
+        }
+
+        commonEditor.apply(model);
         if(!audioFilePath.getText().equals(model.getSource())) model.setSource(audioFilePath.getText());
         model.setPan(panSlider.getValue());
         model.setPitch(pitchSlider.getValue());
-
-        // TODO: Start and end offsets
+        model.setStartOffset(startOffset.getTime());
+        model.setEndOffset(endOffset.getTime());
 
         dialog.close();
     }
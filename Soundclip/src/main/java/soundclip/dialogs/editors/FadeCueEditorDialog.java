@@ -31,6 +31,7 @@ import soundclip.core.CueNumber;
 import soundclip.core.cues.ICue;
 import soundclip.core.cues.IFadeableCue;
 import soundclip.core.cues.impl.FadeCue;
+import soundclip.core.playback.FadeCurve;
 
 /**
  * The editor for {@link soundclip.core.cues.impl.FadeCue}s
@@ -46,6 +47,7 @@ public class FadeCueEditorDialog extends BorderPane
     @FXML private TimePicker fadeDuration;
     @FXML private Slider fadeValue;
     @FXML private ComboBox<IFadeableCue> fadeTarget;
+    @FXML private ComboBox<String> fadeCurve;
 
     public FadeCueEditorDialog(CueNumber number)
     {
@@ -64,6 +66,7 @@ public class FadeCueEditorDialog extends BorderPane
 
         fadeDuration.setTime(model.getDuration());
         fadeValue.setValue(model.getTargetValue());
+        fadeCurve.getSelectionModel().select(model.getCurve().ordinal());
 
         for(ICue cue : Soundclip.Instance().getActiveCueListView().get().getModel())
         {
@@ -105,6 +108,7 @@ public class FadeCueEditorDialog extends BorderPane
         model.setFadeType(FadeCue.FadeType.fromOrdinal(fadeType.getSelectionModel().getSelectedIndex()));
         model.setFadeDuration(fadeDuration.getTime());
         model.setTargetValue(fadeValue.getValue());
+        model.setCurve(FadeCurve.fromOrdinal(fadeCurve.getSelectionModel().getSelectedIndex()));
         model.setTarget(fadeTarget.getSelectionModel().getSelectedItem());
 
         isSuccess = true;
@@ -22,8 +22,6 @@ import soundclip.controls.CueListView;
 import soundclip.core.cues.ICue;
 import soundclip.core.cues.IFadeableCue;
 
-import java.io.IOException;
-
 /**
  *
  */
@@ -90,15 +88,8 @@ public class KeyManager
         else if(keys.getSaveProject().stream().anyMatch(k -> k.match(e)))
         {
             e.consume();
-            try
-            {
-                instance.getCurrentProject().save();
-                instance.getGlobalSettings().save();
-            }
-            catch (IOException ex)
-            {
-                ex.printStackTrace();
-            }
+            instance.getCurrentProject().saveAsync();
+            instance.getGlobalSettings().save();
         }
         else if(keys.getLockWorkspace().stream().anyMatch(k -> k.match(e)))
         {